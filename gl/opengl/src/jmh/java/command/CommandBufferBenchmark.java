@@ -0,0 +1,131 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package command;
+
+import net.daporkchop.fp2.gl.command.BlendFactor;
+import net.daporkchop.fp2.gl.command.CommandBuffer;
+import net.daporkchop.fp2.gl.command.CommandBufferBuilder;
+import net.daporkchop.fp2.gl.command.Compare;
+import net.daporkchop.fp2.gl.command.FramebufferLayer;
+import net.daporkchop.fp2.gl.draw.DrawMode;
+import net.daporkchop.fp2.gl.opengl.headless.HeadlessDrawScene;
+import net.daporkchop.fp2.gl.opengl.headless.HeadlessGL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building and executing {@link CommandBuffer}s against a {@link HeadlessGL} context, which isolates the overhead of the generated command buffer code
+ * (state tracking, backup and restoration) from the cost of the driver itself.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBufferBenchmark {
+    /**
+     * The number of draw passes in the command buffer.
+     */
+    @Param({ "1", "16" })
+    public int passes;
+
+    /**
+     * Whether or not calls should be recorded into the trace while executing.
+     */
+    @Param({ "false", "true" })
+    public boolean record;
+
+    protected HeadlessGL headless;
+    protected HeadlessDrawScene scene;
+    protected CommandBuffer cmdBuffer;
+
+    @Setup
+    public void setup() {
+        this.headless = HeadlessGL.create();
+        this.scene = new HeadlessDrawScene(this.headless.gl(), 64);
+        this.cmdBuffer = this.buildCommandBuffer();
+
+        this.headless.trace().enabled(this.record);
+    }
+
+    @TearDown
+    public void teardown() {
+        this.cmdBuffer.close();
+        this.headless.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTrace() {
+        this.headless.trace().clear();
+    }
+
+    protected CommandBuffer buildCommandBuffer() {
+        CommandBufferBuilder builder = this.headless.gl().createCommandBuffer()
+                .colorClear(0xFF000000)
+                .depthClear(1.0d)
+                .framebufferClear(FramebufferLayer.COLOR, FramebufferLayer.DEPTH);
+
+        for (int pass = 0; pass < this.passes; pass++) {
+            boolean transparent = (pass & 1) != 0;
+            if (transparent) {
+                builder.blendEnable()
+                        .blendFunctionSrc(BlendFactor.SRC_ALPHA, BlendFactor.ONE)
+                        .blendFunctionDst(BlendFactor.ONE_MINUS_SRC_ALPHA, BlendFactor.ZERO)
+                        .depthWrite(false);
+            } else {
+                builder.blendDisable()
+                        .depthWrite(true);
+            }
+
+            builder.depthEnable()
+                    .depthCompare(Compare.LESS_OR_EQUAL)
+                    .drawArrays(this.scene.drawShaderProgram(), DrawMode.TRIANGLES, this.scene.binding(), 0, 3)
+                    .drawList(this.scene.drawShaderProgram(), DrawMode.TRIANGLES, this.scene.list());
+        }
+
+        return builder.build();
+    }
+
+    @Benchmark
+    public void build() {
+        this.buildCommandBuffer().close();
+    }
+
+    @Benchmark
+    public void execute() {
+        this.cmdBuffer.execute();
+    }
+}
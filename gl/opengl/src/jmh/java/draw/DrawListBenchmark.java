@@ -0,0 +1,116 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package draw;
+
+import net.daporkchop.fp2.gl.command.CommandBuffer;
+import net.daporkchop.fp2.gl.draw.DrawMode;
+import net.daporkchop.fp2.gl.draw.list.DrawCommandArrays;
+import net.daporkchop.fp2.gl.opengl.headless.HeadlessDrawScene;
+import net.daporkchop.fp2.gl.opengl.headless.HeadlessGL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of updating and submitting draw lists against a {@link HeadlessGL} context.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawListBenchmark {
+    /**
+     * The number of commands in each draw list.
+     */
+    @Param({ "256", "4096", "65536" })
+    public int commands;
+
+    protected HeadlessGL headless;
+    protected HeadlessDrawScene scene;
+
+    protected CommandBuffer listCmdBuffer;
+    protected CommandBuffer selectedListCmdBuffer;
+
+    protected final BitSet selected = new BitSet();
+
+    @Setup
+    public void setup() {
+        this.headless = HeadlessGL.create();
+        this.headless.trace().enabled(false);
+
+        this.scene = new HeadlessDrawScene(this.headless.gl(), this.commands);
+
+        //select roughly half of the commands, as frustum culling would
+        SplittableRandom random = new SplittableRandom(12345L);
+        for (int i = 0; i < this.commands; i++) {
+            if (random.nextBoolean()) {
+                this.selected.set(i);
+            }
+        }
+
+        this.listCmdBuffer = this.headless.gl().createCommandBuffer()
+                .drawList(this.scene.drawShaderProgram(), DrawMode.TRIANGLES, this.scene.list())
+                .build();
+        this.selectedListCmdBuffer = this.headless.gl().createCommandBuffer()
+                .drawSelectedList(this.scene.drawShaderProgram(), DrawMode.TRIANGLES, this.scene.selectedList(), this.selected::get)
+                .build();
+    }
+
+    @TearDown
+    public void teardown() {
+        this.listCmdBuffer.close();
+        this.selectedListCmdBuffer.close();
+        this.headless.close();
+    }
+
+    @Benchmark
+    public void setAll() {
+        for (int i = 0; i < this.commands; i++) {
+            this.scene.list().set(i, new DrawCommandArrays(i, 3));
+        }
+    }
+
+    @Benchmark
+    public void executeList() {
+        this.listCmdBuffer.execute();
+    }
+
+    @Benchmark
+    public void executeSelectedList() {
+        this.selectedListCmdBuffer.execute();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package command;
+
+import net.daporkchop.fp2.gl.command.BlendFactor;
+import net.daporkchop.fp2.gl.command.CommandBuffer;
+import net.daporkchop.fp2.gl.command.Compare;
+import net.daporkchop.fp2.gl.command.FramebufferLayer;
+import net.daporkchop.fp2.gl.draw.DrawMode;
+import net.daporkchop.fp2.gl.opengl.headless.GLTrace;
+import net.daporkchop.fp2.gl.opengl.headless.HeadlessDrawScene;
+import net.daporkchop.fp2.gl.opengl.headless.HeadlessGL;
+import net.daporkchop.fp2.gl.opengl.headless.RecordingGLAPI;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static net.daporkchop.fp2.gl.opengl.OpenGLConstants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class HeadlessCommandBufferTest {
+    @Test
+    public void testDrawCallsAreRecorded() {
+        try (HeadlessGL headless = HeadlessGL.create()) {
+            HeadlessDrawScene scene = new HeadlessDrawScene(headless.gl(), 4);
+
+            try (CommandBuffer cmdBuffer = headless.gl().createCommandBuffer()
+                    .drawArrays(scene.drawShaderProgram(), DrawMode.TRIANGLES, scene.binding(), 0, 3)
+                    .drawList(scene.drawShaderProgram(), DrawMode.TRIANGLES, scene.list())
+                    .drawSelectedList(scene.drawShaderProgram(), DrawMode.TRIANGLES, scene.selectedList(), i -> (i & 1) == 0)
+                    .build()) {
+                GLTrace trace = headless.trace();
+                trace.clear();
+
+                cmdBuffer.execute();
+
+                int drawArrays = trace.indexOf("glDrawArrays", 0);
+                checkState(drawArrays >= 0, "glDrawArrays wasn't called:\n%s", trace);
+                checkState(trace.intArg(drawArrays, 0) == GL_TRIANGLES && trace.intArg(drawArrays, 1) == 0 && trace.intArg(drawArrays, 2) == 3, trace);
+
+                checkState(trace.count("glMultiDrawArraysIndirect") == 2, "expected two indirect multidraws:\n%s", trace);
+
+                int drawList = trace.indexOf("glMultiDrawArraysIndirect", drawArrays);
+                checkState(trace.intArg(drawList, 2) == 4, "the regular draw list should submit all of its commands");
+            }
+        }
+    }
+
+    @Test
+    public void testStateIsRestored() {
+        try (HeadlessGL headless = HeadlessGL.create()) {
+            HeadlessDrawScene scene = new HeadlessDrawScene(headless.gl(), 1);
+            RecordingGLAPI api = headless.api();
+
+            try (CommandBuffer cmdBuffer = headless.gl().createCommandBuffer()
+                    .blendEnable()
+                    .blendFunctionSrc(BlendFactor.SRC_ALPHA, BlendFactor.ONE)
+                    .blendFunctionDst(BlendFactor.ONE_MINUS_SRC_ALPHA, BlendFactor.ZERO)
+                    .depthEnable()
+                    .depthCompare(Compare.LESS_OR_EQUAL)
+                    .depthWrite(false)
+                    .colorClear(0x12345678)
+                    .framebufferClear(FramebufferLayer.COLOR, FramebufferLayer.DEPTH)
+                    .drawArrays(scene.drawShaderProgram(), DrawMode.TRIANGLES, scene.binding(), 0, 3)
+                    .build()) {
+                cmdBuffer.execute();
+
+                GLTrace trace = headless.trace();
+                checkState(trace.indexOf("glEnable", 0) >= 0, "state wasn't changed:\n%s", trace);
+                checkState(trace.count("glClear") == 1, trace);
+
+                trace.enabled(false);
+                checkState(!api.glGetBoolean(GL_BLEND), "GL_BLEND wasn't restored");
+                checkState(!api.glGetBoolean(GL_DEPTH_TEST), "GL_DEPTH_TEST wasn't restored");
+                checkState(api.glGetInteger(GL_DEPTH_FUNC) == GL_LESS, "GL_DEPTH_FUNC wasn't restored");
+                checkState(api.glGetBoolean(GL_DEPTH_WRITEMASK), "GL_DEPTH_WRITEMASK wasn't restored");
+                checkState(api.glGetInteger(GL_BLEND_SRC_RGB) == GL_ONE, "GL_BLEND_SRC_RGB wasn't restored");
+                checkState(api.glGetInteger(GL_BLEND_DST_RGB) == GL_ZERO, "GL_BLEND_DST_RGB wasn't restored");
+                checkState(api.glGetInteger(GL_CURRENT_PROGRAM) == 0, "GL_CURRENT_PROGRAM wasn't restored");
+                checkState(api.glGetInteger(GL_VERTEX_ARRAY_BINDING) == 0, "GL_VERTEX_ARRAY_BINDING wasn't restored");
+            }
+        }
+    }
+
+    @Test
+    public void testBufferContents() {
+        RecordingGLAPI api = new RecordingGLAPI();
+        try {
+            int a = api.glGenBuffer();
+            int b = api.glGenBuffer();
+
+            ByteBuffer data = ByteBuffer.allocateDirect(16);
+            for (int i = 0; i < 16; i++) {
+                data.put(i, (byte) i);
+            }
+
+            api.glBindBuffer(GL_COPY_READ_BUFFER, a);
+            api.glBufferData(GL_COPY_READ_BUFFER, data, GL_STATIC_DRAW);
+            api.glBindBuffer(GL_COPY_WRITE_BUFFER, b);
+            api.glBufferData(GL_COPY_WRITE_BUFFER, 16L, 0L, GL_STATIC_DRAW);
+            api.glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 4L, 0L, 8L);
+
+            ByteBuffer result = ByteBuffer.allocate(8);
+            api.glGetBufferSubData(GL_COPY_WRITE_BUFFER, 0L, result);
+            for (int i = 0; i < 8; i++) {
+                checkState(result.get(i) == i + 4, "byte %d: %d", i, result.get(i));
+            }
+
+            checkState(api.trace().count("glBindBuffer") == 2);
+            checkState(api.trace().object(api.trace().indexOf("glBufferData", 0), 2) == data);
+        } finally {
+            api.releaseMemory();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.gl.opengl.headless;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A compact, append-only record of the OpenGL functions invoked on a {@link RecordingGLAPI}.
+ * <p>
+ * Each call is stored as the function name and a sequence of {@code long} arguments. Non-integer arguments are encoded: {@code float}s and {@code double}s are stored as their
+ * raw bits (see {@link #f(float)} and {@link #d(double)}), {@code boolean}s as {@code 0} or {@code 1}, and object arguments (such as strings) as an index into a side table
+ * (see {@link #object(int, int)}).
+ * <p>
+ * Function names are always string literals, so recording a call with up to four arguments doesn't allocate once the internal arrays have grown large enough.
+ *
+ * @author DaPorkchop_
+ */
+public final class GLTrace {
+    public static long f(float v) {
+        return Float.floatToRawIntBits(v) & 0xFFFFFFFFL;
+    }
+
+    public static long d(double v) {
+        return Double.doubleToRawLongBits(v);
+    }
+
+    public static long b(boolean v) {
+        return v ? 1L : 0L;
+    }
+
+    private String[] functions = new String[256];
+    private int[] argOffsets = new int[257];
+    private long[] args = new long[1024];
+    private final List<Object> objects = new ArrayList<>();
+
+    private int size;
+
+    /**
+     * Whether or not calls are currently being recorded.
+     */
+    @Getter
+    @Setter
+    private boolean enabled = true;
+
+    //
+    // recording
+    //
+
+    private void begin(@NonNull String function, int argCount) {
+        if (this.size == this.functions.length) {
+            this.functions = Arrays.copyOf(this.functions, this.size << 1);
+            this.argOffsets = Arrays.copyOf(this.argOffsets, (this.size << 1) + 1);
+        }
+        int offset = this.argOffsets[this.size];
+        if (offset + argCount > this.args.length) {
+            this.args = Arrays.copyOf(this.args, Math.max(this.args.length << 1, offset + argCount));
+        }
+
+        this.functions[this.size] = function;
+        this.argOffsets[++this.size] = offset + argCount;
+    }
+
+    private int argBase() {
+        return this.argOffsets[this.size - 1];
+    }
+
+    public void record(@NonNull String function) {
+        if (this.enabled) {
+            this.begin(function, 0);
+        }
+    }
+
+    public void record(@NonNull String function, long a0) {
+        if (this.enabled) {
+            this.begin(function, 1);
+            this.args[this.argBase()] = a0;
+        }
+    }
+
+    public void record(@NonNull String function, long a0, long a1) {
+        if (this.enabled) {
+            this.begin(function, 2);
+            int base = this.argBase();
+            this.args[base] = a0;
+            this.args[base + 1] = a1;
+        }
+    }
+
+    public void record(@NonNull String function, long a0, long a1, long a2) {
+        if (this.enabled) {
+            this.begin(function, 3);
+            int base = this.argBase();
+            this.args[base] = a0;
+            this.args[base + 1] = a1;
+            this.args[base + 2] = a2;
+        }
+    }
+
+    public void record(@NonNull String function, long a0, long a1, long a2, long a3) {
+        if (this.enabled) {
+            this.begin(function, 4);
+            int base = this.argBase();
+            this.args[base] = a0;
+            this.args[base + 1] = a1;
+            this.args[base + 2] = a2;
+            this.args[base + 3] = a3;
+        }
+    }
+
+    public void record(@NonNull String function, @NonNull long... args) {
+        if (this.enabled) {
+            this.begin(function, args.length);
+            System.arraycopy(args, 0, this.args, this.argBase(), args.length);
+        }
+    }
+
+    /**
+     * Adds the given object to the side table.
+     *
+     * @param object the object
+     * @return the value to record as the argument
+     */
+    public long obj(Object object) {
+        if (!this.enabled) {
+            return -1L;
+        }
+        this.objects.add(object);
+        return this.objects.size() - 1;
+    }
+
+    /**
+     * Discards all recorded calls.
+     */
+    public void clear() {
+        this.size = 0;
+        this.objects.clear();
+    }
+
+    //
+    // querying
+    //
+
+    /**
+     * @return the number of recorded calls
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param call the index of the call
+     * @return the name of the function invoked by the given call
+     */
+    public String function(int call) {
+        checkIndex(this.size, call);
+        return this.functions[call];
+    }
+
+    /**
+     * @param call the index of the call
+     * @return the number of arguments recorded for the given call
+     */
+    public int argCount(int call) {
+        checkIndex(this.size, call);
+        return this.argOffsets[call + 1] - this.argOffsets[call];
+    }
+
+    /**
+     * @param call the index of the call
+     * @param arg  the index of the argument
+     * @return the raw value of the given argument
+     */
+    public long arg(int call, int arg) {
+        checkIndex(this.argCount(call), arg);
+        return this.args[this.argOffsets[call] + arg];
+    }
+
+    /**
+     * @param call the index of the call
+     * @return all of the raw argument values for the given call
+     */
+    public long[] args(int call) {
+        checkIndex(this.size, call);
+        return Arrays.copyOfRange(this.args, this.argOffsets[call], this.argOffsets[call + 1]);
+    }
+
+    public int intArg(int call, int arg) {
+        return (int) this.arg(call, arg);
+    }
+
+    public float floatArg(int call, int arg) {
+        return Float.intBitsToFloat((int) this.arg(call, arg));
+    }
+
+    public double doubleArg(int call, int arg) {
+        return Double.longBitsToDouble(this.arg(call, arg));
+    }
+
+    public boolean booleanArg(int call, int arg) {
+        return this.arg(call, arg) != 0L;
+    }
+
+    /**
+     * @param call the index of the call
+     * @param arg  the index of the argument
+     * @return the object stored in the side table for the given argument
+     */
+    public Object object(int call, int arg) {
+        return this.objects.get((int) this.arg(call, arg));
+    }
+
+    /**
+     * Finds the first call to the given function, beginning at the given index.
+     *
+     * @param function the function name
+     * @param from     the index of the first call to check
+     * @return the index of the first matching call, or {@code -1} if none could be found
+     */
+    public int indexOf(@NonNull String function, int from) {
+        for (int i = Math.max(from, 0); i < this.size; i++) {
+            if (function.equals(this.functions[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the number of calls to the given function.
+     *
+     * @param function the function name
+     * @return the number of calls to the given function
+     */
+    public int count(@NonNull String function) {
+        int count = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (function.equals(this.functions[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the names of all recorded function calls, in order
+     */
+    public List<String> functions() {
+        return Arrays.asList(Arrays.copyOf(this.functions, this.size));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.size; i++) {
+            builder.append(this.functions[i]).append('(');
+            for (int j = this.argOffsets[i], end = this.argOffsets[i + 1]; j < end; j++) {
+                if (j != this.argOffsets[i]) {
+                    builder.append(", ");
+                }
+                builder.append(this.args[j]);
+            }
+            builder.append(")\n");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (!(obj instanceof GLTrace)) {
+            return false;
+        }
+
+        GLTrace other = (GLTrace) obj;
+        if (this.size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < this.size; i++) {
+            if (!this.functions[i].equals(other.functions[i]) || !Arrays.equals(this.args(i), other.args(i))) {
+                return false;
+            }
+        }
+        return Objects.equals(this.objects, other.objects);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.size;
+        for (int i = 0; i < this.size; i++) {
+            hash = hash * 31 + this.functions[i].hashCode();
+            hash = hash * 31 + Arrays.hashCode(this.args(i));
+        }
+        return hash;
+    }
+}
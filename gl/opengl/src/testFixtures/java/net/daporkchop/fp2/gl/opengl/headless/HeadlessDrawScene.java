@@ -0,0 +1,151 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.gl.opengl.headless;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import net.daporkchop.fp2.common.util.Identifier;
+import net.daporkchop.fp2.gl.GL;
+import net.daporkchop.fp2.gl.attribute.AttributeBuffer;
+import net.daporkchop.fp2.gl.attribute.AttributeFormat;
+import net.daporkchop.fp2.gl.attribute.AttributeUsage;
+import net.daporkchop.fp2.gl.attribute.BufferUsage;
+import net.daporkchop.fp2.gl.attribute.annotation.ArrayTransform;
+import net.daporkchop.fp2.gl.attribute.annotation.Attribute;
+import net.daporkchop.fp2.gl.attribute.annotation.FieldsAsArrayAttribute;
+import net.daporkchop.fp2.gl.attribute.annotation.ScalarConvert;
+import net.daporkchop.fp2.gl.attribute.annotation.ScalarExpand;
+import net.daporkchop.fp2.gl.attribute.annotation.ScalarType;
+import net.daporkchop.fp2.gl.draw.DrawLayout;
+import net.daporkchop.fp2.gl.draw.binding.DrawBinding;
+import net.daporkchop.fp2.gl.draw.list.DrawCommandArrays;
+import net.daporkchop.fp2.gl.draw.list.DrawList;
+import net.daporkchop.fp2.gl.draw.list.selected.JavaSelectedDrawList;
+import net.daporkchop.fp2.gl.draw.shader.DrawShaderProgram;
+import net.daporkchop.fp2.gl.shader.ShaderCompilationException;
+import net.daporkchop.fp2.gl.shader.ShaderLinkageException;
+
+/**
+ * A small but complete set of draw resources (formats, layout, shader program, binding and draw lists) created on a {@link HeadlessGL} context, for use by tests and
+ * benchmarks which exercise command buffers.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public class HeadlessDrawScene {
+    protected final AttributeFormat<UniformAttribs> uniformFormat;
+    protected final AttributeFormat<GlobalAttribs> globalFormat;
+    protected final AttributeFormat<LocalAttribs> localFormat;
+
+    protected final DrawLayout drawLayout;
+    protected final DrawShaderProgram drawShaderProgram;
+
+    protected final AttributeBuffer<UniformAttribs> uniformBuffer;
+    protected final AttributeBuffer<GlobalAttribs> globalBuffer;
+    protected final AttributeBuffer<LocalAttribs> localBuffer;
+
+    protected final DrawBinding binding;
+
+    protected final DrawList<DrawCommandArrays> list;
+    protected final JavaSelectedDrawList<DrawCommandArrays> selectedList;
+
+    /**
+     * @param gl       the context to create the resources in
+     * @param commands the number of draw commands to put in each of the draw lists
+     */
+    @SneakyThrows({ ShaderCompilationException.class, ShaderLinkageException.class })
+    public HeadlessDrawScene(@NonNull GL gl, int commands) {
+        this.uniformFormat = gl.createAttributeFormat(UniformAttribs.class).useFor(AttributeUsage.UNIFORM).build();
+        this.globalFormat = gl.createAttributeFormat(GlobalAttribs.class).useFor(AttributeUsage.DRAW_GLOBAL).build();
+        this.localFormat = gl.createAttributeFormat(LocalAttribs.class).useFor(AttributeUsage.DRAW_LOCAL).build();
+
+        this.drawLayout = gl.createDrawLayout()
+                .withUniform(this.uniformFormat)
+                .withGlobal(this.globalFormat)
+                .withLocal(this.localFormat)
+                .build();
+
+        this.drawShaderProgram = gl.createDrawShaderProgram(this.drawLayout)
+                .addShader(gl.createVertexShader(this.drawLayout)
+                        .include(Identifier.from("headless.vert"))
+                        .build())
+                .addShader(gl.createFragmentShader(this.drawLayout)
+                        .include(Identifier.from("headless.frag"))
+                        .build())
+                .build();
+
+        this.uniformBuffer = this.uniformFormat.createBuffer(BufferUsage.STATIC_DRAW);
+        this.uniformBuffer.setContents(new UniformAttribs(1.0f));
+
+        this.globalBuffer = this.globalFormat.createBuffer(BufferUsage.STATIC_DRAW);
+        this.globalBuffer.setContents(new GlobalAttribs(0xFFFFFFFF));
+
+        this.localBuffer = this.localFormat.createBuffer(BufferUsage.STATIC_DRAW);
+        this.localBuffer.setContents(
+                new LocalAttribs((byte) 16, (byte) 16),
+                new LocalAttribs((byte) 16, (byte) 32),
+                new LocalAttribs((byte) 32, (byte) 32));
+
+        this.binding = this.drawLayout.createBinding()
+                .withUniform(this.uniformBuffer)
+                .withGlobal(this.globalBuffer)
+                .withLocal(this.localBuffer)
+                .build();
+
+        this.list = gl.createDrawListArrays(this.binding).buildRegular();
+        this.list.resize(commands);
+
+        this.selectedList = gl.createDrawListArrays(this.binding).buildJavaSelected();
+        this.selectedList.resize(commands);
+
+        for (int i = 0; i < commands; i++) {
+            this.list.set(i, new DrawCommandArrays(0, 3));
+            this.selectedList.set(i, new DrawCommandArrays(0, 3));
+        }
+    }
+
+    @Data
+    public static class UniformAttribs {
+        @Attribute
+        public final float scale;
+    }
+
+    @Data
+    public static class GlobalAttribs {
+        @Attribute
+        @ScalarType(expand = @ScalarExpand(
+                value = ScalarExpand.Type.INT_ARGB8_TO_BYTE_VECTOR_RGBA,
+                thenConvert = @ScalarConvert(value = ScalarConvert.Type.TO_FLOAT, normalized = true)))
+        public final int color;
+    }
+
+    @Data
+    public static class LocalAttribs {
+        @FieldsAsArrayAttribute(
+                attribute = @Attribute(name = "pos"),
+                names = { "posX", "posY" },
+                scalarType = @ScalarType(convert = @ScalarConvert(value = ScalarConvert.Type.TO_FLOAT, normalized = false)),
+                transform = @ArrayTransform(ArrayTransform.Type.TO_VECTOR))
+        public final byte posX;
+        public final byte posY;
+    }
+}
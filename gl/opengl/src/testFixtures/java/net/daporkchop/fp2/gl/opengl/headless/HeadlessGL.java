@@ -0,0 +1,98 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.gl.opengl.headless;
+
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.common.util.ResourceProvider;
+import net.daporkchop.fp2.gl.GL;
+import net.daporkchop.fp2.gl.opengl.GLVersion;
+import net.daporkchop.fp2.gl.opengl.OpenGL;
+
+/**
+ * A {@link GL} context backed by a {@link RecordingGLAPI}, for use in tests and benchmarks which don't have access to a real OpenGL context.
+ * <p>
+ * Resources are loaded relative to this class, so shaders placed in the same package can be referenced by their file name alone.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public final class HeadlessGL implements AutoCloseable {
+    /**
+     * Creates a new headless {@link GL} context emulating OpenGL 4.5.
+     *
+     * @return the new context
+     */
+    public static HeadlessGL create() {
+        return create(GLVersion.OpenGL45);
+    }
+
+    /**
+     * Creates a new headless {@link GL} context emulating the given OpenGL version.
+     *
+     * @param version the OpenGL version to emulate
+     * @return the new context
+     */
+    public static HeadlessGL create(@NonNull GLVersion version) {
+        return create(version, ResourceProvider.loadingClassResources(HeadlessGL.class));
+    }
+
+    /**
+     * Creates a new headless {@link GL} context emulating the given OpenGL version.
+     *
+     * @param version          the OpenGL version to emulate
+     * @param resourceProvider the {@link ResourceProvider} to load shader sources from
+     * @return the new context
+     */
+    public static HeadlessGL create(@NonNull GLVersion version, @NonNull ResourceProvider resourceProvider) {
+        RecordingGLAPI api = new RecordingGLAPI(version);
+
+        APISupplierRecording.NEXT.set(api);
+        try {
+            return new HeadlessGL((OpenGL) GL.builder().withResourceProvider(resourceProvider).wrapCurrent(), api);
+        } finally {
+            APISupplierRecording.NEXT.remove();
+        }
+    }
+
+    protected final OpenGL gl;
+    protected final RecordingGLAPI api;
+
+    private HeadlessGL(@NonNull OpenGL gl, @NonNull RecordingGLAPI api) {
+        this.gl = gl;
+        this.api = api;
+    }
+
+    /**
+     * @return the {@link GLTrace} which all calls made by this context are recorded into
+     */
+    public GLTrace trace() {
+        return this.api.trace();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.gl.close();
+        } finally {
+            this.api.releaseMemory();
+        }
+    }
+}
@@ -0,0 +1,1025 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.gl.opengl.headless;
+
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.gl.opengl.GLAPI;
+import net.daporkchop.fp2.gl.opengl.GLVersion;
+import net.daporkchop.fp2.gl.opengl.attribute.texture.TextureTarget;
+import net.daporkchop.fp2.gl.opengl.buffer.BufferTarget;
+import net.daporkchop.fp2.gl.opengl.buffer.IndexedBufferTarget;
+import net.daporkchop.lib.unsafe.PUnsafe;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static net.daporkchop.fp2.common.util.TypeSize.*;
+import static net.daporkchop.fp2.gl.opengl.OpenGLConstants.*;
+import static net.daporkchop.fp2.gl.opengl.headless.GLTrace.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Headless implementation of {@link GLAPI} which doesn't require an OpenGL context.
+ * <p>
+ * Every call is recorded into a {@link GLTrace}. Object names are handed out sequentially, buffer objects are backed by off-heap memory (so uploads, downloads, copies and
+ * mappings behave as expected), and enough context state is tracked for {@code glGet*} queries to return whatever was last set. Shaders always compile and link successfully,
+ * and nothing is ever actually drawn.
+ * <p>
+ * Not thread-safe, just like a real OpenGL context.
+ *
+ * @author DaPorkchop_
+ */
+public class RecordingGLAPI implements GLAPI {
+    protected static final Map<Integer, Integer> BUFFER_BINDINGS = Stream.of(BufferTarget.values()).collect(Collectors.toMap(BufferTarget::id, BufferTarget::binding));
+    protected static final Map<Integer, IndexedBufferTarget> INDEXED_BUFFER_TARGETS = Stream.of(IndexedBufferTarget.values()).collect(Collectors.toMap(IndexedBufferTarget::id, t -> t));
+    protected static final Map<Integer, Integer> TEXTURE_BINDINGS = Stream.of(TextureTarget.values()).collect(Collectors.toMap(TextureTarget::target, TextureTarget::binding));
+    protected static final Set<Integer> TEXTURE_BINDING_PNAMES = new HashSet<>(TEXTURE_BINDINGS.values());
+
+    protected static long key(int pname) {
+        return (long) pname << 32L;
+    }
+
+    protected static long key(int pname, int index) {
+        return ((long) pname << 32L) | ((index + 1) & 0xFFFFFFFFL);
+    }
+
+    @Getter
+    protected final GLTrace trace = new GLTrace();
+
+    protected final GLVersion version;
+
+    protected final Map<Long, double[]> state = new HashMap<>();
+    protected final Map<Integer, FakeBuffer> buffers = new HashMap<>();
+    protected final Set<Integer> textures = new HashSet<>();
+    protected final Set<Integer> vertexArrays = new HashSet<>();
+    protected final Set<Integer> shaders = new HashSet<>();
+    protected final Map<Integer, Map<String, Integer>> programResources = new HashMap<>();
+
+    protected int nextBuffer = 1;
+    protected int nextTexture = 1;
+    protected int nextVertexArray = 1;
+    protected int nextShaderOrProgram = 1;
+
+    public RecordingGLAPI() {
+        this(GLVersion.OpenGL45);
+    }
+
+    public RecordingGLAPI(@NonNull GLVersion version) {
+        this.version = version;
+
+        //implementation limits
+        this.set(GL_MAX_UNIFORM_BUFFER_BINDINGS, 72.0d);
+        this.set(GL_MAX_VERTEX_ATTRIBS, 16.0d);
+        this.set(GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS, 80.0d);
+        this.set(GL_MAX_SHADER_STORAGE_BUFFER_BINDINGS, 16.0d);
+        this.set(GL_MAX_DRAW_BUFFERS, 8.0d);
+
+        //context information
+        this.set(GL_NUM_EXTENSIONS, 0.0d); //all required features are core in the emulated version
+        this.set(GL_CONTEXT_FLAGS, 0.0d);
+        this.set(GL_CONTEXT_PROFILE_MASK, GL_CONTEXT_CORE_PROFILE_BIT);
+
+        //non-zero initial state values, as defined by the OpenGL specification
+        this.set(GL_ACTIVE_TEXTURE, GL_TEXTURE0);
+        this.set(GL_COLOR_WRITEMASK, 1.0d, 1.0d, 1.0d, 1.0d);
+        this.set(GL_DEPTH_CLEAR_VALUE, 1.0d);
+        this.set(GL_DEPTH_FUNC, GL_LESS);
+        this.set(GL_DEPTH_WRITEMASK, 1.0d);
+        this.set(GL_STENCIL_FUNC, GL_ALWAYS);
+        this.set(GL_STENCIL_VALUE_MASK, -1.0d);
+        this.set(GL_STENCIL_WRITEMASK, -1.0d);
+        this.set(GL_STENCIL_FAIL, GL_KEEP);
+        this.set(GL_STENCIL_PASS_DEPTH_FAIL, GL_KEEP);
+        this.set(GL_STENCIL_PASS_DEPTH_PASS, GL_KEEP);
+        this.set(GL_BLEND_SRC_RGB, GL_ONE);
+        this.set(GL_BLEND_SRC_ALPHA, GL_ONE);
+        this.set(GL_BLEND_DST_RGB, GL_ZERO);
+        this.set(GL_BLEND_DST_ALPHA, GL_ZERO);
+        this.set(GL_BLEND_EQUATION_RGB, GL_FUNC_ADD);
+        this.set(GL_BLEND_EQUATION_ALPHA, GL_FUNC_ADD);
+    }
+
+    //
+    //
+    // STATE EMULATION
+    //
+    //
+
+    protected void set(int pname, double... values) {
+        this.state.put(key(pname), values);
+    }
+
+    protected void setIndexed(int pname, int index, double... values) {
+        this.state.put(key(pname, index), values);
+    }
+
+    protected double[] get(int pname) {
+        if (TEXTURE_BINDING_PNAMES.contains(pname)) { //texture bindings are per-texture-unit
+            return this.getIndexed(pname, this.activeTextureUnit());
+        }
+        return this.state.getOrDefault(key(pname), new double[1]);
+    }
+
+    protected double[] getIndexed(int pname, int index) {
+        return this.state.getOrDefault(key(pname, index), new double[1]);
+    }
+
+    protected int activeTextureUnit() {
+        return (int) this.state.get(key(GL_ACTIVE_TEXTURE))[0] - GL_TEXTURE0;
+    }
+
+    protected FakeBuffer bound(int target) {
+        Integer binding = BUFFER_BINDINGS.get(target);
+        checkArg(binding != null, "unknown buffer target: %d", target);
+
+        FakeBuffer buffer = this.buffers.get((int) this.get(binding)[0]);
+        checkState(buffer != null, "no buffer bound to target %d", target);
+        return buffer;
+    }
+
+    protected static void copyIn(@NonNull ByteBuffer src, long dst) {
+        if (src.isDirect()) {
+            PUnsafe.copyMemory(PUnsafe.pork_directBufferAddress(src) + src.position(), dst, src.remaining());
+        } else {
+            PUnsafe.copyMemory(src.array(), PUnsafe.ARRAY_BYTE_BASE_OFFSET + src.arrayOffset() + src.position(), null, dst, src.remaining());
+        }
+    }
+
+    protected static void copyOut(long src, @NonNull ByteBuffer dst) {
+        if (dst.isDirect()) {
+            PUnsafe.copyMemory(src, PUnsafe.pork_directBufferAddress(dst) + dst.position(), dst.remaining());
+        } else {
+            PUnsafe.copyMemory(null, src, dst.array(), PUnsafe.ARRAY_BYTE_BASE_OFFSET + dst.arrayOffset() + dst.position(), dst.remaining());
+        }
+    }
+
+    /**
+     * Releases all off-heap memory used by buffer objects which haven't been deleted yet.
+     */
+    public void releaseMemory() {
+        this.buffers.values().forEach(FakeBuffer::free);
+        this.buffers.clear();
+    }
+
+    /**
+     * Gets the off-heap memory backing the given buffer object.
+     *
+     * @param buffer the buffer name
+     * @return the address of the buffer's contents
+     */
+    public long bufferAddress(int buffer) {
+        FakeBuffer fake = this.buffers.get(buffer);
+        checkArg(fake != null, "unknown buffer: %d", buffer);
+        return fake.address;
+    }
+
+    /**
+     * Gets the size of the given buffer object's data store.
+     *
+     * @param buffer the buffer name
+     * @return the size of the buffer's contents (in bytes)
+     */
+    public long bufferSize(int buffer) {
+        FakeBuffer fake = this.buffers.get(buffer);
+        checkArg(fake != null, "unknown buffer: %d", buffer);
+        return fake.size;
+    }
+
+    //
+    //
+    // UTILITIES
+    //
+    //
+
+    @Override
+    public GLVersion version() {
+        return this.version;
+    }
+
+    //
+    //
+    // OpenGL 1.1
+    //
+    //
+
+    @Override
+    public void glEnable(int cap) {
+        this.trace.record("glEnable", cap);
+        this.set(cap, 1.0d);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        this.trace.record("glDisable", cap);
+        this.set(cap, 0.0d);
+    }
+
+    @Override
+    public int glGetError() {
+        return GL_NO_ERROR;
+    }
+
+    @Override
+    public boolean glGetBoolean(int pname) {
+        this.trace.record("glGetBoolean", pname);
+        return this.get(pname)[0] != 0.0d;
+    }
+
+    @Override
+    public void glGetBoolean(int pname, long data) {
+        this.trace.record("glGetBoolean", pname, data);
+        double[] values = this.get(pname);
+        for (int i = 0; i < values.length; i++) {
+            PUnsafe.putByte(data + i, (byte) (values[i] != 0.0d ? 1 : 0));
+        }
+    }
+
+    @Override
+    public int glGetInteger(int pname) {
+        this.trace.record("glGetInteger", pname);
+        return (int) this.get(pname)[0];
+    }
+
+    @Override
+    public void glGetInteger(int pname, long data) {
+        this.trace.record("glGetInteger", pname, data);
+        double[] values = this.get(pname);
+        for (int i = 0; i < values.length; i++) {
+            PUnsafe.putInt(data + (long) i * INT_SIZE, (int) values[i]);
+        }
+    }
+
+    @Override
+    public float glGetFloat(int pname) {
+        this.trace.record("glGetFloat", pname);
+        return (float) this.get(pname)[0];
+    }
+
+    @Override
+    public void glGetFloat(int pname, long data) {
+        this.trace.record("glGetFloat", pname, data);
+        double[] values = this.get(pname);
+        for (int i = 0; i < values.length; i++) {
+            PUnsafe.putFloat(data + (long) i * FLOAT_SIZE, (float) values[i]);
+        }
+    }
+
+    @Override
+    public double glGetDouble(int pname) {
+        this.trace.record("glGetDouble", pname);
+        return this.get(pname)[0];
+    }
+
+    @Override
+    public void glGetDouble(int pname, long data) {
+        this.trace.record("glGetDouble", pname, data);
+        double[] values = this.get(pname);
+        for (int i = 0; i < values.length; i++) {
+            PUnsafe.putDouble(data + (long) i * DOUBLE_SIZE, values[i]);
+        }
+    }
+
+    @Override
+    public String glGetString(int pname) {
+        this.trace.record("glGetString", pname);
+        switch (pname) {
+            case GL_VENDOR:
+                return "fp2";
+            case GL_RENDERER:
+                return "headless";
+            case GL_VERSION:
+                return this.version.major() + "." + this.version.minor() + " headless";
+            case GL_EXTENSIONS:
+                return "";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        this.trace.record("glDrawArrays", mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, long indices) {
+        this.trace.record("glDrawElements", mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, @NonNull ByteBuffer indices) {
+        this.trace.record("glDrawElements", mode, count, type, this.trace.obj(indices));
+    }
+
+    @Override
+    public int glGenTexture() {
+        int texture = this.nextTexture++;
+        this.textures.add(texture);
+        this.trace.record("glGenTexture", texture);
+        return texture;
+    }
+
+    @Override
+    public void glDeleteTexture(int texture) {
+        this.trace.record("glDeleteTexture", texture);
+        this.textures.remove(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        this.trace.record("glBindTexture", target, texture);
+        Integer binding = TEXTURE_BINDINGS.get(target);
+        if (binding != null) {
+            this.setIndexed(binding, this.activeTextureUnit(), texture);
+        }
+    }
+
+    @Override
+    public void glTexParameter(int target, int pname, int param) {
+        this.trace.record("glTexParameter", target, pname, param);
+    }
+
+    @Override
+    public void glTexParameter(int target, int pname, float param) {
+        this.trace.record("glTexParameter", target, pname, f(param));
+    }
+
+    @Override
+    public int glGetTexParameterInteger(int target, int pname) {
+        this.trace.record("glGetTexParameterInteger", target, pname);
+        return pname == GL_TEXTURE_MAX_LEVEL ? 1000 : 0;
+    }
+
+    @Override
+    public void glTexImage1D(int target, int level, int internalformat, int width, int format, int type, long data) {
+        this.trace.record("glTexImage1D", target, level, internalformat, width, format, type, data);
+    }
+
+    @Override
+    public void glTexImage1D(int target, int level, int internalformat, int width, int format, int type, @NonNull ByteBuffer data) {
+        this.trace.record("glTexImage1D", target, level, internalformat, width, format, type, this.trace.obj(data));
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int format, int type, long data) {
+        this.trace.record("glTexImage2D", target, level, internalformat, width, height, format, type, data);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int format, int type, @NonNull ByteBuffer data) {
+        this.trace.record("glTexImage2D", target, level, internalformat, width, height, format, type, this.trace.obj(data));
+    }
+
+    @Override
+    public void glTexSubImage1D(int target, int level, int xoffset, int width, int format, int type, long data) {
+        this.trace.record("glTexSubImage1D", target, level, xoffset, width, format, type, data);
+    }
+
+    @Override
+    public void glTexSubImage1D(int target, int level, int xoffset, int width, int format, int type, @NonNull ByteBuffer data) {
+        this.trace.record("glTexSubImage1D", target, level, xoffset, width, format, type, this.trace.obj(data));
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, long data) {
+        this.trace.record("glTexSubImage2D", target, level, xoffset, yoffset, width, height, format, type, data);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, @NonNull ByteBuffer data) {
+        this.trace.record("glTexSubImage2D", target, level, xoffset, yoffset, width, height, format, type, this.trace.obj(data));
+    }
+
+    @Override
+    public void glClear(int mask) {
+        this.trace.record("glClear", mask);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        this.trace.record("glClearColor", f(red), f(green), f(blue), f(alpha));
+        this.set(GL_COLOR_CLEAR_VALUE, red, green, blue, alpha);
+    }
+
+    @Override
+    public void glColorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+        this.trace.record("glColorMask", b(red), b(green), b(blue), b(alpha));
+        this.set(GL_COLOR_WRITEMASK, b(red), b(green), b(blue), b(alpha));
+    }
+
+    @Override
+    public void glClearDepth(double depth) {
+        this.trace.record("glClearDepth", d(depth));
+        this.set(GL_DEPTH_CLEAR_VALUE, depth);
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        this.trace.record("glDepthFunc", func);
+        this.set(GL_DEPTH_FUNC, func);
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        this.trace.record("glDepthMask", b(flag));
+        this.set(GL_DEPTH_WRITEMASK, b(flag));
+    }
+
+    @Override
+    public void glClearStencil(int s) {
+        this.trace.record("glClearStencil", s);
+        this.set(GL_STENCIL_CLEAR_VALUE, s);
+    }
+
+    @Override
+    public void glStencilFunc(int func, int ref, int mask) {
+        this.trace.record("glStencilFunc", func, ref, mask);
+        this.set(GL_STENCIL_FUNC, func);
+        this.set(GL_STENCIL_REF, ref);
+        this.set(GL_STENCIL_VALUE_MASK, mask);
+    }
+
+    @Override
+    public void glStencilMask(int mask) {
+        this.trace.record("glStencilMask", mask);
+        this.set(GL_STENCIL_WRITEMASK, mask);
+    }
+
+    @Override
+    public void glStencilOp(int sfail, int dpfail, int dppass) {
+        this.trace.record("glStencilOp", sfail, dpfail, dppass);
+        this.set(GL_STENCIL_FAIL, sfail);
+        this.set(GL_STENCIL_PASS_DEPTH_FAIL, dpfail);
+        this.set(GL_STENCIL_PASS_DEPTH_PASS, dppass);
+    }
+
+    //
+    //
+    // OpenGL 1.2
+    //
+    //
+
+    @Override
+    public void glTexImage3D(int target, int level, int internalformat, int width, int height, int depth, int format, int type, long data) {
+        this.trace.record("glTexImage3D", target, level, internalformat, width, height, depth, format, type, data);
+    }
+
+    @Override
+    public void glTexImage3D(int target, int level, int internalformat, int width, int height, int depth, int format, int type, @NonNull ByteBuffer data) {
+        this.trace.record("glTexImage3D", target, level, internalformat, width, height, depth, format, type, this.trace.obj(data));
+    }
+
+    @Override
+    public void glTexSubImage3D(int target, int level, int xoffset, int yoffset, int zoffset, int width, int height, int depth, int format, int type, long data) {
+        this.trace.record("glTexSubImage3D", target, level, xoffset, yoffset, zoffset, width, height, depth, format, type, data);
+    }
+
+    @Override
+    public void glTexSubImage3D(int target, int level, int xoffset, int yoffset, int zoffset, int width, int height, int depth, int format, int type, @NonNull ByteBuffer data) {
+        this.trace.record("glTexSubImage3D", target, level, xoffset, yoffset, zoffset, width, height, depth, format, type, this.trace.obj(data));
+    }
+
+    //
+    //
+    // OpenGL 1.3
+    //
+    //
+
+    @Override
+    public void glActiveTexture(int texture) {
+        this.trace.record("glActiveTexture", texture);
+        this.set(GL_ACTIVE_TEXTURE, texture);
+    }
+
+    //
+    //
+    // OpenGL 1.4
+    //
+    //
+
+    @Override
+    public void glMultiDrawArrays(int mode, long first, long count, int drawcount) {
+        this.trace.record("glMultiDrawArrays", mode, first, count, drawcount);
+    }
+
+    @Override
+    public void glBlendColor(float red, float green, float blue, float alpha) {
+        this.trace.record("glBlendColor", f(red), f(green), f(blue), f(alpha));
+        this.set(GL_BLEND_COLOR, red, green, blue, alpha);
+    }
+
+    @Override
+    public void glBlendFuncSeparate(int sfactorRGB, int dfactorRGB, int sfactorAlpha, int dfactorAlpha) {
+        this.trace.record("glBlendFuncSeparate", sfactorRGB, dfactorRGB, sfactorAlpha, dfactorAlpha);
+        this.set(GL_BLEND_SRC_RGB, sfactorRGB);
+        this.set(GL_BLEND_DST_RGB, dfactorRGB);
+        this.set(GL_BLEND_SRC_ALPHA, sfactorAlpha);
+        this.set(GL_BLEND_DST_ALPHA, dfactorAlpha);
+    }
+
+    //
+    //
+    // OpenGL 1.5
+    //
+    //
+
+    @Override
+    public int glGenBuffer() {
+        int buffer = this.nextBuffer++;
+        this.buffers.put(buffer, new FakeBuffer());
+        this.trace.record("glGenBuffer", buffer);
+        return buffer;
+    }
+
+    @Override
+    public void glDeleteBuffer(int buffer) {
+        this.trace.record("glDeleteBuffer", buffer);
+        FakeBuffer fake = this.buffers.remove(buffer);
+        if (fake != null) {
+            fake.free();
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        this.trace.record("glBindBuffer", target, buffer);
+        Integer binding = BUFFER_BINDINGS.get(target);
+        checkArg(binding != null, "unknown buffer target: %d", target);
+        this.set(binding, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, long data_size, long data, int usage) {
+        this.trace.record("glBufferData", target, data_size, data, usage);
+        FakeBuffer buffer = this.bound(target);
+        buffer.realloc(data_size);
+        if (data != 0L) {
+            PUnsafe.copyMemory(data, buffer.address, data_size);
+        }
+    }
+
+    @Override
+    public void glBufferData(int target, @NonNull ByteBuffer data, int usage) {
+        this.trace.record("glBufferData", target, data.remaining(), this.trace.obj(data), usage);
+        FakeBuffer buffer = this.bound(target);
+        buffer.realloc(data.remaining());
+        copyIn(data, buffer.address);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, long data_size, long data) {
+        this.trace.record("glBufferSubData", target, offset, data_size, data);
+        FakeBuffer buffer = this.bound(target);
+        checkRangeLen(buffer.size, offset, data_size);
+        PUnsafe.copyMemory(data, buffer.address + offset, data_size);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, @NonNull ByteBuffer data) {
+        this.trace.record("glBufferSubData", target, offset, data.remaining(), this.trace.obj(data));
+        FakeBuffer buffer = this.bound(target);
+        checkRangeLen(buffer.size, offset, data.remaining());
+        copyIn(data, buffer.address + offset);
+    }
+
+    @Override
+    public void glGetBufferSubData(int target, long offset, long data_size, long data) {
+        this.trace.record("glGetBufferSubData", target, offset, data_size, data);
+        FakeBuffer buffer = this.bound(target);
+        checkRangeLen(buffer.size, offset, data_size);
+        PUnsafe.copyMemory(buffer.address + offset, data, data_size);
+    }
+
+    @Override
+    public void glGetBufferSubData(int target, long offset, @NonNull ByteBuffer data) {
+        this.trace.record("glGetBufferSubData", target, offset, data.remaining(), this.trace.obj(data));
+        FakeBuffer buffer = this.bound(target);
+        checkRangeLen(buffer.size, offset, data.remaining());
+        copyOut(buffer.address + offset, data);
+    }
+
+    @Override
+    public long glMapBuffer(int target, int usage) {
+        this.trace.record("glMapBuffer", target, usage);
+        FakeBuffer buffer = this.bound(target);
+        checkState(!buffer.mapped, "buffer is already mapped");
+        buffer.mapped = true;
+        return buffer.address;
+    }
+
+    @Override
+    public void glUnmapBuffer(int target) {
+        this.trace.record("glUnmapBuffer", target);
+        FakeBuffer buffer = this.bound(target);
+        checkState(buffer.mapped, "buffer isn't mapped");
+        buffer.mapped = false;
+    }
+
+    //
+    //
+    // OpenGL 2.0
+    //
+    //
+
+    @Override
+    public int glCreateShader(int type) {
+        int shader = this.nextShaderOrProgram++;
+        this.shaders.add(shader);
+        this.trace.record("glCreateShader", type, shader);
+        return shader;
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        this.trace.record("glDeleteShader", shader);
+        this.shaders.remove(shader);
+    }
+
+    @Override
+    public void glShaderSource(int shader, @NonNull CharSequence... source) {
+        this.trace.record("glShaderSource", shader, this.trace.obj(String.join("", source)));
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        this.trace.record("glCompileShader", shader);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        this.trace.record("glGetShaderi", shader, pname);
+        return pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        this.trace.record("glGetShaderInfoLog", shader);
+        return "";
+    }
+
+    @Override
+    public int glCreateProgram() {
+        int program = this.nextShaderOrProgram++;
+        this.programResources.put(program, new HashMap<>());
+        this.trace.record("glCreateProgram", program);
+        return program;
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        this.trace.record("glDeleteProgram", program);
+        this.programResources.remove(program);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        this.trace.record("glAttachShader", program, shader);
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        this.trace.record("glDetachShader", program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        this.trace.record("glLinkProgram", program);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        this.trace.record("glGetProgrami", program, pname);
+        return pname == GL_LINK_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        this.trace.record("glGetProgramInfoLog", program);
+        return "";
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        this.trace.record("glUseProgram", program);
+        this.set(GL_CURRENT_PROGRAM, program);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        this.trace.record("glEnableVertexAttribArray", index);
+    }
+
+    @Override
+    public void glDisableVertexArray(int index) {
+        this.trace.record("glDisableVertexArray", index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        this.trace.record("glVertexAttribPointer", index, size, type, b(normalized), stride, pointer);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, @NonNull CharSequence name) {
+        this.trace.record("glBindAttribLocation", program, index, this.trace.obj(name.toString()));
+    }
+
+    /**
+     * Gets the fake location/index of a named resource in a program, assigning a new one if necessary.
+     */
+    protected int programResource(int program, @NonNull String name) {
+        Map<String, Integer> resources = this.programResources.get(program);
+        checkArg(resources != null, "unknown program: %d", program);
+        return resources.computeIfAbsent(name, n -> resources.size());
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, @NonNull CharSequence name) {
+        this.trace.record("glGetUniformLocation", program, this.trace.obj(name.toString()));
+        return this.programResource(program, "uniform " + name);
+    }
+
+    @Override
+    public void glUniform(int location, int v0) {
+        this.trace.record("glUniform1i", location, v0);
+    }
+
+    @Override
+    public void glUniform(int location, int v0, int v1) {
+        this.trace.record("glUniform2i", location, v0, v1);
+    }
+
+    @Override
+    public void glUniform(int location, int v0, int v1, int v2) {
+        this.trace.record("glUniform3i", location, v0, v1, v2);
+    }
+
+    @Override
+    public void glUniform(int location, int v0, int v1, int v2, int v3) {
+        this.trace.record("glUniform4i", location, v0, v1, v2, v3);
+    }
+
+    @Override
+    public void glUniform(int location, float v0) {
+        this.trace.record("glUniform1f", location, f(v0));
+    }
+
+    @Override
+    public void glUniform(int location, float v0, float v1) {
+        this.trace.record("glUniform2f", location, f(v0), f(v1));
+    }
+
+    @Override
+    public void glUniform(int location, float v0, float v1, float v2) {
+        this.trace.record("glUniform3f", location, f(v0), f(v1), f(v2));
+    }
+
+    @Override
+    public void glUniform(int location, float v0, float v1, float v2, float v3) {
+        this.trace.record("glUniform4f", location, f(v0), f(v1), f(v2), f(v3));
+    }
+
+    @Override
+    public void glBlendEquationSeparate(int modeRGB, int modeAlpha) {
+        this.trace.record("glBlendEquationSeparate", modeRGB, modeAlpha);
+        this.set(GL_BLEND_EQUATION_RGB, modeRGB);
+        this.set(GL_BLEND_EQUATION_ALPHA, modeAlpha);
+    }
+
+    //
+    //
+    // OpenGL 3.0
+    //
+    //
+
+    @Override
+    public int glGetInteger(int pname, int idx) {
+        this.trace.record("glGetInteger", pname, idx);
+        return (int) this.getIndexed(pname, idx)[0];
+    }
+
+    @Override
+    public String glGetString(int pname, int idx) {
+        this.trace.record("glGetString", pname, idx);
+        return null;
+    }
+
+    @Override
+    public int glGenVertexArray() {
+        int array = this.nextVertexArray++;
+        this.vertexArrays.add(array);
+        this.trace.record("glGenVertexArray", array);
+        return array;
+    }
+
+    @Override
+    public void glDeleteVertexArray(int array) {
+        this.trace.record("glDeleteVertexArray", array);
+        this.vertexArrays.remove(array);
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        this.trace.record("glBindVertexArray", array);
+        this.set(GL_VERTEX_ARRAY_BINDING, array);
+    }
+
+    @Override
+    public void glVertexAttribIPointer(int index, int size, int type, int stride, long pointer) {
+        this.trace.record("glVertexAttribIPointer", index, size, type, stride, pointer);
+    }
+
+    @Override
+    public void glBindFragDataLocation(int program, int colorNumber, @NonNull CharSequence name) {
+        this.trace.record("glBindFragDataLocation", program, colorNumber, this.trace.obj(name.toString()));
+    }
+
+    @Override
+    public void glBindBufferBase(int target, int index, int buffer) {
+        this.trace.record("glBindBufferBase", target, index, buffer);
+        this.bindBufferIndexed(target, index, buffer, 0L, 0L);
+    }
+
+    @Override
+    public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+        this.trace.record("glBindBufferRange", target, index, buffer, offset, size);
+        this.bindBufferIndexed(target, index, buffer, offset, size);
+    }
+
+    protected void bindBufferIndexed(int target, int index, int buffer, long offset, long size) {
+        IndexedBufferTarget indexedTarget = INDEXED_BUFFER_TARGETS.get(target);
+        checkArg(indexedTarget != null, "unknown indexed buffer target: %d", target);
+
+        //binding to an indexed target also binds to the generic binding point
+        this.set(indexedTarget.binding(), buffer);
+        this.setIndexed(indexedTarget.binding(), index, buffer);
+        this.setIndexed(indexedTarget.bindingStart(), index, offset);
+        this.setIndexed(indexedTarget.bindingSize(), index, size);
+    }
+
+    @Override
+    public void glBeginTransformFeedback(int primitiveMode) {
+        this.trace.record("glBeginTransformFeedback", primitiveMode);
+    }
+
+    @Override
+    public void glEndTransformFeedback() {
+        this.trace.record("glEndTransformFeedback");
+    }
+
+    @Override
+    public void glTransformFeedbackVaryings(int program, @NonNull CharSequence[] varyings, int bufferMode) {
+        this.trace.record("glTransformFeedbackVaryings", program, this.trace.obj(String.join(",", varyings)), bufferMode);
+    }
+
+    //
+    //
+    // OpenGL 3.1
+    //
+    //
+
+    @Override
+    public void glCopyBufferSubData(int readTarget, int writeTarget, long readOffset, long writeOffset, long size) {
+        this.trace.record("glCopyBufferSubData", readTarget, writeTarget, readOffset, writeOffset, size);
+        FakeBuffer src = this.bound(readTarget);
+        FakeBuffer dst = this.bound(writeTarget);
+        checkRangeLen(src.size, readOffset, size);
+        checkRangeLen(dst.size, writeOffset, size);
+        PUnsafe.copyMemory(src.address + readOffset, dst.address + writeOffset, size);
+    }
+
+    @Override
+    public void glTexBuffer(int target, int internalFormat, int buffer) {
+        this.trace.record("glTexBuffer", target, internalFormat, buffer);
+    }
+
+    @Override
+    public int glGetUniformBlockIndex(int program, @NonNull CharSequence uniformBlockName) {
+        this.trace.record("glGetUniformBlockIndex", program, this.trace.obj(uniformBlockName.toString()));
+        return this.programResource(program, "uniform block " + uniformBlockName);
+    }
+
+    @Override
+    public void glUniformBlockBinding(int program, int uniformBlockIndex, int uniformBlockBinding) {
+        this.trace.record("glUniformBlockBinding", program, uniformBlockIndex, uniformBlockBinding);
+    }
+
+    //
+    //
+    // OpenGL 3.2
+    //
+    //
+
+    @Override
+    public void glDrawElementsBaseVertex(int mode, int count, int type, long indices, int basevertex) {
+        this.trace.record("glDrawElementsBaseVertex", mode, count, type, indices, basevertex);
+    }
+
+    @Override
+    public void glMultiDrawElementsBaseVertex(int mode, long count, int type, long indices, int drawcount, long basevertex) {
+        this.trace.record("glMultiDrawElementsBaseVertex", mode, count, type, indices, drawcount, basevertex);
+    }
+
+    //
+    //
+    // OpenGL 3.3
+    //
+    //
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        this.trace.record("glVertexAttribDivisor", index, divisor);
+    }
+
+    //
+    //
+    // OpenGL 4.2
+    //
+    //
+
+    @Override
+    public void glMemoryBarrier(int barriers) {
+        this.trace.record("glMemoryBarrier", barriers);
+    }
+
+    //
+    //
+    // OpenGL 4.3
+    //
+    //
+
+    @Override
+    public void glMultiDrawArraysIndirect(int mode, long indirect, int primcount, int stride) {
+        this.trace.record("glMultiDrawArraysIndirect", mode, indirect, primcount, stride);
+    }
+
+    @Override
+    public void glMultiDrawElementsIndirect(int mode, int type, long indirect, int primcount, int stride) {
+        this.trace.record("glMultiDrawElementsIndirect", mode, type, indirect, primcount, stride);
+    }
+
+    @Override
+    public int glGetProgramResourceIndex(int program, int programInterface, @NonNull CharSequence name) {
+        this.trace.record("glGetProgramResourceIndex", program, programInterface, this.trace.obj(name.toString()));
+        return this.programResource(program, programInterface + " " + name);
+    }
+
+    @Override
+    public void glShaderStorageBlockBinding(int program, int storageBlockIndex, int storageBlockBinding) {
+        this.trace.record("glShaderStorageBlockBinding", program, storageBlockIndex, storageBlockBinding);
+    }
+
+    /**
+     * A buffer object whose data store is backed by off-heap memory.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class FakeBuffer {
+        protected long address;
+        protected long size;
+        protected boolean mapped;
+
+        protected void realloc(long size) {
+            checkState(!this.mapped, "buffer is mapped");
+            notNegative(size, "size");
+
+            this.free();
+            if (size != 0L) {
+                this.address = PUnsafe.allocateMemory(size);
+                PUnsafe.setMemory(this.address, size, (byte) 0);
+            }
+            this.size = size;
+        }
+
+        protected void free() {
+            if (this.address != 0L) {
+                PUnsafe.freeMemory(this.address);
+                this.address = 0L;
+            }
+            this.size = 0L;
+        }
+    }
+}
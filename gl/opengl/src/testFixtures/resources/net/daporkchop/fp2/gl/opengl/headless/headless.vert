@@ -0,0 +1,6 @@
+out vec4 v_color;
+
+void main() {
+    gl_Position = vec4((dl_pos / 64.0 - 1.0) * u_scale, 0., 1.);
+    v_color = dg_color;
+}
@@ -0,0 +1,195 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package cwg;
+
+import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.CubicBiome;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
+import lombok.NonNull;
+import net.daporkchop.fp2.compat.cwg.CWGColumnCache;
+import net.daporkchop.fp2.compat.cwg.noise.CWGNoiseProvider;
+import net.minecraft.init.Bootstrap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * Compares generating the 2D column inputs for a spiral of tiles (the order in which tiles are generated around a player) directly against assembling them from a
+ * {@link CWGColumnCache}.
+ * <p>
+ * Each invocation generates the inputs for the next tile in the spiral. Once the spiral reaches its maximum radius, it starts over from the origin with an empty cache.
+ * <p>
+ * Biomes, heights and variations are simple position-based hashes (the real biome generator needs a world), only the depth noise is actually generated.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CWGColumnCacheBenchmark {
+    /**
+     * The radius (in tiles) of the spiral.
+     */
+    protected static final int RADIUS = 32;
+
+    static {
+        System.setProperty("fp2.test", "true");
+
+        Bootstrap.register();
+        CubicBiome.init();
+    }
+
+    /**
+     * The detail level of the generated tiles. Level 0 tiles are sampled at {@link net.daporkchop.fp2.util.Constants#GTH_SHIFT} with interpolation padding, exactly
+     * like {@code CWGContext} does.
+     */
+    @Param({ "0", "2", "4" })
+    public int level;
+
+    protected CWGNoiseProvider.Configured configured;
+    protected CWGColumnCache.Generator generator;
+    protected CWGColumnCache cache;
+
+    protected int sampleLevel;
+    protected int size;
+
+    protected int[] biomes;
+    protected double[] heights;
+    protected double[] variations;
+    protected double[] depth;
+
+    protected int tile;
+    protected int x;
+    protected int z;
+    protected int dx;
+    protected int dz;
+    protected int legLength;
+    protected int legProgress;
+    protected int legs;
+
+    @Setup
+    public void setup() {
+        this.configured = CWGNoiseProvider.JAVA_INSTANCE.forSettings(new CustomGeneratorSettings(), 102978420983752L);
+        this.generator = (level, baseX, baseZ, dst) -> this.generate(level, baseX, baseZ, CWGColumnCache.BLOCK_SIZE, dst.biomes, dst.heights, dst.variations, dst.depth);
+
+        this.sampleLevel = Math.max(this.level, GTH_SHIFT);
+        this.size = this.level < GTH_SHIFT ? ((T_VOXELS + 1) >> GTH_SHIFT) + 3 : T_VOXELS + 1;
+
+        this.biomes = new int[this.size * this.size];
+        this.heights = new double[this.size * this.size];
+        this.variations = new double[this.size * this.size];
+        this.depth = new double[this.size * this.size];
+
+        this.resetSpiral();
+    }
+
+    protected void generate(int level, int baseX, int baseZ, int size, @NonNull int[] biomes, @NonNull double[] heights, @NonNull double[] variations, @NonNull double[] depth) {
+        for (int i = 0, dx = 0; dx < size; dx++) {
+            for (int dz = 0; dz < size; dz++, i++) {
+                int x = baseX + (dx << level);
+                int z = baseZ + (dz << level);
+                int hash = (x * 31 + z) * 31 + level;
+                biomes[i] = hash & 0xFF;
+                heights[i] = hash * 0.25d;
+                variations[i] = hash * 0.5d;
+            }
+        }
+        this.configured.generateDepth2d(depth, baseX, baseZ, 1 << level, 1 << level, size, size);
+    }
+
+    protected void resetSpiral() {
+        this.cache = new CWGColumnCache();
+        this.tile = 0;
+        this.x = this.z = 0;
+        this.dx = 1;
+        this.dz = 0;
+        this.legLength = 1;
+        this.legProgress = this.legs = 0;
+    }
+
+    /**
+     * @return the base X coordinate of the current tile, in blocks
+     */
+    protected int baseX() {
+        return (this.x * T_VOXELS << this.level) & ~((1 << this.sampleLevel) - 1);
+    }
+
+    /**
+     * @return the base Z coordinate of the current tile, in blocks
+     */
+    protected int baseZ() {
+        return (this.z * T_VOXELS << this.level) & ~((1 << this.sampleLevel) - 1);
+    }
+
+    protected void advance() {
+        if (++this.tile == (RADIUS * 2 + 1) * (RADIUS * 2 + 1)) {
+            this.resetSpiral();
+            return;
+        }
+
+        this.x += this.dx;
+        this.z += this.dz;
+        if (++this.legProgress == this.legLength) { //turn left
+            this.legProgress = 0;
+            int tmp = this.dx;
+            this.dx = -this.dz;
+            this.dz = tmp;
+            if ((++this.legs & 1) == 0) {
+                this.legLength++;
+            }
+        }
+    }
+
+    /**
+     * Generates every sample of the next tile directly.
+     */
+    @Benchmark
+    public void uncached(Blackhole bh) {
+        this.generate(this.sampleLevel, this.baseX(), this.baseZ(), this.size, this.biomes, this.heights, this.variations, this.depth);
+        bh.consume(this.depth);
+        this.advance();
+    }
+
+    /**
+     * Assembles the samples of the next tile from the cache, generating only the blocks which are missing.
+     */
+    @Benchmark
+    public void cached(Blackhole bh) {
+        this.cache.assemble(this.sampleLevel, this.baseX(), this.baseZ(), this.size, this.biomes, this.heights, this.variations, this.depth, this.generator);
+        bh.consume(this.depth);
+        this.advance();
+    }
+}
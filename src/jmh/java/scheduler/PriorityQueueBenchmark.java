@@ -0,0 +1,152 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package scheduler;
+
+import net.daporkchop.fp2.util.datastructure.ConcurrentUnboundedPriorityBlockingQueue;
+import net.daporkchop.fp2.util.threading.scheduler.ConcurrentBucketQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the throughput of the skip list-based {@link ConcurrentUnboundedPriorityBlockingQueue} against {@link ConcurrentBucketQueue} with the same distribution of
+ * priorities as the tile task scheduler (stage and detail level), under increasing numbers of concurrent producer and consumer threads.
+ * <p>
+ * Each invocation pushes {@link #ITEMS} elements through the queue, using {@link #threads} producer threads and the same number of consumer threads.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityQueueBenchmark {
+    protected static final int ITEMS = 1 << 16;
+
+    protected static final int PRIORITIES = 3 * 22;
+
+    @Param({ "1", "2", "4", "8", "16", "32", "64" })
+    public int threads;
+
+    protected Item[] items;
+    protected ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        SplittableRandom r = new SplittableRandom(1337L);
+        this.items = new Item[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            //most tasks are low-detail LOAD tasks, which is the common case while a player is exploring
+            this.items[i] = new Item(r.nextInt(4) == 0 ? r.nextInt(PRIORITIES) : r.nextInt(8), i);
+        }
+
+        this.executor = Executors.newFixedThreadPool(this.threads << 1);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        this.executor.shutdown();
+        this.executor.awaitTermination(1L, TimeUnit.MINUTES);
+    }
+
+    protected void run(BlockingQueue<Item> queue) throws InterruptedException {
+        AtomicInteger remaining = new AtomicInteger(ITEMS);
+        CountDownLatch done = new CountDownLatch(this.threads << 1);
+
+        for (int i = 0; i < this.threads; i++) {
+            int from = ITEMS * i / this.threads;
+            int to = ITEMS * (i + 1) / this.threads;
+            this.executor.execute(() -> {
+                for (int j = from; j < to; j++) {
+                    queue.add(this.items[j]);
+                }
+                done.countDown();
+            });
+        }
+
+        for (int i = 0; i < this.threads; i++) {
+            this.executor.execute(() -> {
+                while (remaining.get() > 0) {
+                    if (queue.poll() != null) {
+                        remaining.decrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public void skipList() throws InterruptedException {
+        this.run(new ConcurrentUnboundedPriorityBlockingQueue<>());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public void buckets() throws InterruptedException {
+        this.run(new ConcurrentBucketQueue<>(PRIORITIES, item -> item.priority));
+    }
+
+    /**
+     * A queued element, equivalent to a scheduler task.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class Item implements Comparable<Item> {
+        protected final int priority;
+        protected final long tieBreak;
+
+        public Item(int priority, long tieBreak) {
+            this.priority = priority;
+            this.tieBreak = tieBreak;
+        }
+
+        @Override
+        public int compareTo(Item o) {
+            int d = Integer.compare(this.priority, o.priority);
+            return d != 0 ? d : Long.compare(this.tieBreak, o.tieBreak);
+        }
+    }
+}
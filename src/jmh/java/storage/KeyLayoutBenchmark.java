@@ -0,0 +1,218 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package storage;
+
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the level-0 tiles in a player-sized neighborhood near the origin from a populated RocksDB instance using the legacy position encoding (layouts v4
+ * and v5) against the current, biased one.
+ * <p>
+ * The block cache is kept small, so that the number of distinct blocks touched by a neighborhood (which is what the key layout affects) dominates the read cost.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyLayoutBenchmark {
+    /**
+     * The radius (in level-0 tiles) of each horizontal axis of the populated area, which is centered on the origin.
+     */
+    protected static final int RADIUS_XZ = 32;
+
+    /**
+     * The radius (in level-0 tiles) of the vertical axis of the populated area, which is centered on the origin.
+     */
+    protected static final int RADIUS_Y = 4;
+
+    /**
+     * The radius (in level-0 tiles) of each horizontal axis of the neighborhood which is read.
+     */
+    protected static final int NEIGHBORHOOD_RADIUS_XZ = 6;
+
+    /**
+     * The radius (in level-0 tiles) of the vertical axis of the neighborhood which is read.
+     */
+    protected static final int NEIGHBORHOOD_RADIUS_Y = 2;
+
+    /**
+     * The radius (in level-0 tiles) around the origin in which the neighborhoods are centered.
+     */
+    protected static final int PLAYER_RADIUS = 16;
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    @Param({ "legacy", "biased" })
+    public String layout;
+
+    protected File root;
+    protected LRUCache blockCache;
+    protected ColumnFamilyOptions cfOptions;
+    protected DBOptions dbOptions;
+    protected RocksDB db;
+    protected List<ColumnFamilyHandle> handles;
+    protected ColumnFamilyHandle cfTileData;
+
+    protected List<List<byte[]>> neighborhoodKeys;
+    protected int nextNeighborhood;
+
+    @Setup
+    public void setup() throws Exception {
+        this.root = Files.createTempDirectory("fp2-keylayout-bench").toFile();
+
+        this.blockCache = new LRUCache(1L << 20L);
+        this.cfOptions = new ColumnFamilyOptions().setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setTableFormatConfig(new BlockBasedTableConfig().setBlockCache(this.blockCache));
+        this.dbOptions = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+
+        List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, this.cfOptions),
+                new ColumnFamilyDescriptor("tile_data".getBytes(StandardCharsets.UTF_8), this.cfOptions));
+        this.handles = new ArrayList<>();
+        this.db = RocksDB.open(this.dbOptions, this.root.getPath(), descriptors, this.handles);
+        this.cfTileData = this.handles.get(1);
+
+        this.populate();
+
+        //precompute the keys in every neighborhood, so that the benchmark only measures the reads
+        this.neighborhoodKeys = new ArrayList<>();
+        for (int px = -PLAYER_RADIUS; px < PLAYER_RADIUS; px++) {
+            for (int pz = -PLAYER_RADIUS; pz < PLAYER_RADIUS; pz++) {
+                List<byte[]> keys = new ArrayList<>();
+                for (int x = px - NEIGHBORHOOD_RADIUS_XZ; x <= px + NEIGHBORHOOD_RADIUS_XZ; x++) {
+                    for (int y = -NEIGHBORHOOD_RADIUS_Y; y <= NEIGHBORHOOD_RADIUS_Y; y++) {
+                        for (int z = pz - NEIGHBORHOOD_RADIUS_XZ; z <= pz + NEIGHBORHOOD_RADIUS_XZ; z++) {
+                            keys.add(this.key(x, y, z));
+                        }
+                    }
+                }
+                this.neighborhoodKeys.add(keys);
+            }
+        }
+
+        //visit the neighborhoods in a random order, so that consecutive reads can't benefit from each other's cached blocks
+        Collections.shuffle(this.neighborhoodKeys, new Random(1337L));
+    }
+
+    protected byte[] key(int x, int y, int z) {
+        switch (this.layout) {
+            case "legacy": //the legacy encoding interleaves the raw coordinates, which is the same as the current encoding without the bias
+                return new VoxelPos(0, x - IFarPos.ENCODED_COORDINATE_BIAS, y - IFarPos.ENCODED_COORDINATE_BIAS, z - IFarPos.ENCODED_COORDINATE_BIAS).toBytes();
+            case "biased":
+                return new VoxelPos(0, x, y, z).toBytes();
+            default:
+                throw new IllegalArgumentException(this.layout);
+        }
+    }
+
+    protected void populate() throws RocksDBException {
+        SplittableRandom random = new SplittableRandom(1337L);
+
+        try (WriteOptions writeOptions = new WriteOptions();
+             WriteBatch batch = new WriteBatch()) {
+            for (int x = -RADIUS_XZ; x < RADIUS_XZ; x++) {
+                for (int y = -RADIUS_Y; y < RADIUS_Y; y++) {
+                    for (int z = -RADIUS_XZ; z < RADIUS_XZ; z++) {
+                        //tile data is somewhat compressible, like real tiles
+                        byte[] data = new byte[random.nextInt(256, 2048)];
+                        for (int i = 0; i < data.length; i++) {
+                            data[i] = (byte) random.nextInt(16);
+                        }
+
+                        batch.put(this.cfTileData, this.key(x, y, z), data);
+                    }
+                }
+            }
+            this.db.write(writeOptions, batch);
+        }
+
+        //flush and compact everything, so that reads have to go through the sst files like they would in a real world
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            this.db.flush(flushOptions, this.handles);
+        }
+        this.db.compactRange(this.cfTileData);
+    }
+
+    @TearDown
+    public void teardown() {
+        this.handles.forEach(ColumnFamilyHandle::close);
+        this.db.close();
+        this.dbOptions.close();
+        this.cfOptions.close();
+        this.blockCache.close();
+        PFiles.rm(this.root);
+    }
+
+    /**
+     * Reads all the tiles in a neighborhood with a single {@code multiGetAsList}.
+     */
+    @Benchmark
+    public void neighborhood(Blackhole bh) throws RocksDBException {
+        List<byte[]> keys = this.neighborhoodKeys.get(this.nextNeighborhood);
+        this.nextNeighborhood = (this.nextNeighborhood + 1) % this.neighborhoodKeys.size();
+
+        bh.consume(this.db.multiGetAsList(Collections.nCopies(keys.size(), this.cfTileData), keys));
+    }
+}
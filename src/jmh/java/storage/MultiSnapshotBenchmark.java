@@ -0,0 +1,208 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package storage;
+
+import com.google.common.collect.ImmutableList;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampColumns;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.mode.voxel.server.scale.VoxelScalerIntersection;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares reading the inputs of a voxel scaling operation from a populated RocksDB instance one tile at a time (the way {@code RocksTileHandle#snapshot()} does)
+ * against reading all of them with a single {@code multiGetAsList} (the way {@code RocksStorage#multiSnapshot(Collection)} does).
+ * <p>
+ * The database uses the same column family layout as {@code RocksStorage}, but is accessed directly, since a real {@code RocksStorage} can't be created without a
+ * running world.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiSnapshotBenchmark {
+    /**
+     * The size (in level-0 tiles) of each horizontal axis of the populated area.
+     */
+    protected static final int SIZE_XZ = 32;
+
+    /**
+     * The size (in level-0 tiles) of the vertical axis of the populated area.
+     */
+    protected static final int SIZE_Y = 8;
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    protected File root;
+    protected ColumnFamilyOptions cfOptions;
+    protected ColumnFamilyOptions timestampCfOptions;
+    protected DBOptions dbOptions;
+    protected RocksDB db;
+    protected List<ColumnFamilyHandle> handles;
+    protected ColumnFamilyHandle cfTileTimestamp;
+    protected ColumnFamilyHandle cfTileData;
+
+    protected List<List<byte[]>> inputKeys;
+    protected int nextInput;
+
+    @Setup
+    public void setup() throws Exception {
+        this.root = Files.createTempDirectory("fp2-multisnapshot-bench").toFile();
+
+        this.cfOptions = new ColumnFamilyOptions().setCompressionType(CompressionType.ZSTD_COMPRESSION);
+        this.timestampCfOptions = new ColumnFamilyOptions().setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setMergeOperatorName(TimestampColumns.MERGE_OPERATOR_NAME);
+        this.dbOptions = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+
+        List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, this.cfOptions),
+                new ColumnFamilyDescriptor("tile_timestamp".getBytes(StandardCharsets.UTF_8), this.timestampCfOptions),
+                new ColumnFamilyDescriptor("tile_data".getBytes(StandardCharsets.UTF_8), this.cfOptions));
+        this.handles = new ArrayList<>();
+        this.db = RocksDB.open(this.dbOptions, this.root.getPath(), descriptors, this.handles);
+        this.cfTileTimestamp = this.handles.get(1);
+        this.cfTileData = this.handles.get(2);
+
+        this.populate();
+
+        //precompute the input positions for every level-1 tile in the populated area, so that the benchmarks only measure the reads
+        VoxelScalerIntersection scaler = new VoxelScalerIntersection();
+        this.inputKeys = new ArrayList<>();
+        for (int x = 1; x < (SIZE_XZ >> 1) - 1; x++) {
+            for (int y = 1; y < (SIZE_Y >> 1) - 1; y++) {
+                for (int z = 1; z < (SIZE_XZ >> 1) - 1; z++) {
+                    this.inputKeys.add(scaler.inputs(new VoxelPos(1, x, y, z)).map(VoxelPos::toBytes).collect(Collectors.toList()));
+                }
+            }
+        }
+    }
+
+    protected void populate() throws RocksDBException {
+        SplittableRandom random = new SplittableRandom(1337L);
+
+        try (WriteOptions writeOptions = new WriteOptions();
+             WriteBatch batch = new WriteBatch()) {
+            for (int x = 0; x < SIZE_XZ; x++) {
+                for (int y = 0; y < SIZE_Y; y++) {
+                    for (int z = 0; z < SIZE_XZ; z++) {
+                        byte[] key = new VoxelPos(0, x, y, z).toBytes();
+
+                        //tile data is somewhat compressible, like real tiles
+                        byte[] data = new byte[random.nextInt(1024, 8192)];
+                        for (int i = 0; i < data.length; i++) {
+                            data[i] = (byte) random.nextInt(16);
+                        }
+
+                        batch.merge(this.cfTileTimestamp, key, TimestampColumns.encode(1L));
+                        batch.put(this.cfTileData, key, data);
+                    }
+                }
+            }
+            this.db.write(writeOptions, batch);
+        }
+
+        //flush everything to disk, so that reads have to go through the sst files like they would in a real world
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            this.db.flush(flushOptions, this.handles);
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        this.handles.forEach(ColumnFamilyHandle::close);
+        this.db.close();
+        this.dbOptions.close();
+        this.timestampCfOptions.close();
+        this.cfOptions.close();
+        PFiles.rm(this.root);
+    }
+
+    protected List<byte[]> nextInputKeys() {
+        List<byte[]> keys = this.inputKeys.get(this.nextInput);
+        this.nextInput = (this.nextInput + 1) % this.inputKeys.size();
+        return keys;
+    }
+
+    /**
+     * One {@code multiGetAsList} per input tile.
+     */
+    @Benchmark
+    public void separate(Blackhole bh) throws RocksDBException {
+        List<ColumnFamilyHandle> handles = ImmutableList.of(this.cfTileTimestamp, this.cfTileData);
+        for (byte[] key : this.nextInputKeys()) {
+            bh.consume(this.db.multiGetAsList(handles, ImmutableList.of(key, key)));
+        }
+    }
+
+    /**
+     * A single {@code multiGetAsList} for all input tiles.
+     */
+    @Benchmark
+    public void batched(Blackhole bh) throws RocksDBException {
+        List<byte[]> inputKeys = this.nextInputKeys();
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>(inputKeys.size() << 1);
+        List<byte[]> keys = new ArrayList<>(inputKeys.size() << 1);
+        for (byte[] key : inputKeys) {
+            handles.add(this.cfTileTimestamp);
+            keys.add(key);
+            handles.add(this.cfTileData);
+            keys.add(key);
+        }
+        bh.consume(this.db.multiGetAsList(handles, keys));
+    }
+}
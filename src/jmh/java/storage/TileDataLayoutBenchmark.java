@@ -0,0 +1,226 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package storage;
+
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageResources;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * Compares the write throughput and resulting on-disk size of storing all tile data in a single column family (layouts prior to v7) against storing each level in
+ * its own column family with tiered compression.
+ * <p>
+ * Both layouts use the column family options from {@link RocksStorageResources}. The written tiles are skewed towards level 0, like in a real world, and are
+ * generated from a small set of templates, so that they have the kind of redundancy between tiles which dictionary compression can take advantage of. The total
+ * size of the sst files after a full compaction is reported through {@link SizeCounters} at the end of every iteration.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TileDataLayoutBenchmark {
+    /**
+     * The radius (in tiles) of the area in which tiles are written, on each axis and at every level.
+     */
+    protected static final int RADIUS = 16;
+
+    /**
+     * The number of tiles written in each batch.
+     */
+    protected static final int BATCH_SIZE = 64;
+
+    /**
+     * The number of templates which tile data is generated from.
+     */
+    protected static final int TEMPLATES = 16;
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    @Param({ "single", "perLevel" })
+    public String layout;
+
+    protected File root;
+    protected RocksStorageResources resources;
+    protected WriteOptions writeOptions;
+    protected RocksDB db;
+    protected List<ColumnFamilyHandle> handles;
+
+    protected byte[][] templates;
+    protected SplittableRandom random;
+
+    @Setup
+    public void setup() throws Exception {
+        this.root = Files.createTempDirectory("fp2-tiledatalayout-bench").toFile();
+        this.resources = new RocksStorageResources(64L << 20L, 16L << 20L, 10);
+        this.writeOptions = new WriteOptions();
+
+        List<byte[]> columnNames = new ArrayList<>();
+        columnNames.add(RocksDB.DEFAULT_COLUMN_FAMILY);
+        switch (this.layout) {
+            case "single":
+                columnNames.add("tile_data".getBytes(StandardCharsets.UTF_8));
+                break;
+            case "perLevel":
+                for (int level = 0; level < MAX_LODS; level++) {
+                    columnNames.add(("tile_data_" + level).getBytes(StandardCharsets.UTF_8));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(this.layout);
+        }
+        this.handles = new ArrayList<>();
+        this.db = this.resources.open(this.root, columnNames, this.handles);
+
+        this.random = new SplittableRandom(1337L);
+        this.templates = new byte[TEMPLATES][];
+        for (int i = 0; i < TEMPLATES; i++) {
+            byte[] template = new byte[this.random.nextInt(1024, 8192)];
+            for (int j = 0; j < template.length; j++) {
+                template[j] = (byte) this.random.nextInt(16);
+            }
+            this.templates[i] = template;
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        this.handles.forEach(ColumnFamilyHandle::close);
+        this.db.close();
+        this.writeOptions.close();
+        this.resources.close();
+        PFiles.rm(this.root);
+    }
+
+    protected int nextLevel() {
+        //most writes are at level 0, and the frequency halves with every level above that
+        int level = Integer.numberOfTrailingZeros(this.random.nextInt() | (1 << 6));
+        return level < 2 ? 0 : level - 1;
+    }
+
+    protected byte[] nextData() {
+        //copy a template and change a few bytes, so that tiles are similar to each other but not identical
+        byte[] data = this.templates[this.random.nextInt(TEMPLATES)].clone();
+        for (int i = 0; i < 32; i++) {
+            data[this.random.nextInt(data.length)] = (byte) this.random.nextInt(16);
+        }
+        return data;
+    }
+
+    /**
+     * Flushes and compacts everything, and then measures the resulting sst files.
+     *
+     * @return the total size of the sst files (in bytes) and the estimated number of tiles stored in them
+     */
+    protected long[] compactAndMeasure() throws RocksDBException {
+        try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            this.db.flush(flushOptions, this.handles);
+        }
+
+        long size = 0L;
+        long tiles = 0L;
+        for (ColumnFamilyHandle handle : this.handles) {
+            this.db.compactRange(handle);
+            size += this.db.getLongProperty(handle, "rocksdb.total-sst-files-size");
+            tiles += this.db.getLongProperty(handle, "rocksdb.estimate-num-keys");
+        }
+        return new long[]{ size, tiles };
+    }
+
+    /**
+     * Writes a batch of tiles at random positions and levels.
+     */
+    @Benchmark
+    public void write(SizeCounters counters) throws RocksDBException {
+        try (WriteBatch batch = new WriteBatch()) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                int level = this.nextLevel();
+                byte[] key = new VoxelPos(level, this.random.nextInt(-RADIUS, RADIUS), this.random.nextInt(-RADIUS, RADIUS), this.random.nextInt(-RADIUS, RADIUS)).toBytes();
+
+                ColumnFamilyHandle handle = this.handles.size() > 2 ? this.handles.get(1 + level) : this.handles.get(1);
+                batch.put(handle, key, this.nextData());
+            }
+            this.db.write(this.writeOptions, batch);
+        }
+    }
+
+    /**
+     * Reports the on-disk size of the tiles written so far alongside the throughput. Since the number of tiles written depends on the throughput, the size per
+     * tile is the one to compare between layouts.
+     *
+     * @author DaPorkchop_
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class SizeCounters {
+        /**
+         * The total size of the sst files after a full compaction, in bytes.
+         */
+        public long sstBytes;
+
+        /**
+         * The average size of each stored tile in the sst files after a full compaction, in bytes.
+         */
+        public long sstBytesPerTile;
+
+        @TearDown(Level.Iteration)
+        public void measure(TileDataLayoutBenchmark benchmark) throws RocksDBException {
+            long[] sizeAndTiles = benchmark.compactAndMeasure();
+            this.sstBytes = sizeAndTiles[0];
+            this.sstBytesPerTile = sizeAndTiles[0] / Math.max(sizeAndTiles[1], 1L);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import net.daporkchop.fp2.net.packet.standard.client.CPacketClientConfig;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketHandshake;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionBegin;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionEnd;
+import net.daporkchop.fp2.net.packet.standard.server.SPacketTileBatch;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketTileData;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTile;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTiles;
@@ -97,6 +98,8 @@ public abstract class MixinNetHandlerPlayClient implements IFarPlayerClient {
             this.handle((SPacketSessionEnd) packet);
         } else if (packet instanceof SPacketTileData) {
             this.handle((SPacketTileData) packet);
+        } else if (packet instanceof SPacketTileBatch) {
+            this.handle((SPacketTileBatch) packet);
         } else if (packet instanceof SPacketUnloadTile) {
             this.handle((SPacketUnloadTile) packet);
         } else if (packet instanceof SPacketUnloadTiles) {
@@ -148,6 +151,18 @@ public abstract class MixinNetHandlerPlayClient implements IFarPlayerClient {
         this.fp2_context.tileCache().receiveTile(uncheckedCast(packet.tile().compressed()));
     }
 
+    @Unique
+    private void handle(@NonNull SPacketTileBatch packet) {
+        checkState(this.fp2_sessionOpen, "no session is currently open!");
+        checkState(this.fp2_context != null, "active session has no render mode!");
+
+        //references must be resolved in the order in which the packets were received, otherwise the payload cache would get out of sync with the server's
+        packet.resolveReferences(this.fp2_context.payloadCache());
+
+        IFarTileCache<IFarPos, ?> tileCache = uncheckedCast(this.fp2_context.tileCache());
+        packet.tiles().forEach(tile -> tileCache.receiveTile(uncheckedCast(tile.compressed())));
+    }
+
     @Unique
     private void handle(@NonNull SPacketUnloadTile packet) {
         checkState(this.fp2_sessionOpen, "no session is currently open!");
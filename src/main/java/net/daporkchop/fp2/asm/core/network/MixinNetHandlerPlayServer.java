@@ -28,6 +28,7 @@ import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.player.IFarPlayerServer;
 import net.daporkchop.fp2.net.packet.debug.client.CPacketDebugDropAllTiles;
 import net.daporkchop.fp2.net.packet.standard.client.CPacketClientConfig;
+import net.daporkchop.fp2.net.packet.standard.client.CPacketRequestTiles;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionBegin;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketSessionEnd;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUpdateConfig;
@@ -91,6 +92,8 @@ public abstract class MixinNetHandlerPlayServer implements IFarPlayerServer {
         this.fp2_world.fp2_IFarWorld_scheduleTask(() -> { //TODO: move all logic to network threads
             if (packet instanceof CPacketClientConfig) {
                 this.handle((CPacketClientConfig) packet);
+            } else if (packet instanceof CPacketRequestTiles) {
+                this.handle((CPacketRequestTiles) packet);
             } else {
                 throw new IllegalArgumentException("don't know how to handle " + className(packet));
             }
@@ -102,6 +105,15 @@ public abstract class MixinNetHandlerPlayServer implements IFarPlayerServer {
         this.updateConfig(this.fp2_serverConfig, packet.config());
     }
 
+    @Unique
+    private void handle(@NonNull CPacketRequestTiles packet) {
+        if (this.fp2_context == null || this.fp2_context.mode() != packet.mode()) { //the request is outdated, silently discard it
+            return;
+        }
+
+        this.fp2_context.tracker().resendTiles(uncheckedCast(packet.positions()));
+    }
+
     @DebugOnly
     @CalledFromNetworkThread
     @Override
@@ -173,6 +173,35 @@ public class Frustum implements IFrustum, ICamera {
         return true;
     }
 
+    @Override
+    public boolean containsBB(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        minX -= this.x;
+        minY -= this.y;
+        minZ -= this.z;
+        maxX -= this.x;
+        maxY -= this.y;
+        maxZ -= this.z;
+
+        double[] frustum = this.frustum;
+
+        for (int i = 0; i < 6; i++) {
+            int off = i * 4;
+
+            if (dot(frustum, off, minX, minY, minZ) <= 0.0d
+                || dot(frustum, off, maxX, minY, minZ) <= 0.0d
+                || dot(frustum, off, minX, maxY, minZ) <= 0.0d
+                || dot(frustum, off, maxX, maxY, minZ) <= 0.0d
+                || dot(frustum, off, minX, minY, maxZ) <= 0.0d
+                || dot(frustum, off, maxX, minY, maxZ) <= 0.0d
+                || dot(frustum, off, minX, maxY, maxZ) <= 0.0d
+                || dot(frustum, off, maxX, maxY, maxZ) <= 0.0d) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     @Override
     public boolean isBoundingBoxInFrustum(AxisAlignedBB bb) {
         return this.intersectsBB(bb);
@@ -67,6 +67,25 @@ public interface IFrustum {
      */
     boolean intersectsBB(double minX, double minY, double minZ, double maxX, double maxY, double maxZ);
 
+    /**
+     * Checks whether or not the given axis-aligned bounding box is entirely contained in this frustum.
+     *
+     * @param minX the minimum X coordinate of the bounding box
+     * @param minY the minimum Y coordinate of the bounding box
+     * @param minZ the minimum Z coordinate of the bounding box
+     * @param maxX the maximum X coordinate of the bounding box
+     * @param maxY the maximum Y coordinate of the bounding box
+     * @param maxZ the maximum Z coordinate of the bounding box
+     * @return whether or not the given axis-aligned bounding box is entirely contained in this frustum
+     */
+    default boolean containsBB(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        //the frustum is convex, so the bounding box is contained in it if all of its corners are
+        return this.containsPoint(minX, minY, minZ) && this.containsPoint(maxX, minY, minZ)
+               && this.containsPoint(minX, maxY, minZ) && this.containsPoint(maxX, maxY, minZ)
+               && this.containsPoint(minX, minY, maxZ) && this.containsPoint(maxX, minY, maxZ)
+               && this.containsPoint(minX, maxY, maxZ) && this.containsPoint(maxX, maxY, maxZ);
+    }
+
     /**
      * Checks whether or not the given axis-aligned bounding box intersects with this frustum.
      *
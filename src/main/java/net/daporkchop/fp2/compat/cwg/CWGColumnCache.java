@@ -0,0 +1,187 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.compat.cwg;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.ExecutionException;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A bounded, thread-safe cache of the 2D per-column inputs used by {@link CWGContext} (biome IDs, biome height/variation and depth noise).
+ * <p>
+ * Values are cached in square blocks of {@link #BLOCK_SIZE}² samples, keyed by the sample level and the block's aligned position (in samples). Adjacent tiles (and tiles
+ * at different detail levels which sample at the same resolution) overlap heavily, so most of the inputs for a tile can be assembled from blocks which were already computed
+ * for one of its neighbors.
+ * <p>
+ * All of the cached values are a pure function of their position, so it doesn't matter which {@link CWGContext} actually computed a given block.
+ *
+ * @author DaPorkchop_
+ */
+public class CWGColumnCache {
+    public static final int BLOCK_SHIFT = 4;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    public static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    /**
+     * The default maximum number of blocks to retain in a single cache. Each block uses roughly 7KiB of memory.
+     */
+    public static final long DEFAULT_MAX_BLOCKS = 2048L;
+
+    protected final Cache<Key, Block> cache;
+
+    public CWGColumnCache() {
+        this(DEFAULT_MAX_BLOCKS);
+    }
+
+    public CWGColumnCache(long maxBlocks) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(positive(maxBlocks, "maxBlocks"))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the block at the given position, computing it using the given {@link Generator} if it isn't already cached.
+     *
+     * @param level     the sample level
+     * @param blockX    the block's X coordinate (in blocks of samples)
+     * @param blockZ    the block's Z coordinate (in blocks of samples)
+     * @param generator the {@link Generator} to use if the block isn't cached
+     * @return the block
+     */
+    public Block get(int level, int blockX, int blockZ, @NonNull Generator generator) {
+        try {
+            return this.cache.get(new Key(level, blockX, blockZ), () -> {
+                Block block = new Block();
+                generator.generate(level, (blockX << BLOCK_SHIFT) << level, (blockZ << BLOCK_SHIFT) << level, block);
+                return block;
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Assembles a square region of samples from the cached blocks, computing only the blocks which are missing.
+     * <p>
+     * The output arrays are laid out with X as the outer axis, i.e. the value for sample {@code (dx, dz)} is stored at index {@code dx * size + dz}.
+     *
+     * @param level      the sample level
+     * @param baseX      the region's base X coordinate (in blocks). Must be aligned to a multiple of {@code 1 << level}
+     * @param baseZ      the region's base Z coordinate (in blocks). Must be aligned to a multiple of {@code 1 << level}
+     * @param size       the side length of the region (in samples)
+     * @param biomes     the array to write the biome IDs to
+     * @param heights    the array to write the biome heights to
+     * @param variations the array to write the biome height variations to
+     * @param depth      the array to write the depth noise to
+     * @param generator  the {@link Generator} to use for computing missing blocks
+     */
+    public void assemble(int level, int baseX, int baseZ, int size, @NonNull int[] biomes, @NonNull double[] heights, @NonNull double[] variations, @NonNull double[] depth, @NonNull Generator generator) {
+        int sampleX = baseX >> level;
+        int sampleZ = baseZ >> level;
+
+        for (int blockX = sampleX >> BLOCK_SHIFT, maxBlockX = (sampleX + size - 1) >> BLOCK_SHIFT; blockX <= maxBlockX; blockX++) {
+            //the range of the region covered by this block along the X axis
+            int minX = Math.max(blockX << BLOCK_SHIFT, sampleX);
+            int maxX = Math.min((blockX + 1) << BLOCK_SHIFT, sampleX + size);
+
+            for (int blockZ = sampleZ >> BLOCK_SHIFT, maxBlockZ = (sampleZ + size - 1) >> BLOCK_SHIFT; blockZ <= maxBlockZ; blockZ++) {
+                int minZ = Math.max(blockZ << BLOCK_SHIFT, sampleZ);
+                int maxZ = Math.min((blockZ + 1) << BLOCK_SHIFT, sampleZ + size);
+                int len = maxZ - minZ;
+
+                Block block = this.get(level, blockX, blockZ, generator);
+                for (int x = minX; x < maxX; x++) {
+                    int srcIdx = ((x & BLOCK_MASK) << BLOCK_SHIFT) + (minZ & BLOCK_MASK);
+                    int dstIdx = (x - sampleX) * size + (minZ - sampleZ);
+
+                    System.arraycopy(block.biomes, srcIdx, biomes, dstIdx, len);
+                    System.arraycopy(block.heights, srcIdx, heights, dstIdx, len);
+                    System.arraycopy(block.variations, srcIdx, variations, dstIdx, len);
+                    System.arraycopy(block.depth, srcIdx, depth, dstIdx, len);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the statistics for this cache
+     */
+    public CacheStats stats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * Removes all blocks from this cache.
+     */
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Computes the values for a single block.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    public interface Generator {
+        /**
+         * Computes the values for a single block.
+         *
+         * @param level the sample level
+         * @param baseX the block's base X coordinate (in blocks)
+         * @param baseZ the block's base Z coordinate (in blocks)
+         * @param dst   the {@link Block} to write the computed values to
+         */
+        void generate(int level, int baseX, int baseZ, @NonNull Block dst);
+    }
+
+    /**
+     * The cached values for a single {@link #BLOCK_SIZE}² block of samples.
+     * <p>
+     * Arrays are laid out with X as the outer axis. Instances must not be modified once they have been added to the cache.
+     *
+     * @author DaPorkchop_
+     */
+    public static final class Block {
+        public final int[] biomes = new int[BLOCK_SIZE * BLOCK_SIZE];
+        public final double[] heights = new double[BLOCK_SIZE * BLOCK_SIZE];
+        public final double[] variations = new double[BLOCK_SIZE * BLOCK_SIZE];
+        public final double[] depth = new double[BLOCK_SIZE * BLOCK_SIZE];
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    protected static final class Key {
+        protected final int level;
+        protected final int blockX;
+        protected final int blockZ;
+    }
+}
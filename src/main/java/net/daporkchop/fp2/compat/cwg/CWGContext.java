@@ -46,7 +46,7 @@ import static net.daporkchop.lib.common.util.PValidation.*;
 /**
  * Holds the initialized state for a CubicWorldGen emulation context.
  * <p>
- * Not thread-safe.
+ * Not thread-safe. The 2d per-column inputs are shared between all contexts using the same {@link CWGColumnCache}.
  *
  * @author DaPorkchop_
  */
@@ -60,6 +60,9 @@ public class CWGContext {
 
     protected final CWGNoiseProvider.Configured configuredNoiseGen;
 
+    protected final CWGColumnCache columnCache;
+    protected final CWGColumnCache.Generator blockGenerator = this::generateBlock;
+
     protected final double[] heights;
     protected final double[] variations;
     protected final double[] depth;
@@ -77,8 +80,9 @@ public class CWGContext {
     protected int cacheBaseX;
     protected int cacheBaseZ;
 
-    public CWGContext(@NonNull World world, int size, int smoothRadius) {
+    public CWGContext(@NonNull World world, int size, int smoothRadius, @NonNull CWGColumnCache columnCache) {
         this.size = notNegative(size, "size");
+        this.columnCache = columnCache;
         this.biomes = new int[this.size * this.size];
 
         CustomGeneratorSettings conf = CustomGeneratorSettings.getFromWorld(world);
@@ -137,16 +141,28 @@ public class CWGContext {
             this.cacheBaseZ = baseZ;
         }
 
-        this.biomeProvider.generateBiomesAndWeightedHeightsVariations(this.cacheBaseX, this.cacheBaseZ, this.cacheLevel, this.cacheSize, this.biomes, this.heights, this.variations, this.weightHelper);
+        //assemble 2d inputs from the shared column cache, only computing the blocks which aren't already cached
+        this.columnCache.assemble(this.cacheLevel, this.cacheBaseX, this.cacheBaseZ, this.cacheSize, this.biomes, this.heights, this.variations, this.depth, this.blockGenerator);
+    }
+
+    /**
+     * Computes the 2d inputs for a single block of the {@link CWGColumnCache}.
+     *
+     * @see CWGColumnCache.Generator#generate(int, int, int, CWGColumnCache.Block)
+     */
+    protected void generateBlock(int level, int baseX, int baseZ, @NonNull CWGColumnCache.Block dst) {
+        int size = CWGColumnCache.BLOCK_SIZE;
+
+        this.biomeProvider.generateBiomesAndWeightedHeightsVariations(baseX, baseZ, level, size, dst.biomes, dst.heights, dst.variations, this.weightHelper);
 
         //convert biome heights/variations to CWG forms
-        for (int i = 0; i < sq(this.cacheSize); i++) {
-            this.heights[i] = BiomeHelper.biomeHeightVanilla(this.heights[i]);
-            this.variations[i] = BiomeHelper.biomeHeightVariationVanilla(this.variations[i]);
+        for (int i = 0; i < sq(size); i++) {
+            dst.heights[i] = BiomeHelper.biomeHeightVanilla(dst.heights[i]);
+            dst.variations[i] = BiomeHelper.biomeHeightVariationVanilla(dst.variations[i]);
         }
 
         //precompute depth noise
-        this.configuredNoiseGen.generateDepth2d(this.depth, this.cacheBaseX, this.cacheBaseZ, 1 << this.cacheLevel, 1 << this.cacheLevel, this.cacheSize, this.cacheSize);
+        this.configuredNoiseGen.generateDepth2d(dst.depth, baseX, baseZ, 1 << level, 1 << level, size, size);
     }
 
     protected int cacheIndex(int x, int z) {
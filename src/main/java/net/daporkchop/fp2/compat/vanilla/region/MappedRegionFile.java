@@ -0,0 +1,274 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.compat.vanilla.region;
+
+import lombok.NonNull;
+import net.daporkchop.lib.common.reference.ReferenceStrength;
+import net.daporkchop.lib.common.reference.cache.Cached;
+import net.daporkchop.lib.unsafe.PUnsafe;
+import net.minecraft.world.chunk.storage.RegionFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Read-only view of a vanilla region ({@code .mca}) file, backed by a memory mapping of the whole file.
+ * <p>
+ * The offset/timestamp header is parsed once when the file is opened, and chunk payloads are decompressed directly from the mapping using pooled {@link Inflater}s. Unlike
+ * {@link RegionFile}, any number of threads may read from the same instance concurrently.
+ * <p>
+ * Any writes to the file must go through {@link RegionFile}, after which the header has to be re-read using {@link #refresh(Path)} (see {@link ThreadSafeRegionFileCache}).
+ * Since the mapping covers the whole file as it was when it was opened, the file has to be re-opened if a write makes it grow beyond the mapping.
+ * <p>
+ * Instances are reference-counted, and the mapping is released as soon as the last reference is released rather than whenever the buffer happens to be
+ * garbage-collected. This is important on Windows, where a mapped file can't be deleted or replaced.
+ *
+ * @author DaPorkchop_
+ */
+public class MappedRegionFile {
+    public static final int SECTOR_SHIFT = 12;
+    public static final int SECTOR_SIZE = 1 << SECTOR_SHIFT;
+    public static final int HEADER_SIZE = SECTOR_SIZE * 2;
+
+    public static final int VERSION_GZIP = 1;
+    public static final int VERSION_DEFLATE = 2;
+
+    protected static final Cached<Inflater> INFLATER_CACHE = Cached.threadLocal(Inflater::new, ReferenceStrength.WEAK);
+    protected static final Cached<byte[]> INPUT_BUFFER_CACHE = Cached.threadLocal(() -> new byte[SECTOR_SIZE * 16], ReferenceStrength.WEAK);
+
+    protected static int index(int x, int z) {
+        checkIndex(32, x);
+        checkIndex(32, z);
+        return (z << 5) | x;
+    }
+
+    /**
+     * Opens the region file at the given path.
+     *
+     * @param path the path to the region file
+     * @return a {@link MappedRegionFile}, or {@code null} if the file doesn't exist or is too small to contain a valid header
+     */
+    public static MappedRegionFile open(@NonNull Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) { //file is still being initialized (or is corrupt), treat it as though it doesn't exist
+                return null;
+            }
+
+            //mappings can't exceed 2GiB, but region files are limited to 255 sectors per chunk * 1024 chunks anyway, so this should never happen
+            checkState(size <= Integer.MAX_VALUE, "region file %s is too large (%d bytes)", path, size);
+
+            //the mapping remains valid after the channel is closed
+            return new MappedRegionFile(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+        }
+    }
+
+    protected final MappedByteBuffer mapping;
+    protected final int[] offsets = new int[1024];
+    protected final int[] timestamps = new int[1024];
+
+    protected final AtomicInteger refCnt = new AtomicInteger(1);
+
+    protected MappedRegionFile(@NonNull MappedByteBuffer mapping) {
+        this.mapping = mapping;
+        this.loadHeader();
+    }
+
+    protected void loadHeader() {
+        ByteBuffer header = this.mapping.duplicate();
+        header.asIntBuffer().get(this.offsets);
+        header.position(SECTOR_SIZE);
+        header.asIntBuffer().get(this.timestamps);
+
+        //discard any offsets which would go outside of the file
+        int totalSectors = this.mapping.capacity() >>> SECTOR_SHIFT;
+        for (int i = 0; i < this.offsets.length; i++) {
+            int offset = this.offsets[i];
+            if ((offset >>> 8) + (offset & 0xFF) > totalSectors) {
+                this.offsets[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Re-reads the header after the file has been written to.
+     * <p>
+     * The mapping shares the operating system's page cache with the file, so any data written within the mapped range is immediately visible through it. Only the
+     * header has to be parsed again, unless the file has grown beyond the mapping.
+     * <p>
+     * Must not be called while any other thread is reading from this region.
+     *
+     * @param path the path to the region file
+     * @return whether or not the mapping still covers the whole file. If {@code false}, this instance must be released and the file re-opened
+     */
+    public boolean refresh(@NonNull Path path) throws IOException {
+        if (Files.size(path) > this.mapping.capacity()) {
+            return false;
+        }
+
+        this.loadHeader();
+        return true;
+    }
+
+    /**
+     * Attempts to retain this region.
+     *
+     * @return whether or not the region could be retained. If {@code false}, the region has already been released and must not be used
+     */
+    public boolean retain() {
+        int refCnt;
+        do {
+            refCnt = this.refCnt.get();
+            if (refCnt <= 0) {
+                return false;
+            }
+        } while (!this.refCnt.compareAndSet(refCnt, refCnt + 1));
+        return true;
+    }
+
+    /**
+     * Releases this region, unmapping it if this was the last reference.
+     */
+    public void release() {
+        int refCnt = this.refCnt.decrementAndGet();
+        checkState(refCnt >= 0, "region was already released");
+        if (refCnt == 0) {
+            PUnsafe.pork_releaseBuffer(this.mapping);
+        }
+    }
+
+    /**
+     * @return the number of references to this region which are currently held
+     */
+    public int refCnt() {
+        return this.refCnt.get();
+    }
+
+    /**
+     * Checks whether or not the chunk at the given position exists.
+     *
+     * @param x the chunk's X coordinate, relative to the region
+     * @param z the chunk's Z coordinate, relative to the region
+     * @return whether or not the chunk exists
+     */
+    public boolean exists(int x, int z) {
+        return this.offsets[index(x, z)] != 0;
+    }
+
+    /**
+     * Gets the timestamp at which the chunk at the given position was last written.
+     *
+     * @param x the chunk's X coordinate, relative to the region
+     * @param z the chunk's Z coordinate, relative to the region
+     * @return the timestamp (in seconds since the UNIX epoch)
+     */
+    public int timestamp(int x, int z) {
+        return this.timestamps[index(x, z)];
+    }
+
+    /**
+     * Reads the data for the chunk at the given position.
+     * <p>
+     * The returned {@link DataInputStream} contains the fully decompressed chunk data, and does not reference this region in any way.
+     *
+     * @param x the chunk's X coordinate, relative to the region
+     * @param z the chunk's Z coordinate, relative to the region
+     * @return the data stored for the chunk, or {@code null} if the chunk doesn't exist or is invalid
+     */
+    public DataInputStream read(int x, int z) throws IOException {
+        int offset = this.offsets[index(x, z)];
+        if (offset == 0) {
+            return null;
+        }
+
+        int position = (offset >>> 8) << SECTOR_SHIFT;
+        int capacity = (offset & 0xFF) << SECTOR_SHIFT;
+
+        //absolute reads on a shared buffer are safe, but we need our own buffer instance to use relative bulk reads
+        ByteBuffer buffer = this.mapping.duplicate();
+        int length = buffer.getInt(position);
+        if (length <= 0 || length + 4 > capacity) { //length is invalid
+            return null;
+        }
+
+        int version = buffer.get(position + 4) & 0xFF;
+        int compressedLength = length - 1;
+
+        byte[] compressed = INPUT_BUFFER_CACHE.get();
+        if (compressed.length < compressedLength) { //chunk is unusually large, don't bother caching the buffer
+            compressed = new byte[compressedLength];
+        }
+        buffer.position(position + 5);
+        buffer.get(compressed, 0, compressedLength);
+
+        switch (version) {
+            case VERSION_GZIP:
+                return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(Arrays.copyOf(compressed, compressedLength))));
+            case VERSION_DEFLATE:
+                return new DataInputStream(new ByteArrayInputStream(inflate(compressed, compressedLength)));
+            default: //unknown compression version
+                return null;
+        }
+    }
+
+    protected static byte[] inflate(@NonNull byte[] compressed, int compressedLength) throws IOException {
+        Inflater inflater = INFLATER_CACHE.get();
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+
+        try {
+            //chunk data generally compresses at least 4:1, so start with a reasonable guess
+            byte[] out = new byte[Math.max(compressedLength << 2, 1024)];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length << 1);
+                }
+
+                int n = inflater.inflate(out, size, out.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) { //the stream was truncated
+                    throw new IOException("unexpected end of zlib stream");
+                }
+                size += n;
+            }
+            return size == out.length ? out : Arrays.copyOf(out, size);
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+    }
+}
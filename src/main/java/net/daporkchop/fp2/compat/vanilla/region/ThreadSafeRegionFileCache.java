@@ -20,6 +20,10 @@
 
 package net.daporkchop.fp2.compat.vanilla.region;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.Striped;
 import io.netty.buffer.ByteBuf;
 import lombok.NonNull;
 import net.daporkchop.fp2.util.FastByteArrayOutputStream;
@@ -41,6 +45,10 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -50,6 +58,13 @@ import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
  * Re-implementation of {@link RegionFileCache}, but with actual thread-safety and stuff, since the vanilla code has a crazy number of race conditions.
+ * <p>
+ * Writes go through vanilla {@link RegionFile}s, while reads are served from {@link MappedRegionFile}s so that any number of threads can read from the same region at once.
+ * Each region is guarded by a read-write lock: writing to a region excludes all readers, and then refreshes the region's mapping. The mapping is only discarded (and
+ * re-created by the next read) if the write made the file grow beyond it.
+ * <p>
+ * Mappings are released explicitly as soon as they're evicted from the cache and no longer being read from, so that the region files aren't kept locked until the
+ * mappings are garbage-collected.
  *
  * @author DaPorkchop_
  */
@@ -79,14 +94,25 @@ public class ThreadSafeRegionFileCache {
         }
     });
 
+    private final Cache<Path, Optional<MappedRegionFile>> mappedFiles;
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(256);
+
     public ThreadSafeRegionFileCache(int maxSize) {
         this.maxSize = positive(maxSize, "maxSize") - 1;
+
+        this.mappedFiles = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .removalListener((RemovalListener<Path, Optional<MappedRegionFile>>) notification -> notification.getValue().ifPresent(MappedRegionFile::release))
+                .build();
     }
 
     /**
      * Closes all currently open regions.
      */
     public void clear() throws IOException {
+        //drop all mappings. each one is unmapped immediately, unless it's currently being read from in which case it's unmapped once the read is complete
+        this.mappedFiles.invalidateAll();
+
         //close and uncache all regions
         this.openFiles.values().removeIf(region -> {
             try {
@@ -115,6 +141,33 @@ public class ThreadSafeRegionFileCache {
         });
     }
 
+    /**
+     * Gets the mapping of the region at the given path, and retains it.
+     * <p>
+     * The returned region must be released once it's no longer being used.
+     *
+     * @param path the path to the region file
+     * @return the mapped region, or {@code null} if the region doesn't exist
+     */
+    protected MappedRegionFile retainMappedRegion(@NonNull Path path) throws IOException {
+        while (true) {
+            MappedRegionFile region;
+            try {
+                region = this.mappedFiles.get(path, () -> Optional.ofNullable(MappedRegionFile.open(path))).orElse(null);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+
+            if (region == null || region.retain()) {
+                return region;
+            }
+            //the region was evicted from the cache and released after we got it, try again
+        }
+    }
+
     /**
      * Writes the given chunk data to the chunk at the given position.
      *
@@ -130,15 +183,40 @@ public class ThreadSafeRegionFileCache {
             data.readBytes(out, data.readableBytes());
         }
 
-        //attempt to open region
-        RegionFile region = this.getRegion(region(regionDir, chunkX, chunkZ), true);
-        checkState(region != null, "region was null?!?");
-
+        Path path = region(regionDir, chunkX, chunkZ);
+        Lock lock = this.locks.get(path).writeLock();
+        lock.lock();
         try {
-            //write compressed data to region
-            region.write(chunkX & 0x1F, chunkZ & 0x1F, baos.buf(), baos.size());
+            //attempt to open region
+            RegionFile region = this.getRegion(path, true);
+            checkState(region != null, "region was null?!?");
+
+            try {
+                //write compressed data to region
+                region.write(chunkX & 0x1F, chunkZ & 0x1F, baos.buf(), baos.size());
+            } finally {
+                PUnsafe.monitorExit(region);
+            }
+
+            //the region's header has changed, and the file may have grown beyond the existing mapping. the mapping has to be retained while it's refreshed, since it
+            //  could be evicted from the cache at any time by a read from another region
+            Optional<MappedRegionFile> mapped = this.mappedFiles.getIfPresent(path);
+            if (mapped != null) {
+                MappedRegionFile mappedRegion = mapped.orElse(null);
+                if (mappedRegion == null || !mappedRegion.retain()) { //the region didn't exist when it was mapped, or the mapping was already evicted
+                    this.mappedFiles.invalidate(path);
+                } else {
+                    try {
+                        if (!mappedRegion.refresh(path)) {
+                            this.mappedFiles.invalidate(path);
+                        }
+                    } finally {
+                        mappedRegion.release();
+                    }
+                }
+            }
         } finally {
-            PUnsafe.monitorExit(region);
+            lock.unlock();
         }
     }
 
@@ -151,19 +229,26 @@ public class ThreadSafeRegionFileCache {
      * @return the data stored for the given chunk, or {@code null} if the chunk doesn't exist
      */
     public DataInputStream read(@NonNull Path regionDir, int chunkX, int chunkZ) throws IOException {
-        //attempt to open region
-        RegionFile region = this.getRegion(region(regionDir, chunkX, chunkZ), false);
+        Path path = region(regionDir, chunkX, chunkZ);
+        Lock lock = this.locks.get(path).readLock();
+        lock.lock();
+        try {
+            //attempt to open region
+            MappedRegionFile region = this.retainMappedRegion(path);
 
-        //region doesn't exist, so we know that the chunk doesn't exist either
-        if (region == null) {
-            return null;
-        }
+            //region doesn't exist, so we know that the chunk doesn't exist either
+            if (region == null) {
+                return null;
+            }
 
-        try {
-            //read chunk from region
-            return region.getChunkDataInputStream(chunkX & 0x1F, chunkZ & 0x1F);
+            try {
+                //read chunk from region. the returned stream is fully decompressed, so it's safe to release the region before it's used
+                return region.read(chunkX & 0x1F, chunkZ & 0x1F);
+            } finally {
+                region.release();
+            }
         } finally {
-            PUnsafe.monitorExit(region);
+            lock.unlock();
         }
     }
 
@@ -176,19 +261,26 @@ public class ThreadSafeRegionFileCache {
      * @return whether or not the chunk exists
      */
     public boolean exists(@NonNull Path regionDir, int chunkX, int chunkZ) throws IOException {
-        //attempt to open region
-        RegionFile region = this.getRegion(region(regionDir, chunkX, chunkZ), false);
+        Path path = region(regionDir, chunkX, chunkZ);
+        Lock lock = this.locks.get(path).readLock();
+        lock.lock();
+        try {
+            //attempt to open region
+            MappedRegionFile region = this.retainMappedRegion(path);
 
-        //region doesn't exist, so we know that the chunk doesn't exist either
-        if (region == null) {
-            return false;
-        }
+            //region doesn't exist, so we know that the chunk doesn't exist either
+            if (region == null) {
+                return false;
+            }
 
-        try {
-            //check if the chunk is stored in the region
-            return region.isChunkSaved(chunkX & 0x1F, chunkZ & 0x1F);
+            try {
+                //check if the chunk is stored in the region
+                return region.exists(chunkX & 0x1F, chunkZ & 0x1F);
+            } finally {
+                region.release();
+            }
         } finally {
-            PUnsafe.monitorExit(region);
+            lock.unlock();
         }
     }
 
@@ -265,6 +265,12 @@ public final class FP2Config implements Cloneable<FP2Config> {
         @Config.GuiCategory(CATEGORY_CLIENT)
         private final int maxBakesProcessedPerFrame = preventInline(256);
 
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(16), max = @Config.Constant(8192))
+        @Config.GuiCategory(CATEGORY_CLIENT)
+        private final int maxTileCacheSize = preventInline(512);
+
         @Builder.Default
         @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
         @Config.GuiRange(min = @Config.Constant(1), max = @Config.Constant(field = "net.daporkchop.lib.common.util.PorkUtil#CPU_COUNT"))
@@ -279,6 +285,13 @@ public final class FP2Config implements Cloneable<FP2Config> {
         @Config.GuiCategory(CATEGORY_THREADS)
         private final int terrainThreads = max((PorkUtil.CPU_COUNT >> 1) + (PorkUtil.CPU_COUNT >> 2), 1);
 
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(100))
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        @Config.GuiCategory(CATEGORY_THREADS)
+        private final int tickTimeThreshold = preventInline(45);
+
         @Builder.Default
         @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
         @Config.GuiRange(min = @Config.Constant(1), max = @Config.Constant(field = "net.daporkchop.lib.common.util.PorkUtil#CPU_COUNT"))
@@ -286,9 +299,65 @@ public final class FP2Config implements Cloneable<FP2Config> {
         @Config.GuiCategory(CATEGORY_THREADS)
         private final int bakeThreads = max((PorkUtil.CPU_COUNT >> 1) + (PorkUtil.CPU_COUNT >> 2), 1);
 
+        @Builder.Default
+        @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+        @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(300))
+        @Config.RestartRequired(Config.Requirement.WORLD)
+        private final int metricsExportInterval = preventInline(10);
+
+        @Builder.Default
+        @NonNull
+        private final Storage storage = new Storage();
+
         @Override
         public Performance clone() {
-            return this.toBuilder().build();
+            return this.toBuilder()
+                    .storage(this.storage.clone())
+                    .build();
+        }
+
+        /**
+         * @author DaPorkchop_
+         */
+        @Builder(access = AccessLevel.PRIVATE, toBuilder = true)
+        @AllArgsConstructor(access = AccessLevel.PRIVATE)
+        @NoArgsConstructor
+        @Getter
+        @With
+        @ToString
+        @EqualsAndHashCode
+        public static class Storage implements Cloneable<Storage> {
+            @Builder.Default
+            @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
+            @Config.GuiRange(min = @Config.Constant(16), max = @Config.Constant(8192), snapTo = @Config.Constant(16))
+            @Config.RestartRequired(Config.Requirement.GAME)
+            private final int blockCacheSize = preventInline(256);
+
+            @Builder.Default
+            @Config.Range(min = @Config.Constant(1), max = @Config.Constant(Integer.MAX_VALUE))
+            @Config.GuiRange(min = @Config.Constant(4), max = @Config.Constant(2048), snapTo = @Config.Constant(4))
+            @Config.RestartRequired(Config.Requirement.GAME)
+            private final int writeBufferSize = preventInline(64);
+
+            @Builder.Default
+            @Config.Range(min = @Config.Constant(0), max = @Config.Constant(64))
+            @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(32))
+            @Config.RestartRequired(Config.Requirement.GAME)
+            private final int bloomFilterBitsPerKey = preventInline(10);
+
+            @Builder.Default
+            @Config.Range(min = @Config.Constant(0), max = @Config.Constant(Integer.MAX_VALUE))
+            @Config.GuiRange(min = @Config.Constant(0), max = @Config.Constant(1 << 20), snapTo = @Config.Constant(1024))
+            private final int diskBudget = preventInline(0);
+
+            @Builder.Default
+            @Config.Range(min = @Config.Constant(0), max = @Config.Constant(field = "net.daporkchop.fp2.util.Constants#MAX_LODS"))
+            private final int evictionMaxLevel = preventInline(1);
+
+            @Override
+            public Storage clone() {
+                return this.toBuilder().build();
+            }
         }
     }
 
@@ -134,6 +134,18 @@ public interface IFarDirectPosAccess<POS extends IFarPos> {
     @SideOnly(Side.CLIENT)
     boolean inFrustum(long addr, @NonNull IFrustum frustum);
 
+    /**
+     * Computes the axis-aligned bounding box (in blocks) of a cube of tiles at the given detail level.
+     * <p>
+     * The bounding box of a single tile is the same as the one used by {@link #inFrustum(long, IFrustum)}.
+     *
+     * @param level the detail level
+     * @param min   the minimum offset of the cube along each axis
+     * @param size  the number of tiles along each axis of the cube
+     * @param dst   an array of at least 6 elements to store the bounding box in, as {@code minX, minY, minZ, maxX, maxY, maxZ}
+     */
+    void boundingBox(int level, @NonNull int[] min, int size, @NonNull double[] dst);
+
     /**
      * @return a new {@link SimpleSet} which can store positions of type {@link POS}
      */
@@ -32,6 +32,15 @@ import java.util.stream.Stream;
  * @author DaPorkchop_
  */
 public interface IFarPos extends Comparable<IFarPos> {
+    /**
+     * The value which is added to tile coordinates before they are interleaved into an encoded position.
+     * <p>
+     * Encoded positions are in z-order, which places every multiple of a large power of two on a boundary where spatially adjacent tiles end up far apart from each
+     * other in the key space. Without a bias, the origin (which tends to be where most tiles are) would be on the largest such boundary; with this bias, the nearest
+     * large boundaries are hundreds of millions of tiles away from it.
+     */
+    int ENCODED_COORDINATE_BIAS = 0x55555555;
+
     /**
      * @return the level of detail at this position
      */
@@ -80,6 +89,9 @@ public interface IFarPos extends Comparable<IFarPos> {
      * Converts this position to a {@code byte[]}.
      * <p>
      * The resulting {@code byte[]}'s contents are identical to the data written by {@link #writePos(ByteBuf)}.
+     * <p>
+     * The encoded positions are used as storage keys, so positions at the same detail level which are close to each other should also be close to each other in the
+     * lexicographical order of their encoded forms. This is achieved by interleaving the bits of the {@link #ENCODED_COORDINATE_BIAS biased} coordinates.
      *
      * @return the encoded position
      */
@@ -135,6 +147,18 @@ public interface IFarPos extends Comparable<IFarPos> {
      */
     int manhattanDistance(@NonNull IFarPos posIn);
 
+    /**
+     * Gets the squared distance from the center of this tile to the given point, in blocks.
+     * <p>
+     * Axes along which tiles are not subdivided (e.g. the Y axis for a 2D render mode) are ignored.
+     *
+     * @param x the point's X coordinate
+     * @param y the point's Y coordinate
+     * @param z the point's Z coordinate
+     * @return the squared distance from the center of this tile to the given point
+     */
+    double distanceSq(double x, double y, double z);
+
     /**
      * @return a locality-sensitive hash of this position
      */
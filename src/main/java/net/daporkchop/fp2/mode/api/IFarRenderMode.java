@@ -121,6 +121,17 @@ public interface IFarRenderMode<POS extends IFarPos, T extends IFarTile> {
      */
     POS readPos(@NonNull ByteBuf buf);
 
+    /**
+     * Reads a tile position which was encoded using the legacy position encoding from the given {@link ByteBuf}.
+     * <p>
+     * The legacy encoding was used by storage layouts prior to v6, and didn't bias the coordinates (see {@link IFarPos#ENCODED_COORDINATE_BIAS}). It is only used in order to migrate old
+     * storages.
+     *
+     * @param buf the {@link ByteBuf} to read from
+     * @return the tile position
+     */
+    POS readLegacyPos(@NonNull ByteBuf buf);
+
     /**
      * @return an array of {@link POS}
      */
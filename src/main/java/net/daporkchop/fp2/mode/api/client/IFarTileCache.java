@@ -76,6 +76,18 @@ public interface IFarTileCache<POS extends IFarPos, T extends IFarTile> extends
      */
     Stream<ITileSnapshot<POS, T>> getTilesCached(@NonNull Stream<POS> positions);
 
+    /**
+     * Updates the position of the camera.
+     * <p>
+     * If the cache has to evict tiles in order to stay within its memory budget, tiles which are far away from the camera will be evicted first. Evicted tiles
+     * will be re-requested from the server once they are close enough to the camera again.
+     *
+     * @param x the camera's X coordinate
+     * @param y the camera's Y coordinate
+     * @param z the camera's Z coordinate
+     */
+    void viewPosition(double x, double y, double z);
+
     @DebugOnly
     DebugStats.TileCache stats();
 
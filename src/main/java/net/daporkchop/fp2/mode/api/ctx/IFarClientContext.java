@@ -27,6 +27,7 @@ import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.client.IFarRenderer;
 import net.daporkchop.fp2.mode.api.client.IFarTileCache;
+import net.daporkchop.fp2.mode.api.tile.TilePayloadCache;
 import net.daporkchop.fp2.util.annotation.CalledFromNetworkThread;
 
 /**
@@ -50,6 +51,11 @@ public interface IFarClientContext<POS extends IFarPos, T extends IFarTile> exte
      */
     IFarTileCache<POS, T> tileCache();
 
+    /**
+     * @return the payloads of the tiles which were recently received by this context, used for resolving tiles which the server only sent as a reference
+     */
+    TilePayloadCache payloadCache();
+
     /**
      * @return the renderer currently used by this context
      */
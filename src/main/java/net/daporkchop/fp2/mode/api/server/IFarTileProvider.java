@@ -30,6 +30,8 @@ import net.daporkchop.fp2.mode.api.server.gen.IFarScaler;
 import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTrackerManager;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.util.annotation.CalledFromAnyThread;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
 import net.daporkchop.fp2.util.threading.asyncblockaccess.IAsyncBlockAccess;
 import net.minecraft.world.WorldServer;
 
@@ -48,6 +50,15 @@ public interface IFarTileProvider<POS extends IFarPos, T extends IFarTile> exten
 
     CompletableFuture<ITileHandle<POS, T>> requestUpdate(@NonNull POS pos);
 
+    /**
+     * Notifies this tile provider that the position of at least one of its {@link IFarTrackerManager}'s trackers has changed, so that the priorities of any
+     * tasks which are still waiting to be executed can be updated accordingly.
+     * <p>
+     * The priorities are updated asynchronously, and notifications are coalesced, so this is cheap enough to call every time a tracker moves.
+     */
+    @CalledFromAnyThread
+    void trackersMoved();
+
     /**
      * @return the (possibly {@code null}) {@link IFarGeneratorRough} used for rough generation of far terrain
      */
@@ -78,6 +89,11 @@ public interface IFarTileProvider<POS extends IFarPos, T extends IFarTile> exten
      */
     IFarRenderMode<POS, T> mode();
 
+    /**
+     * @return the {@link MetricsRegistry} which all runtime metrics for this tile provider are recorded into
+     */
+    MetricsRegistry metrics();
+
     @Override
     void close();
 }
@@ -24,10 +24,16 @@ import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -46,6 +52,29 @@ public interface IFarStorage<POS extends IFarPos, T extends IFarTile> extends Cl
 
     void forEachDirtyPos(@NonNull Consumer<POS> callback);
 
+    /**
+     * Takes a snapshot of the tiles at multiple positions at once.
+     * <p>
+     * Conceptually implemented by
+     * <blockquote><pre>{@code
+     * return positions.stream()
+     *         .map(pos -> this.handleFor(pos).snapshot())
+     *         .collect(Collectors.toList());
+     * }</pre></blockquote>
+     * except the implementation has the opportunity to optimize this beyond what the user could write.
+     * <p>
+     * Each individual snapshot is coherent, but the snapshots are not guaranteed to have been taken at the same point in time.
+     *
+     * @param positions the positions to take snapshots of
+     * @return the snapshots, in the same order as the given positions. Elements may be {@code null} if the tile at the corresponding position hasn't been initialized
+     * @see ITileHandle#snapshot()
+     */
+    default List<ITileSnapshot<POS, T>> multiSnapshot(@NonNull Collection<POS> positions) {
+        return positions.stream()
+                .map(pos -> this.handleFor(pos).snapshot())
+                .collect(Collectors.toList());
+    }
+
     /**
      * Atomically marks multiple positions as dirty as of the given timestamp.
      * <p>
@@ -68,6 +97,30 @@ public interface IFarStorage<POS extends IFarPos, T extends IFarTile> extends Cl
 
     //void markVanillaRenderable(@NonNull Stream<POS> positions);
 
+    /**
+     * Exports the tiles at the given detail levels which match the given filter into the given directory, in a form which can be read by {@link #importTiles(File)}.
+     * <p>
+     * The exported tiles are a consistent snapshot of this storage's contents. This storage may continue to be used while the export is running.
+     *
+     * @param directory the directory to write the export to. Must not exist yet
+     * @param minLevel  the lowest detail level to export (inclusive)
+     * @param maxLevel  the highest detail level to export (inclusive)
+     * @param filter    a filter which accepts the positions of the tiles to export
+     * @return the number of exported tiles
+     */
+    long exportTiles(@NonNull File directory, int minLevel, int maxLevel, @NonNull Predicate<POS> filter) throws IOException;
+
+    /**
+     * Imports tiles which were previously exported using {@link #exportTiles(File, int, int, Predicate)}.
+     * <p>
+     * If a tile already exists in this storage, it will only be replaced if the imported tile is newer. This storage may continue to be used while the import is
+     * running.
+     *
+     * @param directory the directory containing the export
+     * @return the number of imported tiles
+     */
+    long importTiles(@NonNull File directory) throws IOException;
+
     /**
      * Closes this storage.
      * <p>
@@ -20,6 +20,7 @@
 
 package net.daporkchop.fp2.mode.api.server.tracking;
 
+import lombok.NonNull;
 import net.daporkchop.fp2.debug.util.DebugStats;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
@@ -38,6 +39,17 @@ public interface IFarTracker<POS extends IFarPos, T extends IFarTile> extends Au
     @CalledFromServerThread
     void update();
 
+    /**
+     * Re-sends the tiles at the given positions to the client.
+     * <p>
+     * Positions which are not currently loaded by this tracker, or which are already waiting to be re-sent, are silently ignored. The tiles are re-sent at a
+     * limited rate, and requests beyond a fixed number of queued tiles are dropped.
+     *
+     * @param positions the positions of the tiles to re-send
+     */
+    @CalledFromServerThread
+    void resendTiles(@NonNull Iterable<POS> positions);
+
     /**
      * Closes this tracker, unloading all tiles and releasing all resources.
      * <p>
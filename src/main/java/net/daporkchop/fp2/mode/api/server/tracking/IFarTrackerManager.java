@@ -24,6 +24,7 @@ import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
+import net.daporkchop.fp2.util.annotation.CalledFromAnyThread;
 import net.daporkchop.fp2.util.annotation.CalledFromServerThread;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 
@@ -41,6 +42,23 @@ public interface IFarTrackerManager<POS extends IFarPos, T extends IFarTile> ext
     @CalledFromServerThread
     IFarTracker<POS, T> beginTracking(@NonNull IFarServerContext<POS, T> context);
 
+    /**
+     * @return the number of {@link IFarTracker}s which are currently active. This may be slightly out-of-date when called from a thread other than the server thread
+     */
+    @CalledFromAnyThread
+    int activeTrackers();
+
+    /**
+     * Gets the distance between the given tile position and the nearest active {@link IFarTracker}.
+     * <p>
+     * This may be slightly out-of-date, as trackers only update their position once their player has moved a sufficient distance.
+     *
+     * @param pos the tile position
+     * @return the distance (in tiles at the position's detail level), or {@link Integer#MAX_VALUE} if there are no active trackers
+     */
+    @CalledFromAnyThread
+    int distanceToNearestTracker(@NonNull POS pos);
+
     @DebugOnly
     @CalledFromServerThread
     void dropAllTiles();
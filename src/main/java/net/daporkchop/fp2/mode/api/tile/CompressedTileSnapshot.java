@@ -99,6 +99,11 @@ public class CompressedTileSnapshot<POS extends IFarPos, T extends IFarTile> imp
         return this.data == null;
     }
 
+    @Override
+    public int dataSize() {
+        return this.data != null ? this.data.length : 0;
+    }
+
     @Override
     public ITileSnapshot<POS, T> compressed() {
         return this; //we're already compressed!
@@ -51,6 +51,11 @@ public interface ITileSnapshot<POS extends IFarPos, T extends IFarTile> extends
      */
     boolean isEmpty();
 
+    /**
+     * @return the number of bytes of tile data retained by this snapshot
+     */
+    int dataSize();
+
     /**
      * @return this snapshot, with its tile data stored compressed in-memory
      */
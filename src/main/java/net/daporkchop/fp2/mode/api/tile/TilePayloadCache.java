@@ -0,0 +1,200 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.api.tile;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.config.FP2Config;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.util.math.XXHash64;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Remembers the tile payloads which a client has recently received, so that identical payloads can be sent as a reference to the existing copy instead of being
+ * sent again.
+ * <p>
+ * The client keeps the actual payloads, and the server keeps a mirror which only tracks their hashes and sizes. Both sides start out empty when a session begins,
+ * observe exactly the same sequence of payloads in the same order, and use the same deterministic eviction policy (least recently used, up to a fixed total size), so
+ * the server always knows exactly which payloads the client still holds without the client ever having to tell it.
+ * <p>
+ * The total size is derived from the client's tile cache budget using {@link #capacityFor(FP2Config)}, and the client's tile cache is reduced by the same amount. Both
+ * sides compute it from the merged config at the beginning of the session, and keep it fixed for the rest of the session.
+ * <p>
+ * Payloads are identified by their hash and their length. If a payload is added while a different one with the same hash is cached, it replaces the existing one
+ * on both sides, and references carry the payload's length so that the client can detect collisions between payloads of different lengths (which the server
+ * can't, as it doesn't keep the payloads).
+ *
+ * @author DaPorkchop_
+ */
+public class TilePayloadCache {
+    /**
+     * Payloads smaller than this many bytes are never cached, since a reference isn't much smaller than the payload itself.
+     */
+    public static final int MIN_PAYLOAD_SIZE = 256;
+
+    /**
+     * Gets the maximum combined size of the cached payloads for a session using the given config.
+     *
+     * @param config the session's merged config
+     * @return the capacity, in bytes
+     */
+    public static long capacityFor(@NonNull FP2Config config) {
+        return (config.performance().maxTileCacheSize() * (1L << 20L)) >> 5L; //1/32 of the tile cache budget, which is 16MiB with the default settings
+    }
+
+    protected final Map<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true); //access order
+    @Getter
+    protected final long capacity;
+    protected final boolean retainPayloads;
+    protected final ToLongFunction<byte[]> hashFunction;
+    protected long size;
+
+    /**
+     * @param capacity       the maximum combined size of the cached payloads, in bytes. Must be the same on the client and the server
+     * @param retainPayloads whether to keep the payloads themselves. Only needed on the client
+     */
+    public TilePayloadCache(long capacity, boolean retainPayloads) {
+        this(capacity, retainPayloads, XXHash64::hash);
+    }
+
+    /**
+     * @param capacity       the maximum combined size of the cached payloads, in bytes. Must be the same on the client and the server
+     * @param retainPayloads whether to keep the payloads themselves. Only needed on the client
+     * @param hashFunction   the function used to hash the payloads. Must be the same on the client and the server. Only exposed so that tests can force hash
+     *                       collisions
+     */
+    public TilePayloadCache(long capacity, boolean retainPayloads, @NonNull ToLongFunction<byte[]> hashFunction) {
+        this.capacity = notNegative(capacity, "capacity");
+        this.retainPayloads = retainPayloads;
+        this.hashFunction = hashFunction;
+    }
+
+    /**
+     * Called by the server for each tile which is about to be sent.
+     * <p>
+     * If the tile's payload is already held by the client, it's marked as recently used. Otherwise, if the payload is eligible for caching, it's added.
+     *
+     * @param tile the tile
+     * @return a {@link Reference} to the tile's payload if the client already holds the payload, or {@code null} if the tile must be sent in full
+     */
+    public synchronized Reference reference(@NonNull TileSnapshot<?, ?> tile) {
+        if (tile.data == null || tile.data.length < MIN_PAYLOAD_SIZE) {
+            return null;
+        }
+
+        long hash = this.hashFunction.applyAsLong(tile.data);
+        Entry entry = this.entries.get(hash);
+        if (entry != null && entry.size == tile.data.length) { //the client has the payload, and will mark it as recently used when it receives the reference
+            return new Reference(hash, entry.size);
+        }
+
+        this.add(hash, tile.data);
+        return null;
+    }
+
+    /**
+     * Called by the client for each tile which was received in full.
+     * <p>
+     * If the payload is eligible for caching, it's added.
+     *
+     * @param tile the received tile
+     */
+    public synchronized void received(@NonNull TileSnapshot<?, ?> tile) {
+        if (tile.data != null && tile.data.length >= MIN_PAYLOAD_SIZE) {
+            this.add(this.hashFunction.applyAsLong(tile.data), tile.data);
+        }
+    }
+
+    /**
+     * Called by the client for each tile which was received as a reference.
+     *
+     * @param pos       the tile's position
+     * @param timestamp the tile's timestamp
+     * @param reference the {@link Reference} to the tile's payload
+     * @return the tile
+     * @throws IllegalStateException if the payload isn't cached, which indicates that the client and the server are out of sync
+     */
+    public synchronized <POS extends IFarPos, T extends IFarTile> TileSnapshot<POS, T> resolve(@NonNull POS pos, long timestamp, @NonNull Reference reference) {
+        checkState(this.retainPayloads, "payloads aren't retained");
+
+        Entry entry = this.entries.get(reference.hash);
+        checkState(entry != null, "tile %s references unknown payload %s", pos, Long.toHexString(reference.hash));
+        checkState(entry.size == reference.length, "tile %s references payload %s with length %d, but the cached payload has length %d",
+                pos, Long.toHexString(reference.hash), reference.length, entry.size);
+        return new TileSnapshot<>(pos, timestamp, entry.payload);
+    }
+
+    protected void add(long hash, @NonNull byte[] payload) {
+        Entry entry = new Entry(payload.length, this.retainPayloads ? payload : null);
+        Entry old = this.entries.put(hash, entry);
+        if (old != null) { //a different payload with the same hash was cached, it's been replaced
+            this.size -= old.size;
+        }
+        this.size += entry.size;
+
+        //evict the least recently used payloads until we're back within the capacity
+        for (Iterator<Entry> itr = this.entries.values().iterator(); this.size > this.capacity && itr.hasNext(); ) {
+            this.size -= itr.next().size;
+            itr.remove();
+        }
+    }
+
+    /**
+     * @return the number of cached payloads
+     */
+    public synchronized int count() {
+        return this.entries.size();
+    }
+
+    /**
+     * A reference to a cached payload, which is sent instead of the payload itself.
+     *
+     * @author DaPorkchop_
+     */
+    @Data
+    public static final class Reference {
+        protected final long hash;
+        protected final int length;
+    }
+
+    /**
+     * A single cached payload.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class Entry {
+        protected final int size;
+        protected final byte[] payload; //null if payloads aren't retained
+
+        protected Entry(int size, byte[] payload) {
+            this.size = size;
+            this.payload = payload;
+        }
+    }
+}
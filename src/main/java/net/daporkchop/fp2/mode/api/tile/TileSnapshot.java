@@ -33,12 +33,25 @@ import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.util.SimpleRecycler;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 
+import static net.daporkchop.lib.common.util.PValidation.*;
+
 /**
  * @author DaPorkchop_
  */
 @RequiredArgsConstructor
 @Getter
 public class TileSnapshot<POS extends IFarPos, T extends IFarTile> implements ITileSnapshot<POS, T> {
+    /**
+     * The encoded data length which indicates that the tile is empty.
+     */
+    public static final int LENGTH_EMPTY = -1;
+
+    /**
+     * The encoded data length which indicates that the tile's payload was replaced with its hash and length, because the recipient already has it (see
+     * {@link TilePayloadCache}).
+     */
+    public static final int LENGTH_REFERENCE = -2;
+
     @NonNull
     protected final POS pos;
     protected final long timestamp;
@@ -51,7 +64,8 @@ public class TileSnapshot<POS extends IFarPos, T extends IFarTile> implements IT
         this.timestamp = src.readLongLE();
 
         int len = src.readIntLE();
-        if (len < 0) { //no data!
+        checkArg(len >= LENGTH_EMPTY, "unexpected tile data length: %d", len);
+        if (len == LENGTH_EMPTY) { //no data!
             this.data = null;
         } else { //tile data is non-empty, read it
             this.data = new byte[len];
@@ -64,12 +78,24 @@ public class TileSnapshot<POS extends IFarPos, T extends IFarTile> implements IT
         dst.writeLongLE(this.timestamp);
 
         if (this.data == null) { //no data!
-            dst.writeIntLE(-1);
+            dst.writeIntLE(LENGTH_EMPTY);
         } else { //tile data is present, write it to the buffer
             dst.writeIntLE(this.data.length).writeBytes(this.data);
         }
     }
 
+    /**
+     * Writes this tile with its payload replaced by the given reference.
+     *
+     * @param dst       the buffer to write to
+     * @param reference the reference to this tile's payload
+     */
+    public void writeReference(@NonNull ByteBuf dst, @NonNull TilePayloadCache.Reference reference) {
+        this.pos.writePos(dst);
+        dst.writeLongLE(this.timestamp);
+        dst.writeIntLE(LENGTH_REFERENCE).writeLongLE(reference.hash()).writeIntLE(reference.length());
+    }
+
     @Override
     public T loadTile(@NonNull SimpleRecycler<T> recycler) {
         if (this.data != null) {
@@ -86,6 +112,11 @@ public class TileSnapshot<POS extends IFarPos, T extends IFarTile> implements IT
         return this.data == null;
     }
 
+    @Override
+    public int dataSize() {
+        return this.data != null ? this.data.length : 0;
+    }
+
     @Override
     public ITileSnapshot<POS, T> compressed() {
         return new CompressedTileSnapshot<>(this);
@@ -114,6 +114,9 @@ public abstract class AbstractFarRenderMode<POS extends IFarPos, T extends IFarT
     @Override
     public abstract POS readPos(@NonNull ByteBuf buf);
 
+    @Override
+    public abstract POS readLegacyPos(@NonNull ByteBuf buf);
+
     @Override
     public abstract POS[] posArray(int length);
 
@@ -36,6 +36,7 @@ import net.daporkchop.fp2.mode.common.client.strategy.IFarRenderStrategy;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.lib.unsafe.util.AbstractReleasable;
 import net.minecraft.client.Minecraft;
+import net.minecraft.entity.Entity;
 import net.minecraft.util.BlockRenderLayer;
 
 import static net.daporkchop.fp2.client.gl.OpenGL.*;
@@ -88,6 +89,11 @@ public abstract class AbstractFarRenderer<POS extends IFarPos, T extends IFarTil
         this.gl.runCleanup();
         this.bakeManager.index.select(frustum, partialTicks);
 
+        Entity view = mc.getRenderViewEntity();
+        if (view != null) {
+            this.context.tileCache().viewPosition(view.posX, view.posY, view.posZ);
+        }
+
         checkGLError("post fp2 select");
     }
 
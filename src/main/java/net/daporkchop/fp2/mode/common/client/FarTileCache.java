@@ -21,30 +21,48 @@
 package net.daporkchop.fp2.mode.common.client;
 
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
 import net.daporkchop.fp2.debug.util.DebugStats;
 import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.client.IFarTileCache;
 import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.net.packet.standard.client.CPacketRequestTiles;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.annotation.RemovalPolicy;
 import net.daporkchop.lib.unsafe.util.AbstractReleasable;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Stream;
 
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.fp2.util.math.MathUtil.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
 /**
  * Default implementation of {@link IFarTileCache}.
+ * <p>
+ * The total size of all cached tile data is bounded by a configurable budget. When it is exceeded, the tiles which are farthest away from the camera (relative to
+ * their own size) are evicted until the cache is comfortably below the budget again. Evicted tiles are remembered, and are re-requested from the server as soon as
+ * the camera moves close enough to them that they would no longer be evicted.
  *
  * @author DaPorkchop_
  */
@@ -52,19 +70,65 @@ import static net.daporkchop.lib.common.util.PValidation.*;
 //TODO: this still has some race conditions - it's possible that addListener/removeListener might cause the listener to be notified twice for tiles that are
 // received/unloaded during the initial notification pass
 public class FarTileCache<POS extends IFarPos, T extends IFarTile> extends AbstractReleasable implements IFarTileCache<POS, T>, Function<POS, ITileSnapshot<POS, T>> {
+    /**
+     * Once the cache's budget is exceeded, tiles will be evicted until the cache's size is less than this fraction of the budget.
+     */
+    protected static final double EVICTION_TARGET = 0.9d;
+
+    /**
+     * If the cache's size drops below this fraction of the budget, all evicted tiles will be re-requested regardless of their distance to the camera.
+     */
+    protected static final double REREQUEST_ALL_TARGET = 0.75d;
+
+    /**
+     * The distance the camera has to move before evicted tiles will be checked again.
+     */
+    protected static final double VIEW_UPDATE_DISTANCE_SQUARED = sq(T_VOXELS >> 1);
+
+    /**
+     * The maximum number of evicted tiles which will be re-requested at once.
+     */
+    protected static final int MAX_REREQUEST_COUNT = CPacketRequestTiles.MAX_POSITIONS;
+
     protected final Map<POS, ITileSnapshot<POS, T>> tiles = new ConcurrentHashMap<>();
     protected final Collection<Listener<POS, T>> listeners = new CopyOnWriteArraySet<>();
 
+    protected final LongSupplier maxSize;
+    protected final Consumer<List<POS>> rerequestCallback;
+
+    protected final AtomicLong size = new AtomicLong();
+    protected final Set<POS> evictedPositions = ConcurrentHashMap.newKeySet();
+    protected final Lock evictionLock = new ReentrantLock();
+    protected volatile double evictionThreshold = Double.POSITIVE_INFINITY;
+
+    protected volatile double viewX;
+    protected volatile double viewY;
+    protected volatile double viewZ;
+    protected double lastCheckedViewX = Double.NaN;
+    protected double lastCheckedViewY = Double.NaN;
+    protected double lastCheckedViewZ = Double.NaN;
+
     @DebugOnly
     protected final AtomicReference<DebugStats.TileSnapshot> debug_tileStats = new AtomicReference<>(DebugStats.TileSnapshot.ZERO);
     @DebugOnly
     protected final LongAdder debug_nonEmptyTileCount = new LongAdder();
 
+    /**
+     * @param maxSize           a function which supplies the maximum total size (in bytes) of all cached tile data
+     * @param rerequestCallback a function which will be called to request that the server re-send the tiles at the given positions after they were evicted
+     */
+    public FarTileCache(@NonNull LongSupplier maxSize, @NonNull Consumer<List<POS>> rerequestCallback) {
+        this.maxSize = maxSize;
+        this.rerequestCallback = rerequestCallback;
+    }
+
     @Override
     public void receiveTile(@NonNull ITileSnapshot<POS, T> tile) {
         this.assertNotReleased();
         this.tiles.compute(tile.pos(), (pos, old) -> {
             this.debug_updateStats(old, tile);
+            this.size.addAndGet(tile.dataSize() - (old != null ? old.dataSize() : 0L));
+            this.evictedPositions.remove(pos);
 
             if (old == null) {
                 this.listeners.forEach(listener -> listener.tileAdded(tile));
@@ -73,13 +137,19 @@ public class FarTileCache<POS extends IFarPos, T extends IFarTile> extends Abstr
             }
             return tile;
         });
+
+        if (this.size.get() > this.maxSize.getAsLong()) {
+            this.evict();
+        }
     }
 
     @Override
     public void unloadTile(@NonNull POS _pos) {
         this.assertNotReleased();
+        this.evictedPositions.remove(_pos);
         this.tiles.computeIfPresent(_pos, (pos, old) -> {
             this.debug_updateStats(old, null);
+            this.size.addAndGet(-old.dataSize());
 
             this.listeners.forEach(listener -> listener.tileRemoved(pos));
             return null;
@@ -116,6 +186,96 @@ public class FarTileCache<POS extends IFarPos, T extends IFarTile> extends Abstr
         return position.map(this);
     }
 
+    @Override
+    public void viewPosition(double x, double y, double z) {
+        this.assertNotReleased();
+        this.viewX = x;
+        this.viewY = y;
+        this.viewZ = z;
+
+        if (this.evictedPositions.isEmpty()) { //nothing has been evicted, so there's nothing to re-request
+            return;
+        }
+
+        boolean rerequestAll = this.size.get() < (long) (this.maxSize.getAsLong() * REREQUEST_ALL_TARGET);
+        if (!rerequestAll && sq(x - this.lastCheckedViewX) + sq(y - this.lastCheckedViewY) + sq(z - this.lastCheckedViewZ) < VIEW_UPDATE_DISTANCE_SQUARED) {
+            return; //the camera hasn't moved far enough since the last check for anything to have changed
+        }
+        this.lastCheckedViewX = x;
+        this.lastCheckedViewY = y;
+        this.lastCheckedViewZ = z;
+
+        //re-request all evicted tiles which would no longer be evicted from the current position
+        double threshold = rerequestAll ? Double.POSITIVE_INFINITY : this.evictionThreshold;
+        List<POS> positions = new ArrayList<>();
+        for (Iterator<POS> itr = this.evictedPositions.iterator(); itr.hasNext() && positions.size() < MAX_REREQUEST_COUNT; ) {
+            POS pos = itr.next();
+            if (this.evictionPriority(pos, x, y, z) < threshold) {
+                itr.remove();
+                positions.add(pos);
+            }
+        }
+
+        if (!positions.isEmpty()) {
+            this.rerequestCallback.accept(positions);
+        }
+    }
+
+    /**
+     * Evicts the least important tiles until the cache's size is below {@link #EVICTION_TARGET} of its budget.
+     */
+    protected void evict() {
+        if (!this.evictionLock.tryLock()) { //some other thread is already evicting tiles
+            return;
+        }
+
+        try {
+            long targetSize = (long) (this.maxSize.getAsLong() * EVICTION_TARGET);
+            double x = this.viewX;
+            double y = this.viewY;
+            double z = this.viewZ;
+
+            //sort all cached tiles so that the least important ones come first
+            List<EvictionCandidate<POS, T>> candidates = new ArrayList<>(this.tiles.size());
+            this.tiles.forEach((pos, tile) -> candidates.add(new EvictionCandidate<>(tile, this.evictionPriority(pos, x, y, z))));
+            candidates.sort(Comparator.comparingDouble((EvictionCandidate<POS, T> candidate) -> candidate.priority).reversed());
+
+            for (EvictionCandidate<POS, T> candidate : candidates) {
+                if (this.size.get() <= targetSize) {
+                    break;
+                }
+
+                this.tiles.computeIfPresent(candidate.tile.pos(), (pos, old) -> {
+                    if (old != candidate.tile) { //the tile was replaced since we started, skip it
+                        return old;
+                    }
+
+                    this.debug_updateStats(old, null);
+                    this.size.addAndGet(-old.dataSize());
+                    this.evictedPositions.add(pos);
+
+                    this.listeners.forEach(listener -> listener.tileRemoved(pos));
+                    return null;
+                });
+
+                //candidates are sorted in descending order, so the most recently evicted candidate always has the lowest priority of all evicted tiles
+                this.evictionThreshold = candidate.priority;
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Computes the eviction priority of the tile at the given position. Tiles with a higher priority will be evicted first.
+     * <p>
+     * The priority is the distance to the camera measured in multiples of the tile's own size, so that tiles which are far away relative to their detail level are
+     * evicted before tiles at a lower detail level which cover the same area.
+     */
+    protected double evictionPriority(@NonNull POS pos, double x, double y, double z) {
+        return Math.sqrt(pos.distanceSq(x, y, z)) / (T_VOXELS << pos.level());
+    }
+
     @DebugOnly(RemovalPolicy.DROP)
     protected void debug_updateStats(ITileSnapshot<POS, T> prev, ITileSnapshot<POS, T> next) {
         DebugStats.TileSnapshot prevStats = prev != null ? prev.stats() : DebugStats.TileSnapshot.ZERO;
@@ -155,5 +315,18 @@ public class FarTileCache<POS extends IFarPos, T extends IFarTile> extends Abstr
         this.tiles.forEach((pos, tile) -> this.listeners.forEach(listener -> listener.tileRemoved(pos)));
         this.tiles.clear();
         this.listeners.clear();
+        this.evictedPositions.clear();
+    }
+
+    /**
+     * A tile which may be evicted, along with its eviction priority.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static final class EvictionCandidate<POS extends IFarPos, T extends IFarTile> {
+        @NonNull
+        protected final ITileSnapshot<POS, T> tile;
+        protected final double priority;
     }
 }
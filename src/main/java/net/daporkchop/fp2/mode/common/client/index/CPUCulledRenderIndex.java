@@ -38,19 +38,41 @@ import net.daporkchop.fp2.mode.common.client.ICullingStrategy;
 import net.daporkchop.fp2.mode.common.client.bake.IBakeOutput;
 import net.daporkchop.fp2.mode.common.client.strategy.IFarRenderStrategy;
 
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+import net.daporkchop.lib.common.util.PorkUtil;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.IntPredicate;
-import java.util.function.Supplier;
 
+import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
 
 /**
  * Implementation of {@link AbstractRenderIndex} which does frustum culling on the CPU.
+ * <p>
+ * The positions at each level are indexed by a {@link CullingTree}, and levels containing many tiles are culled in parallel using a small pool of culling threads.
  *
  * @author DaPorkchop_
  */
 public class CPUCulledRenderIndex<POS extends IFarPos, BO extends IBakeOutput, DB extends DrawBinding, DC extends DrawCommand> extends AbstractRenderIndex<POS, BO, DB, DC, JavaSelectedDrawList<DC>> {
     protected static final Allocator.GrowFunction GROW_FUNCTION = Allocator.GrowFunction.pow2(1L);
 
+    /**
+     * The minimum number of tiles a level must contain in order to be culled in parallel.
+     */
+    protected static final int PARALLEL_CULLING_THRESHOLD = 4096;
+
+    /**
+     * The maximum number of threads (including the render thread) which will be used for culling a single level.
+     */
+    protected static final int CULLING_PARALLELISM = max(min(PorkUtil.CPU_COUNT >> 1, 4), 1);
+
+    protected static final Executor CULLING_EXECUTOR = CULLING_PARALLELISM > 1
+            ? Executors.newFixedThreadPool(CULLING_PARALLELISM - 1, PThreadFactories.builder().daemon().collapsingId().name("FP2 Culling Thread #%d").build())
+            : Runnable::run;
+
     public <T extends IFarTile> CPUCulledRenderIndex(@NonNull IFarRenderStrategy<POS, T, BO, DB, DC> strategy) {
         super(strategy);
     }
@@ -64,10 +86,27 @@ public class CPUCulledRenderIndex<POS extends IFarPos, BO extends IBakeOutput, D
      * @author DaPorkchop_
      */
     protected class Level extends AbstractRenderIndex<POS, BO, DB, DC, JavaSelectedDrawList<DC>>.Level {
+        protected final CullingTree<POS> tree;
+        protected long[] selected = new long[0];
+
         protected IntPredicate selector;
 
         public Level(int level) {
             super(level, GROW_FUNCTION);
+
+            this.tree = new CullingTree<>(this.directPosAccess, level);
+        }
+
+        @Override
+        public void put(@NonNull POS pos, BO output) {
+            super.put(pos, output);
+
+            //the position's handle may have changed, so it needs to be re-inserted into the tree
+            this.tree.remove(pos);
+            int handle = this.positionsToHandles.getInt(pos);
+            if (handle >= 0) {
+                this.tree.add(pos, handle);
+            }
         }
 
         @Override
@@ -81,16 +120,30 @@ public class CPUCulledRenderIndex<POS extends IFarPos, BO extends IBakeOutput, D
         }
 
         protected IntPredicate cull(@NonNull IFrustum frustum) {
+            //reset the bitset of selected slots
+            long[] selected = this.selected;
+            int words = (this.capacity + 63) >>> 6;
+            if (selected.length != words) {
+                this.selected = selected = new long[words];
+            } else {
+                Arrays.fill(selected, 0L);
+            }
+
+            IntPredicate filter = null;
             if (this.level == 0) { //level-0 is tested for vanilla terrain intersection AND frustum intersection
                 ICullingStrategy<POS> cullingStrategy = CPUCulledRenderIndex.this.cullingStrategy;
                 VanillaRenderabilityTracker vanillaRenderabilityTracker = ((IMixinRenderGlobal) MC.renderGlobal).fp2_vanillaRenderabilityTracker();
-                return slot -> {
-                    long posAddr = this.positionsAddr + slot * this.positionSize;
-                    return !cullingStrategy.blockedByVanilla(vanillaRenderabilityTracker, posAddr) && this.directPosAccess.inFrustum(posAddr, frustum);
-                };
-            } else { //all other levels are only tested for frustum intersection
-                return slot -> this.directPosAccess.inFrustum(this.positionsAddr + slot * this.positionSize, frustum);
+                filter = slot -> !cullingStrategy.blockedByVanilla(vanillaRenderabilityTracker, this.positionsAddr + slot * this.positionSize);
             }
+
+            if (this.positionsToHandles.size() >= PARALLEL_CULLING_THRESHOLD) {
+                this.tree.select(frustum, filter, selected, CULLING_EXECUTOR, CULLING_PARALLELISM);
+            } else {
+                this.tree.select(frustum, filter, selected);
+            }
+
+            long[] result = selected;
+            return slot -> (result[slot >>> 6] & (1L << slot)) != 0L;
         }
 
         @Override
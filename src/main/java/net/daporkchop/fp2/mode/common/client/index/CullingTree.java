@@ -0,0 +1,349 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.client.index;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import lombok.NonNull;
+import net.daporkchop.fp2.client.gl.camera.IFrustum;
+import net.daporkchop.fp2.mode.api.IFarDirectPosAccess;
+import net.daporkchop.fp2.mode.api.IFarPos;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntPredicate;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A sparse bounding volume hierarchy over the positions of all tiles at a single detail level, which allows frustum culling to accept or reject entire groups of
+ * nearby tiles with a single bounding box test.
+ * <p>
+ * Positions are stored in a forest of implicit 2^n-trees (quadtrees or octrees, depending on the render mode's number of axes). A node at depth {@code d} covers a
+ * cube of {@code 2^d} tiles along each axis, and the roots (which all have depth {@link #ROOT_DEPTH}) are kept in a hash map, allowing the tree to cover
+ * arbitrarily large areas. The tree is updated incrementally as positions are added and removed.
+ * <p>
+ * This class is not thread-safe. Multiple threads may be used to cull a single tree, but it must not be modified while culling is in progress.
+ *
+ * @author DaPorkchop_
+ */
+public class CullingTree<POS extends IFarPos> {
+    /**
+     * The depth of the root nodes. Each root covers {@code 2^ROOT_DEPTH} tiles along each axis.
+     */
+    public static final int ROOT_DEPTH = 6;
+
+    protected static final int ROOT_KEY_BITS = 64 / 3;
+    protected static final long ROOT_KEY_MASK = (1L << ROOT_KEY_BITS) - 1L;
+
+    protected final IFarDirectPosAccess<POS> directPosAccess;
+    protected final int level;
+    protected final int axisCount;
+
+    protected final Long2ObjectMap<Node> roots = new Long2ObjectOpenHashMap<>();
+    protected Node[] rootArray = new Node[0];
+
+    protected final int[] tmpCoords;
+
+    public CullingTree(@NonNull IFarDirectPosAccess<POS> directPosAccess, int level) {
+        this.directPosAccess = directPosAccess;
+        this.level = notNegative(level, "level");
+        this.axisCount = positive(directPosAccess.axisCount(), "axisCount");
+        checkArg(this.axisCount <= 3, "unsupported axis count: %d", this.axisCount);
+
+        this.tmpCoords = new int[this.axisCount];
+    }
+
+    /**
+     * @return the number of positions in this tree
+     */
+    public int size() {
+        int size = 0;
+        for (Node root : this.rootArray) {
+            size += root.count;
+        }
+        return size;
+    }
+
+    /**
+     * Adds the given position to this tree.
+     *
+     * @param pos  the position
+     * @param slot the slot index associated with the position
+     */
+    public void add(@NonNull POS pos, int slot) {
+        notNegative(slot, "slot");
+        int[] coords = this.coords(pos);
+
+        long rootKey = this.rootKey(coords);
+        Node node = this.roots.get(rootKey);
+        if (node == null) { //create new root node
+            int[] min = new int[this.axisCount];
+            for (int axis = 0; axis < this.axisCount; axis++) {
+                min[axis] = coords[axis] & -(1 << ROOT_DEPTH);
+            }
+            this.roots.put(rootKey, node = new Node(min, ROOT_DEPTH, this.axisCount));
+            this.rootArray = this.roots.values().toArray(new Node[0]);
+        }
+
+        while (true) {
+            node.count++;
+
+            int childIndex = node.childIndex(coords);
+            if (node.depth == 1) { //the children are leaves
+                checkState(node.slots[childIndex] < 0, "duplicate position: %s", pos);
+                node.slots[childIndex] = slot;
+                return;
+            }
+
+            Node child = node.children[childIndex];
+            if (child == null) { //create new child node
+                int[] min = node.min.clone();
+                for (int axis = 0; axis < this.axisCount; axis++) {
+                    if ((childIndex & (1 << axis)) != 0) {
+                        min[axis] += 1 << (node.depth - 1);
+                    }
+                }
+                node.children[childIndex] = child = new Node(min, node.depth - 1, this.axisCount);
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Removes the given position from this tree.
+     *
+     * @param pos the position
+     * @return whether or not the position was present in this tree
+     */
+    public boolean remove(@NonNull POS pos) {
+        int[] coords = this.coords(pos);
+
+        long rootKey = this.rootKey(coords);
+        Node root = this.roots.get(rootKey);
+        if (root == null || !this.remove(root, coords)) {
+            return false;
+        }
+
+        if (root.count == 0) { //the root is now empty, remove it
+            this.roots.remove(rootKey);
+            this.rootArray = this.roots.values().toArray(new Node[0]);
+        }
+        return true;
+    }
+
+    protected boolean remove(@NonNull Node node, @NonNull int[] coords) {
+        int childIndex = node.childIndex(coords);
+        if (node.depth == 1) { //the children are leaves
+            if (node.slots[childIndex] < 0) {
+                return false;
+            }
+            node.slots[childIndex] = -1;
+        } else {
+            Node child = node.children[childIndex];
+            if (child == null || !this.remove(child, coords)) {
+                return false;
+            }
+            if (child.count == 0) { //the child is now empty, prune it
+                node.children[childIndex] = null;
+            }
+        }
+
+        node.count--;
+        return true;
+    }
+
+    /**
+     * Finds the slots of all positions whose tiles intersect the given frustum.
+     *
+     * @param frustum the frustum
+     * @param filter  an additional filter which will be applied to the slot of every tile that intersects the frustum. May be {@code null}
+     * @param dst     a bitset which the slots of all visible tiles will be added to
+     */
+    public void select(@NonNull IFrustum frustum, IntPredicate filter, @NonNull long[] dst) {
+        this.select(this.rootArray, 0, this.rootArray.length, frustum, filter, dst);
+    }
+
+    /**
+     * Finds the slots of all positions whose tiles intersect the given frustum, splitting the work among multiple threads.
+     * <p>
+     * The calling thread will also participate in culling.
+     *
+     * @param frustum     the frustum
+     * @param filter      an additional filter which will be applied to the slot of every tile that intersects the frustum. May be {@code null}, and must be
+     *                    thread-safe if not
+     * @param dst         a bitset which the slots of all visible tiles will be added to
+     * @param executor    the {@link Executor} to run the additional culling tasks on
+     * @param parallelism the maximum number of threads to use
+     */
+    public void select(@NonNull IFrustum frustum, IntPredicate filter, @NonNull long[] dst, @NonNull Executor executor, int parallelism) {
+        Node[] roots = this.rootArray;
+        int tasks = min(positive(parallelism, "parallelism"), roots.length);
+        if (tasks <= 1) { //nothing to split up
+            this.select(roots, 0, roots.length, frustum, filter, dst);
+            return;
+        }
+
+        //submit all but the first range of roots to the executor, each with its own bitset
+        long[][] partialResults = new long[tasks][];
+        CompletableFuture<?>[] futures = new CompletableFuture[tasks];
+        for (int task = 1; task < tasks; task++) {
+            int fromIndex = (int) ((long) roots.length * task / tasks);
+            int toIndex = (int) ((long) roots.length * (task + 1) / tasks);
+            long[] partialResult = partialResults[task] = new long[dst.length];
+            futures[task] = CompletableFuture.runAsync(() -> this.select(roots, fromIndex, toIndex, frustum, filter, partialResult), executor);
+        }
+
+        //cull the first range on this thread
+        this.select(roots, 0, (int) ((long) roots.length / tasks), frustum, filter, dst);
+
+        //wait for the other tasks to complete and merge their results into the destination bitset
+        for (int task = 1; task < tasks; task++) {
+            futures[task].join();
+
+            long[] partialResult = partialResults[task];
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] |= partialResult[i];
+            }
+        }
+    }
+
+    protected void select(@NonNull Node[] roots, int fromIndex, int toIndex, @NonNull IFrustum frustum, IntPredicate filter, @NonNull long[] dst) {
+        double[] bb = new double[6];
+        int[] coords = new int[this.axisCount];
+        for (int i = fromIndex; i < toIndex; i++) {
+            this.select(roots[i], frustum, filter, dst, bb, coords);
+        }
+    }
+
+    protected void select(@NonNull Node node, @NonNull IFrustum frustum, IntPredicate filter, @NonNull long[] dst, @NonNull double[] bb, @NonNull int[] coords) {
+        this.directPosAccess.boundingBox(this.level, node.min, 1 << node.depth, bb);
+        if (!frustum.intersectsBB(bb[0], bb[1], bb[2], bb[3], bb[4], bb[5])) { //the node is entirely outside of the frustum
+            return;
+        } else if (frustum.containsBB(bb[0], bb[1], bb[2], bb[3], bb[4], bb[5])) { //the node is entirely inside of the frustum
+            this.selectAll(node, filter, dst);
+            return;
+        }
+
+        if (node.depth == 1) { //the children are leaves, test each one individually
+            for (int childIndex = 0; childIndex < node.slots.length; childIndex++) {
+                int slot = node.slots[childIndex];
+                if (slot < 0) {
+                    continue;
+                }
+
+                for (int axis = 0; axis < this.axisCount; axis++) {
+                    coords[axis] = node.min[axis] + ((childIndex >> axis) & 1);
+                }
+                this.directPosAccess.boundingBox(this.level, coords, 1, bb);
+                if (frustum.intersectsBB(bb[0], bb[1], bb[2], bb[3], bb[4], bb[5])) {
+                    this.selectSlot(slot, filter, dst);
+                }
+            }
+        } else {
+            for (Node child : node.children) {
+                if (child != null) {
+                    this.select(child, frustum, filter, dst, bb, coords);
+                }
+            }
+        }
+    }
+
+    protected void selectAll(@NonNull Node node, IntPredicate filter, @NonNull long[] dst) {
+        if (node.depth == 1) {
+            for (int slot : node.slots) {
+                if (slot >= 0) {
+                    this.selectSlot(slot, filter, dst);
+                }
+            }
+        } else {
+            for (Node child : node.children) {
+                if (child != null) {
+                    this.selectAll(child, filter, dst);
+                }
+            }
+        }
+    }
+
+    protected void selectSlot(int slot, IntPredicate filter, @NonNull long[] dst) {
+        if (filter == null || filter.test(slot)) {
+            dst[slot >>> 6] |= 1L << slot;
+        }
+    }
+
+    protected int[] coords(@NonNull POS pos) {
+        checkArg(pos.level() == this.level, "position %s is not at level %d", pos, this.level);
+
+        int[] coords = this.tmpCoords;
+        for (int axis = 0; axis < this.axisCount; axis++) {
+            coords[axis] = this.directPosAccess.getAxisHeap(pos, axis);
+        }
+        return coords;
+    }
+
+    protected long rootKey(@NonNull int[] coords) {
+        long key = 0L;
+        for (int axis = 0; axis < this.axisCount; axis++) {
+            key |= ((coords[axis] >> ROOT_DEPTH) & ROOT_KEY_MASK) << (axis * ROOT_KEY_BITS);
+        }
+        return key;
+    }
+
+    /**
+     * A single node in the tree.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class Node {
+        protected final int[] min;
+        protected final int depth;
+
+        protected final Node[] children;
+        protected final int[] slots;
+
+        protected int count;
+
+        public Node(@NonNull int[] min, int depth, int axisCount) {
+            this.min = min;
+            this.depth = depth;
+
+            int childCount = 1 << axisCount;
+            if (depth == 1) {
+                this.children = null;
+                this.slots = new int[childCount];
+                Arrays.fill(this.slots, -1);
+            } else {
+                this.children = new Node[childCount];
+                this.slots = null;
+            }
+        }
+
+        public int childIndex(@NonNull int[] coords) {
+            int shift = this.depth - 1;
+            int childIndex = 0;
+            for (int axis = 0; axis < coords.length; axis++) {
+                childIndex |= (((coords[axis] - this.min[axis]) >> shift) & 1) << axis;
+            }
+            return childIndex;
+        }
+    }
+}
@@ -30,10 +30,15 @@ import net.daporkchop.fp2.mode.api.client.IFarRenderer;
 import net.daporkchop.fp2.mode.api.client.IFarTileCache;
 import net.daporkchop.fp2.mode.api.ctx.IFarClientContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarWorldClient;
+import net.daporkchop.fp2.mode.api.tile.TilePayloadCache;
 import net.daporkchop.fp2.mode.common.client.FarTileCache;
+import net.daporkchop.fp2.net.packet.standard.client.CPacketRequestTiles;
 import net.daporkchop.fp2.util.annotation.CalledFromNetworkThread;
 
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.net.FP2Network.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
+import static net.daporkchop.lib.common.util.PorkUtil.*;
 
 /**
  * Base implementation of {@link IFarClientContext}.
@@ -45,6 +50,7 @@ public abstract class AbstractFarClientContext<POS extends IFarPos, T extends IF
     protected final IFarRenderMode<POS, T> mode;
     protected final IFarWorldClient world;
     protected final IFarTileCache<POS, T> tileCache;
+    protected final TilePayloadCache payloadCache;
 
     protected FP2Config config;
     protected IFarRenderer renderer;
@@ -54,13 +60,17 @@ public abstract class AbstractFarClientContext<POS extends IFarPos, T extends IF
     public AbstractFarClientContext(@NonNull IFarWorldClient world, @NonNull FP2Config config, @NonNull IFarRenderMode<POS, T> mode) {
         this.world = world;
         this.mode = mode;
+        this.payloadCache = new TilePayloadCache(TilePayloadCache.capacityFor(config), true);
         this.tileCache = this.tileCache0();
 
         this.notifyConfigChange(config);
     }
 
     protected IFarTileCache<POS, T> tileCache0() {
-        return new FarTileCache<>();
+        return new FarTileCache<>(
+                //the payload cache holds on to tile data as well, so it's charged against the tile cache's budget
+                () -> max(FP2Config.global().performance().maxTileCacheSize() * (1L << 20L) - this.payloadCache.capacity(), 0L),
+                positions -> PROTOCOL_FP2.sendToServer(new CPacketRequestTiles().mode(this.mode).positions(uncheckedCast(positions))));
     }
 
     protected abstract IFarRenderer renderer0(IFarRenderer old, @NonNull FP2Config config);
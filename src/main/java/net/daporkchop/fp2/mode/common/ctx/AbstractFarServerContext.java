@@ -20,6 +20,7 @@
 
 package net.daporkchop.fp2.mode.common.ctx;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Synchronized;
@@ -32,15 +33,23 @@ import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.player.IFarPlayerServer;
 import net.daporkchop.fp2.mode.api.server.IFarTileProvider;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTracker;
+import net.daporkchop.fp2.mode.api.tile.TilePayloadCache;
 import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
 import net.daporkchop.fp2.net.packet.debug.server.SPacketDebugUpdateStatistics;
-import net.daporkchop.fp2.net.packet.standard.server.SPacketTileData;
+import net.daporkchop.fp2.net.packet.standard.server.SPacketTileBatch;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketUnloadTile;
 import net.daporkchop.fp2.util.annotation.CalledFromServerThread;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.annotation.RemovalPolicy;
+import net.daporkchop.fp2.util.stats.Counter;
+import net.daporkchop.fp2.util.stats.Histogram;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
 
@@ -63,6 +72,20 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
 
     protected final Map<POS, Optional<TileSnapshot<POS, T>>> sendQueue = new TreeMap<>();
 
+    @Getter(AccessLevel.NONE)
+    protected final TilePayloadCache payloadCache; //mirrors the payloads held by the client
+
+    @Getter(AccessLevel.NONE)
+    protected final Counter tilesSent;
+    @Getter(AccessLevel.NONE)
+    protected final Counter unloadsSent;
+    @Getter(AccessLevel.NONE)
+    protected final Counter batchesSent;
+    @Getter(AccessLevel.NONE)
+    protected final Counter referencesSent;
+    @Getter(AccessLevel.NONE)
+    protected final Histogram flushSize;
+
     protected FP2Config config;
 
     protected boolean closed = false;
@@ -75,9 +98,17 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
         this.world = world;
         this.mode = mode;
         this.config = config;
+        this.payloadCache = new TilePayloadCache(TilePayloadCache.capacityFor(config), false);
 
         this.tileProvider = world.fp2_IFarWorldServer_tileProviderFor(mode);
         this.tracker = this.tileProvider.trackerManager().beginTracking(this);
+
+        MetricsRegistry metrics = this.tileProvider.metrics();
+        this.tilesSent = metrics.counter("fp2_send_tiles_total", "Total number of tiles sent to players");
+        this.unloadsSent = metrics.counter("fp2_send_unloads_total", "Total number of tile unload packets sent to players");
+        this.batchesSent = metrics.counter("fp2_send_batches_total", "Total number of tile batch packets sent to players");
+        this.referencesSent = metrics.counter("fp2_send_tile_references_total", "Total number of tiles sent as a reference to a payload which the player already has");
+        this.flushSize = metrics.histogram("fp2_send_queue_flush_size", "Number of entries in a player's send queue when it is flushed", 1.0d);
     }
 
     @CalledFromServerThread
@@ -103,13 +134,45 @@ public abstract class AbstractFarServerContext<POS extends IFarPos, T extends IF
     @Synchronized("sendQueue")
     protected void flushSendQueue() {
         if (!this.sendQueue.isEmpty()) {
-            this.sendQueue.forEach((pos, optionalSnapshot) -> this.player.fp2_IFarPlayer_sendPacket(optionalSnapshot.isPresent()
-                    ? new SPacketTileData().mode(this.mode).tile(optionalSnapshot.get())
-                    : new SPacketUnloadTile().mode(this.mode).pos(pos)));
+            this.flushSize.record(this.sendQueue.size());
+
+            List<TileSnapshot<?, ?>> batch = new ArrayList<>(SPacketTileBatch.MAX_TILES);
+            int[] batchPayloadSize = new int[1];
+            this.sendQueue.forEach((pos, optionalSnapshot) -> {
+                if (optionalSnapshot.isPresent()) { //tile data will be sent in batches
+                    TileSnapshot<?, ?> snapshot = optionalSnapshot.get();
+                    if (batchPayloadSize[0] + snapshot.dataSize() > SPacketTileBatch.MAX_PAYLOAD_SIZE) { //the batch would be too large for the client to accept
+                        this.sendTileBatch(batch);
+                        batchPayloadSize[0] = 0;
+                    }
+
+                    batch.add(snapshot);
+                    batchPayloadSize[0] += snapshot.dataSize();
+                    if (batch.size() >= SPacketTileBatch.MAX_TILES) {
+                        this.sendTileBatch(batch);
+                        batchPayloadSize[0] = 0;
+                    }
+                } else {
+                    this.player.fp2_IFarPlayer_sendPacket(new SPacketUnloadTile().mode(this.mode).pos(pos));
+                    this.unloadsSent.inc();
+                }
+            });
+            this.sendTileBatch(batch);
             this.sendQueue.clear();
         }
     }
 
+    protected void sendTileBatch(@NonNull List<TileSnapshot<?, ?>> batch) {
+        if (!batch.isEmpty()) {
+            SPacketTileBatch packet = new SPacketTileBatch().mode(this.mode).tiles(new ArrayList<>(batch)).deduplicate(this.payloadCache);
+            this.player.fp2_IFarPlayer_sendPacket(packet);
+            this.tilesSent.add(batch.size());
+            this.referencesSent.add(Arrays.stream(packet.references()).filter(Objects::nonNull).count());
+            this.batchesSent.inc();
+            batch.clear();
+        }
+    }
+
     @DebugOnly(RemovalPolicy.DROP)
     private void debugUpdate() {
         if (!FP2_DEBUG) { //debug mode not enabled, do nothing
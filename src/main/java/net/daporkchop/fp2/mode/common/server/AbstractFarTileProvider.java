@@ -36,16 +36,20 @@ import net.daporkchop.fp2.mode.api.server.gen.IFarScaler;
 import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTrackerManager;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenArea;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenTask;
 import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage;
 import net.daporkchop.fp2.server.worldlistener.IWorldChangeListener;
 import net.daporkchop.fp2.server.worldlistener.WorldChangeListenerManager;
 import net.daporkchop.fp2.util.Constants;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
+import net.daporkchop.fp2.util.stats.PrometheusFileExporter;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
 import net.daporkchop.fp2.util.threading.asyncblockaccess.IAsyncBlockAccess;
 import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
-import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import net.daporkchop.fp2.util.threading.scheduler.FairShareWorkerPool;
 import net.daporkchop.lib.common.misc.string.PStrings;
-import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.WorldServer;
 
 import java.io.File;
@@ -53,6 +57,8 @@ import java.io.IOException;
 import java.util.Set;
 import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -74,14 +80,19 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
     protected final IFarGeneratorExact<POS, T> generatorExact;
     protected final IFarScaler<POS, T> scaler;
 
+    protected final MetricsRegistry metrics;
+    protected final PrometheusFileExporter metricsExporter; //null if metrics exporting is disabled
+
     protected final IFarStorage<POS, T> storage;
 
     protected final IFarTrackerManager<POS, T> trackerManager;
 
-    protected final Scheduler<PriorityTask<POS>, ITileHandle<POS, T>> scheduler; //TODO: make this global rather than per-mode and per-dimension
+    protected final ApproximatelyPrioritizedSharedFutureScheduler<PriorityTask<POS>, ITileHandle<POS, T>> scheduler; //borrows its worker threads from the global FairShareWorkerPool
 
     protected final boolean lowResolution;
 
+    protected PregenTask<POS> pregenTask;
+
     protected Set<POS> updatesPending = new ObjectRBTreeSet<>();
     protected long lastCompletedTick = -1L;
 
@@ -103,12 +114,16 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
         this.scaler = this.createScaler();
 
         this.root = new File(world.getChunkSaveLocation(), "fp2/" + this.mode().name().toLowerCase());
+
+        this.metrics = new MetricsRegistry("mode", this.mode().name().toLowerCase(), "dim", String.valueOf(world.provider.getDimension()));
+
         this.storage = new RocksStorage<>(this, this.root);
 
         this.scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(
                 scheduler -> task -> {
                     switch (task.stage()) {
                         case LOAD:
+                        case PREGEN:
                             return new AbstractTileTask.Load<>(this, scheduler, task.pos()).get();
                         case UPDATE:
                             return new AbstractTileTask.Update<>(this, scheduler, task.pos()).get();
@@ -116,15 +131,24 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
                             throw new IllegalArgumentException("unknown or stage in task: " + task);
                     }
                 },
-                ThreadingHelper.workerGroupBuilder()
-                        .world(this.world)
-                        .threads(FP2Config.global().performance().terrainThreads())
-                        .threadFactory(PThreadFactories.builder().daemon().minPriority().collapsingId()
-                                .name(PStrings.fastFormat("FP2 %s DIM%d Worker #%%d", mode.name(), world.provider.getDimension())).build()),
-                PriorityTask.approxComparator());
+                ThreadingHelper.workerGroupBuilder().world(this.world),
+                FairShareWorkerPool.retainGlobal(),
+                this::schedulerWeight,
+                this::approxPriority, PriorityTask.APPROX_PRIORITIES,
+                new TileTaskMetrics<>(this.metrics));
+        this.metrics.gauge("fp2_tile_tasks_queued", "Number of tile tasks waiting in the scheduler queue", this.scheduler::queuedTasks);
 
         this.trackerManager = this.createTracker();
 
+        int exportInterval = FP2Config.global().performance().metricsExportInterval();
+        this.metricsExporter = exportInterval > 0
+                ? new PrometheusFileExporter(this.metrics, new File(this.root, "metrics.prom").toPath(), exportInterval, TimeUnit.SECONDS)
+                : null;
+
+        if (this.pregenCheckpointFile().exists()) {
+            FP2_LOG.info("Found unfinished {} pregeneration in DIM{}, re-run the same /fp2 pregen command to resume it", this.mode().name(), world.provider.getDimension());
+        }
+
         WorldChangeListenerManager.add(this.world, this);
     }
 
@@ -134,6 +158,47 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
 
     protected abstract boolean anyVanillaTerrainExistsAt(@NonNull POS pos);
 
+    /**
+     * Creates a {@link PregenArea} covering the given region of this tile provider's world.
+     *
+     * @param centerX  the X coordinate of the center block
+     * @param centerY  the Y coordinate of the center block
+     * @param centerZ  the Z coordinate of the center block
+     * @param radius   the horizontal radius (in blocks) around the center block
+     * @param maxLevel the highest detail level to pregenerate (inclusive)
+     * @return a new {@link PregenArea}
+     */
+    protected abstract PregenArea<POS> createPregenArea(int centerX, int centerY, int centerZ, int radius, int maxLevel);
+
+    /**
+     * @return the weight of this tile provider's {@link #scheduler} relative to all others sharing the global {@link FairShareWorkerPool}
+     */
+    protected int schedulerWeight() {
+        //the tracker manager is initialized after the scheduler, so it could theoretically still be null here
+        IFarTrackerManager<POS, T> trackerManager = this.trackerManager;
+
+        //weight is always at least 1, so that tile providers without any players can still process updates
+        return 1 + (trackerManager != null ? trackerManager.activeTrackers() : 0);
+    }
+
+    /**
+     * Computes the approximate priority of the given task for this tile provider's {@link #scheduler}.
+     * <p>
+     * Tasks are prioritized by their distance to the nearest player, so that tiles close to a player are generated first even if another player has many more
+     * tiles waiting to be generated.
+     *
+     * @param task the task
+     * @return the task's approximate priority
+     * @see PriorityTask#approxPriority(TaskStage, int, int)
+     */
+    protected int approxPriority(@NonNull PriorityTask<POS> task) {
+        //the tracker manager is initialized after the scheduler, so it could theoretically still be null here
+        IFarTrackerManager<POS, T> trackerManager = this.trackerManager;
+
+        int distance = trackerManager != null ? trackerManager.distanceToNearestTracker(task.pos()) : Integer.MAX_VALUE;
+        return PriorityTask.approxPriority(task.stage(), task.pos().level(), distance);
+    }
+
     protected PriorityTask<POS> taskFor(@NonNull TaskStage stage, @NonNull POS pos) {
         return PriorityTask.forStageAndPosition(stage, pos);
     }
@@ -146,6 +211,10 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
         return this.taskFor(TaskStage.UPDATE, pos);
     }
 
+    protected PriorityTask<POS> pregenTaskFor(@NonNull POS pos) {
+        return this.taskFor(TaskStage.PREGEN, pos);
+    }
+
     @Override
     public CompletableFuture<ITileHandle<POS, T>> requestLoad(@NonNull POS pos) {
         return this.scheduler.schedule(this.loadTaskFor(pos));
@@ -156,6 +225,68 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
         return this.scheduler.schedule(this.updateTaskFor(pos));
     }
 
+    @Override
+    public void trackersMoved() {
+        this.scheduler.reprioritize();
+    }
+
+    /**
+     * Starts pregenerating all tiles within the given radius around the world spawn point, resuming a previous pregeneration of the same area if possible.
+     *
+     * @param radius   the horizontal radius (in blocks) around the world spawn point
+     * @param maxLevel the highest detail level to pregenerate (inclusive)
+     * @return the new {@link PregenTask}
+     * @throws IllegalStateException if pregeneration is already running in this tile provider
+     */
+    @SneakyThrows(IOException.class)
+    public synchronized PregenTask<POS> startPregen(int radius, int maxLevel) {
+        checkState(this.pregenTask == null || !this.pregenTask.running(), "pregeneration is already running!");
+
+        BlockPos spawn = this.world.getSpawnPoint();
+        PregenTask<POS> task = new PregenTask<>(
+                PStrings.fastFormat("%s DIM%d", this.mode().name(), this.world.provider.getDimension()),
+                this.createPregenArea(spawn.getX(), spawn.getY(), spawn.getZ(), radius, maxLevel),
+                pos -> this.scheduler.schedule(this.pregenTaskFor(pos)),
+                this.pregenCheckpointFile().toPath(),
+                Math.max(FP2Config.global().performance().terrainThreads() << 2, 16));
+        task.start();
+        return this.pregenTask = task;
+    }
+
+    /**
+     * Stops the currently running pregeneration, saving its progress so that it may be resumed later.
+     *
+     * @return a {@link CompletableFuture} which will be completed once the pregeneration has stopped, or {@code null} if pregeneration wasn't running
+     */
+    public synchronized CompletableFuture<Void> stopPregen() {
+        PregenTask<POS> task = this.pregenTask;
+        return task != null && task.running() ? task.stop() : null;
+    }
+
+    /**
+     * @return the most recently started {@link PregenTask}, or {@code null} if pregeneration was never started
+     */
+    public synchronized PregenTask<POS> pregenTask() {
+        return this.pregenTask;
+    }
+
+    protected File pregenCheckpointFile() {
+        return new File(this.root, "pregen.properties");
+    }
+
+    /**
+     * Gets the directory containing the tile export with the given name.
+     * <p>
+     * Exports are kept outside of the storage root, so that they can be copied to another server without touching the storage itself.
+     *
+     * @param name the export's name
+     * @return the directory containing the export
+     * @see IFarStorage#exportTiles(File, int, int, Predicate)
+     */
+    public File exportDirectory(@NonNull String name) {
+        return new File(this.root.getParentFile(), "exports/" + this.mode().name().toLowerCase() + '/' + name);
+    }
+
     public boolean canGenerateRough(@NonNull POS pos) {
         return this.generatorRough != null && (pos.level() == 0 || this.lowResolution);
     }
@@ -205,16 +336,26 @@ public abstract class AbstractFarTileProvider<POS extends IFarPos, T extends IFa
     @Override
     @SneakyThrows(IOException.class)
     public void close() {
+        CompletableFuture<Void> pregenStopped = this.stopPregen();
+        if (pregenStopped != null) { //wait for pregeneration to save its progress
+            pregenStopped.join();
+        }
+
         this.trackerManager.close();
 
         WorldChangeListenerManager.remove(this.world, this);
 
         this.scheduler.close();
+        FairShareWorkerPool.releaseGlobal();
 
         this.onTickEnd();
         this.shutdownUpdateQueue();
 
         FP2_LOG.trace("Shutting down storage in DIM{}", this.world.provider.getDimension());
         this.storage.close();
+
+        if (this.metricsExporter != null) { //write the final metric values
+            this.metricsExporter.close();
+        }
     }
 }
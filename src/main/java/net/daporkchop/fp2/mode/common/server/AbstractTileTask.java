@@ -29,6 +29,7 @@ import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
 import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
 import net.daporkchop.fp2.util.SimpleRecycler;
 import net.daporkchop.fp2.util.threading.futurecache.GenerationNotAllowedException;
 import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
@@ -64,6 +65,14 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
 
     protected abstract long minimumTimestamp();
 
+    /**
+     * Gets the minimum timestamp which the tile at the given handle must have in order for a task of this type at its position to be able to return immediately.
+     *
+     * @param handle the {@link ITileHandle} of the tile
+     * @return the minimum timestamp
+     */
+    protected abstract long minimumTimestampFor(@NonNull ITileHandle<POS, T> handle);
+
     protected abstract boolean allowNewGeneration();
 
     protected abstract PriorityTask<POS> taskFor(@NonNull POS pos);
@@ -158,18 +167,28 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
     }
 
     protected void generateScale(long minimumTimestamp) {
-        //generate scale inputs
-        List<ITileHandle<POS, T>> srcHandles = this.scheduler.scatterGather(this.world.scaler().inputs(this.pos).map(this::taskFor).collect(Collectors.toList()));
+        //generate scale inputs. this doesn't block: if any of them still need to be generated, this task will be suspended and executed again once they're all done,
+        //  so the whole tree of missing tiles below this one is generated bottom-up without any worker waiting on another.
+        //  inputs which are already up-to-date are skipped, so that this task doesn't get suspended at all if there's nothing to wait for
+        List<POS> srcPositions = this.world.scaler().inputs(this.pos).collect(Collectors.toList());
+        this.scheduler.dependOn(srcPositions.stream()
+                .filter(srcPos -> {
+                    ITileHandle<POS, T> srcHandle = this.world.storage().handleFor(srcPos);
+                    return srcHandle.timestamp() < this.minimumTimestampFor(srcHandle);
+                })
+                .map(this::taskFor)
+                .collect(Collectors.toList()));
 
         if (this.handle.timestamp() >= minimumTimestamp) { //break out early if tile is already done
             return;
         }
 
-        //inflate sources
+        //inflate sources (reading all of them from storage at once)
+        List<ITileSnapshot<POS, T>> srcSnapshots = this.world.storage().multiSnapshot(srcPositions);
         SimpleRecycler<T> tileRecycler = this.world.mode().tileRecycler();
-        T[] srcs = this.world.mode().tileArray(srcHandles.size());
-        for (int i = 0; i < srcHandles.size(); i++) {
-            srcs[i] = srcHandles.get(i).snapshot().loadTile(tileRecycler);
+        T[] srcs = this.world.mode().tileArray(srcSnapshots.size());
+        for (int i = 0; i < srcSnapshots.size(); i++) {
+            srcs[i] = srcSnapshots.get(i).loadTile(tileRecycler);
         }
 
         if (this.handle.timestamp() >= minimumTimestamp) { //break out early if tile is already done
@@ -205,6 +224,11 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
             return ITileMetadata.TIMESTAMP_GENERATED;
         }
 
+        @Override
+        protected long minimumTimestampFor(@NonNull ITileHandle<POS, T> handle) {
+            return ITileMetadata.TIMESTAMP_GENERATED;
+        }
+
         @Override
         protected boolean allowNewGeneration() {
             return true;
@@ -226,8 +250,13 @@ public abstract class AbstractTileTask<POS extends IFarPos, T extends IFarTile>
         public Update(@NonNull AbstractFarTileProvider<POS, T> world, @NonNull Scheduler<PriorityTask<POS>, ITileHandle<POS, T>> scheduler, @NonNull POS pos) {
             super(world, scheduler, pos);
 
-            long minimumTimestamp = this.handle.dirtyTimestamp();
-            this.minimumTimestamp = minimumTimestamp == ITileMetadata.TIMESTAMP_BLANK ? ITileMetadata.TIMESTAMP_GENERATED : minimumTimestamp;
+            this.minimumTimestamp = this.minimumTimestampFor(this.handle);
+        }
+
+        @Override
+        protected long minimumTimestampFor(@NonNull ITileHandle<POS, T> handle) {
+            long minimumTimestamp = handle.dirtyTimestamp();
+            return minimumTimestamp == ITileMetadata.TIMESTAMP_BLANK ? ITileMetadata.TIMESTAMP_GENERATED : minimumTimestamp;
         }
 
         @Override
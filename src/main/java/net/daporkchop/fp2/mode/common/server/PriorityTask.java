@@ -23,8 +23,9 @@ package net.daporkchop.fp2.mode.common.server;
 import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarPos;
 
-import java.util.Comparator;
-
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
 import static net.daporkchop.lib.common.util.PorkUtil.*;
 
 /**
@@ -34,24 +35,43 @@ import static net.daporkchop.lib.common.util.PorkUtil.*;
  */
 public interface PriorityTask<POS extends IFarPos> {
     /**
-     * @deprecated internal API, do not touch!
+     * The number of distinct values returned by {@link #distanceBucket(int)}.
+     */
+    int DISTANCE_BUCKETS = 8;
+
+    /**
+     * The number of distinct values returned by {@link #approxPriority(TaskStage, int, int)}.
+     */
+    int APPROX_PRIORITIES = TaskStage.values().length * MAX_LODS * DISTANCE_BUCKETS;
+
+    /**
+     * Quantizes the distance between a tile and the nearest player tracking it.
+     * <p>
+     * Buckets grow exponentially in size, so that distances close to the player are distinguished more finely than those near the edge of the cutoff distance.
+     *
+     * @param distance the distance (in tiles at the tile's own detail level)
+     * @return the distance bucket, in the range {@code [0, }{@link #DISTANCE_BUCKETS}{@code )}
      */
-    @Deprecated
-    @SuppressWarnings("DeprecatedIsStillUsed")
-    Comparator<PriorityTask<?>> _APPROX_COMPARATOR = (a, b) -> {
-        int d;
-        if ((d = a.stage().compareTo(b.stage())) == 0) {
-            d = Integer.compare(a.pos().level(), b.pos().level());
-        }
-        return d;
-    };
+    static int distanceBucket(int distance) {
+        return min(32 - Integer.numberOfLeadingZeros(notNegative(distance, "distance")), DISTANCE_BUCKETS - 1);
+    }
 
     /**
-     * @return a {@link Comparator} which is able to do approximate comparisons between {@link PriorityTask}s
+     * Computes the approximate priority of a task, ordered first by {@link TaskStage}, then by detail level and finally by quantized distance to the nearest player.
+     * <p>
+     * The distance is the least significant component, so a task's priority is always strictly less than that of any task at a higher detail level in the same
+     * {@link TaskStage}, regardless of where the players are.
+     * <p>
+     * Priorities are in the range {@code [0, }{@link #APPROX_PRIORITIES}{@code )}, where lower values indicate a higher priority.
+     *
+     * @param stage    the task's {@link TaskStage}
+     * @param level    the detail level of the task's position
+     * @param distance the distance (in tiles at the given detail level) between the task's position and the nearest player
+     * @return the task's approximate priority
+     * @see #distanceBucket(int)
      */
-    @SuppressWarnings("Deprecation")
-    static <POS extends IFarPos> Comparator<PriorityTask<POS>> approxComparator() {
-        return uncheckedCast(_APPROX_COMPARATOR);
+    static int approxPriority(@NonNull TaskStage stage, int level, int distance) {
+        return (stage.ordinal() * MAX_LODS + level) * DISTANCE_BUCKETS + distanceBucket(distance);
     }
 
     /**
@@ -25,5 +25,9 @@ package net.daporkchop.fp2.mode.common.server;
  */
 public enum TaskStage {
     LOAD,
-    UPDATE;
+    UPDATE,
+    /**
+     * Identical to {@link #LOAD}, but has a lower priority than any task requested by a player.
+     */
+    PREGEN;
 }
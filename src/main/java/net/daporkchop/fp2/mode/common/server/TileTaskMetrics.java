@@ -0,0 +1,69 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.server;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.util.stats.Histogram;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
+import net.daporkchop.fp2.util.threading.scheduler.SharedFutureScheduler;
+
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * Records the queue wait time and run time of tile tasks into a {@link MetricsRegistry}, broken down by {@link TaskStage} and detail level.
+ *
+ * @author DaPorkchop_
+ */
+public class TileTaskMetrics<POS extends IFarPos> implements SharedFutureScheduler.TaskListener<PriorityTask<POS>> {
+    protected static final TaskStage[] STAGES = TaskStage.values();
+
+    protected final MetricsRegistry registry;
+
+    //histograms are created lazily, since most levels are never used in practice
+    protected final Histogram[] waitTimes = new Histogram[STAGES.length * MAX_LODS];
+    protected final Histogram[] runTimes = new Histogram[STAGES.length * MAX_LODS];
+
+    public TileTaskMetrics(@NonNull MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void taskExecuted(@NonNull PriorityTask<POS> task, long waitTime, long runTime) {
+        TaskStage stage = task.stage();
+        int level = task.pos().level();
+        int index = stage.ordinal() * MAX_LODS + level;
+
+        //racing to create the same histogram is harmless, since the registry will always return the same instance
+        Histogram waitHistogram = this.waitTimes[index];
+        if (waitHistogram == null) {
+            this.waitTimes[index] = waitHistogram = this.registry.histogram("fp2_tile_task_wait_seconds", "Time tile tasks spent waiting in the scheduler queue",
+                    MetricsRegistry.NANOS_TO_SECONDS, "stage", stage.name(), "level", String.valueOf(level));
+        }
+        Histogram runHistogram = this.runTimes[index];
+        if (runHistogram == null) {
+            this.runTimes[index] = runHistogram = this.registry.histogram("fp2_tile_task_run_seconds", "Time taken to execute tile tasks, including any recursive dependencies",
+                    MetricsRegistry.NANOS_TO_SECONDS, "stage", stage.name(), "level", String.valueOf(level));
+        }
+
+        waitHistogram.record(waitTime);
+        runHistogram.record(runTime);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.server.pregen;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
+
+import java.util.function.Consumer;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Describes the tile positions covered by a pregeneration run, and the order in which they are visited.
+ * <p>
+ * Levels are visited in increasing order, so that the tiles at each level can be scaled from tiles which already exist. Within each level, tiles are grouped
+ * into rings of tiles with the same horizontal Chebyshev distance from the center tile, which are visited from the center outward. A ring is the unit of
+ * progress which is saved to a {@link PregenCheckpoint}.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public abstract class PregenArea<POS extends IFarPos> {
+    protected final int centerX;
+    protected final int centerY;
+    protected final int centerZ;
+    protected final int radius;
+    protected final int maxLevel;
+
+    @Getter(AccessLevel.NONE)
+    protected final IntAxisAlignedBB[] coordLimits;
+
+    /**
+     * @param centerX     the X coordinate of the center block
+     * @param centerY     the Y coordinate of the center block
+     * @param centerZ     the Z coordinate of the center block
+     * @param radius      the horizontal radius (in blocks) around the center block to pregenerate
+     * @param maxLevel    the highest detail level to pregenerate (inclusive)
+     * @param coordLimits the world's tile coordinate limits, indexed by detail level
+     */
+    public PregenArea(int centerX, int centerY, int centerZ, int radius, int maxLevel, @NonNull IntAxisAlignedBB[] coordLimits) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.radius = notNegative(radius, "radius");
+        checkIndex(min(MAX_LODS, coordLimits.length), maxLevel);
+        this.maxLevel = maxLevel;
+        this.coordLimits = coordLimits;
+    }
+
+    /**
+     * @return the number of rings at the given detail level
+     */
+    public int rings(int level) {
+        int shift = T_SHIFT + level;
+        return toIntExact((this.radius + (1L << shift) - 1L) >> shift) + 1;
+    }
+
+    /**
+     * Passes every position in the given ring to the given callback.
+     *
+     * @param level    the detail level
+     * @param ring     the ring's index (i.e. its distance from the center tile)
+     * @param callback the callback function
+     */
+    public void forEachInRing(int level, int ring, @NonNull Consumer<POS> callback) {
+        IntAxisAlignedBB limits = this.coordLimits[level];
+        int cx = this.centerX >> (T_SHIFT + level);
+        int cz = this.centerZ >> (T_SHIFT + level);
+
+        if (ring == 0) {
+            if (limits.contains2d(cx, cz)) {
+                this.column(level, cx, cz, callback);
+            }
+            return;
+        }
+
+        int minX = cx - ring;
+        int maxX = cx + ring;
+        int minZ = cz - ring;
+        int maxZ = cz + ring;
+
+        //the first and last rows, including the corners
+        for (int x = max(minX, limits.minX()), lastX = min(maxX, limits.maxX()); x <= lastX; x++) {
+            if (minZ >= limits.minZ() && minZ <= limits.maxZ()) {
+                this.column(level, x, minZ, callback);
+            }
+            if (maxZ >= limits.minZ() && maxZ <= limits.maxZ()) {
+                this.column(level, x, maxZ, callback);
+            }
+        }
+
+        //the first and last columns, excluding the corners
+        for (int z = max(minZ + 1, limits.minZ()), lastZ = min(maxZ - 1, limits.maxZ()); z <= lastZ; z++) {
+            if (minX >= limits.minX() && minX <= limits.maxX()) {
+                this.column(level, minX, z, callback);
+            }
+            if (maxX >= limits.minX() && maxX <= limits.maxX()) {
+                this.column(level, maxX, z, callback);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of positions in the given ring.
+     *
+     * @param level the detail level
+     * @param ring  the ring's index
+     * @return the number of positions in the given ring
+     */
+    public long positionCount(int level, int ring) {
+        return (this.clippedArea(level, ring) - this.clippedArea(level, ring - 1)) * this.columnHeight(level);
+    }
+
+    /**
+     * Gets the number of positions which will be visited starting at (and including) the given ring.
+     *
+     * @param level the detail level of the first ring
+     * @param ring  the index of the first ring
+     * @return the number of remaining positions
+     */
+    public long positionCountFrom(int level, int ring) {
+        long count = 0L;
+        for (; level <= this.maxLevel; level++, ring = 0) {
+            count += (this.clippedArea(level, this.rings(level) - 1) - this.clippedArea(level, ring - 1)) * this.columnHeight(level);
+        }
+        return count;
+    }
+
+    /**
+     * @return the total number of positions in this area
+     */
+    public long positionCount() {
+        return this.positionCountFrom(0, 0);
+    }
+
+    protected long clippedArea(int level, int ring) {
+        if (ring < 0) {
+            return 0L;
+        }
+
+        IntAxisAlignedBB limits = this.coordLimits[level];
+        int cx = this.centerX >> (T_SHIFT + level);
+        int cz = this.centerZ >> (T_SHIFT + level);
+
+        long width = max(min((long) cx + ring, limits.maxX()) - max((long) cx - ring, limits.minX()) + 1L, 0L);
+        long depth = max(min((long) cz + ring, limits.maxZ()) - max((long) cz - ring, limits.minZ()) + 1L, 0L);
+        return width * depth;
+    }
+
+    /**
+     * Passes every position in the given tile column to the given callback.
+     *
+     * @param level    the detail level
+     * @param x        the column's X coordinate
+     * @param z        the column's Z coordinate
+     * @param callback the callback function
+     */
+    protected abstract void column(int level, int x, int z, @NonNull Consumer<POS> callback);
+
+    /**
+     * @return the number of positions in every tile column at the given detail level
+     */
+    protected abstract long columnHeight(int level);
+}
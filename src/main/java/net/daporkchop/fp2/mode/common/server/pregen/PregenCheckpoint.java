@@ -0,0 +1,132 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.server.pregen;
+
+import lombok.Data;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The saved progress of a pregeneration run.
+ * <p>
+ * All rings before {@link #level()}/{@link #ring()} are known to have been generated completely.
+ *
+ * @author DaPorkchop_
+ */
+@Data
+public final class PregenCheckpoint {
+    /**
+     * Reads a checkpoint from the given file.
+     *
+     * @param file the file
+     * @return the checkpoint, or {@code null} if the file doesn't exist
+     */
+    public static PregenCheckpoint read(@NonNull Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            return new PregenCheckpoint(
+                    Integer.parseInt(properties.getProperty("centerX")),
+                    Integer.parseInt(properties.getProperty("centerY")),
+                    Integer.parseInt(properties.getProperty("centerZ")),
+                    Integer.parseInt(properties.getProperty("radius")),
+                    Integer.parseInt(properties.getProperty("maxLevel")),
+                    Integer.parseInt(properties.getProperty("level")),
+                    Integer.parseInt(properties.getProperty("ring")),
+                    Long.parseLong(properties.getProperty("tilesDone")));
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed pregen checkpoint: " + file, e);
+        }
+    }
+
+    /**
+     * Creates a checkpoint for the given area.
+     *
+     * @param area      the {@link PregenArea}
+     * @param level     the detail level of the first ring which has not been completely generated
+     * @param ring      the index of the first ring which has not been completely generated
+     * @param tilesDone the number of tiles which were generated before the given ring
+     * @return the checkpoint
+     */
+    public static PregenCheckpoint of(@NonNull PregenArea<?> area, int level, int ring, long tilesDone) {
+        return new PregenCheckpoint(area.centerX(), area.centerY(), area.centerZ(), area.radius(), area.maxLevel(), level, ring, tilesDone);
+    }
+
+    protected final int centerX;
+    protected final int centerY;
+    protected final int centerZ;
+    protected final int radius;
+    protected final int maxLevel;
+
+    protected final int level;
+    protected final int ring;
+    protected final long tilesDone;
+
+    /**
+     * @return whether or not this checkpoint was saved while pregenerating exactly the given area
+     */
+    public boolean matches(@NonNull PregenArea<?> area) {
+        return this.centerX == area.centerX() && this.centerY == area.centerY() && this.centerZ == area.centerZ()
+               && this.radius == area.radius() && this.maxLevel == area.maxLevel();
+    }
+
+    /**
+     * Atomically replaces the contents of the given file with this checkpoint.
+     *
+     * @param file the file
+     */
+    public void write(@NonNull Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("centerX", String.valueOf(this.centerX));
+        properties.setProperty("centerY", String.valueOf(this.centerY));
+        properties.setProperty("centerZ", String.valueOf(this.centerZ));
+        properties.setProperty("radius", String.valueOf(this.radius));
+        properties.setProperty("maxLevel", String.valueOf(this.maxLevel));
+        properties.setProperty("level", String.valueOf(this.level));
+        properties.setProperty("ring", String.valueOf(this.ring));
+        properties.setProperty("tilesDone", String.valueOf(this.tilesDone));
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            properties.store(writer, "FarPlaneTwo pregeneration progress");
+        }
+
+        try {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.server.pregen;
+
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Generates every tile in a {@link PregenArea}.
+ * <p>
+ * Tiles are requested from a loader function (normally the tile provider's scheduler) in the order defined by the area, with at most a fixed number of
+ * requests in flight at once. Progress is periodically saved to a {@link PregenCheckpoint} file, and a new task for the same area will resume from the
+ * last saved checkpoint.
+ *
+ * @author DaPorkchop_
+ */
+public class PregenTask<POS extends IFarPos> implements Runnable {
+    protected static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toNanos(10L);
+    protected static final long LOG_INTERVAL = TimeUnit.SECONDS.toNanos(30L);
+
+    @Getter
+    protected final String name;
+    @Getter
+    protected final PregenArea<POS> area;
+    protected final Function<POS, CompletableFuture<?>> loader;
+    protected final Path checkpointFile;
+
+    protected final int maxInFlight;
+    protected final Semaphore inFlightPermits;
+    protected final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    protected final long totalTiles;
+    protected final long initialTilesDone;
+    protected final AtomicLong tilesDone;
+    protected final AtomicLong tilesFailed = new AtomicLong();
+
+    //rings which have been started, but not yet completed. only accessed by the thread running this task
+    protected final Queue<Ring> pendingRings = new ArrayDeque<>();
+    protected PregenCheckpoint checkpoint;
+
+    @Getter
+    protected final boolean resumed;
+    protected volatile int currentLevel;
+    protected volatile boolean stopped;
+    protected volatile long startTime;
+
+    @Getter
+    protected final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    /**
+     * @param name           a human-readable name for this task, used in log messages
+     * @param area           the {@link PregenArea} to generate
+     * @param loader         a function which generates the tile at a given position, and returns a {@link CompletableFuture} which is completed once the tile
+     *                       has been generated
+     * @param checkpointFile the file which progress is saved to
+     * @param maxInFlight    the maximum number of tiles which may be in the process of being generated at once
+     */
+    public PregenTask(@NonNull String name, @NonNull PregenArea<POS> area, @NonNull Function<POS, CompletableFuture<?>> loader, @NonNull Path checkpointFile, int maxInFlight) throws IOException {
+        this.name = name;
+        this.area = area;
+        this.loader = loader;
+        this.checkpointFile = checkpointFile;
+
+        this.maxInFlight = positive(maxInFlight, "maxInFlight");
+        this.inFlightPermits = new Semaphore(maxInFlight);
+
+        PregenCheckpoint checkpoint = PregenCheckpoint.read(checkpointFile);
+        if (checkpoint != null && checkpoint.matches(area)) { //resume from the existing checkpoint
+            this.checkpoint = checkpoint;
+            this.resumed = true;
+        } else { //start from the beginning, discarding the existing checkpoint (if any)
+            this.checkpoint = PregenCheckpoint.of(area, 0, 0, 0L);
+            this.resumed = false;
+        }
+
+        this.totalTiles = this.checkpoint.tilesDone() + area.positionCountFrom(this.checkpoint.level(), this.checkpoint.ring());
+        this.initialTilesDone = this.checkpoint.tilesDone();
+        this.tilesDone = new AtomicLong(this.initialTilesDone);
+        this.currentLevel = this.checkpoint.level();
+    }
+
+    /**
+     * Starts running this task on a new thread.
+     */
+    public void start() {
+        PThreadFactories.builder().daemon().minPriority().name("FP2 Pregen " + this.name).build()
+                .newThread(this)
+                .start();
+    }
+
+    /**
+     * Requests that this task be stopped.
+     * <p>
+     * Tiles which have been requested but not yet generated are cancelled, and the current progress is saved.
+     *
+     * @return a {@link CompletableFuture} which will be completed once this task has stopped
+     */
+    public CompletableFuture<Void> stop() {
+        this.stopped = true;
+        this.inFlight.forEach(future -> future.cancel(false));
+        return this.completion;
+    }
+
+    /**
+     * @return whether or not this task is still running
+     */
+    public boolean running() {
+        return !this.completion.isDone();
+    }
+
+    /**
+     * @return the number of tiles which have been generated so far, including tiles which were generated before this task was resumed
+     */
+    public long tilesDone() {
+        return this.tilesDone.get();
+    }
+
+    /**
+     * @return the number of tiles which could not be generated due to an exception
+     */
+    public long tilesFailed() {
+        return this.tilesFailed.get();
+    }
+
+    /**
+     * @return the detail level which is currently being generated
+     */
+    public int currentLevel() {
+        return this.currentLevel;
+    }
+
+    /**
+     * @return the average number of tiles generated per second since this task was started
+     */
+    public double tilesPerSecond() {
+        long startTime = this.startTime;
+        if (startTime == 0L) { //not started yet
+            return 0.0d;
+        }
+
+        double seconds = (System.nanoTime() - startTime) * 1.0e-9d;
+        return seconds > 0.0d ? (this.tilesDone.get() - this.initialTilesDone) / seconds : 0.0d;
+    }
+
+    /**
+     * @return the estimated number of seconds until this task is complete, or {@code -1L} if it cannot be estimated yet
+     */
+    public long etaSeconds() {
+        double tilesPerSecond = this.tilesPerSecond();
+        return tilesPerSecond > 0.0d
+                ? (long) (Math.max(this.totalTiles - this.tilesDone.get(), 0L) / tilesPerSecond)
+                : -1L;
+    }
+
+    @Override
+    public void run() {
+        checkState(this.startTime == 0L, "already started!");
+        this.startTime = System.nanoTime();
+
+        try {
+            if (this.resumed) {
+                FP2_LOG.info("[{}] resuming pregeneration at level {} ring {} ({}/{} tiles)",
+                        this.name, this.checkpoint.level(), this.checkpoint.ring(), this.checkpoint.tilesDone(), this.totalTiles);
+            } else {
+                FP2_LOG.info("[{}] starting pregeneration of {} tiles", this.name, this.totalTiles);
+            }
+
+            long lastCheckpointTime = System.nanoTime();
+            long lastLogTime = lastCheckpointTime;
+
+            for (int level = this.checkpoint.level(); level <= this.area.maxLevel() && !this.stopped; level++) {
+                this.currentLevel = level;
+
+                for (int ring = level == this.checkpoint.level() ? this.checkpoint.ring() : 0, rings = this.area.rings(level); ring < rings && !this.stopped; ring++) {
+                    this.generateRing(level, ring);
+
+                    long now = System.nanoTime();
+                    if (now - lastCheckpointTime >= CHECKPOINT_INTERVAL) {
+                        lastCheckpointTime = now;
+                        this.saveCheckpoint();
+                    }
+                    if (now - lastLogTime >= LOG_INTERVAL) {
+                        lastLogTime = now;
+                        FP2_LOG.info("[{}] pregenerated {}/{} tiles ({} tiles/s, level {})", this.name, this.tilesDone(), this.totalTiles, (long) this.tilesPerSecond(), level);
+                    }
+                }
+            }
+
+            //wait for all in-flight tiles to complete
+            this.inFlightPermits.acquireUninterruptibly(this.maxInFlight);
+            this.inFlightPermits.release(this.maxInFlight);
+
+            if (this.stopped) {
+                this.saveCheckpoint();
+                FP2_LOG.info("[{}] pregeneration stopped at {}/{} tiles", this.name, this.tilesDone(), this.totalTiles);
+            } else {
+                Files.deleteIfExists(this.checkpointFile);
+                FP2_LOG.info("[{}] pregeneration complete! generated {} tiles ({} failed)", this.name, this.tilesDone(), this.tilesFailed());
+            }
+
+            this.completion.complete(null);
+        } catch (Throwable t) {
+            FP2_LOG.error("[{}] pregeneration failed", this.name, t);
+            this.completion.completeExceptionally(t);
+        }
+    }
+
+    protected void generateRing(int level, int ring) {
+        Ring pendingRing = new Ring(level, ring);
+        this.pendingRings.add(pendingRing);
+
+        this.area.forEachInRing(level, ring, pos -> {
+            if (this.stopped) { //skip any remaining positions
+                return;
+            }
+
+            this.inFlightPermits.acquireUninterruptibly();
+            pendingRing.remaining.incrementAndGet();
+            pendingRing.count++;
+
+            CompletableFuture<?> future;
+            try {
+                future = this.loader.apply(pos);
+            } catch (Throwable t) {
+                this.tileComplete(pendingRing, null, t);
+                throw t;
+            }
+
+            this.inFlight.add(future);
+            future.whenComplete((v, t) -> {
+                this.inFlight.remove(future);
+                this.tileComplete(pendingRing, pos, t);
+            });
+        });
+
+        if (!this.stopped) { //the ring is now fully enumerated, release the reference which prevented it from being considered complete
+            pendingRing.remaining.decrementAndGet();
+        }
+    }
+
+    protected void tileComplete(@NonNull Ring ring, POS pos, Throwable t) {
+        if (t == null) {
+            this.tilesDone.incrementAndGet();
+        } else if (!this.stopped) { //exceptions are expected for tiles which were cancelled while stopping
+            this.tilesFailed.incrementAndGet();
+            this.tilesDone.incrementAndGet();
+            FP2_LOG.warn("[{}] unable to pregenerate tile at {}", this.name, pos, t);
+        }
+
+        if (!this.stopped || t == null) {
+            //cancelled tiles must not count towards the ring's completion, since they'll have to be generated again after resuming
+            ring.remaining.decrementAndGet();
+        }
+        this.inFlightPermits.release();
+    }
+
+    protected void saveCheckpoint() throws IOException {
+        PregenCheckpoint checkpoint = this.checkpoint;
+        int level = checkpoint.level();
+        int ring = checkpoint.ring();
+        long tilesDone = checkpoint.tilesDone();
+
+        //advance past every completed ring at the front of the queue
+        for (Ring pendingRing; (pendingRing = this.pendingRings.peek()) != null && pendingRing.remaining.get() == 0; this.pendingRings.poll()) {
+            tilesDone += pendingRing.count;
+
+            if (pendingRing.ring + 1 < this.area.rings(pendingRing.level)) {
+                level = pendingRing.level;
+                ring = pendingRing.ring + 1;
+            } else {
+                level = pendingRing.level + 1;
+                ring = 0;
+            }
+        }
+
+        this.checkpoint = PregenCheckpoint.of(this.area, level, ring, tilesDone);
+        this.checkpoint.write(this.checkpointFile);
+    }
+
+    /**
+     * A ring whose tiles have been requested, but may not have been generated yet.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class Ring {
+        protected final int level;
+        protected final int ring;
+
+        //starts at 1 so that the ring can't be considered complete until all of its positions have been enumerated
+        protected final AtomicInteger remaining = new AtomicInteger(1);
+        protected long count;
+
+        public Ring(int level, int ring) {
+            this.level = level;
+            this.ring = ring;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import org.rocksdb.RocksDB;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Migrates from layout v5 to v6: v5 encoded tile positions without biasing their coordinates, v6 uses the encoding from {@link IFarPos#toBytes()}.
+ *
+ * @author DaPorkchop_
+ * @see IFarRenderMode#readLegacyPos(ByteBuf)
+ */
+@RequiredArgsConstructor
+class PosEncodingMigration implements StorageMigration {
+    @NonNull
+    protected final Function<ByteBuf, ? extends IFarPos> legacyPosReader;
+
+    @Override
+    public int fromVersion() {
+        return 5;
+    }
+
+    @Override
+    public void migrate(@NonNull byte[] columnName, @NonNull byte[] key, @NonNull byte[] value, @NonNull Output out) {
+        if (!Arrays.equals(columnName, RocksDB.DEFAULT_COLUMN_FAMILY)) { //all column families except the default one are keyed by tile position
+            key = this.legacyPosReader.apply(Unpooled.wrappedBuffer(key)).toBytes();
+        }
+        out.accept(columnName, key, value);
+    }
+}
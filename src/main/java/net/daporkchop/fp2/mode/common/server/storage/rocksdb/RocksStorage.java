@@ -23,6 +23,8 @@ package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.UnsignedBytes;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
@@ -34,70 +36,150 @@ import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.server.storage.IFarStorage;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
 import net.daporkchop.fp2.mode.common.server.AbstractFarTileProvider;
+import net.daporkchop.fp2.util.stats.Counter;
+import net.daporkchop.fp2.util.stats.Histogram;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
 import net.daporkchop.lib.common.misc.file.PFiles;
-import net.daporkchop.lib.common.system.PlatformInfo;
-import net.daporkchop.lib.unsafe.PUnsafe;
-import org.rocksdb.ColumnFamilyDescriptor;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
 import org.rocksdb.ColumnFamilyHandle;
-import org.rocksdb.ColumnFamilyOptions;
-import org.rocksdb.CompressionType;
-import org.rocksdb.DBOptions;
 import org.rocksdb.FlushOptions;
 import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
-import org.rocksdb.Transaction;
-import org.rocksdb.TransactionDB;
-import org.rocksdb.TransactionDBOptions;
+import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.lang.Math.*;
 import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.fp2.util.stats.MetricsRegistry.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
+import static net.daporkchop.lib.common.util.PorkUtil.*;
 
 /**
  * @author DaPorkchop_
  */
 public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IFarStorage<POS, T> {
-    protected static final DBOptions DB_OPTIONS = new DBOptions()
-            .setCreateIfMissing(true)
-            .setCreateMissingColumnFamilies(true)
-            .setAllowConcurrentMemtableWrite(true)
-            .setKeepLogFileNum(1L);
-
-    protected static final TransactionDBOptions TX_DB_OPTIONS = new TransactionDBOptions();
-
-    protected static final ColumnFamilyOptions CF_OPTIONS = new ColumnFamilyOptions()
-            .setCompressionType(CompressionType.ZSTD_COMPRESSION);
-
     protected static final ReadOptions READ_OPTIONS = new ReadOptions();
+    protected static final ReadOptions SCAN_OPTIONS = new ReadOptions().setFillCache(false); //full scans would only evict hot blocks from the shared block cache
     protected static final WriteOptions WRITE_OPTIONS = new WriteOptions();
     protected static final FlushOptions FLUSH_OPTIONS = new FlushOptions().setWaitForFlush(true).setAllowWriteStall(true);
 
     protected static final byte[] COLUMN_NAME_TILE_TIMESTAMP = "tile_timestamp".getBytes(StandardCharsets.UTF_8);
     protected static final byte[] COLUMN_NAME_TILE_DIRTY_TIMESTAMP = "tile_dirty_timestamp".getBytes(StandardCharsets.UTF_8);
-    protected static final byte[] COLUMN_NAME_TILE_DATA = "tile_data".getBytes(StandardCharsets.UTF_8);
     protected static final byte[] COLUMN_NAME_ANY_VANILLA_EXISTS = "tile_any_vanilla_terrain_exists".getBytes(StandardCharsets.UTF_8);
+    protected static final byte[] COLUMN_NAME_TILE_LAST_ACCESS = "tile_last_access".getBytes(StandardCharsets.UTF_8);
+    protected static final byte[] COLUMN_NAME_TILE_BLOB = "tile_blob".getBytes(StandardCharsets.UTF_8);
+    protected static final byte[] COLUMN_NAME_TILE_BLOB_REFCOUNT = "tile_blob_refcount".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The name of the column family which stored the tile data for all levels in layouts prior to v7.
+     */
+    protected static final byte[] COLUMN_NAME_LEGACY_TILE_DATA = "tile_data".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The names of all the column families in the current layout, in the order in which their handles are opened.
+     * <p>
+     * The tile data for each level is stored in a separate column family, starting at index {@link #FIRST_TILE_DATA_COLUMN}. The last access times (see
+     * {@link TileEvictor}) are stored in the column family after the tile data, since they were added without changing the layout version: RocksDB simply creates the
+     * column family if it doesn't exist. They're followed by the deduplicated tile payloads and their refcounts (see {@link TileBlobStore}).
+     */
+    protected static final List<byte[]> COLUMN_NAMES;
+
+    protected static final int FIRST_TILE_DATA_COLUMN = 4;
+    protected static final int LAST_ACCESS_COLUMN = FIRST_TILE_DATA_COLUMN + MAX_LODS;
+    protected static final int BLOB_COLUMN = LAST_ACCESS_COLUMN + 1;
+    protected static final int BLOB_REFCOUNT_COLUMN = LAST_ACCESS_COLUMN + 2;
+
+    /**
+     * The version of the on-disk layout. Storages using an older layout are migrated by {@link StorageMigrator}.
+     */
+    protected static final int LAYOUT_VERSION = 8;
+
+    /**
+     * The maximum number of tiles whose timestamps will be cached in the {@link TimestampIndex}.
+     */
+    protected static final long TIMESTAMP_INDEX_MAX_ENTRIES = 1L << 18L;
+
+    /**
+     * The interval between checks of whether or not the storage has grown beyond its disk budget, in minutes.
+     */
+    protected static final long EVICTION_INTERVAL = 5L;
+
+    /**
+     * All storages share a single low-priority thread for eviction, since it rarely has to do anything.
+     */
+    protected static final ScheduledExecutorService EVICTION_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            PThreadFactories.builder().daemon().minPriority().name("FP2 Storage Eviction").build());
+
+    static {
+        List<byte[]> columnNames = new ArrayList<>(Arrays.asList(
+                RocksDB.DEFAULT_COLUMN_FAMILY,
+                COLUMN_NAME_TILE_TIMESTAMP,
+                COLUMN_NAME_TILE_DIRTY_TIMESTAMP,
+                COLUMN_NAME_ANY_VANILLA_EXISTS));
+        for (int level = 0; level < MAX_LODS; level++) {
+            columnNames.add(columnNameTileData(level));
+        }
+        columnNames.add(COLUMN_NAME_TILE_LAST_ACCESS);
+        columnNames.add(COLUMN_NAME_TILE_BLOB);
+        columnNames.add(COLUMN_NAME_TILE_BLOB_REFCOUNT);
+        COLUMN_NAMES = Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * @param level a detail level
+     * @return the name of the column family which stores the tile data for the given level
+     */
+    protected static byte[] columnNameTileData(int level) {
+        return ("tile_data_" + level).getBytes(StandardCharsets.UTF_8);
+    }
 
     //
     // rocksdb helper methods
     //
 
+    /**
+     * Positions the given iterator at the given key, assuming that keys are always visited in ascending order.
+     *
+     * @param itr the iterator
+     * @param key the key
+     * @return whether or not the key exists
+     */
+    protected static boolean seekExact(@NonNull RocksIterator itr, @NonNull byte[] key) {
+        if (!itr.isValid() || UnsignedBytes.lexicographicalComparator().compare(itr.key(), key) < 0) { //only seek if the iterator isn't already past the key
+            itr.seek(key);
+        }
+        return itr.isValid() && Arrays.equals(itr.key(), key);
+    }
+
     @SneakyThrows(RocksDBException.class)
     protected static ByteBuf get(@NonNull RocksDB db, @NonNull ColumnFamilyHandle handle, @NonNull ByteBuf key, int preallocateBytes) {
         ByteBuffer keyNioBuffer = key.nioBuffer();
@@ -129,75 +211,251 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
         db.delete(handle, WRITE_OPTIONS, key.nioBuffer());
     }
 
-    protected static long readLongLE(@NonNull byte[] src) {
-        return readLongLE(src, 0);
-    }
-
-    protected static long readLongLE(@NonNull byte[] src, int index) {
-        checkRangeLen(src.length, index, Long.BYTES);
-
-        long val = PUnsafe.getLong(src, PUnsafe.ARRAY_BYTE_BASE_OFFSET + index);
-        return PlatformInfo.IS_BIG_ENDIAN ? Long.reverseBytes(val) : val;
-    }
-
-    protected static byte[] writeLongLE(long val) {
-        byte[] dst = new byte[Long.BYTES];
-        writeLongLE(dst, 0, val);
-        return dst;
-    }
-
-    protected static void writeLongLE(@NonNull byte[] dst, int index, long val) {
-        checkRangeLen(dst.length, index, Long.BYTES);
-
-        PUnsafe.putLong(dst, PUnsafe.ARRAY_BYTE_BASE_OFFSET + index, PlatformInfo.IS_BIG_ENDIAN ? Long.reverseBytes(val) : val);
-    }
-
     protected final AbstractFarTileProvider<POS, T> world;
+    protected final File root;
 
-    protected final TransactionDB db;
+    protected final RocksStorageResources resources;
+    protected final RocksDB db;
     protected final List<ColumnFamilyHandle> handles;
 
     protected final ColumnFamilyHandle cfTileTimestamp;
     protected final ColumnFamilyHandle cfTileDirtyTimestamp;
-    protected final ColumnFamilyHandle cfTileData;
+    protected final ColumnFamilyHandle[] cfTileData;
     protected final ColumnFamilyHandle cfAnyVanillaExists;
 
+    protected final TileBlobStore blobStore;
+
     protected final Set<Listener<POS, T>> listeners = new CopyOnWriteArraySet<>();
 
+    protected final WriteBehindQueue<POS, T> writeQueue;
+    protected final Lock tileWriteLock = new ReentrantLock(); //held while writing tile timestamps or data
+    protected final TimestampIndex timestampIndex = new TimestampIndex(TIMESTAMP_INDEX_MAX_ENTRIES);
+
+    protected final TileEvictor evictor;
+    protected final ScheduledFuture<?> evictionFuture;
+
     protected final int version;
 
+    //metrics
+    protected final Histogram getTime;
+    protected final Histogram multiGetTime;
+    protected final Histogram commitTime;
+    protected final Histogram commitBatchSize;
+    protected final Counter bytesRead;
+    protected final Counter bytesWritten;
+    protected final Counter timestampIndexHits;
+    protected final Counter timestampIndexMisses;
+    protected final Counter evictedTiles;
+
     protected final LoadingCache<POS, ITileHandle<POS, T>> handleCache = CacheBuilder.newBuilder()
             .concurrencyLevel(FP2Config.global().performance().terrainThreads())
             .weakValues()
             .build(CacheLoader.from(pos -> new RocksTileHandle<>(pos, this)));
 
-    @SneakyThrows(RocksDBException.class)
     public RocksStorage(@NonNull AbstractFarTileProvider<POS, T> world, @NonNull File storageRoot) {
+        this(world, storageRoot, RocksStorageResources.shared());
+    }
+
+    @SneakyThrows({ IOException.class, RocksDBException.class })
+    public RocksStorage(@NonNull AbstractFarTileProvider<POS, T> world, @NonNull File storageRoot, @NonNull RocksStorageResources resources) {
         this.world = world;
+        this.root = storageRoot;
+        this.resources = resources;
         this.version = world.mode().storageVersion();
 
-        File markerFile = new File(storageRoot, "v4");
-        if (PFiles.checkDirectoryExists(storageRoot) && !PFiles.checkFileExists(markerFile)) { //it's an old storage
-            PFiles.rmContentsParallel(storageRoot);
-        }
+        MetricsRegistry metrics = world.metrics();
+        this.getTime = metrics.histogram("fp2_storage_op_seconds", "Time spent in storage operations", NANOS_TO_SECONDS, "op", "get");
+        this.multiGetTime = metrics.histogram("fp2_storage_op_seconds", "Time spent in storage operations", NANOS_TO_SECONDS, "op", "multiGet");
+        this.commitTime = metrics.histogram("fp2_storage_op_seconds", "Time spent in storage operations", NANOS_TO_SECONDS, "op", "commit");
+        this.commitBatchSize = metrics.histogram("fp2_storage_commit_batch_size", "Number of tile writes committed per batch", 1.0d);
+        this.bytesRead = metrics.counter("fp2_storage_read_bytes_total", "Total number of tile data bytes read from storage");
+        this.bytesWritten = metrics.counter("fp2_storage_written_bytes_total", "Total number of tile data bytes written to storage");
+        this.timestampIndexHits = metrics.counter("fp2_storage_timestamp_index_requests_total", "Number of timestamp reads served by the timestamp index", "result", "hit");
+        this.timestampIndexMisses = metrics.counter("fp2_storage_timestamp_index_requests_total", "Number of timestamp reads served by the timestamp index", "result", "miss");
+        this.evictedTiles = metrics.counter("fp2_storage_evicted_tiles_total", "Number of tiles evicted to keep the storage within its disk budget");
+        metrics.gauge("fp2_storage_timestamp_index_size", "Number of tiles whose timestamps are cached in the timestamp index", this.timestampIndex::size);
+
+        StorageMigrator.forMode(resources, world.mode()).migrateIfNecessary(storageRoot);
         PFiles.ensureDirectoryExists(storageRoot);
 
-        List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
-                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_TILE_TIMESTAMP, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_TILE_DIRTY_TIMESTAMP, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_TILE_DATA, CF_OPTIONS),
-                new ColumnFamilyDescriptor(COLUMN_NAME_ANY_VANILLA_EXISTS, CF_OPTIONS));
-        this.handles = new ArrayList<>(descriptors.size());
-
-        this.db = TransactionDB.open(DB_OPTIONS, TX_DB_OPTIONS, storageRoot.getPath(), descriptors, this.handles);
+        this.handles = new ArrayList<>();
+        this.db = resources.open(storageRoot, this.handles);
 
         this.cfTileTimestamp = this.handles.get(1);
         this.cfTileDirtyTimestamp = this.handles.get(2);
-        this.cfTileData = this.handles.get(3);
-        this.cfAnyVanillaExists = this.handles.get(4);
+        this.cfAnyVanillaExists = this.handles.get(3);
+        this.cfTileData = this.handles.subList(FIRST_TILE_DATA_COLUMN, FIRST_TILE_DATA_COLUMN + MAX_LODS).toArray(new ColumnFamilyHandle[0]);
+        this.blobStore = new TileBlobStore(this.db, this.handles);
+
+        PFiles.ensureFileExists(new File(storageRoot, "v" + LAYOUT_VERSION)); //create marker file
+
+        this.evictor = new TileEvictor(this.db, this.handles, Clock.systemUTC());
+        this.evictionFuture = EVICTION_EXECUTOR.scheduleWithFixedDelay(this::evictQuietly, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MINUTES);
+
+        this.writeQueue = new WriteBehindQueue<>(this);
+        metrics.gauge("fp2_storage_write_queue_size", "Number of tile writes which are queued but haven't been committed yet", this.writeQueue::size);
+    }
 
-        PFiles.ensureFileExists(markerFile); //create marker file
+    /**
+     * @param pos a tile position
+     * @return the handle of the column family which stores the tile data for the given position
+     */
+    protected ColumnFamilyHandle cfTileData(@NonNull POS pos) {
+        return this.cfTileData[pos.level()];
+    }
+
+    /**
+     * Reads the tile at the given position from the database, ignoring any queued writes.
+     *
+     * @param pos      the position
+     * @param keyBytes the encoded position
+     * @return a snapshot of the tile, or {@code null} if the tile doesn't exist
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected ITileSnapshot<POS, T> readSnapshot(@NonNull POS pos, @NonNull byte[] keyBytes) {
+        while (true) {
+            //read timestamp and tile bytes using multiGet to ensure coherency
+            long startTime = System.nanoTime();
+            List<byte[]> valueBytes = this.db.multiGetAsList(
+                    ImmutableList.of(this.cfTileTimestamp, this.cfTileData(pos)),
+                    ImmutableList.of(keyBytes, keyBytes));
+
+            byte[] timestampBytes = valueBytes.get(0);
+            byte[] tileBytes = valueBytes.get(1);
+            if (tileBytes != null) {
+                this.bytesRead.add(tileBytes.length);
+
+                tileBytes = this.blobStore.payload(tileBytes, READ_OPTIONS);
+                if (tileBytes == null) { //the tile was overwritten and its blob was released after we read it, try again
+                    continue;
+                }
+            }
+            this.multiGetTime.recordSince(startTime);
+
+            return timestampBytes != null
+                    ? new TileSnapshot<>(pos, TimestampColumns.decode(timestampBytes), tileBytes)
+                    : null;
+        }
+    }
+
+    /**
+     * Reads the timestamp of the tile at the given position from the database, ignoring any queued writes.
+     *
+     * @param pos the position
+     * @return the tile's timestamp
+     */
+    protected long readTimestamp(@NonNull POS pos) {
+        return this.readTimestamp(pos.toBytes());
+    }
+
+    /**
+     * Reads the timestamp of the tile with the given key from the database, ignoring any queued writes.
+     * <p>
+     * The timestamp is served from the {@link TimestampIndex} if possible.
+     *
+     * @param keyBytes the encoded position
+     * @return the tile's timestamp
+     */
+    protected long readTimestamp(@NonNull byte[] keyBytes) {
+        long timestamp = this.timestampIndex.timestamp(keyBytes);
+        if (timestamp != TimestampIndex.ABSENT) {
+            this.timestampIndexHits.inc();
+            return timestamp;
+        }
+        return this.loadTimestamps(keyBytes, false);
+    }
+
+    /**
+     * Reads the dirty timestamp of the tile with the given key from the database, ignoring any queued writes.
+     * <p>
+     * The dirty timestamp is resolved against the tile's timestamp (see {@link TimestampColumns#resolveDirtyTimestamp(long, long)}), and is served from the
+     * {@link TimestampIndex} if possible.
+     *
+     * @param keyBytes the encoded position
+     * @return the tile's dirty timestamp
+     */
+    protected long readDirtyTimestamp(@NonNull byte[] keyBytes) {
+        long dirtyTimestamp = this.timestampIndex.dirtyTimestamp(keyBytes);
+        if (dirtyTimestamp != TimestampIndex.ABSENT) {
+            this.timestampIndexHits.inc();
+            return dirtyTimestamp;
+        }
+        return this.loadTimestamps(keyBytes, true);
+    }
+
+    /**
+     * Reads both timestamps of the tile with the given key from the database, and adds them to the {@link TimestampIndex}.
+     *
+     * @param keyBytes the encoded position
+     * @param dirty    whether to return the (resolved) dirty timestamp rather than the timestamp
+     * @return the tile's timestamp or dirty timestamp
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected long loadTimestamps(@NonNull byte[] keyBytes, boolean dirty) {
+        this.timestampIndexMisses.inc();
+
+        //the generation must be obtained before reading from the db, in order to detect modifications which are committed while we're reading
+        long generation = this.timestampIndex.generation(keyBytes);
+
+        //read both timestamps using multiGet to ensure coherency
+        long startTime = System.nanoTime();
+        List<byte[]> valueBytes = this.db.multiGetAsList(
+                ImmutableList.of(this.cfTileTimestamp, this.cfTileDirtyTimestamp),
+                ImmutableList.of(keyBytes, keyBytes));
+        this.multiGetTime.recordSince(startTime);
+
+        long timestamp = TimestampColumns.decode(valueBytes.get(0));
+        long dirtyTimestamp = TimestampColumns.decode(valueBytes.get(1));
+
+        this.timestampIndex.populate(keyBytes, generation, timestamp, dirtyTimestamp);
+        return dirty ? TimestampColumns.resolveDirtyTimestamp(timestamp, dirtyTimestamp) : timestamp;
+    }
+
+    /**
+     * Ensures that the timestamps of all the tiles with the given keys are present in the {@link TimestampIndex}, reading all the ones which aren't using a single
+     * multiGet.
+     * <p>
+     * This is purely an optimization for bulk operations: it's not guaranteed that the timestamps will actually be cached afterwards.
+     *
+     * @param allKeyBytes the encoded positions
+     */
+    @SneakyThrows(RocksDBException.class)
+    protected void prefetchTimestamps(@NonNull byte[][] allKeyBytes) {
+        List<byte[]> missingKeys = new ArrayList<>();
+        for (byte[] keyBytes : allKeyBytes) {
+            if (this.timestampIndex.timestamp(keyBytes) == TimestampIndex.ABSENT) {
+                missingKeys.add(keyBytes);
+            }
+        }
+
+        int length = missingKeys.size();
+        if (length == 0) { //everything is already cached
+            return;
+        }
+        this.timestampIndexMisses.add(length);
+
+        //double up the keys and column families to pass them to multiGet
+        long[] generations = new long[length];
+        List<ColumnFamilyHandle> handles = new ArrayList<>(length << 1);
+        List<byte[]> keys = new ArrayList<>(length << 1);
+        for (int i = 0; i < length; i++) {
+            byte[] keyBytes = missingKeys.get(i);
+            generations[i] = this.timestampIndex.generation(keyBytes);
+
+            handles.add(this.cfTileTimestamp);
+            keys.add(keyBytes);
+            handles.add(this.cfTileDirtyTimestamp);
+            keys.add(keyBytes);
+        }
+
+        long startTime = System.nanoTime();
+        List<byte[]> valueBytes = this.db.multiGetAsList(handles, keys);
+        this.multiGetTime.recordSince(startTime);
+
+        for (int i = 0; i < length; i++) {
+            this.timestampIndex.populate(missingKeys.get(i), generations[i],
+                    TimestampColumns.decode(valueBytes.get((i << 1) + 0)), TimestampColumns.decode(valueBytes.get((i << 1) + 1)));
+        }
     }
 
     @Override
@@ -205,14 +463,87 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
         return this.handleCache.getUnchecked(pos);
     }
 
+    @Override
+    @SneakyThrows(RocksDBException.class)
+    public List<ITileSnapshot<POS, T>> multiSnapshot(@NonNull Collection<POS> positionsIn) {
+        List<POS> positions = positionsIn instanceof List ? uncheckedCast(positionsIn) : new ArrayList<>(positionsIn);
+        int length = positions.size();
+
+        ITileSnapshot<POS, T>[] snapshots = uncheckedCast(new ITileSnapshot[length]);
+
+        byte[][] allKeyBytes = positions.stream().map(POS::toBytes).toArray(byte[][]::new);
+        this.evictor.recordAccess(allKeyBytes);
+
+        //positions which have a write queued are read from the queue, all the others are read from the db. the timestamp and tile bytes for every position
+        //  are read using a single multiGet to ensure coherency, and to avoid doing a separate round trip for each tile
+        int[] dbIndices = new int[length];
+        int dbLength = 0;
+        List<ColumnFamilyHandle> handles = new ArrayList<>(length << 1);
+        List<byte[]> keys = new ArrayList<>(length << 1);
+
+        for (int i = 0; i < length; i++) {
+            POS pos = positions.get(i);
+
+            WriteBehindQueue.Write queuedWrite = this.writeQueue.get(pos);
+            if (queuedWrite != null) { //a write is queued, read the tile data from the queue instead
+                snapshots[i] = queuedWrite.snapshot(pos);
+                continue;
+            }
+
+            byte[] keyBytes = allKeyBytes[i];
+            handles.add(this.cfTileTimestamp);
+            keys.add(keyBytes);
+            handles.add(this.cfTileData(pos));
+            keys.add(keyBytes);
+            dbIndices[dbLength++] = i;
+        }
+
+        if (dbLength != 0) {
+            long startTime = System.nanoTime();
+            List<byte[]> valueBytes = this.db.multiGetAsList(handles, keys);
+            this.multiGetTime.recordSince(startTime);
+
+            //resolve all the referenced blobs at once
+            List<byte[]> tileValues = new ArrayList<>(dbLength);
+            for (int j = 0; j < dbLength; j++) {
+                byte[] tileBytes = valueBytes.get((j << 1) + 1);
+                if (tileBytes != null) {
+                    this.bytesRead.add(tileBytes.length);
+                }
+                tileValues.add(tileBytes);
+            }
+            List<byte[]> payloads = this.blobStore.payloads(tileValues, READ_OPTIONS);
+
+            for (int j = 0; j < dbLength; j++) {
+                int i = dbIndices[j];
+                byte[] timestampBytes = valueBytes.get((j << 1) + 0);
+                byte[] tileBytes = payloads.get(j);
+
+                if (tileValues.get(j) != null && tileBytes == null) { //the tile was overwritten and its blob was released after we read it, read it again by itself
+                    snapshots[i] = this.readSnapshot(positions.get(i), allKeyBytes[i]);
+                    continue;
+                }
+                snapshots[i] = timestampBytes != null
+                        ? new TileSnapshot<>(positions.get(i), TimestampColumns.decode(timestampBytes), tileBytes)
+                        : null;
+            }
+        }
+
+        return Arrays.asList(snapshots);
+    }
+
     @Override
     public void forEachDirtyPos(@NonNull Consumer<POS> callback) {
         IFarRenderMode<POS, T> mode = this.world.mode();
 
-        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp)) {
+        try (RocksIterator itr = this.db.newIterator(this.cfTileDirtyTimestamp, SCAN_OPTIONS)) {
             for (itr.seekToFirst(); itr.isValid(); itr.next()) {
                 byte[] key = itr.key();
-                callback.accept(mode.readPos(Unpooled.wrappedBuffer(key)));
+
+                //dirty timestamps aren't deleted when the tile is re-generated, so we have to check whether or not it's still valid
+                if (TimestampColumns.resolveDirtyTimestamp(this.readTimestamp(key), TimestampColumns.decode(itr.value())) != TIMESTAMP_BLANK) {
+                    callback.accept(mode.readPos(Unpooled.wrappedBuffer(key)));
+                }
             }
         }
     }
@@ -220,9 +551,8 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
     @Override
     @SneakyThrows(RocksDBException.class)
     public Stream<POS> markAllDirty(@NonNull Stream<POS> positionsIn, long dirtyTimestamp) {
-        //we'll buffer all the positions, lock all of them at once, compare each one and then commit as many as needed. the logic here is identical to
-        //  RocksTileHandle#markDirty(long), but in bulk, and since RocksTileHandle doesn't cache anything internally, we don't need to get any instances
-        //  of RocksTileHandle or do any additional synchronization.
+        //the logic here is identical to RocksTileHandle#markDirty(long), but in bulk: we read all the timestamps at once, compare each one and then merge the new dirty
+        //  timestamp into as many as needed using a single write batch.
 
         List<POS> positions = positionsIn.distinct().collect(Collectors.toList());
         int length = positions.size();
@@ -231,59 +561,26 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
             return Stream.empty();
         }
 
-        try (Transaction txn = this.db.beginTransaction(WRITE_OPTIONS)) {
-            //convert positions to key bytes
-            byte[][] allKeyBytes = positions.stream().map(POS::toBytes).toArray(byte[][]::new);
-
-            byte[][] get;
-            {
-                //double up the keys and column families to pass them to multiGetForUpdate
-                int doubleLength = multiplyExact(length, 2);
-                ColumnFamilyHandle[] handles = new ColumnFamilyHandle[doubleLength];
-                byte[][] keys = new byte[doubleLength][];
-
-                for (int i = 0; i < doubleLength; ) {
-                    byte[] keyBytes = allKeyBytes[i >> 1];
-
-                    handles[i] = this.cfTileTimestamp;
-                    keys[i++] = keyBytes;
-                    handles[i] = this.cfTileDirtyTimestamp;
-                    keys[i++] = keyBytes;
-                }
-
-                //obtain an exclusive lock on both timestamp keys to ensure coherency
-
-                final int MAX_BATCH_SIZE = 65536;
-                if (keys.length <= MAX_BATCH_SIZE) {
-                    get = txn.multiGetForUpdate(READ_OPTIONS, Arrays.asList(handles), keys);
-                } else { //workaround for https://github.com/facebook/rocksdb/issues/9006
-                    get = new byte[keys.length][];
-
-                    for (int i = 0; i < keys.length; ) {
-                        int batchSize = min(keys.length - i, MAX_BATCH_SIZE);
+        //convert positions to key bytes, and make sure their timestamps are cached so that we don't have to read them from the db one-by-one
+        byte[][] allKeyBytes = positions.stream().map(POS::toBytes).toArray(byte[][]::new);
+        this.prefetchTimestamps(allKeyBytes);
 
-                        byte[][] tmp = txn.multiGetForUpdate(READ_OPTIONS, Arrays.asList(handles).subList(i, i + batchSize), Arrays.copyOfRange(keys, i, i + batchSize));
-                        System.arraycopy(tmp, 0, get, i, batchSize);
-
-                        i += batchSize;
-                    }
-                }
-            }
-
-            //iterate through positions, updating the dirty timestamps as needed
+        try (WriteBatch batch = new WriteBatch()) {
+            //iterate through positions, merging the new dirty timestamp into the ones which need it
             List<POS> out = new ArrayList<>(length);
-            byte[] dirtyTimestampArray = new byte[Long.BYTES];
+            boolean[] modified = new boolean[length];
+            byte[] dirtyTimestampBytes = TimestampColumns.encode(dirtyTimestamp);
 
             for (int i = 0; i < length; i++) {
-                byte[] timestampBytes = get[(i << 1) + 0];
-                long timestamp = timestampBytes != null
-                        ? readLongLE(timestampBytes) //timestamp for this tile exists, extract it from the byte array
-                        : TIMESTAMP_BLANK;
+                byte[] keyBytes = allKeyBytes[i];
+                long timestamp = this.readTimestamp(keyBytes);
 
-                byte[] dirtyTimestampBytes = get[(i << 1) + 1];
-                long existingDirtyTimestamp = dirtyTimestampBytes != null
-                        ? readLongLE(dirtyTimestampBytes) //dirty timestamp for this tile exists, extract it from the byte array
-                        : TIMESTAMP_BLANK;
+                WriteBehindQueue.Write queuedWrite = this.writeQueue.get(positions.get(i));
+                if (queuedWrite != null) { //a newer tile is queued for writing, compare against that instead
+                    timestamp = max(timestamp, queuedWrite.timestamp());
+                }
+
+                long existingDirtyTimestamp = this.readDirtyTimestamp(keyBytes);
 
                 if (timestamp == TIMESTAMP_BLANK //the tile doesn't exist, so we can't mark it as dirty
                     || dirtyTimestamp <= timestamp || dirtyTimestamp <= existingDirtyTimestamp) { //the new dirty timestamp isn't newer than the existing one, so we can't replace it
@@ -291,16 +588,22 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
                     continue;
                 }
 
-                //store new dirty timestamp in db
-                writeLongLE(dirtyTimestampArray, 0, dirtyTimestamp);
-                txn.put(this.cfTileDirtyTimestamp, allKeyBytes[i], dirtyTimestampArray);
+                //merge new dirty timestamp into db. the merge operator will keep whichever dirty timestamp is newer, so we don't need to lock anything
+                batch.merge(this.cfTileDirtyTimestamp, keyBytes, dirtyTimestampBytes);
 
                 //save the position to return it as part of the result stream
                 out.add(positions.get(i));
+                modified[i] = true;
             }
 
-            if (!out.isEmpty()) { //non-empty list indicates that at least some positions were modified, so we should commit the transaction
-                txn.commit();
+            if (!out.isEmpty()) { //non-empty list indicates that at least some positions were modified, so we should write the batch
+                this.db.write(WRITE_OPTIONS, batch);
+
+                for (int i = 0; i < length; i++) {
+                    if (modified[i]) {
+                        this.timestampIndex.mergeDirtyTimestamp(allKeyBytes[i], dirtyTimestamp);
+                    }
+                }
 
                 this.listeners.forEach(listener -> listener.tilesDirty(out.stream()));
                 return out.stream();
@@ -364,14 +667,93 @@ public class RocksStorage<POS extends IFarPos, T extends IFarTile> implements IF
         }
     }*/
 
+    @Override
+    public long exportTiles(@NonNull File directory, int minLevel, int maxLevel, @NonNull Predicate<POS> filter) throws IOException {
+        IFarRenderMode<POS, T> mode = this.world.mode();
+        try {
+            return SstTileTransfer.exportTiles(this.resources, this.db, this.handles, this.blobStore, directory, mode.name(), this.version, minLevel, maxLevel,
+                    key -> filter.test(mode.readPos(Unpooled.wrappedBuffer(key))));
+        } catch (RocksDBException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long importTiles(@NonNull File directory) throws IOException {
+        IFarRenderMode<POS, T> mode = this.world.mode();
+        List<byte[]> keys;
+
+        //prevent the write-behind queue from committing anything while we're comparing timestamps, otherwise the imported tiles could replace newer ones
+        this.tileWriteLock.lock();
+        try {
+            keys = SstTileTransfer.importTiles(this.resources, this.db, this.handles, this.blobStore, directory, new File(this.root, "import"), mode.name(), this.version,
+                    this::readTimestamp);
+
+            //the cached timestamps were replaced rather than merged into, so they have to be loaded again
+            keys.forEach(this.timestampIndex::invalidate);
+        } catch (RocksDBException e) {
+            throw new IOException(e);
+        } finally {
+            this.tileWriteLock.unlock();
+        }
+
+        if (!keys.isEmpty()) {
+            this.listeners.forEach(listener -> listener.tilesChanged(keys.stream().map(key -> mode.readPos(Unpooled.wrappedBuffer(key)))));
+        }
+        return keys.size();
+    }
+
+    /**
+     * Evicts the least recently accessed tiles if the storage has grown beyond its disk budget.
+     */
+    protected void evictQuietly() {
+        FP2Config.Performance.Storage config = FP2Config.global().performance().storage();
+        if (config.diskBudget() <= 0) { //eviction is disabled
+            return;
+        }
+
+        synchronized (this.evictor) { //prevent the storage from being closed while we're evicting
+            if (this.evictionFuture.isCancelled()) {
+                return;
+            }
+
+            try {
+                //the cached timestamps have to be invalidated as soon as each batch of tiles is deleted, rather than once eviction is complete: until then,
+                //  the index would report the deleted tiles as still being generated
+                List<byte[]> evicted = this.evictor.evict(config.diskBudget() * (1L << 20L), min(config.evictionMaxLevel(), MAX_LODS - 1), this.tileWriteLock,
+                        this.timestampIndex::invalidate);
+
+                if (!evicted.isEmpty()) {
+                    this.evictedTiles.add(evicted.size());
+                    FP2_LOG.info("evicted {} {} tiles from DIM{} to stay within the {} MiB disk budget",
+                            evicted.size(), this.world.mode().name(), this.world.world().provider.getDimension(), config.diskBudget());
+                }
+            } catch (Throwable t) {
+                FP2_LOG.error("unable to evict tiles", t);
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException {
+        //stop eviction, and wait for it to finish if it's currently running. the evictor stops after the batch or compaction chunk it's currently working on, so
+        //  this doesn't have to wait for a whole eviction pass
+        this.evictionFuture.cancel(false);
+        this.evictor.cancel();
+        synchronized (this.evictor) {
+        }
+
+        //wait for all queued writes to be committed
+        this.writeQueue.close();
+
         try {
             this.db.flush(FLUSH_OPTIONS, this.handles);
             this.handles.forEach(ColumnFamilyHandle::close); //close column families before db
             this.db.close();
         } catch (RocksDBException e) {
             throw new IOException(e);
+        } finally {
+            this.timestampIndex.close();
         }
     }
 
@@ -0,0 +1,259 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.config.FP2Config;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBufferManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * The native RocksDB resources used to open a {@link RocksStorage}.
+ * <p>
+ * Every {@link RocksStorage} in the process is opened using the {@link #shared()} instance, so that all dimensions and render modes share a single block cache and
+ * a single write buffer budget. This bounds the total amount of memory used by storages, no matter how many of them are open, and allows memtables to be flushed
+ * based on the combined write load instead of independently.
+ * <p>
+ * The write buffer budget is charged against the block cache, so the block cache's capacity is the upper limit for the combined memory usage of cached blocks
+ * (including index and filter blocks) and memtables.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+public class RocksStorageResources implements AutoCloseable {
+    private static RocksStorageResources SHARED;
+
+    /**
+     * @return the {@link RocksStorageResources} instance shared by all {@link RocksStorage}s, configured using {@link FP2Config.Performance.Storage}
+     */
+    public static synchronized RocksStorageResources shared() {
+        if (SHARED == null) {
+            FP2Config.Performance.Storage config = FP2Config.global().performance().storage();
+            SHARED = new RocksStorageResources(config.blockCacheSize() * (1L << 20L), config.writeBufferSize() * (1L << 20L), config.bloomFilterBitsPerKey());
+        }
+        return SHARED;
+    }
+
+    /**
+     * The upper bound on the size of a single memtable, which is also RocksDB's default.
+     */
+    protected static final long MAX_MEMTABLE_SIZE = 64L << 20L;
+
+    /**
+     * The lower bound on the size of a single memtable.
+     */
+    protected static final long MIN_MEMTABLE_SIZE = 1L << 20L;
+
+    /**
+     * The highest detail level whose tile data is compressed using LZ4.
+     * <p>
+     * Tiles at low levels are rewritten far more often than the others, so they use a cheap compression algorithm and compact less eagerly. All the other levels
+     * use ZSTD.
+     */
+    protected static final int MAX_LZ4_LEVEL = 1;
+
+    /**
+     * The ZSTD compression level used for tile data above {@link #MAX_LZ4_LEVEL}.
+     */
+    protected static final int ZSTD_LEVEL = 6;
+
+    /**
+     * The ZSTD compression level used for tile data above {@link #MAX_LZ4_LEVEL} in the bottommost level of the LSM tree, which is where almost all the data ends up.
+     */
+    protected static final int ZSTD_BOTTOMMOST_LEVEL = 12;
+
+    /**
+     * The maximum size of the ZSTD dictionary used in the bottommost level of the LSM tree.
+     */
+    protected static final int ZSTD_DICT_BYTES = 16 << 10;
+
+    protected final LRUCache blockCache;
+    protected final WriteBufferManager writeBufferManager;
+    protected final BloomFilter bloomFilter;
+
+    protected final DBOptions dbOptions;
+    protected final ColumnFamilyOptions cfOptions;
+    protected final ColumnFamilyOptions timestampCfOptions;
+    protected final ColumnFamilyOptions[] tileDataCfOptions = new ColumnFamilyOptions[MAX_LODS];
+
+    protected final CompressionOptions zstdCompressionOptions;
+    protected final CompressionOptions zstdBottommostCompressionOptions;
+
+    /**
+     * @param blockCacheSize        the capacity of the block cache, in bytes
+     * @param writeBufferSize       the maximum combined size of all memtables, in bytes. Will be clamped to {@code blockCacheSize}
+     * @param bloomFilterBitsPerKey the number of bits per key to use for bloom filters, or {@code 0} to disable bloom filters
+     */
+    public RocksStorageResources(long blockCacheSize, long writeBufferSize, int bloomFilterBitsPerKey) {
+        positive(blockCacheSize, "blockCacheSize");
+        writeBufferSize = min(positive(writeBufferSize, "writeBufferSize"), blockCacheSize);
+
+        this.blockCache = new LRUCache(blockCacheSize);
+        this.writeBufferManager = new WriteBufferManager(writeBufferSize, this.blockCache);
+        this.bloomFilter = notNegative(bloomFilterBitsPerKey, "bloomFilterBitsPerKey") != 0 ? new BloomFilter(bloomFilterBitsPerKey, false) : null;
+
+        this.dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setAllowConcurrentMemtableWrite(true)
+                .setKeepLogFileNum(1L)
+                .setWriteBufferManager(this.writeBufferManager);
+
+        //a single memtable may not take up the entire budget by itself, since every storage has multiple column families which are written to concurrently
+        long memtableSize = max(min(writeBufferSize >> 2L, MAX_MEMTABLE_SIZE), MIN_MEMTABLE_SIZE);
+
+        this.cfOptions = this.createColumnFamilyOptions(memtableSize);
+        this.timestampCfOptions = this.createColumnFamilyOptions(memtableSize)
+                .setMergeOperatorName(TimestampColumns.MERGE_OPERATOR_NAME);
+
+        this.zstdCompressionOptions = new CompressionOptions().setLevel(ZSTD_LEVEL);
+        this.zstdBottommostCompressionOptions = new CompressionOptions()
+                .setEnabled(true)
+                .setLevel(ZSTD_BOTTOMMOST_LEVEL)
+                .setMaxDictBytes(ZSTD_DICT_BYTES)
+                .setZStdMaxTrainBytes(ZSTD_DICT_BYTES * 100);
+
+        for (int level = 0; level < MAX_LODS; level++) {
+            ColumnFamilyOptions options = this.createColumnFamilyOptions(memtableSize);
+            if (level <= MAX_LZ4_LEVEL) { //cheap writes: fast compression, and let more L0 files pile up before compacting them
+                options.setCompressionType(CompressionType.LZ4_COMPRESSION)
+                        .setBottommostCompressionType(CompressionType.LZ4_COMPRESSION)
+                        .setLevel0FileNumCompactionTrigger(8);
+            } else { //small size: strong compression, with a dictionary for the bottommost level (which dynamic level sizing ensures holds most of the data)
+                options.setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                        .setCompressionOptions(this.zstdCompressionOptions)
+                        .setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION)
+                        .setBottommostCompressionOptions(this.zstdBottommostCompressionOptions)
+                        .setLevelCompactionDynamicLevelBytes(true);
+            }
+            this.tileDataCfOptions[level] = options;
+        }
+    }
+
+    protected ColumnFamilyOptions createColumnFamilyOptions(long memtableSize) {
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockCache(this.blockCache)
+                .setCacheIndexAndFilterBlocks(true) //index and filter blocks have to be in the block cache in order to be accounted for
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        if (this.bloomFilter != null) {
+            tableConfig.setFilterPolicy(this.bloomFilter);
+        }
+
+        return new ColumnFamilyOptions()
+                .setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setWriteBufferSize(memtableSize)
+                .setTableFormatConfig(tableConfig);
+    }
+
+    /**
+     * Gets the {@link ColumnFamilyOptions} to use for the column family with the given name.
+     *
+     * @param name the name of the column family
+     * @return the {@link ColumnFamilyOptions}
+     */
+    public ColumnFamilyOptions columnFamilyOptions(@NonNull byte[] name) {
+        if (Arrays.equals(name, COLUMN_NAME_TILE_TIMESTAMP) || Arrays.equals(name, COLUMN_NAME_TILE_DIRTY_TIMESTAMP)
+            || Arrays.equals(name, COLUMN_NAME_TILE_LAST_ACCESS)) { //last access times are merged in the same way as timestamps
+            return this.timestampCfOptions;
+        }
+        for (int level = 0; level < MAX_LODS; level++) {
+            if (Arrays.equals(name, columnNameTileData(level))) {
+                return this.tileDataCfOptions[level];
+            }
+        }
+        return this.cfOptions;
+    }
+
+    /**
+     * Opens the RocksDB database used by a {@link RocksStorage} at the given directory.
+     * <p>
+     * The column family handles will be added to the given list in the order given by {@link RocksStorage#COLUMN_NAMES}. They must be closed before the database
+     * itself.
+     *
+     * @param root    the directory containing the database
+     * @param handles the list to add the column family handles to
+     * @return the opened database
+     */
+    public RocksDB open(@NonNull File root, @NonNull List<ColumnFamilyHandle> handles) throws RocksDBException {
+        return this.open(root, COLUMN_NAMES, handles);
+    }
+
+    /**
+     * Opens a RocksDB database at the given directory with the given column families.
+     * <p>
+     * This is only needed for accessing databases which use an older layout, otherwise {@link #open(File, List)} should be used.
+     *
+     * @param root        the directory containing the database
+     * @param columnNames the names of the column families to open. Must include every column family which exists in the database
+     * @param handles     the list to add the column family handles to, in the same order as {@code columnNames}
+     * @return the opened database
+     */
+    public RocksDB open(@NonNull File root, @NonNull List<byte[]> columnNames, @NonNull List<ColumnFamilyHandle> handles) throws RocksDBException {
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>(columnNames.size());
+        for (byte[] name : columnNames) {
+            descriptors.add(new ColumnFamilyDescriptor(name, this.columnFamilyOptions(name)));
+        }
+        return RocksDB.open(this.dbOptions, root.getPath(), descriptors, handles);
+    }
+
+    /**
+     * Releases all of the native resources.
+     * <p>
+     * Must only be called once all of the databases opened using this instance have been closed. The {@link #shared()} instance is never closed.
+     */
+    @Override
+    public void close() {
+        for (ColumnFamilyOptions options : this.tileDataCfOptions) {
+            options.close();
+        }
+        this.zstdBottommostCompressionOptions.close();
+        this.zstdCompressionOptions.close();
+        this.timestampCfOptions.close();
+        this.cfOptions.close();
+        this.dbOptions.close();
+        if (this.bloomFilter != null) {
+            this.bloomFilter.close();
+        }
+        this.writeBufferManager.close();
+        this.blockCache.close();
+    }
+}
@@ -20,11 +20,8 @@
 
 package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
 
-import com.google.common.collect.ImmutableList;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.Unpooled;
-import io.netty.buffer.UnpooledByteBufAllocator;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -34,12 +31,9 @@ import net.daporkchop.fp2.mode.api.IFarTile;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
 import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
 import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
-import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
 import org.rocksdb.RocksDBException;
-import org.rocksdb.Transaction;
 
 import java.util.Arrays;
-import java.util.List;
 import java.util.stream.Stream;
 
 import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
@@ -56,156 +50,107 @@ public class RocksTileHandle<POS extends IFarPos, T extends IFarTile> implements
     protected final RocksStorage<POS, T> storage;
 
     @Override
-    @SneakyThrows(RocksDBException.class)
     public long timestamp() {
-        byte[] timestampBytes = this.storage.db.get(this.storage.cfTileTimestamp, this.pos.toBytes());
-        return timestampBytes != null
-                ? readLongLE(timestampBytes) //timestamp for this tile exists, extract it from the byte array
-                : TIMESTAMP_BLANK;
+        WriteBehindQueue.Write queuedWrite = this.storage.writeQueue.get(this.pos);
+        if (queuedWrite != null) { //a write is queued, it's guaranteed to be newer than whatever is in the db
+            return queuedWrite.timestamp();
+        }
+
+        return this.storage.readTimestamp(this.pos);
     }
 
     @Override
     @SneakyThrows(RocksDBException.class)
     public ITileSnapshot<POS, T> snapshot() {
         byte[] keyBytes = this.pos.toBytes();
+        this.storage.evictor.recordAccess(keyBytes);
 
-        //read timestamp and tile bytes using multiGet to ensure coherency
-        List<byte[]> valueBytes = this.storage.db.multiGetAsList(
-                ImmutableList.of(this.storage.cfTileTimestamp, this.storage.cfTileData),
-                ImmutableList.of(keyBytes, keyBytes));
-
-        byte[] timestampBytes = valueBytes.get(0);
-        byte[] tileBytes = valueBytes.get(1);
+        WriteBehindQueue.Write queuedWrite = this.storage.writeQueue.get(this.pos);
+        if (queuedWrite != null) { //a write is queued, read the tile data from the queue instead
+            return queuedWrite.snapshot(this.pos);
+        }
 
-        return timestampBytes != null
-                ? new TileSnapshot<>(this.pos, readLongLE(timestampBytes), tileBytes)
-                : null;
+        return this.storage.readSnapshot(this.pos, keyBytes);
     }
 
     @Override
-    @SneakyThrows(RocksDBException.class)
     public boolean set(@NonNull ITileMetadata metadata, @NonNull T tile) {
-        try (Transaction txn = this.storage.db.beginTransaction(WRITE_OPTIONS)) {
-            byte[] keyBytes = this.pos.toBytes();
-
-            //obtain an exclusive lock on both timestamp keys to ensure coherency
-            byte[][] get = txn.multiGetForUpdate(READ_OPTIONS,
-                    ImmutableList.of(this.storage.cfTileTimestamp, this.storage.cfTileDirtyTimestamp),
-                    new byte[][]{ keyBytes, keyBytes });
-
-            byte[] timestampBytes = get[0];
-            long timestamp = timestampBytes != null
-                    ? readLongLE(timestampBytes) //timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
-
-            byte[] dirtyTimestampBytes = get[1];
-            long dirtyTimestamp = dirtyTimestampBytes != null
-                    ? readLongLE(dirtyTimestampBytes) //dirty timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
-
-            if (metadata.timestamp() <= timestamp) { //the new timestamp isn't newer than the existing one, so we can't replace it
-                //exit without committing the transaction
-                return false;
-            }
-
-            //store new timestamp in db
-            txn.put(this.storage.cfTileTimestamp, keyBytes, writeLongLE(metadata.timestamp()));
-
-            //clear dirty timestamp if needed
-            if (metadata.timestamp() >= dirtyTimestamp) {
-                txn.delete(this.storage.cfTileDirtyTimestamp, keyBytes);
-            }
-
-            //encode tile and store it in db
-            ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer();
-            try {
-                if (tile.write(buf)) { //the tile was empty, remove it from the db!
-                    txn.delete(this.storage.cfTileData, keyBytes);
-                } else { //the tile was non-empty, store it in the db
-                    txn.put(this.storage.cfTileData, keyBytes, Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.writerIndex()));
-                }
-            } finally {
-                buf.release();
-            }
-
-            //commit transaction and report that a change was made
-            txn.commit();
-
-            this.storage.listeners.forEach(listener -> listener.tilesChanged(Stream.of(this.pos)));
-            return true;
+        //encode tile
+        byte[] data;
+        ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            data = tile.write(buf)
+                    ? null //the tile was empty, it'll be removed from the db
+                    : Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.writerIndex());
+        } finally {
+            buf.release();
         }
+
+        //the tile will actually be written to the db later on the storage's writer thread, listeners will be notified once that happens
+        return this.storage.writeQueue.put(this.pos, metadata.timestamp(), data);
     }
 
     @Override
-    @SneakyThrows(RocksDBException.class)
     public long dirtyTimestamp() {
-        byte[] dirtyTimestampBytes = this.storage.db.get(this.storage.cfTileDirtyTimestamp, this.pos.toBytes());
-        return dirtyTimestampBytes != null
-                ? Unpooled.wrappedBuffer(dirtyTimestampBytes).readLongLE() //dirty timestamp for this tile exists, extract it from the byte array
-                : TIMESTAMP_BLANK;
+        long dirtyTimestamp = this.storage.readDirtyTimestamp(this.pos.toBytes());
+
+        WriteBehindQueue.Write queuedWrite = this.storage.writeQueue.get(this.pos);
+        if (queuedWrite != null && queuedWrite.timestamp() >= dirtyTimestamp) { //the queued write will clear the dirty timestamp once it's committed
+            return TIMESTAMP_BLANK;
+        }
+        return dirtyTimestamp;
     }
 
     @Override
     @SneakyThrows(RocksDBException.class)
     public boolean markDirty(long dirtyTimestamp) {
-        try (Transaction txn = this.storage.db.beginTransaction(WRITE_OPTIONS)) {
-            byte[] keyBytes = this.pos.toBytes();
-
-            //obtain an exclusive lock on both timestamp keys to ensure coherency
-            byte[][] get = txn.multiGetForUpdate(READ_OPTIONS,
-                    ImmutableList.of(this.storage.cfTileTimestamp, this.storage.cfTileDirtyTimestamp),
-                    new byte[][]{ keyBytes, keyBytes });
-
-            byte[] timestampBytes = get[0];
-            long timestamp = timestampBytes != null
-                    ? Unpooled.wrappedBuffer(timestampBytes).readLongLE() //timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
-
-            byte[] dirtyTimestampBytes = get[1];
-            long existingDirtyTimestamp = dirtyTimestampBytes != null
-                    ? Unpooled.wrappedBuffer(dirtyTimestampBytes).readLongLE() //dirty timestamp for this tile exists, extract it from the byte array
-                    : TIMESTAMP_BLANK;
-
-            if (timestamp == TIMESTAMP_BLANK //the tile doesn't exist, so we can't mark it as dirty
-                    || dirtyTimestamp <= timestamp || dirtyTimestamp <= existingDirtyTimestamp) { //the new dirty timestamp isn't newer than the existing one, so we can't replace it
-                //exit without committing the transaction
-                return false;
-            }
-
-            //store new dirty timestamp in db
-            txn.put(this.storage.cfTileDirtyTimestamp, keyBytes, UnpooledByteBufAllocator.DEFAULT.heapBuffer(Long.BYTES, Long.BYTES).writeLongLE(dirtyTimestamp).array());
-
-            //commit transaction and report that a change was made
-            txn.commit();
-
-            this.storage.listeners.forEach(listener -> listener.tilesDirty(Stream.of(this.pos)));
-            return true;
+        byte[] keyBytes = this.pos.toBytes();
+
+        long timestamp = this.storage.readTimestamp(keyBytes);
+
+        WriteBehindQueue.Write queuedWrite = this.storage.writeQueue.get(this.pos);
+        if (queuedWrite != null) { //a newer tile is queued for writing, compare against that instead
+            timestamp = Math.max(timestamp, queuedWrite.timestamp());
+        }
+
+        long existingDirtyTimestamp = this.storage.readDirtyTimestamp(keyBytes);
+
+        if (timestamp == TIMESTAMP_BLANK //the tile doesn't exist, so we can't mark it as dirty
+            || dirtyTimestamp <= timestamp || dirtyTimestamp <= existingDirtyTimestamp) { //the new dirty timestamp isn't newer than the existing one, so we can't replace it
+            return false;
         }
+
+        //merge new dirty timestamp into db. the merge operator will keep whichever dirty timestamp is newer, so we don't need to lock anything
+        this.storage.db.merge(this.storage.cfTileDirtyTimestamp, WRITE_OPTIONS, keyBytes, TimestampColumns.encode(dirtyTimestamp));
+        this.storage.timestampIndex.mergeDirtyTimestamp(keyBytes, dirtyTimestamp);
+
+        //report that a change was made
+        this.storage.listeners.forEach(listener -> listener.tilesDirty(Stream.of(this.pos)));
+        return true;
     }
 
     @Override
     @SneakyThrows(RocksDBException.class)
     public boolean clearDirty() {
-        try (Transaction txn = this.storage.db.beginTransaction(WRITE_OPTIONS)) {
-            byte[] keyBytes = this.pos.toBytes();
-
-            if (txn.getForUpdate(READ_OPTIONS, this.storage.cfTileDirtyTimestamp, keyBytes, true) == null) { //the tile isn't dirty
-                //exit without committing the transaction
-                return false;
-            }
-
-            //store new dirty timestamp in db
-            txn.delete(this.storage.cfTileDirtyTimestamp, keyBytes);
+        byte[] keyBytes = this.pos.toBytes();
 
-            //commit transaction and report that a change was made
-            txn.commit();
-            return true;
+        if (this.storage.readDirtyTimestamp(keyBytes) == TIMESTAMP_BLANK) { //the tile isn't dirty
+            return false;
         }
+
+        //delete dirty timestamp from db. this is the only operation which can make a stored timestamp go backwards, so the timestamp index can't just merge it
+        this.storage.db.delete(this.storage.cfTileDirtyTimestamp, WRITE_OPTIONS, keyBytes);
+        this.storage.timestampIndex.invalidate(keyBytes);
+        return true;
     }
 
     @Override
     @SneakyThrows(RocksDBException.class)
     public boolean anyVanillaExists() {
-        return this.storage.db.get(this.storage.cfAnyVanillaExists, this.pos.toBytes()) != null;
+        long startTime = System.nanoTime();
+        byte[] anyVanillaExistsBytes = this.storage.db.get(this.storage.cfAnyVanillaExists, this.pos.toBytes());
+        this.storage.getTime.recordSince(startTime);
+
+        return anyVanillaExistsBytes != null;
     }
 }
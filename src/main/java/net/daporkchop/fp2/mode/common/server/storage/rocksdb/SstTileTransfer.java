@@ -0,0 +1,368 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import com.google.common.primitives.UnsignedBytes;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.EnvOptions;
+import org.rocksdb.IngestExternalFileOptions;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+import org.rocksdb.SstFileReader;
+import org.rocksdb.SstFileReaderIterator;
+import org.rocksdb.SstFileWriter;
+import org.rocksdb.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Exports tiles from a {@link RocksStorage} into sorted SST files, and imports them into another one.
+ * <p>
+ * An export consists of a manifest and one SST file per column family, named after the column family. SST files can be ingested directly into the target database
+ * without going through the memtables or the write-ahead log, which makes this far faster than copying the tiles one-by-one. Dirty timestamps aren't exported, since
+ * they only describe the state of the source world. Deduplicated payloads (see {@link TileBlobStore}) are exported inline, and deduplicated again when they're
+ * imported.
+ * <p>
+ * Both operations may be done while the storage is in use: exports read from a consistent snapshot of the database, and imports only replace tiles whose imported
+ * timestamp is newer than the existing one.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class SstTileTransfer {
+    public final String MANIFEST_FILE = "manifest.properties";
+
+    /**
+     * Exports the tiles at the given detail levels into the given directory.
+     *
+     * @param resources      the {@link RocksStorageResources} which the database was opened with
+     * @param db             the database
+     * @param handles        the database's column family handles, in the order given by {@link RocksStorage#COLUMN_NAMES}
+     * @param blobStore      the database's {@link TileBlobStore}
+     * @param directory      the directory to write the export to. Must not exist yet
+     * @param modeName       the name of the render mode which the tiles belong to
+     * @param storageVersion the version of the tiles' serialized format
+     * @param minLevel       the lowest detail level to export (inclusive)
+     * @param maxLevel       the highest detail level to export (inclusive)
+     * @param keyFilter      a filter which accepts the encoded positions of the tiles to export
+     * @return the number of exported tiles
+     */
+    public long exportTiles(@NonNull RocksStorageResources resources, @NonNull RocksDB db, @NonNull List<ColumnFamilyHandle> handles,
+                            @NonNull TileBlobStore blobStore, @NonNull File directory,
+                            @NonNull String modeName, int storageVersion, int minLevel, int maxLevel, @NonNull Predicate<byte[]> keyFilter) throws IOException, RocksDBException {
+        checkArg(minLevel >= 0 && minLevel <= maxLevel && maxLevel < MAX_LODS, "invalid level range: [%d, %d]", minLevel, maxLevel);
+        checkState(!directory.exists(), "%s already exists", directory);
+        PFiles.ensureDirectoryExists(directory);
+
+        long tiles = 0L;
+        Snapshot snapshot = db.getSnapshot();
+        try (ReadOptions readOptions = new ReadOptions().setSnapshot(snapshot).setFillCache(false);
+             Writer timestampWriter = new Writer(resources, directory, COLUMN_NAME_TILE_TIMESTAMP);
+             Writer anyVanillaExistsWriter = new Writer(resources, directory, COLUMN_NAME_ANY_VANILLA_EXISTS);
+             RocksIterator timestampItr = db.newIterator(handles.get(1), readOptions);
+             RocksIterator anyVanillaExistsItr = db.newIterator(handles.get(3), readOptions)) {
+            for (int level = minLevel; level <= maxLevel; level++) {
+                try (Writer dataWriter = new Writer(resources, directory, columnNameTileData(level));
+                     RocksIterator dataItr = db.newIterator(handles.get(FIRST_TILE_DATA_COLUMN + level), readOptions)) {
+                    //every tile has a timestamp, and all keys start with the tile's level, so iterating over the timestamps for this level visits every tile at this level
+                    for (timestampItr.seek(new byte[]{ (byte) level }); timestampItr.isValid(); timestampItr.next()) {
+                        byte[] key = timestampItr.key();
+                        if ((key[0] & 0xFF) != level) {
+                            break;
+                        } else if (!keyFilter.test(key)) {
+                            continue;
+                        }
+
+                        timestampWriter.put(key, timestampItr.value());
+                        if (seekExact(dataItr, key)) { //the tile data is absent if the tile is empty
+                            byte[] payload = blobStore.payload(dataItr.value(), readOptions);
+                            checkState(payload != null, "tile references a missing blob"); //we're reading from a snapshot, so the blob can't have been released
+                            dataWriter.put(key, TileBlobStore.inline(payload));
+                        }
+                        if (seekExact(anyVanillaExistsItr, key)) {
+                            anyVanillaExistsWriter.put(key, anyVanillaExistsItr.value());
+                        }
+                        tiles++;
+                    }
+                    timestampItr.status();
+                }
+            }
+        } finally {
+            db.releaseSnapshot(snapshot);
+        }
+
+        Properties manifest = new Properties();
+        manifest.setProperty("mode", modeName);
+        manifest.setProperty("storageVersion", String.valueOf(storageVersion));
+        manifest.setProperty("layoutVersion", String.valueOf(LAYOUT_VERSION));
+        manifest.setProperty("tiles", String.valueOf(tiles));
+        try (OutputStream out = Files.newOutputStream(new File(directory, MANIFEST_FILE).toPath())) { //the manifest is written last, so incomplete exports can't be imported
+            manifest.store(out, null);
+        }
+        return tiles;
+    }
+
+    /**
+     * Imports tiles from an export created by {@link #exportTiles}.
+     * <p>
+     * Tiles are only imported if their timestamp is newer than the timestamp of the existing tile at the same position. The caller must ensure that no tiles are
+     * written to the database while this method is running (by holding the tile write lock), otherwise the newer tile could be overwritten.
+     *
+     * @param resources         the {@link RocksStorageResources} which the database was opened with
+     * @param db                the database
+     * @param handles           the database's column family handles, in the order given by {@link RocksStorage#COLUMN_NAMES}
+     * @param blobStore         the database's {@link TileBlobStore}
+     * @param directory         the directory containing the export
+     * @param tmpDirectory      a directory to write temporary files to. Will be deleted once the import is complete
+     * @param modeName          the name of the render mode which the tiles belong to
+     * @param storageVersion    the version of the tiles' serialized format
+     * @param existingTimestamp a function which gets the timestamp of the existing tile with the given encoded position
+     * @return the encoded positions of the imported tiles, in order
+     */
+    public List<byte[]> importTiles(@NonNull RocksStorageResources resources, @NonNull RocksDB db, @NonNull List<ColumnFamilyHandle> handles,
+                                    @NonNull TileBlobStore blobStore, @NonNull File directory, @NonNull File tmpDirectory, @NonNull String modeName, int storageVersion,
+                                    @NonNull ToLongFunction<byte[]> existingTimestamp) throws IOException, RocksDBException {
+        File manifestFile = new File(directory, MANIFEST_FILE);
+        if (!PFiles.checkFileExists(manifestFile)) {
+            throw new IOException("not a complete tile export: " + directory);
+        }
+
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(manifestFile.toPath())) {
+            manifest.load(in);
+        }
+        if (!modeName.equals(manifest.getProperty("mode"))
+            || storageVersion != Integer.parseInt(manifest.getProperty("storageVersion"))
+            || LAYOUT_VERSION != Integer.parseInt(manifest.getProperty("layoutVersion"))) {
+            throw new IOException("incompatible tile export " + directory + ": expected mode=" + modeName + ", storageVersion=" + storageVersion
+                                  + ", layoutVersion=" + LAYOUT_VERSION + ", found " + manifest);
+        }
+
+        if (PFiles.checkDirectoryExists(tmpDirectory)) { //left over from an interrupted import
+            PFiles.rm(tmpDirectory);
+        }
+        PFiles.ensureDirectoryExists(tmpDirectory);
+
+        try (Options readerOptions = new Options();
+             WriteBatch storeBatch = new WriteBatch();
+             WriteBatch releaseBatch = new WriteBatch()) {
+            //select the tiles which are newer than the existing ones
+            List<byte[]> keys = new ArrayList<>();
+            File timestampFile = sstFile(directory, COLUMN_NAME_TILE_TIMESTAMP);
+            if (!PFiles.checkFileExists(timestampFile)) { //nothing was exported
+                return keys;
+            }
+
+            try (Writer timestampWriter = new Writer(resources, tmpDirectory, COLUMN_NAME_TILE_TIMESTAMP);
+                 SstFileReader reader = new SstFileReader(readerOptions)) {
+                reader.open(timestampFile.getPath());
+                try (ReadOptions readOptions = new ReadOptions();
+                     SstFileReaderIterator itr = reader.newIterator(readOptions)) {
+                    for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                        byte[] key = itr.key();
+                        byte[] value = itr.value();
+                        if (TimestampColumns.decode(value) > existingTimestamp.applyAsLong(key)) {
+                            timestampWriter.put(key, value);
+                            keys.add(key);
+                        }
+                    }
+                    itr.status();
+                }
+            }
+
+            //filter the other column families down to the selected tiles. selected tiles which don't have any data in the export are empty, so the existing tile
+            //  data needs to be deleted
+            try (Writer anyVanillaExistsWriter = new Writer(resources, tmpDirectory, COLUMN_NAME_ANY_VANILLA_EXISTS)) {
+                filter(readerOptions, sstFile(directory, COLUMN_NAME_ANY_VANILLA_EXISTS), keys, 0, keys.size(), anyVanillaExistsWriter, false, value -> value);
+            }
+
+            //the imported payloads are deduplicated again, and the blobs referenced by the replaced tile data are released. the new blobs are written before
+            //  ingestion, and the old ones are released afterwards, so that concurrent readers never see tile data referencing a missing blob
+            TileBlobStore.Update stores = blobStore.update(storeBatch);
+            TileBlobStore.Update releases = blobStore.update(releaseBatch);
+            for (int i = 0; i < keys.size(); ) {
+                int level = keys.get(i)[0] & 0xFF;
+                int end = i;
+                while (end < keys.size() && (keys.get(end)[0] & 0xFF) == level) {
+                    end++;
+                }
+
+                List<byte[]> levelKeys = keys.subList(i, end);
+                db.multiGetAsList(Collections.nCopies(levelKeys.size(), handles.get(FIRST_TILE_DATA_COLUMN + level)), levelKeys).forEach(releases::release);
+
+                try (Writer dataWriter = new Writer(resources, tmpDirectory, columnNameTileData(level))) {
+                    filter(readerOptions, sstFile(directory, columnNameTileData(level)), keys, i, end, dataWriter, true,
+                            value -> stores.store(TileBlobStore.inlinePayload(value)));
+                }
+                i = end;
+            }
+
+            stores.commit();
+            db.write(WRITE_OPTIONS, storeBatch);
+
+            //ingest the timestamps last, so that concurrent readers don't see a new timestamp before the tile data
+            try (IngestExternalFileOptions options = new IngestExternalFileOptions().setMoveFiles(true)) {
+                for (int i = COLUMN_NAMES.size() - 1; i > 0; i--) {
+                    File file = sstFile(tmpDirectory, COLUMN_NAMES.get(i));
+                    if (PFiles.checkFileExists(file)) {
+                        db.ingestExternalFile(handles.get(i), Collections.singletonList(file.getPath()), options);
+                    }
+                }
+            }
+
+            releases.commit();
+            db.write(WRITE_OPTIONS, releaseBatch);
+            return keys;
+        } finally {
+            PFiles.rm(tmpDirectory);
+        }
+    }
+
+    /**
+     * Copies the entries for the keys in the given range of a sorted list from an SST file into the given {@link Writer}.
+     *
+     * @param deleteMissing whether to write a tombstone for keys which don't exist in the SST file
+     * @param transform     a function to apply to the values before writing them
+     */
+    private void filter(@NonNull Options readerOptions, @NonNull File file, @NonNull List<byte[]> keys, int fromIndex, int toIndex, @NonNull Writer writer,
+                        boolean deleteMissing, @NonNull ValueTransform transform) throws RocksDBException {
+        if (!PFiles.checkFileExists(file)) {
+            if (deleteMissing) {
+                for (int i = fromIndex; i < toIndex; i++) {
+                    writer.delete(keys.get(i));
+                }
+            }
+            return;
+        }
+
+        try (SstFileReader reader = new SstFileReader(readerOptions)) {
+            reader.open(file.getPath());
+            try (ReadOptions readOptions = new ReadOptions();
+                 SstFileReaderIterator itr = reader.newIterator(readOptions)) {
+                itr.seekToFirst();
+                for (int i = fromIndex; i < toIndex; i++) {
+                    byte[] key = keys.get(i);
+
+                    //both the file and the keys are sorted, so we can simply advance the iterator past all the keys which weren't selected
+                    while (itr.isValid() && UnsignedBytes.lexicographicalComparator().compare(itr.key(), key) < 0) {
+                        itr.next();
+                    }
+
+                    if (itr.isValid() && Arrays.equals(itr.key(), key)) {
+                        writer.put(key, transform.apply(itr.value()));
+                    } else if (deleteMissing) {
+                        writer.delete(key);
+                    }
+                }
+                itr.status();
+            }
+        }
+    }
+
+    private File sstFile(@NonNull File directory, @NonNull byte[] columnName) {
+        return new File(directory, new String(columnName, StandardCharsets.UTF_8) + ".sst");
+    }
+
+    /**
+     * A function which transforms the values copied from an SST file.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    private interface ValueTransform {
+        byte[] apply(@NonNull byte[] value) throws RocksDBException;
+    }
+
+    /**
+     * Lazily creates an SST file for a single column family, since {@link SstFileWriter} can't create empty files.
+     *
+     * @author DaPorkchop_
+     */
+    private static final class Writer implements AutoCloseable {
+        private final RocksStorageResources resources;
+        private final File file;
+        private final byte[] columnName;
+
+        private Options options;
+        private EnvOptions envOptions;
+        private SstFileWriter writer;
+
+        public Writer(@NonNull RocksStorageResources resources, @NonNull File directory, @NonNull byte[] columnName) {
+            this.resources = resources;
+            this.file = sstFile(directory, columnName);
+            this.columnName = columnName;
+        }
+
+        private SstFileWriter writer() throws RocksDBException {
+            if (this.writer == null) {
+                this.options = new Options(this.resources.dbOptions(), this.resources.columnFamilyOptions(this.columnName));
+                this.envOptions = new EnvOptions();
+                this.writer = new SstFileWriter(this.envOptions, this.options);
+                this.writer.open(this.file.getPath());
+            }
+            return this.writer;
+        }
+
+        public void put(@NonNull byte[] key, @NonNull byte[] value) throws RocksDBException {
+            this.writer().put(key, value);
+        }
+
+        public void delete(@NonNull byte[] key) throws RocksDBException {
+            this.writer().delete(key);
+        }
+
+        @Override
+        public void close() throws RocksDBException {
+            if (this.writer != null) {
+                try {
+                    this.writer.finish();
+                } finally {
+                    this.writer.close();
+                    this.envOptions.close();
+                    this.options.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+
+/**
+ * A single step in upgrading the on-disk layout of a {@link RocksStorage} from one version to the next.
+ * <p>
+ * Migrations don't access the database themselves. Instead, {@link StorageMigrator} streams every entry of the old database through the chain of migrations
+ * between the database's version and the current one, and writes whatever comes out of the end of the chain into a new database. A migration may therefore
+ * rename column families and re-encode, split or drop entries, but its output must only depend on the entry it's given.
+ *
+ * @author DaPorkchop_
+ * @see StorageMigrator
+ */
+public interface StorageMigration {
+    /**
+     * @return the layout version which this migration upgrades from. It produces entries in the layout of the next version
+     */
+    int fromVersion();
+
+    /**
+     * Migrates a single entry.
+     *
+     * @param columnName the name of the column family containing the entry
+     * @param key        the entry's key
+     * @param value      the entry's value
+     * @param out        the {@link Output} to pass the migrated entries to. May be called any number of times
+     */
+    void migrate(@NonNull byte[] columnName, @NonNull byte[] key, @NonNull byte[] value, @NonNull Output out);
+
+    /**
+     * Accepts entries produced by a {@link StorageMigration}.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    interface Output {
+        void accept(@NonNull byte[] columnName, @NonNull byte[] key, @NonNull byte[] value);
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import com.google.common.primitives.UnsignedBytes;
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.EnvOptions;
+import org.rocksdb.IngestExternalFileOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.SstFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Migrates {@link RocksStorage}s which use an older on-disk layout to the current one, instead of discarding them.
+ * <p>
+ * The old database is streamed through the chain of registered {@link StorageMigration}s between its version and the target version, and the resulting entries
+ * are written into a fresh database next to it, which then replaces the old one. Entries are buffered in sorted chunks of limited size, which are written to
+ * SST files and ingested into the new database directly, bypassing the memtables and the write-ahead log.
+ * <p>
+ * After every ingested chunk, the position in the old database is recorded in a checkpoint file. If the migration is interrupted, it resumes from the last checkpoint
+ * the next time the storage is opened. Entries which were ingested after the checkpoint was written will simply be overwritten with the same values. The new
+ * database's marker file is only created once the migration is complete, and the directories are swapped using renames.
+ *
+ * @author DaPorkchop_
+ */
+public class StorageMigrator {
+    /**
+     * The default maximum number of bytes to buffer before writing them to SST files.
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 64L << 20L;
+
+    /**
+     * The approximate number of bytes of overhead per buffered entry.
+     */
+    protected static final long ENTRY_OVERHEAD = 64L;
+
+    /**
+     * The number of migrated entries between progress messages.
+     */
+    protected static final long LOG_INTERVAL = 1L << 20L;
+
+    protected static final String CHECKPOINT_FILE = "migration.properties";
+    protected static final String INGEST_DIRECTORY = "ingest";
+
+    /**
+     * Gets a {@link StorageMigrator} which migrates storages for the given {@link IFarRenderMode} to the current layout.
+     *
+     * @param resources the {@link RocksStorageResources} to open databases with
+     * @param mode      the {@link IFarRenderMode} which the storages belong to
+     * @return the {@link StorageMigrator}
+     */
+    public static StorageMigrator forMode(@NonNull RocksStorageResources resources, @NonNull IFarRenderMode<?, ?> mode) {
+        return new StorageMigrator(resources, builtinMigrations(mode::readLegacyPos), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Gets the built-in {@link StorageMigration}s, which are able to migrate storages from layout v4 up to the current layout.
+     *
+     * @param legacyPosReader a function for reading tile positions in the encoding used by layouts v4 and v5 (see {@link IFarRenderMode#readLegacyPos(ByteBuf)})
+     * @return the built-in {@link StorageMigration}s
+     */
+    public static List<StorageMigration> builtinMigrations(@NonNull Function<ByteBuf, ? extends IFarPos> legacyPosReader) {
+        return Arrays.asList(
+                new TimestampEncodingMigration(),
+                new PosEncodingMigration(legacyPosReader),
+                new SplitTileDataMigration(),
+                new TileDataTagMigration());
+    }
+
+    protected final RocksStorageResources resources;
+    protected final int targetVersion;
+    protected final StorageMigration[] migrations; //indexed by source version
+    protected final long chunkSize;
+
+    public StorageMigrator(@NonNull RocksStorageResources resources, @NonNull Collection<StorageMigration> migrations, long chunkSize) {
+        this(resources, LAYOUT_VERSION, migrations, chunkSize);
+    }
+
+    public StorageMigrator(@NonNull RocksStorageResources resources, int targetVersion, @NonNull Collection<StorageMigration> migrations, long chunkSize) {
+        this.resources = resources;
+        this.targetVersion = positive(targetVersion, "targetVersion");
+        this.chunkSize = positive(chunkSize, "chunkSize");
+
+        this.migrations = new StorageMigration[targetVersion];
+        for (StorageMigration migration : migrations) {
+            int fromVersion = migration.fromVersion();
+            checkArg(fromVersion >= 0 && fromVersion < targetVersion, "migration from layout v%d can't lead to layout v%d", fromVersion, targetVersion);
+            checkArg(this.migrations[fromVersion] == null, "multiple migrations from layout v%d", fromVersion);
+            this.migrations[fromVersion] = migration;
+        }
+    }
+
+    /**
+     * Prepares the given storage root for being opened with the target layout.
+     * <p>
+     * Interrupted migrations are recovered, storages using an older layout are migrated and storages using an unknown layout are deleted. Once this method returns,
+     * the storage root either doesn't exist or contains a database using the target layout.
+     *
+     * @param root the storage root
+     */
+    public void migrateIfNecessary(@NonNull File root) throws IOException, RocksDBException {
+        File migrating = new File(root.getParentFile(), root.getName() + ".migrating");
+        File old = new File(root.getParentFile(), root.getName() + ".old");
+
+        if (PFiles.checkDirectoryExists(migrating) && PFiles.checkFileExists(markerFile(migrating, this.targetVersion))) {
+            //a previous migration was completed, but the directories weren't swapped yet
+            swap(root, migrating, old);
+        }
+        if (PFiles.checkDirectoryExists(old)) { //the directories were swapped, but the old storage wasn't deleted yet
+            PFiles.rm(old);
+        }
+
+        if (!PFiles.checkDirectoryExists(root) || PFiles.checkFileExists(markerFile(root, this.targetVersion))) { //nothing to migrate
+            if (PFiles.checkDirectoryExists(migrating)) { //this can't be resumed without the old storage
+                PFiles.rm(migrating);
+            }
+            return;
+        }
+
+        int version = this.migratableVersion(root);
+        if (version < 0) { //there's no chain of migrations from the storage's version
+            FP2_LOG.warn("deleting storage at {} with unknown layout", root);
+            PFiles.rmContentsParallel(root);
+            if (PFiles.checkDirectoryExists(migrating)) {
+                PFiles.rm(migrating);
+            }
+            return;
+        }
+
+        Properties checkpoint = PFiles.checkDirectoryExists(migrating) ? readCheckpoint(migrating) : null;
+        if (checkpoint != null && Integer.parseInt(checkpoint.getProperty("version")) != version) { //the checkpoint doesn't belong to this storage
+            checkpoint = null;
+        }
+        if (checkpoint == null) {
+            if (PFiles.checkDirectoryExists(migrating)) {
+                FP2_LOG.warn("deleting storage migration at {} which can't be resumed", migrating);
+                PFiles.rm(migrating);
+            }
+            FP2_LOG.info("migrating storage at {} from layout v{} to v{}, this may take a while...", root, version, this.targetVersion);
+        } else {
+            FP2_LOG.info("resuming migration of storage at {} from layout v{} to v{}", root, version, this.targetVersion);
+        }
+
+        long migrated = this.migrate(root, migrating, version, checkpoint);
+
+        PFiles.ensureFileExists(markerFile(migrating, this.targetVersion)); //the migration is complete once the marker file exists
+        Files.deleteIfExists(new File(migrating, CHECKPOINT_FILE).toPath());
+        swap(root, migrating, old);
+        PFiles.rm(old);
+        FP2_LOG.info("migrated {} entries in storage at {}", migrated, root);
+    }
+
+    /**
+     * Finds the layout version of the storage at the given root.
+     *
+     * @param root the storage root
+     * @return the storage's layout version, or {@code -1} if it's unknown or there is no chain of migrations from it to the target version
+     */
+    protected int migratableVersion(@NonNull File root) {
+        int version = this.targetVersion - 1;
+        while (version >= 0 && !PFiles.checkFileExists(markerFile(root, version))) {
+            version--;
+        }
+        for (int i = Math.max(version, 0); i < this.targetVersion; i++) {
+            if (this.migrations[i] == null) {
+                return -1;
+            }
+        }
+        return version;
+    }
+
+    protected long migrate(@NonNull File src, @NonNull File dst, int version, Properties checkpoint) throws IOException, RocksDBException {
+        //compose the chain of migrations, the last one outputs entries into the current chunk
+        Chunk chunk = new Chunk();
+        StorageMigration.Output output = chunk::add;
+        for (int i = this.targetVersion - 1; i >= version; i--) {
+            StorageMigration migration = this.migrations[i];
+            StorageMigration.Output next = output;
+            output = (columnName, key, value) -> migration.migrate(columnName, key, value, next);
+        }
+
+        List<byte[]> srcNames;
+        try (Options options = new Options()) {
+            srcNames = RocksDB.listColumnFamilies(options, src.getPath());
+        }
+        srcNames.sort(UnsignedBytes.lexicographicalComparator()); //ensure the order is the same when resuming
+
+        int startColumn = 0;
+        byte[] startKey = null;
+        long migrated = 0L;
+        if (checkpoint != null) {
+            startColumn = Integer.parseInt(checkpoint.getProperty("column"));
+            String key = checkpoint.getProperty("key");
+            startKey = key.isEmpty() ? null : Base64.getDecoder().decode(key);
+            migrated = Long.parseLong(checkpoint.getProperty("entries"));
+        }
+
+        List<ColumnFamilyHandle> srcHandles = new ArrayList<>();
+        List<ColumnFamilyHandle> dstHandles = new ArrayList<>();
+
+        PFiles.ensureDirectoryExists(dst);
+        try (RocksDB srcDb = this.resources.open(src, srcNames, srcHandles);
+             RocksDB dstDb = this.resources.open(dst, dstHandles)) {
+            try {
+                for (int column = startColumn; column < srcNames.size(); column++) {
+                    try (RocksIterator itr = srcDb.newIterator(srcHandles.get(column), SCAN_OPTIONS)) {
+                        if (column == startColumn && startKey != null) { //resume after the last key which was checkpointed
+                            itr.seek(startKey);
+                            if (itr.isValid() && Arrays.equals(itr.key(), startKey)) {
+                                itr.next();
+                            }
+                        } else {
+                            itr.seekToFirst();
+                        }
+
+                        for (; itr.isValid(); itr.next()) {
+                            byte[] key = itr.key();
+                            output.accept(srcNames.get(column), key, itr.value());
+
+                            if (chunk.size >= this.chunkSize) {
+                                this.ingest(dstDb, dstHandles, dst, chunk);
+                                writeCheckpoint(dst, version, column, key, migrated + 1L);
+                            }
+                            if ((++migrated & (LOG_INTERVAL - 1L)) == 0L) {
+                                FP2_LOG.info("migrating storage at {}: migrated {} entries", src, migrated);
+                            }
+                        }
+                        itr.status();
+                    }
+
+                    this.ingest(dstDb, dstHandles, dst, chunk);
+                    writeCheckpoint(dst, version, column + 1, null, migrated);
+                }
+                return migrated;
+            } finally { //close column families before db
+                srcHandles.forEach(ColumnFamilyHandle::close);
+                dstHandles.forEach(ColumnFamilyHandle::close);
+            }
+        } finally {
+            File ingestDirectory = new File(dst, INGEST_DIRECTORY);
+            if (PFiles.checkDirectoryExists(ingestDirectory)) {
+                PFiles.rm(ingestDirectory);
+            }
+        }
+    }
+
+    /**
+     * Writes the entries in the given {@link Chunk} to SST files and ingests them into the given database, then clears the chunk.
+     */
+    protected void ingest(@NonNull RocksDB db, @NonNull List<ColumnFamilyHandle> handles, @NonNull File root, @NonNull Chunk chunk) throws IOException, RocksDBException {
+        File ingestDirectory = new File(root, INGEST_DIRECTORY);
+        PFiles.ensureDirectoryExists(ingestDirectory);
+
+        for (int i = 0; i < chunk.columns.length; i++) {
+            TreeMap<byte[], byte[]> entries = chunk.columns[i];
+            if (entries.isEmpty()) {
+                continue;
+            }
+
+            File file = new File(ingestDirectory, i + ".sst");
+            try (Options options = new Options(this.resources.dbOptions(), this.resources.columnFamilyOptions(COLUMN_NAMES.get(i)));
+                 EnvOptions envOptions = new EnvOptions();
+                 SstFileWriter writer = new SstFileWriter(envOptions, options)) {
+                writer.open(file.getPath());
+                for (Map.Entry<byte[], byte[]> entry : entries.entrySet()) {
+                    writer.put(entry.getKey(), entry.getValue());
+                }
+                writer.finish();
+            }
+
+            try (IngestExternalFileOptions options = new IngestExternalFileOptions().setMoveFiles(true)) {
+                db.ingestExternalFile(handles.get(i), Collections.singletonList(file.getPath()), options);
+            }
+            Files.deleteIfExists(file.toPath());
+        }
+
+        chunk.clear();
+    }
+
+    protected static void swap(@NonNull File root, @NonNull File migrating, @NonNull File old) throws IOException {
+        if (PFiles.checkDirectoryExists(root)) {
+            Files.move(root.toPath(), old.toPath());
+        }
+        Files.move(migrating.toPath(), root.toPath());
+    }
+
+    protected static Properties readCheckpoint(@NonNull File root) throws IOException {
+        File file = new File(root, CHECKPOINT_FILE);
+        if (!PFiles.checkFileExists(file)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    protected static void writeCheckpoint(@NonNull File root, int version, int column, byte[] key, long entries) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(version));
+        properties.setProperty("column", String.valueOf(column));
+        properties.setProperty("key", key != null ? Base64.getEncoder().encodeToString(key) : "");
+        properties.setProperty("entries", String.valueOf(entries));
+
+        //write to a temporary file and move it over the old one, so that the checkpoint is never left incomplete
+        File file = new File(root, CHECKPOINT_FILE);
+        File tmpFile = new File(root, CHECKPOINT_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+            properties.store(out, null);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected static File markerFile(@NonNull File root, int version) {
+        return new File(root, "v" + version);
+    }
+
+    /**
+     * Buffers migrated entries for each column family of the target layout, sorted in the order required by {@link SstFileWriter}.
+     *
+     * @author DaPorkchop_
+     */
+    @SuppressWarnings("unchecked")
+    protected static class Chunk {
+        protected final TreeMap<byte[], byte[]>[] columns = new TreeMap[COLUMN_NAMES.size()];
+        protected long size;
+
+        public Chunk() {
+            for (int i = 0; i < this.columns.length; i++) {
+                this.columns[i] = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
+            }
+        }
+
+        public void add(@NonNull byte[] columnName, @NonNull byte[] key, @NonNull byte[] value) {
+            int column = -1;
+            for (int i = 0; i < COLUMN_NAMES.size(); i++) {
+                if (Arrays.equals(COLUMN_NAMES.get(i), columnName)) {
+                    column = i;
+                    break;
+                }
+            }
+            checkState(column >= 0, "migration produced an entry in unknown column family %s", new String(columnName, StandardCharsets.UTF_8));
+
+            byte[] oldValue = this.columns[column].put(key, value);
+            this.size += oldValue != null ? value.length - oldValue.length : key.length + value.length + ENTRY_OVERHEAD;
+        }
+
+        public void clear() {
+            for (TreeMap<byte[], byte[]> column : this.columns) {
+                column.clear();
+            }
+            this.size = 0L;
+        }
+    }
+}
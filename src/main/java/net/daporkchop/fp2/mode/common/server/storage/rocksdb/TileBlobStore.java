@@ -0,0 +1,374 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.util.math.XXHash64;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Deduplicates identical tile payloads in a {@link RocksStorage}.
+ * <p>
+ * Every value in the tile data column families starts with a tag byte. Payloads smaller than {@link #BLOB_THRESHOLD} are stored inline after the tag
+ * ({@link #TAG_INLINE}). Larger payloads are content-addressed by their {@link XXHash64 xxHash64}: the tile data only contains the hash ({@link #TAG_BLOB}), and the
+ * payload itself is stored exactly once in the {@code tile_blob} column family, no matter how many tiles share it. Huge numbers of tiles are identical (oceans,
+ * flat plains, the empty space above the terrain), so this saves a lot of space.
+ * <p>
+ * The number of tile data values referencing each blob is stored in the {@code tile_blob_refcount} column family, and the blob is deleted once it's no longer
+ * referenced. Refcounts are updated using read-modify-write, so all modifications must be made through an {@link Update} while holding the storage's tile write lock
+ * (see {@link RocksStorage#tileWriteLock}), and the lock must be held from when the replaced tile data is read until the update is written.
+ * <p>
+ * Hash collisions are detected when a payload is stored: if a different payload with the same hash is already stored as a blob, the new payload is stored inline
+ * instead. This is extremely rare, and costs nothing but a bit of space.
+ *
+ * @author DaPorkchop_
+ */
+public class TileBlobStore {
+    /**
+     * Payloads at least this many bytes long are stored as blobs, smaller ones aren't worth the extra lookup.
+     */
+    public static final int BLOB_THRESHOLD = 256;
+
+    public static final byte TAG_INLINE = 0;
+    public static final byte TAG_BLOB = 1;
+
+    /**
+     * Encodes the given payload as an inline tile data value.
+     *
+     * @param payload the payload
+     * @return the tile data value
+     */
+    public static byte[] inline(@NonNull byte[] payload) {
+        byte[] value = new byte[1 + payload.length];
+        value[0] = TAG_INLINE;
+        System.arraycopy(payload, 0, value, 1, payload.length);
+        return value;
+    }
+
+    /**
+     * @param value a tile data value
+     * @return whether or not the value references a blob
+     */
+    public static boolean isBlob(@NonNull byte[] value) {
+        switch (value[0]) {
+            case TAG_INLINE:
+                return false;
+            case TAG_BLOB:
+                checkArg(value.length == 1 + Long.BYTES, "invalid blob reference length: %d", value.length);
+                return true;
+            default:
+                throw new IllegalArgumentException("invalid tile data tag: " + value[0]);
+        }
+    }
+
+    /**
+     * @param value a tile data value which stores its payload inline
+     * @return the payload
+     */
+    public static byte[] inlinePayload(@NonNull byte[] value) {
+        checkArg(!isBlob(value), "not an inline value");
+        return Arrays.copyOfRange(value, 1, value.length);
+    }
+
+    /**
+     * @param value a tile data value which references a blob
+     * @return the key of the referenced blob
+     */
+    public static byte[] blobKey(@NonNull byte[] value) {
+        checkArg(isBlob(value), "not a blob reference");
+        return Arrays.copyOfRange(value, 1, value.length);
+    }
+
+    protected static byte[] encodeLong(long value) {
+        byte[] dst = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--, value >>>= 8L) {
+            dst[i] = (byte) value;
+        }
+        return dst;
+    }
+
+    protected static long decodeLong(byte[] src) {
+        if (src == null) {
+            return 0L;
+        }
+        checkArg(src.length == Long.BYTES, "invalid encoded length: %d", src.length);
+
+        long value = 0L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8L) | (src[i] & 0xFFL);
+        }
+        return value;
+    }
+
+    protected final RocksDB db;
+    protected final ColumnFamilyHandle cfBlob;
+    protected final ColumnFamilyHandle cfBlobRefcount;
+    protected final ToLongFunction<byte[]> hashFunction;
+
+    /**
+     * @param db      the database
+     * @param handles the database's column family handles, in the order given by {@link RocksStorage#COLUMN_NAMES}
+     */
+    public TileBlobStore(@NonNull RocksDB db, @NonNull List<ColumnFamilyHandle> handles) {
+        this(db, handles, XXHash64::hash);
+    }
+
+    /**
+     * @param db           the database
+     * @param handles      the database's column family handles, in the order given by {@link RocksStorage#COLUMN_NAMES}
+     * @param hashFunction the function used to compute the key of a payload's blob. Only exposed so that tests can force hash collisions
+     */
+    public TileBlobStore(@NonNull RocksDB db, @NonNull List<ColumnFamilyHandle> handles, @NonNull ToLongFunction<byte[]> hashFunction) {
+        this.db = db;
+        this.cfBlob = handles.get(BLOB_COLUMN);
+        this.cfBlobRefcount = handles.get(BLOB_REFCOUNT_COLUMN);
+        this.hashFunction = hashFunction;
+    }
+
+    /**
+     * Gets the payload of a tile data value.
+     *
+     * @param value       the tile data value
+     * @param readOptions the {@link ReadOptions} to use for reading the blob
+     * @return the payload, or {@code null} if the value references a blob which doesn't exist. This can only happen if the tile was overwritten (releasing the
+     * blob) after the value was read, in which case the caller should read the tile again
+     */
+    public byte[] payload(@NonNull byte[] value, @NonNull ReadOptions readOptions) throws RocksDBException {
+        return isBlob(value)
+                ? this.db.get(this.cfBlob, readOptions, blobKey(value))
+                : inlinePayload(value);
+    }
+
+    /**
+     * Gets the payloads of multiple tile data values at once.
+     *
+     * @param values      the tile data values. {@code null} elements are allowed, and are left untouched
+     * @param readOptions the {@link ReadOptions} to use for reading the blobs
+     * @return the payloads, in the same order as the values. An element will be {@code null} if the corresponding value was {@code null}, or if it references a
+     * blob which doesn't exist (see {@link #payload(byte[], ReadOptions)})
+     */
+    public List<byte[]> payloads(@NonNull List<byte[]> values, @NonNull ReadOptions readOptions) throws RocksDBException {
+        int length = values.size();
+        byte[][] payloads = new byte[length][];
+        int[] blobIndices = new int[length];
+        List<byte[]> blobKeys = new ArrayList<>();
+
+        for (int i = 0; i < length; i++) {
+            byte[] value = values.get(i);
+            if (value == null) {
+                continue;
+            } else if (isBlob(value)) {
+                blobIndices[blobKeys.size()] = i;
+                blobKeys.add(blobKey(value));
+            } else {
+                payloads[i] = inlinePayload(value);
+            }
+        }
+
+        if (!blobKeys.isEmpty()) {
+            List<byte[]> blobs = this.db.multiGetAsList(readOptions, Collections.nCopies(blobKeys.size(), this.cfBlob), blobKeys);
+            for (int j = 0; j < blobKeys.size(); j++) {
+                payloads[blobIndices[j]] = blobs.get(j);
+            }
+        }
+        return Arrays.asList(payloads);
+    }
+
+    /**
+     * Gets the size of the payload of a tile data value without reading it.
+     *
+     * @param value the tile data value
+     * @return the payload's size, in bytes, or {@code 0} if the value references a blob which doesn't exist
+     */
+    public int payloadSize(@NonNull byte[] value) throws RocksDBException {
+        if (isBlob(value)) {
+            int size = this.db.get(this.cfBlob, blobKey(value), new byte[0]); //the value is only copied up to the length of the array
+            return size != RocksDB.NOT_FOUND ? size : 0;
+        } else {
+            return value.length - 1;
+        }
+    }
+
+    /**
+     * Begins a new {@link Update}.
+     *
+     * @param batch the {@link WriteBatch} to add the blob modifications to
+     * @return the new {@link Update}
+     */
+    public Update update(@NonNull WriteBatch batch) {
+        return new Update(batch);
+    }
+
+    /**
+     * Accumulates changes to the blobs referenced by the tiles in a single {@link WriteBatch}.
+     *
+     * @author DaPorkchop_
+     */
+    public final class Update {
+        protected final WriteBatch batch;
+        protected final Map<Blob, Blob> blobs = new LinkedHashMap<>();
+        protected final List<byte[]> deleted = new ArrayList<>();
+
+        protected Update(@NonNull WriteBatch batch) {
+            this.batch = batch;
+        }
+
+        protected Blob blob(@NonNull byte[] key) {
+            Blob blob = new Blob(key);
+            Blob existing = this.blobs.putIfAbsent(blob, blob);
+            return existing != null ? existing : blob;
+        }
+
+        /**
+         * Encodes the given payload as a tile data value, adding a reference to its blob if necessary.
+         * <p>
+         * If a different payload with the same hash is already stored, the payload is stored inline.
+         *
+         * @param payload the payload
+         * @return the tile data value
+         */
+        public byte[] store(@NonNull byte[] payload) throws RocksDBException {
+            if (payload.length < BLOB_THRESHOLD) {
+                return inline(payload);
+            }
+
+            byte[] key = encodeLong(TileBlobStore.this.hashFunction.applyAsLong(payload));
+            Blob blob = this.blob(key);
+            if (blob.payload == null) { //this is the first time the blob is stored in this update, compare the payload with the one in the database (if any)
+                byte[] existing = TileBlobStore.this.db.get(TileBlobStore.this.cfBlob, key);
+                if (existing != null && !Arrays.equals(existing, payload)) { //hash collision
+                    return inline(payload);
+                }
+                blob.payload = payload;
+            } else if (blob.payload != payload && !Arrays.equals(blob.payload, payload)) { //hash collision with a payload stored earlier in this update
+                return inline(payload);
+            }
+            blob.delta++;
+
+            byte[] value = new byte[1 + Long.BYTES];
+            value[0] = TAG_BLOB;
+            System.arraycopy(key, 0, value, 1, Long.BYTES);
+            return value;
+        }
+
+        /**
+         * Releases the reference held by a tile data value which is being overwritten or deleted.
+         *
+         * @param value the tile data value, or {@code null} if there was none
+         */
+        public void release(byte[] value) {
+            if (value != null && isBlob(value)) {
+                this.blob(blobKey(value)).delta--;
+            }
+        }
+
+        /**
+         * Adds the accumulated changes to the {@link WriteBatch}.
+         * <p>
+         * The current refcounts are read from the database, so the caller must hold the tile write lock until the batch has been written.
+         */
+        public void commit() throws RocksDBException {
+            List<Blob> blobs = new ArrayList<>(this.blobs.size());
+            List<byte[]> keys = new ArrayList<>(this.blobs.size());
+            for (Blob blob : this.blobs.values()) {
+                if (blob.delta != 0L) {
+                    blobs.add(blob);
+                    keys.add(blob.key);
+                }
+            }
+
+            if (blobs.isEmpty()) { //all the changes cancelled each other out
+                return;
+            }
+
+            List<byte[]> refcounts = TileBlobStore.this.db.multiGetAsList(Collections.nCopies(keys.size(), TileBlobStore.this.cfBlobRefcount), keys);
+            for (int i = 0; i < blobs.size(); i++) {
+                Blob blob = blobs.get(i);
+                long oldRefcount = decodeLong(refcounts.get(i));
+                long newRefcount = oldRefcount + blob.delta;
+                checkState(newRefcount >= 0L, "blob %s would have a negative refcount: %d + %d", Long.toHexString(decodeLong(blob.key)), oldRefcount, blob.delta);
+
+                if (newRefcount == 0L) { //the blob is no longer referenced
+                    this.batch.delete(TileBlobStore.this.cfBlob, blob.key);
+                    this.batch.delete(TileBlobStore.this.cfBlobRefcount, blob.key);
+                    this.deleted.add(blob.key);
+                } else {
+                    if (oldRefcount == 0L) { //the blob is new. the refcount can only become positive if the payload was stored at least once
+                        //  (if the blob already exists, store() has made sure that it contains the same payload)
+                        this.batch.put(TileBlobStore.this.cfBlob, blob.key, blob.payload);
+                    }
+                    this.batch.put(TileBlobStore.this.cfBlobRefcount, blob.key, encodeLong(newRefcount));
+                }
+            }
+            this.blobs.clear();
+        }
+
+        /**
+         * @return the keys of the blobs which have been deleted by all the changes committed so far
+         */
+        public List<byte[]> deleted() {
+            return this.deleted;
+        }
+    }
+
+    /**
+     * The pending changes to a single blob in an {@link Update}.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class Blob {
+        protected final byte[] key;
+        protected final int hashCode;
+
+        protected byte[] payload; //null if the blob wasn't stored in this update
+        protected long delta;
+
+        protected Blob(@NonNull byte[] key) {
+            this.key = key;
+            this.hashCode = Arrays.hashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Blob && Arrays.equals(this.key, ((Blob) obj).key);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.NonNull;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Tracks when the tiles in a {@link RocksStorage} were last accessed, and evicts the least recently accessed ones once the database grows beyond a size budget.
+ * <p>
+ * Access times are stored as days since the epoch in their own column family, which uses the same {@code "max"} merge operator as the timestamp column families (see
+ * {@link TimestampColumns}), so recording an access is a blind merge. Since the access times are so coarse, each tile's access time only has to be written once per
+ * day: recently recorded accesses are remembered in memory, and aren't written again until the day changes.
+ * <p>
+ * Only tiles up to a given detail level are evicted. Low-detail tiles are by far the most numerous, cheap to regenerate, and are only useful to players who are
+ * nearby; evicted tiles are simply generated again the next time they're requested. Tiles which have no recorded access time (because they were generated before
+ * access tracking began, or were never requested by a player) are considered to be the least recently accessed. Tiles which were accessed within the last
+ * {@link #GRACE_DAYS} days are never evicted, even if that means that the budget can't be met: they're probably still being viewed, and would only have to be
+ * generated again right away.
+ *
+ * @author DaPorkchop_
+ */
+public class TileEvictor {
+    /**
+     * The maximum number of recently recorded accesses to remember.
+     */
+    protected static final int RECENT_ACCESSES = 1 << 16;
+
+    /**
+     * The number of tiles to evict in a single {@link WriteBatch}.
+     */
+    protected static final int BATCH_SIZE = 1024;
+
+    /**
+     * The fraction of the budget which eviction tries to shrink the database to, so that it doesn't have to run again as soon as a few more tiles are written.
+     */
+    protected static final double TARGET_FRACTION = 0.9d;
+
+    /**
+     * The approximate number of bytes occupied by each tile in addition to its key and data.
+     */
+    protected static final long TILE_OVERHEAD = 32L;
+
+    /**
+     * The number of days (including the current one) during which a tile may not be evicted after it was accessed.
+     */
+    protected static final int GRACE_DAYS = 2;
+
+    /**
+     * The maximum number of evicted tiles whose key range is compacted at once. Compactions are split up so that eviction can be cancelled quickly.
+     */
+    protected static final int COMPACTION_CHUNK_SIZE = BATCH_SIZE * 16;
+
+    /**
+     * The number of bits of a blob key which select the chunk of the blob column family which it's compacted with.
+     */
+    protected static final int BLOB_COMPACTION_CHUNK_BITS = 4;
+
+    protected static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1L);
+
+    /**
+     * Access times may be lost if the server crashes before they're flushed, which is harmless.
+     */
+    protected static final WriteOptions ACCESS_WRITE_OPTIONS = new WriteOptions().setDisableWAL(true);
+
+    /**
+     * Encodes a day into the form in which it's stored in the database.
+     *
+     * @param day the day
+     * @return the encoded day
+     */
+    public static byte[] encodeDay(int day) {
+        int bits = day ^ Integer.MIN_VALUE; //flip the sign bit, so that negative values sort before positive ones
+        return new byte[]{ (byte) (bits >>> 24), (byte) (bits >>> 16), (byte) (bits >>> 8), (byte) bits };
+    }
+
+    /**
+     * Decodes a day which was read from the database.
+     *
+     * @param src the encoded day, or {@code null} if the key wasn't present
+     * @return the decoded day, or {@link Integer#MIN_VALUE} if {@code src} was {@code null}
+     */
+    public static int decodeDay(byte[] src) {
+        if (src == null) {
+            return Integer.MIN_VALUE;
+        }
+        checkArg(src.length == Integer.BYTES, "invalid encoded day length: %d", src.length);
+        return ((src[0] & 0xFF) << 24 | (src[1] & 0xFF) << 16 | (src[2] & 0xFF) << 8 | (src[3] & 0xFF)) ^ Integer.MIN_VALUE;
+    }
+
+    protected final RocksDB db;
+    protected final ColumnFamilyHandle cfTileTimestamp;
+    protected final ColumnFamilyHandle cfTileDirtyTimestamp;
+    protected final ColumnFamilyHandle[] cfTileData;
+    protected final ColumnFamilyHandle cfTileLastAccess;
+    protected final TileBlobStore blobStore;
+
+    protected final Clock clock;
+    protected final Cache<ByteBuffer, Integer> recentAccesses = CacheBuilder.newBuilder().maximumSize(RECENT_ACCESSES).build();
+
+    protected volatile boolean cancelled;
+    protected boolean budgetUnreachable;
+
+    /**
+     * @param db      the database
+     * @param handles the database's column family handles, in the order given by {@link RocksStorage#COLUMN_NAMES}
+     * @param clock   the {@link Clock} to get the current day from
+     */
+    public TileEvictor(@NonNull RocksDB db, @NonNull List<ColumnFamilyHandle> handles, @NonNull Clock clock) {
+        this.db = db;
+        this.cfTileTimestamp = handles.get(1);
+        this.cfTileDirtyTimestamp = handles.get(2);
+        this.cfTileData = handles.subList(FIRST_TILE_DATA_COLUMN, FIRST_TILE_DATA_COLUMN + MAX_LODS).toArray(new ColumnFamilyHandle[0]);
+        this.cfTileLastAccess = handles.get(LAST_ACCESS_COLUMN);
+        this.blobStore = new TileBlobStore(db, handles);
+        this.clock = clock;
+    }
+
+    /**
+     * @return the current day, as the number of days since the epoch
+     */
+    public int today() {
+        return toIntExact(floorDiv(this.clock.millis(), MILLIS_PER_DAY));
+    }
+
+    /**
+     * Records that the tiles with the given keys were accessed today.
+     *
+     * @param keys the encoded positions
+     */
+    public void recordAccess(@NonNull byte[]... keys) throws RocksDBException {
+        int today = this.today();
+        byte[] todayBytes = null;
+
+        try (WriteBatch batch = new WriteBatch()) {
+            for (byte[] key : keys) {
+                ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+                Integer recentDay = this.recentAccesses.getIfPresent(wrappedKey);
+                if (recentDay != null && recentDay == today) { //already recorded
+                    continue;
+                }
+
+                if (todayBytes == null) {
+                    todayBytes = encodeDay(today);
+                }
+                batch.merge(this.cfTileLastAccess, key, todayBytes);
+                this.recentAccesses.put(wrappedKey, today);
+            }
+
+            if (batch.count() > 0) {
+                this.db.write(ACCESS_WRITE_OPTIONS, batch);
+            }
+        }
+    }
+
+    /**
+     * @return the approximate size of the database on disk, in bytes
+     */
+    public long size() throws RocksDBException {
+        return this.db.getAggregatedLongProperty("rocksdb.live-sst-files-size");
+    }
+
+    /**
+     * Makes any current and future calls to {@link #evict(long, int, Lock, Consumer)} stop as soon as possible.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Evicts the least recently accessed tiles at or below the given detail level until the database fits within the given budget, or until only recently
+     * accessed tiles are left.
+     *
+     * @param budget        the maximum size of the database on disk, in bytes
+     * @param maxLevel      the highest detail level at which tiles may be evicted
+     * @param tileWriteLock the lock which must be held while writing tiles, see {@link RocksStorage#tileWriteLock}
+     * @param onEvicted     a callback which is given the key of each evicted tile as soon as it has been deleted, while {@code tileWriteLock} is still held
+     * @return the keys of the evicted tiles
+     */
+    public List<byte[]> evict(long budget, int maxLevel, @NonNull Lock tileWriteLock, @NonNull Consumer<byte[]> onEvicted) throws RocksDBException {
+        checkArg(maxLevel >= 0 && maxLevel < MAX_LODS, "invalid maxLevel: %d", maxLevel);
+
+        long size = this.size();
+        if (size <= notNegative(budget, "budget")) {
+            this.budgetUnreachable = false;
+            return Collections.emptyList();
+        } else if (this.cancelled) {
+            return Collections.emptyList();
+        }
+        long excess = size - (long) (budget * TARGET_FRACTION);
+
+        //first pass: find the approximate number of bytes occupied by the evictable tiles accessed on each day, ignoring tiles which were accessed too recently
+        int newestEvictableDay = this.today() - GRACE_DAYS;
+        NavigableMap<Integer, long[]> bytesByDay = new TreeMap<>();
+        this.scan(maxLevel, (key, timestamp, day, bytes) -> {
+            if (day <= newestEvictableDay) {
+                bytesByDay.computeIfAbsent(day, d -> new long[1])[0] += bytes;
+            }
+        });
+
+        //find the most recent day whose tiles have to be evicted, and how many bytes' worth of tiles accessed on that day have to be evicted
+        int cutoffDay = Integer.MIN_VALUE;
+        long cutoffBytes = 0L;
+        for (Map.Entry<Integer, long[]> entry : bytesByDay.entrySet()) {
+            cutoffDay = entry.getKey();
+            cutoffBytes = excess;
+            excess -= entry.getValue()[0];
+            if (excess <= 0L) {
+                break;
+            }
+        }
+
+        if (excess > 0L) { //evicting every tile which wasn't accessed recently isn't enough, so we'll evict all of them and then give up
+            if (!this.budgetUnreachable) { //only log this once, rather than every time eviction runs
+                this.budgetUnreachable = true;
+                FP2_LOG.warn("unable to shrink tile storage to {} bytes: the remaining tiles at or below level {} were accessed within the last {} days", budget, maxLevel,
+                        GRACE_DAYS);
+            }
+            if (bytesByDay.isEmpty()) { //there's nothing which could be evicted
+                return Collections.emptyList();
+            }
+        } else {
+            this.budgetUnreachable = false;
+        }
+
+        //second pass: collect the tiles to evict
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> timestamps = new ArrayList<>();
+        int finalCutoffDay = cutoffDay;
+        long[] remainingCutoffBytes = { cutoffBytes };
+        this.scan(maxLevel, (key, timestamp, day, bytes) -> {
+            if (day < finalCutoffDay || (day == finalCutoffDay && remainingCutoffBytes[0] > 0L)) {
+                if (day == finalCutoffDay) {
+                    remainingCutoffBytes[0] -= bytes;
+                }
+                keys.add(key);
+                timestamps.add(timestamp);
+            }
+        });
+
+        //delete the tiles
+        List<byte[]> evicted = new ArrayList<>(keys.size());
+        List<byte[]> deletedBlobs = new ArrayList<>();
+        for (int i = 0; i < keys.size() && !this.cancelled; i += BATCH_SIZE) {
+            this.evictBatch(keys.subList(i, min(i + BATCH_SIZE, keys.size())), timestamps.subList(i, min(i + BATCH_SIZE, keys.size())), cutoffDay, tileWriteLock, onEvicted,
+                    evicted, deletedBlobs);
+        }
+
+        if (evicted.isEmpty()) { //all of the tiles were accessed or written while we were scanning
+            return evicted;
+        }
+
+        //evicted tiles may be accessed again today, in which case the access has to be recorded again
+        evicted.forEach(key -> this.recentAccesses.invalidate(ByteBuffer.wrap(key)));
+
+        //the deletions only free up space once they've been compacted
+        this.compactEvicted(evicted, deletedBlobs);
+        return evicted;
+    }
+
+    protected void evictBatch(@NonNull List<byte[]> keys, @NonNull List<byte[]> timestamps, int cutoffDay, @NonNull Lock tileWriteLock, @NonNull Consumer<byte[]> onEvicted,
+                              @NonNull List<byte[]> evicted, @NonNull List<byte[]> deletedBlobs) throws RocksDBException {
+        int length = keys.size();
+        int firstEvicted = evicted.size();
+
+        //read the timestamps and access times again, and hold the tile write lock until the tiles are deleted. a tile which was accessed or written since it was
+        //  scanned mustn't be evicted anymore. the tile data is read as well, since it may reference blobs which need to be released
+        List<ColumnFamilyHandle> handles = new ArrayList<>(length * 3);
+        List<byte[]> allKeys = new ArrayList<>(length * 3);
+        for (byte[] key : keys) {
+            handles.add(this.cfTileTimestamp);
+            allKeys.add(key);
+            handles.add(this.cfTileLastAccess);
+            allKeys.add(key);
+            handles.add(this.cfTileData[key[0] & 0xFF]);
+            allKeys.add(key);
+        }
+
+        tileWriteLock.lock();
+        try (WriteBatch batch = new WriteBatch()) {
+            List<byte[]> valueBytes = this.db.multiGetAsList(handles, allKeys);
+            TileBlobStore.Update blobUpdate = this.blobStore.update(batch);
+
+            for (int i = 0; i < length; i++) {
+                byte[] key = keys.get(i);
+                if (!Arrays.equals(valueBytes.get(i * 3 + 0), timestamps.get(i)) || decodeDay(valueBytes.get(i * 3 + 1)) > cutoffDay) {
+                    continue;
+                }
+
+                batch.delete(this.cfTileTimestamp, key);
+                batch.delete(this.cfTileDirtyTimestamp, key);
+                batch.delete(this.cfTileData[key[0] & 0xFF], key);
+                batch.delete(this.cfTileLastAccess, key);
+                blobUpdate.release(valueBytes.get(i * 3 + 2));
+                evicted.add(key);
+            }
+            blobUpdate.commit();
+
+            if (batch.count() > 0) {
+                this.db.write(WRITE_OPTIONS, batch);
+                deletedBlobs.addAll(blobUpdate.deleted());
+
+                //notify the callback before releasing the lock, otherwise a tile could be written again and then have its new state discarded
+                evicted.subList(firstEvicted, evicted.size()).forEach(onEvicted);
+            }
+        } finally {
+            tileWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the key ranges containing the given deleted tiles and blobs, so that the space they occupied is reclaimed.
+     * <p>
+     * Tiles which weren't evicted aren't rewritten unless they're in between evicted tiles, and the compactions are split into chunks so that they can be
+     * cancelled.
+     *
+     * @param evicted      the keys of the evicted tiles, in sorted order
+     * @param deletedBlobs the keys of the deleted blobs
+     */
+    protected void compactEvicted(@NonNull List<byte[]> evicted, @NonNull List<byte[]> deletedBlobs) throws RocksDBException {
+        for (int i = 0; i < evicted.size() && !this.cancelled; ) {
+            //each chunk only contains tiles at a single level, since each level's tile data is in a separate column family
+            int level = evicted.get(i)[0] & 0xFF;
+            int end = i + 1;
+            while (end < evicted.size() && end - i < COMPACTION_CHUNK_SIZE && (evicted.get(end)[0] & 0xFF) == level) {
+                end++;
+            }
+
+            byte[] first = evicted.get(i);
+            byte[] last = evicted.get(end - 1);
+            this.db.compactRange(this.cfTileData[level], first, last);
+            this.db.compactRange(this.cfTileTimestamp, first, last);
+            this.db.compactRange(this.cfTileLastAccess, first, last);
+            i = end;
+        }
+
+        //blob keys are hashes, so the deleted blobs are spread out over the whole column family. it's split into a fixed number of chunks, and only the chunks which
+        //  contain deleted blobs are compacted
+        boolean[] chunks = new boolean[1 << BLOB_COMPACTION_CHUNK_BITS];
+        deletedBlobs.forEach(key -> chunks[(key[0] & 0xFF) >>> (Byte.SIZE - BLOB_COMPACTION_CHUNK_BITS)] = true);
+        for (int chunk = 0; chunk < chunks.length && !this.cancelled; chunk++) {
+            if (chunks[chunk]) {
+                long first = (long) chunk << (Long.SIZE - BLOB_COMPACTION_CHUNK_BITS);
+                long last = first | (-1L >>> BLOB_COMPACTION_CHUNK_BITS);
+                this.db.compactRange(this.blobStore.cfBlob, TileBlobStore.encodeLong(first), TileBlobStore.encodeLong(last));
+            }
+        }
+    }
+
+    /**
+     * Visits every tile at or below the given detail level.
+     */
+    protected void scan(int maxLevel, @NonNull TileVisitor visitor) throws RocksDBException {
+        try (RocksIterator timestampItr = this.db.newIterator(this.cfTileTimestamp, SCAN_OPTIONS);
+             RocksIterator lastAccessItr = this.db.newIterator(this.cfTileLastAccess, SCAN_OPTIONS)) {
+            for (int level = 0; level <= maxLevel; level++) {
+                try (RocksIterator dataItr = this.db.newIterator(this.cfTileData[level], SCAN_OPTIONS)) {
+                    //every tile has a timestamp, and all keys start with the tile's level, so iterating over the timestamps for this level visits every tile at this level
+                    for (timestampItr.seek(new byte[]{ (byte) level }); timestampItr.isValid(); timestampItr.next()) {
+                        byte[] key = timestampItr.key();
+                        if ((key[0] & 0xFF) != level) {
+                            break;
+                        }
+
+                        long bytes = TILE_OVERHEAD + key.length;
+                        if (seekExact(dataItr, key)) { //the tile data is absent if the tile is empty
+                            //a blob may be shared with other tiles, in which case evicting this tile won't actually free it. counting it anyway means that we evict too
+                            //  little rather than too much, which is corrected by the next eviction
+                            byte[] value = dataItr.value();
+                            bytes += key.length + value.length + (TileBlobStore.isBlob(value) ? this.blobStore.payloadSize(value) : 0);
+                        }
+                        int day = seekExact(lastAccessItr, key) ? decodeDay(lastAccessItr.value()) : Integer.MIN_VALUE;
+
+                        visitor.visit(key, timestampItr.value(), day, bytes);
+                    }
+                    timestampItr.status();
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the tiles found by {@link #scan(int, TileVisitor)}.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    protected interface TileVisitor {
+        void visit(@NonNull byte[] key, @NonNull byte[] timestamp, int day, long bytes);
+    }
+}
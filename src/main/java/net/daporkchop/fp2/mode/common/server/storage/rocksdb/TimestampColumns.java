@@ -0,0 +1,106 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.experimental.UtilityClass;
+
+import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Helpers for the column families in a {@link RocksStorage} which store tile timestamps.
+ * <p>
+ * Both the timestamp and dirty timestamp column families use RocksDB's built-in {@code "max"} merge operator, which allows them to be updated using blind
+ * {@link org.rocksdb.RocksDB#merge(org.rocksdb.ColumnFamilyHandle, byte[], byte[]) merge}s instead of read-modify-write transactions. Since the merge operator compares
+ * values as unsigned byte strings, timestamps are stored big-endian with the sign bit flipped, so that their lexicographical order matches their numeric order.
+ * <p>
+ * As a consequence, stored timestamps can only ever increase. In particular, writing a new tile doesn't delete the tile's dirty timestamp (a concurrent
+ * {@link RocksTileHandle#markDirty(long)} could have merged a newer one in the meantime); instead, the dirty timestamp is resolved against the tile's timestamp when it's
+ * read using {@link #resolveDirtyTimestamp(long, long)}.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class TimestampColumns {
+    /**
+     * The name of RocksDB's built-in merge operator which keeps the lexicographically greatest value.
+     */
+    public final String MERGE_OPERATOR_NAME = "max";
+
+    /**
+     * Encodes a timestamp into the form in which it's stored in the database.
+     *
+     * @param timestamp the timestamp
+     * @return the encoded timestamp
+     */
+    public byte[] encode(long timestamp) {
+        byte[] dst = new byte[Long.BYTES];
+        encode(dst, 0, timestamp);
+        return dst;
+    }
+
+    /**
+     * Encodes a timestamp into the form in which it's stored in the database.
+     *
+     * @param dst       the array to write to
+     * @param index     the index in the array to write to
+     * @param timestamp the timestamp
+     */
+    public void encode(byte[] dst, int index, long timestamp) {
+        checkRangeLen(dst.length, index, Long.BYTES);
+
+        long bits = timestamp ^ Long.MIN_VALUE; //flip the sign bit, so that negative values sort before positive ones
+        for (int i = Long.BYTES - 1; i >= 0; i--, bits >>>= 8L) {
+            dst[index + i] = (byte) bits;
+        }
+    }
+
+    /**
+     * Decodes a timestamp which was read from the database.
+     *
+     * @param src the encoded timestamp, or {@code null} if the key wasn't present
+     * @return the decoded timestamp, or {@link #TIMESTAMP_BLANK} if {@code src} was {@code null}
+     */
+    public long decode(byte[] src) {
+        if (src == null) {
+            return TIMESTAMP_BLANK;
+        }
+        checkArg(src.length == Long.BYTES, "invalid encoded timestamp length: %d", src.length);
+
+        long bits = 0L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            bits = (bits << 8L) | (src[i] & 0xFFL);
+        }
+        return bits ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Gets a tile's effective dirty timestamp.
+     * <p>
+     * A stored dirty timestamp which isn't newer than the tile's timestamp is left over from before the tile was last written, and is therefore ignored.
+     *
+     * @param timestamp      the tile's timestamp
+     * @param dirtyTimestamp the tile's stored dirty timestamp
+     * @return the tile's effective dirty timestamp, or {@link #TIMESTAMP_BLANK} if the tile isn't dirty
+     */
+    public long resolveDirtyTimestamp(long timestamp, long dirtyTimestamp) {
+        return timestamp != TIMESTAMP_BLANK && dirtyTimestamp > timestamp ? dirtyTimestamp : TIMESTAMP_BLANK;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+
+/**
+ * Migrates from layout v4 to v5: v4 stored timestamps as little-endian longs, v5 uses the encoding from {@link TimestampColumns}.
+ *
+ * @author DaPorkchop_
+ */
+class TimestampEncodingMigration implements StorageMigration {
+    @Override
+    public int fromVersion() {
+        return 4;
+    }
+
+    @Override
+    public void migrate(@NonNull byte[] columnName, @NonNull byte[] key, @NonNull byte[] value, @NonNull Output out) {
+        if (Arrays.equals(columnName, COLUMN_NAME_TILE_TIMESTAMP) || Arrays.equals(columnName, COLUMN_NAME_TILE_DIRTY_TIMESTAMP)) {
+            value = TimestampColumns.encode(ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getLong());
+        }
+        out.accept(columnName, key, value);
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import lombok.NonNull;
+import net.daporkchop.lib.unsafe.PUnsafe;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A bounded, off-heap cache of the timestamp and dirty timestamp of each tile in a {@link RocksStorage}, which allows repeated timestamp checks to be answered without
+ * going to the database.
+ * <p>
+ * Keys are the encoded tile positions (as returned by {@link net.daporkchop.fp2.mode.api.IFarPos#toBytes()}), packed into two {@code long}s. Positions whose encoded
+ * form is longer than {@link #MAX_KEY_BYTES} are never cached. All keys in a single index are expected to have the same length, which is always the case for positions
+ * from a single render mode.
+ * <p>
+ * The index is split into a number of segments, each of which is an open-addressing hash table protected by its own lock. Once a segment reaches its maximum size, clean
+ * entries (ones whose dirty timestamp isn't newer than their timestamp) are evicted using the CLOCK algorithm. Dirty entries are never evicted, as they're expected to be
+ * queried again soon; if a segment is filled with nothing but dirty entries, new entries simply won't be cached.
+ * <p>
+ * The index only ever reflects the state of the database, not the state of the {@link WriteBehindQueue}. Values are cached exactly as they are stored in the database,
+ * and dirty timestamps are only resolved when they're queried.
+ * <p>
+ * Since both timestamps are updated using a {@code "max"} merge operator (see {@link TimestampColumns}), modifications can be applied to the index in any order by
+ * taking the maximum of the cached and the new value. Modifications never add new entries, as the result of the merge isn't known unless the previous value is cached.
+ * In order to remain coherent with values being read from the database concurrently, each segment has a generation counter which is incremented by every modification:
+ * code which reads timestamps from the database should obtain the current {@link #generation(byte[])} before doing the read, and pass it to
+ * {@link #populate(byte[], long, long, long)} afterwards. If the segment was modified in the meantime, the values are discarded as they may already be stale.
+ * <p>
+ * Deleting a dirty timestamp is the only modification which can cause a value to decrease; it must be followed by a call to {@link #invalidate(byte[])}.
+ *
+ * @author DaPorkchop_
+ */
+public class TimestampIndex implements AutoCloseable {
+    /**
+     * The value returned by {@link #timestamp(byte[])} and {@link #dirtyTimestamp(byte[])} if the key isn't present in the index.
+     * <p>
+     * This value is never cached.
+     */
+    public static final long ABSENT = Long.MAX_VALUE;
+
+    /**
+     * The maximum length of a key, in bytes.
+     */
+    public static final int MAX_KEY_BYTES = 2 * Long.BYTES;
+
+    protected static final int SEGMENT_COUNT_SHIFT = 6;
+    protected static final int SEGMENT_COUNT = 1 << SEGMENT_COUNT_SHIFT;
+
+    protected static final long FLAG_OCCUPIED = 1L << 0L;
+    protected static final long FLAG_REFERENCED = 1L << 1L;
+
+    protected static final long BUCKET_KEY_HI_OFFSET = 0L;
+    protected static final long BUCKET_KEY_LO_OFFSET = BUCKET_KEY_HI_OFFSET + Long.BYTES;
+    protected static final long BUCKET_TIMESTAMP_OFFSET = BUCKET_KEY_LO_OFFSET + Long.BYTES;
+    protected static final long BUCKET_DIRTY_TIMESTAMP_OFFSET = BUCKET_TIMESTAMP_OFFSET + Long.BYTES;
+    protected static final long BUCKET_FLAGS_OFFSET = BUCKET_DIRTY_TIMESTAMP_OFFSET + Long.BYTES;
+    protected static final long BUCKET_BYTES = BUCKET_FLAGS_OFFSET + Long.BYTES;
+
+    protected static final long DEFAULT_TABLE_SIZE = 64L;
+
+    protected static long packHi(@NonNull byte[] key) {
+        long hi = 0L;
+        for (int i = 0, len = min(key.length, Long.BYTES); i < len; i++) {
+            hi |= (key[i] & 0xFFL) << (i << 3);
+        }
+        return hi;
+    }
+
+    protected static long packLo(@NonNull byte[] key) {
+        long lo = 0L;
+        for (int i = Long.BYTES; i < key.length; i++) {
+            lo |= (key[i] & 0xFFL) << ((i - Long.BYTES) << 3);
+        }
+        return lo;
+    }
+
+    protected static long hashKey(long hi, long lo) {
+        long h = hi * 1403638657883916319L + lo * 4408464607732138253L; //some random prime numbers
+
+        //murmur3 finalizer, to make sure that all bits of the key affect both the segment index (the high bits) and the bucket index (the low bits)
+        h = (h ^ (h >>> 33L)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33L)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33L);
+    }
+
+    protected static long allocateTable(long tableSize) {
+        long size = tableSize * BUCKET_BYTES;
+        long addr = PUnsafe.allocateMemory(size); //allocate
+        PUnsafe.setMemory(addr, size, (byte) 0); //clear
+        return addr;
+    }
+
+    protected final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * @param maxEntries the maximum number of entries to cache. The actual limit may be slightly higher, as each segment is rounded up to a power of two
+     */
+    public TimestampIndex(long maxEntries) {
+        positive(maxEntries, "maxEntries");
+
+        //compute the maximum table size for each segment, accounting for the load factor and rounding up to the next power of two
+        long maxEntriesPerSegment = max((maxEntries + SEGMENT_COUNT - 1L) >> SEGMENT_COUNT_SHIFT, 1L);
+        long maxTableSize = max(Long.highestOneBit(((maxEntriesPerSegment << 2L) + 2L) / 3L - 1L) << 1L, 2L);
+
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this.segments[i] = new Segment(maxTableSize);
+        }
+    }
+
+    protected Segment segment(long hash) {
+        return this.segments[(int) (hash >>> (Long.SIZE - SEGMENT_COUNT_SHIFT))];
+    }
+
+    /**
+     * Gets the cached timestamp for the given key.
+     *
+     * @param key the key
+     * @return the cached timestamp, or {@link #ABSENT} if the key isn't present in the index
+     */
+    public long timestamp(@NonNull byte[] key) {
+        return this.get(key, false);
+    }
+
+    /**
+     * Gets the cached dirty timestamp for the given key, resolved against the cached timestamp using {@link TimestampColumns#resolveDirtyTimestamp(long, long)}.
+     *
+     * @param key the key
+     * @return the cached dirty timestamp, or {@link #ABSENT} if the key isn't present in the index
+     */
+    public long dirtyTimestamp(@NonNull byte[] key) {
+        return this.get(key, true);
+    }
+
+    protected long get(@NonNull byte[] key, boolean dirty) {
+        if (key.length > MAX_KEY_BYTES) {
+            return ABSENT;
+        }
+
+        long hi = packHi(key);
+        long lo = packLo(key);
+        long hash = hashKey(hi, lo);
+        Segment segment = this.segment(hash);
+        synchronized (segment) {
+            long bucket = segment.findBucket(hi, lo, hash, false);
+            if (bucket == 0L) {
+                return ABSENT;
+            }
+
+            //mark the entry as recently used, so that it won't be evicted the next time the clock hand passes it
+            PUnsafe.putLong(bucket + BUCKET_FLAGS_OFFSET, PUnsafe.getLong(bucket + BUCKET_FLAGS_OFFSET) | FLAG_REFERENCED);
+
+            long timestamp = PUnsafe.getLong(bucket + BUCKET_TIMESTAMP_OFFSET);
+            return dirty
+                    ? TimestampColumns.resolveDirtyTimestamp(timestamp, PUnsafe.getLong(bucket + BUCKET_DIRTY_TIMESTAMP_OFFSET))
+                    : timestamp;
+        }
+    }
+
+    /**
+     * Gets the current generation of the segment containing the given key.
+     *
+     * @param key the key
+     * @return the current generation
+     */
+    public long generation(@NonNull byte[] key) {
+        if (key.length > MAX_KEY_BYTES) {
+            return 0L;
+        }
+
+        Segment segment = this.segment(hashKey(packHi(key), packLo(key)));
+        synchronized (segment) {
+            return segment.generation;
+        }
+    }
+
+    /**
+     * Adds an entry which was read from the database, unless the key is already present or the segment was modified since the given generation.
+     *
+     * @param key            the key
+     * @param generation     the generation of the segment before the values were read from the database
+     * @param timestamp      the timestamp that was read
+     * @param dirtyTimestamp the dirty timestamp that was read
+     */
+    public void populate(@NonNull byte[] key, long generation, long timestamp, long dirtyTimestamp) {
+        if (key.length > MAX_KEY_BYTES || timestamp == ABSENT || dirtyTimestamp == ABSENT) {
+            return;
+        }
+
+        long hi = packHi(key);
+        long lo = packLo(key);
+        long hash = hashKey(hi, lo);
+        Segment segment = this.segment(hash);
+        synchronized (segment) {
+            if (segment.generation != generation) { //the segment has been modified since the values were read, they may be stale
+                return;
+            }
+
+            long bucket = segment.findBucket(hi, lo, hash, true);
+            if (bucket != 0L && (PUnsafe.getLong(bucket + BUCKET_FLAGS_OFFSET) & FLAG_OCCUPIED) == 0L) { //the bucket was newly created
+                segment.set(bucket, hi, lo, timestamp, dirtyTimestamp);
+            }
+        }
+    }
+
+    /**
+     * Merges a new timestamp into the cached timestamp for the given key after it has been merged into the database.
+     *
+     * @param key       the key
+     * @param timestamp the timestamp which was merged
+     */
+    public void mergeTimestamp(@NonNull byte[] key, long timestamp) {
+        this.merge(key, BUCKET_TIMESTAMP_OFFSET, timestamp);
+    }
+
+    /**
+     * Merges a new dirty timestamp into the cached dirty timestamp for the given key after it has been merged into the database.
+     *
+     * @param key            the key
+     * @param dirtyTimestamp the dirty timestamp which was merged
+     */
+    public void mergeDirtyTimestamp(@NonNull byte[] key, long dirtyTimestamp) {
+        this.merge(key, BUCKET_DIRTY_TIMESTAMP_OFFSET, dirtyTimestamp);
+    }
+
+    protected void merge(@NonNull byte[] key, long valueOffset, long value) {
+        if (key.length > MAX_KEY_BYTES) {
+            return;
+        }
+
+        long hi = packHi(key);
+        long lo = packLo(key);
+        long hash = hashKey(hi, lo);
+        Segment segment = this.segment(hash);
+        synchronized (segment) {
+            segment.generation++;
+
+            long bucket = segment.findBucket(hi, lo, hash, false);
+            if (bucket != 0L) {
+                PUnsafe.putLong(bucket + valueOffset, max(PUnsafe.getLong(bucket + valueOffset), value));
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for the given key after one of its values has been modified in a way which can't be expressed as a merge.
+     *
+     * @param key the key
+     */
+    public void invalidate(@NonNull byte[] key) {
+        if (key.length > MAX_KEY_BYTES) {
+            return;
+        }
+
+        long hi = packHi(key);
+        long lo = packLo(key);
+        long hash = hashKey(hi, lo);
+        Segment segment = this.segment(hash);
+        synchronized (segment) {
+            segment.generation++;
+            segment.remove(hi, lo, hash);
+        }
+    }
+
+    /**
+     * @return the number of entries currently cached
+     */
+    public long size() {
+        long size = 0L;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Releases the off-heap memory used by this index. The index may not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.free();
+            }
+        }
+    }
+
+    /**
+     * A single open-addressing hash table with linear probing. All methods must be called while synchronized on the segment.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class Segment {
+        protected final long maxTableSize;
+
+        protected long tableAddr = 0L; //the address of the table in memory
+        protected long tableSize = 0L; //the physical size of the table (in buckets). always a non-zero power of two
+        protected long resizeThreshold = 0L;
+        protected long size = 0L; //the number of entries stored in the table
+
+        protected long clockHand = 0L; //the index of the next bucket to be examined for eviction
+
+        protected long generation = 0L;
+
+        public Segment(long maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            this.setTableSize(min(DEFAULT_TABLE_SIZE, maxTableSize));
+        }
+
+        public void set(long bucket, long hi, long lo, long timestamp, long dirtyTimestamp) {
+            PUnsafe.putLong(bucket + BUCKET_KEY_HI_OFFSET, hi);
+            PUnsafe.putLong(bucket + BUCKET_KEY_LO_OFFSET, lo);
+            PUnsafe.putLong(bucket + BUCKET_TIMESTAMP_OFFSET, timestamp);
+            PUnsafe.putLong(bucket + BUCKET_DIRTY_TIMESTAMP_OFFSET, dirtyTimestamp);
+            PUnsafe.putLong(bucket + BUCKET_FLAGS_OFFSET, FLAG_OCCUPIED | FLAG_REFERENCED);
+        }
+
+        /**
+         * Finds the bucket for the given key.
+         * <p>
+         * If {@code createIfAbsent} is {@code true} and the key isn't present, a new bucket will be reserved for it. The new bucket's flags will be {@code 0}, the caller is
+         * responsible for initializing it using {@link #set(long, long, long, long, long)}.
+         *
+         * @return the address of the bucket, or {@code 0L} if the key isn't present and no bucket could be reserved for it
+         */
+        public long findBucket(long hi, long lo, long hash, boolean createIfAbsent) {
+            long tableAddr = this.tableAddr;
+            if (tableAddr == 0L) {
+                if (createIfAbsent) { //the table hasn't been allocated yet - let's make a new one!
+                    this.tableAddr = tableAddr = allocateTable(this.tableSize);
+                } else { //the table isn't even allocated yet, so the bucket clearly isn't present
+                    return 0L;
+                }
+            }
+
+            long mask = this.tableSize - 1L; //tableSize is always a power of two, so we can safely create a bitmask like this
+
+            for (long i = 0L; ; i++) {
+                long bucketAddr = tableAddr + ((hash + i) & mask) * BUCKET_BYTES;
+
+                if ((PUnsafe.getLong(bucketAddr + BUCKET_FLAGS_OFFSET) & FLAG_OCCUPIED) == 0L) { //the bucket hasn't been assigned yet
+                    if (!createIfAbsent) { //empty bucket, abort search - there won't be anything else later on
+                        return 0L;
+                    }
+
+                    if (this.size < this.resizeThreshold) { //let's assign the bucket to our current position
+                        this.size++;
+                        return bucketAddr;
+                    } else if (this.tableSize < this.maxTableSize) { //the table is full, but it's still allowed to grow
+                        this.resize();
+                    } else if (!this.evict()) { //the table is full and can't grow any further, and there are no clean entries which could be evicted
+                        return 0L;
+                    }
+
+                    //the table has been modified, restart the search
+                    return this.findBucket(hi, lo, hash, true);
+                }
+
+                //the bucket is set. check the key to see if it matches the one we're searching for
+                if (PUnsafe.getLong(bucketAddr + BUCKET_KEY_HI_OFFSET) == hi && PUnsafe.getLong(bucketAddr + BUCKET_KEY_LO_OFFSET) == lo) { //we found the matching bucket!
+                    return bucketAddr;
+                }
+
+                //continue search...
+            }
+        }
+
+        public void remove(long hi, long lo, long hash) {
+            long tableAddr = this.tableAddr;
+            if (tableAddr == 0L) { //the table isn't even allocated yet, there's nothing to remove...
+                return;
+            }
+
+            long mask = this.tableSize - 1L;
+
+            for (long i = 0L; ; i++) {
+                long slot = (hash + i) & mask;
+                long bucketAddr = tableAddr + slot * BUCKET_BYTES;
+
+                if ((PUnsafe.getLong(bucketAddr + BUCKET_FLAGS_OFFSET) & FLAG_OCCUPIED) == 0L) { //we've reached the end of the bucket chain for this hash
+                    return;
+                } else if (PUnsafe.getLong(bucketAddr + BUCKET_KEY_HI_OFFSET) == hi && PUnsafe.getLong(bucketAddr + BUCKET_KEY_LO_OFFSET) == lo) {
+                    this.size--;
+                    this.shiftBuckets(tableAddr, slot, mask);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Evicts a single clean entry using the CLOCK algorithm.
+         *
+         * @return whether or not an entry was evicted
+         */
+        protected boolean evict() {
+            long tableAddr = this.tableAddr;
+            long mask = this.tableSize - 1L;
+
+            //two full rotations are enough to clear the referenced flag on every entry and then come back to it
+            for (long i = 0L, limit = this.tableSize << 1L; i < limit; i++) {
+                long slot = this.clockHand;
+                this.clockHand = (slot + 1L) & mask;
+
+                long bucketAddr = tableAddr + slot * BUCKET_BYTES;
+                long flags = PUnsafe.getLong(bucketAddr + BUCKET_FLAGS_OFFSET);
+                if ((flags & FLAG_OCCUPIED) == 0L //the bucket is empty
+                    || TimestampColumns.resolveDirtyTimestamp(PUnsafe.getLong(bucketAddr + BUCKET_TIMESTAMP_OFFSET), PUnsafe.getLong(bucketAddr + BUCKET_DIRTY_TIMESTAMP_OFFSET))
+                       != TIMESTAMP_BLANK) { //dirty entries are never evicted
+                    continue;
+                }
+
+                if ((flags & FLAG_REFERENCED) != 0L) { //the entry has been used since the last time the clock hand passed it, give it a second chance
+                    PUnsafe.putLong(bucketAddr + BUCKET_FLAGS_OFFSET, flags & ~FLAG_REFERENCED);
+                    continue;
+                }
+
+                this.size--;
+                this.shiftBuckets(tableAddr, slot, mask);
+                return true;
+            }
+            return false;
+        }
+
+        protected void resize() {
+            long oldTableSize = this.tableSize;
+            long oldTableAddr = this.tableAddr;
+
+            //allocate new table
+            long newTableSize = oldTableSize << 1L;
+            this.setTableSize(newTableSize);
+            long newTableAddr = this.tableAddr = allocateTable(newTableSize);
+            long newMask = newTableSize - 1L;
+
+            //iterate through every bucket in the old table and copy it to the new one
+            for (long i = 0; i < oldTableSize; i++) {
+                long oldBucketAddr = oldTableAddr + i * BUCKET_BYTES;
+                if ((PUnsafe.getLong(oldBucketAddr + BUCKET_FLAGS_OFFSET) & FLAG_OCCUPIED) == 0L) { //the bucket is unset, so there's no reason to copy it
+                    continue;
+                }
+
+                long hash = hashKey(PUnsafe.getLong(oldBucketAddr + BUCKET_KEY_HI_OFFSET), PUnsafe.getLong(oldBucketAddr + BUCKET_KEY_LO_OFFSET));
+                for (long j = 0L; ; j++) {
+                    long newBucketAddr = newTableAddr + ((hash + j) & newMask) * BUCKET_BYTES;
+
+                    if ((PUnsafe.getLong(newBucketAddr + BUCKET_FLAGS_OFFSET) & FLAG_OCCUPIED) == 0L) { //the bucket hasn't been assigned yet
+                        PUnsafe.copyMemory(oldBucketAddr, newBucketAddr, BUCKET_BYTES);
+                        break; //advance to next bucket in old table
+                    }
+                }
+            }
+
+            //delete old table
+            PUnsafe.freeMemory(oldTableAddr);
+            this.clockHand = 0L;
+        }
+
+        //adapted from it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap#shiftKeys(int)
+        protected void shiftBuckets(long tableAddr, long pos, long mask) {
+            long last;
+            long slot;
+
+            for (; ; ) {
+                pos = ((last = pos) + 1L) & mask;
+                for (; ; pos = (pos + 1L) & mask) {
+                    long currAddr = tableAddr + pos * BUCKET_BYTES;
+                    if ((PUnsafe.getLong(currAddr + BUCKET_FLAGS_OFFSET) & FLAG_OCCUPIED) == 0L) { //curr points to an unset bucket
+                        PUnsafe.setMemory(tableAddr + last * BUCKET_BYTES, BUCKET_BYTES, (byte) 0); //delete last bucket
+                        return;
+                    }
+
+                    slot = hashKey(PUnsafe.getLong(currAddr + BUCKET_KEY_HI_OFFSET), PUnsafe.getLong(currAddr + BUCKET_KEY_LO_OFFSET)) & mask;
+
+                    if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                        PUnsafe.copyMemory(currAddr, tableAddr + last * BUCKET_BYTES, BUCKET_BYTES);
+                        break;
+                    }
+                }
+            }
+        }
+
+        protected void setTableSize(long tableSize) {
+            this.tableSize = tableSize;
+            this.resizeThreshold = (tableSize >> 1L) + (tableSize >> 2L); //count * 0.75
+        }
+
+        protected void free() {
+            if (this.tableAddr != 0L) {
+                PUnsafe.freeMemory(this.tableAddr);
+                this.tableAddr = 0L;
+                this.size = 0L;
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.mode.common.server.storage.rocksdb;
+
+import com.google.common.collect.ImmutableList;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
+import net.daporkchop.fp2.util.threading.ThreadingHelper;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+import static net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorage.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Buffers tile writes to a {@link RocksStorage} in memory, and commits them to the database in batches on a dedicated writer thread.
+ * <p>
+ * This allows worker threads to continue generating tiles without having to wait for each individual tile to be committed. Multiple writes to the same position which
+ * are queued at the same time are coalesced, and only the newest one is actually written.
+ * <p>
+ * All reads from the storage must go through this queue (using {@link #get(IFarPos)}) in order to observe writes which haven't been committed yet.
+ *
+ * @author DaPorkchop_
+ */
+public class WriteBehindQueue<POS extends IFarPos, T extends IFarTile> implements AutoCloseable {
+    /**
+     * The maximum number of distinct positions which may be queued for writing at once. Once this limit is reached, further writes will block until the writer
+     * thread catches up.
+     */
+    protected static final int MAX_QUEUED_WRITES = 4096;
+
+    /**
+     * The maximum number of writes which will be committed in a single batch.
+     */
+    protected static final int MAX_BATCH_SIZE = 256;
+
+    protected final RocksStorage<POS, T> storage;
+
+    protected final Map<POS, Write> writes = new ConcurrentHashMap<>();
+    protected final Queue<POS> queue = new ConcurrentLinkedQueue<>();
+    protected final Semaphore permits = new Semaphore(MAX_QUEUED_WRITES);
+
+    protected final Thread thread;
+    protected volatile boolean running = true;
+
+    public WriteBehindQueue(@NonNull RocksStorage<POS, T> storage) {
+        this.storage = storage;
+
+        this.thread = PThreadFactories.builder().daemon().minPriority()
+                .name(PStrings.fastFormat("FP2 %s DIM%d Storage Writer", storage.world.mode().name(), storage.world.world().provider.getDimension())).build()
+                .newThread(this::run);
+        this.thread.start();
+    }
+
+    /**
+     * Gets the write which is currently queued at the given position.
+     *
+     * @param pos the position
+     * @return the queued write, or {@code null} if no write is queued at the given position
+     */
+    public Write get(@NonNull POS pos) {
+        return this.writes.get(pos);
+    }
+
+    /**
+     * @return the number of distinct positions which currently have a write queued
+     */
+    public int size() {
+        return this.writes.size();
+    }
+
+    /**
+     * Queues a write at the given position.
+     * <p>
+     * The write will only be accepted if the given timestamp is newer than both the timestamp of any write already queued at the same position, and the timestamp currently
+     * stored in the database.
+     *
+     * @param pos       the position
+     * @param timestamp the new timestamp
+     * @param data      the encoded tile data, or {@code null} if the tile is empty
+     * @return whether or not the write was accepted
+     */
+    public boolean put(@NonNull POS pos, long timestamp, byte[] data) {
+        class State implements BiFunction<POS, Write, Write> {
+            boolean accepted;
+            boolean enqueue;
+
+            @Override
+            public Write apply(@NonNull POS pos, Write write) {
+                long existingTimestamp = write != null
+                        ? write.timestamp //a write is already queued, so it takes precedence over whatever's currently in the db
+                        : WriteBehindQueue.this.storage.readTimestamp(pos);
+
+                if (timestamp <= existingTimestamp) { //the new timestamp isn't newer than the existing one, so we can't replace it
+                    this.accepted = false;
+                    return write;
+                }
+
+                //if the write currently in the map is already being committed (or there is none), the position has already been removed from the queue and must be
+                //  added again
+                this.accepted = true;
+                this.enqueue = write == null || write.committing;
+                return new Write(timestamp, data);
+            }
+        }
+
+        checkState(this.running, "write queue is closed!");
+
+        //acquire a permit in advance, since we don't want to block inside of ConcurrentHashMap#compute
+        this.permits.acquireUninterruptibly();
+
+        State state = new State();
+        try {
+            this.writes.compute(pos, state);
+        } catch (Throwable t) {
+            this.permits.release();
+            throw t;
+        }
+
+        if (state.enqueue) {
+            this.queue.add(pos);
+            LockSupport.unpark(this.thread);
+        } else { //the write was either rejected or coalesced with an existing queued write, so we don't need the permit
+            this.permits.release();
+        }
+        return state.accepted;
+    }
+
+    protected void run() {
+        List<POS> positions = new ArrayList<>(MAX_BATCH_SIZE);
+        List<Write> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (this.running || !this.queue.isEmpty()) {
+            for (POS pos; positions.size() < MAX_BATCH_SIZE && (pos = this.queue.poll()) != null; ) {
+                positions.add(pos);
+            }
+
+            if (positions.isEmpty()) { //nothing to do, wait until we're woken up again (or the timeout expires, so we can notice when the queue is closed)
+                LockSupport.parkNanos(this, 100_000_000L);
+                continue;
+            }
+
+            try {
+                for (POS pos : positions) {
+                    batch.add(this.writes.computeIfPresent(pos, (p, write) -> {
+                        write.committing = true;
+                        return write;
+                    }));
+                }
+
+                this.storage.tileWriteLock.lock();
+                try {
+                    this.commit(positions, batch);
+                } finally {
+                    this.storage.tileWriteLock.unlock();
+                }
+            } catch (Throwable t) {
+                FP2_LOG.error(PStrings.fastFormat("unable to commit %d tile writes", positions.size()), t);
+                ThreadingHelper.handle(this.storage.world.world(), t);
+            } finally {
+                //remove all the writes from the map, unless they've been replaced by a newer write while we were committing
+                for (int i = 0; i < positions.size(); i++) {
+                    this.writes.remove(positions.get(i), batch.get(i));
+                }
+                this.permits.release(positions.size());
+
+                positions.clear();
+                batch.clear();
+            }
+        }
+    }
+
+    @SneakyThrows(RocksDBException.class)
+    protected void commit(@NonNull List<POS> positions, @NonNull List<Write> batch) {
+        int length = positions.size();
+        List<POS> changed = new ArrayList<>(length);
+        long startTime = System.nanoTime();
+        long bytesWritten = 0L;
+
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            //convert positions to key bytes
+            byte[][] allKeyBytes = positions.stream().map(POS::toBytes).toArray(byte[][]::new);
+
+            //read the current timestamps. tiles are only ever written while holding the storage's tile write lock, so they can't be changed by anyone else before the
+            //  batch is written
+            this.storage.prefetchTimestamps(allKeyBytes);
+
+            boolean[] modified = new boolean[length];
+            List<ColumnFamilyHandle> dataHandles = new ArrayList<>(length);
+            List<byte[]> dataKeys = new ArrayList<>(length);
+
+            for (int i = 0; i < length; i++) {
+                POS pos = positions.get(i);
+                Write write = batch.get(i);
+                byte[] keyBytes = allKeyBytes[i];
+
+                if (write.timestamp <= this.storage.readTimestamp(keyBytes)) { //the tile in the db has been replaced with a newer one in the meantime
+                    continue;
+                }
+
+                changed.add(pos);
+                modified[i] = true;
+                dataHandles.add(this.storage.cfTileData(pos));
+                dataKeys.add(keyBytes);
+            }
+
+            if (changed.isEmpty()) { //nothing was changed, exit without writing anything
+                return;
+            }
+
+            //read the tile data which is about to be replaced, since it may reference blobs which need to be released
+            List<byte[]> oldValues = this.storage.db.multiGetAsList(dataHandles, dataKeys);
+            TileBlobStore.Update blobUpdate = this.storage.blobStore.update(writeBatch);
+
+            for (int i = 0, j = 0; i < length; i++) {
+                if (!modified[i]) {
+                    continue;
+                }
+
+                POS pos = positions.get(i);
+                Write write = batch.get(i);
+                byte[] keyBytes = allKeyBytes[i];
+
+                //merge new timestamp into db. the dirty timestamp is left untouched: if the new timestamp is at least as new as the dirty timestamp, the tile will
+                //  no longer be considered dirty when the dirty timestamp is next read.
+                writeBatch.merge(this.storage.cfTileTimestamp, keyBytes, TimestampColumns.encode(write.timestamp));
+
+                //store tile data in db
+                blobUpdate.release(oldValues.get(j++));
+                if (write.data == null) { //the tile was empty, remove it from the db!
+                    writeBatch.delete(this.storage.cfTileData(pos), keyBytes);
+                } else { //the tile was non-empty, store it in the db
+                    writeBatch.put(this.storage.cfTileData(pos), keyBytes, blobUpdate.store(write.data));
+                    bytesWritten += write.data.length;
+                }
+            }
+            blobUpdate.commit();
+
+            this.storage.db.write(WRITE_OPTIONS, writeBatch);
+
+            for (int i = 0; i < length; i++) {
+                if (modified[i]) {
+                    this.storage.timestampIndex.mergeTimestamp(allKeyBytes[i], batch.get(i).timestamp);
+                }
+            }
+        }
+
+        this.storage.commitTime.recordSince(startTime);
+        this.storage.commitBatchSize.record(changed.size());
+        this.storage.bytesWritten.add(bytesWritten);
+
+        //notify listeners once for the entire batch
+        this.storage.listeners.forEach(listener -> listener.tilesChanged(changed.stream()));
+    }
+
+    /**
+     * Closes this queue, blocking until all queued writes have been committed.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+
+        while (this.thread.isAlive()) {
+            LockSupport.unpark(this.thread);
+            try {
+                this.thread.join(50L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A tile write which is queued, but hasn't been committed yet.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    public static final class Write {
+        protected final long timestamp;
+        protected final byte[] data; //null if the tile is empty
+
+        protected volatile boolean committing = false;
+
+        /**
+         * @return the new timestamp
+         */
+        public long timestamp() {
+            return this.timestamp;
+        }
+
+        /**
+         * @return a snapshot of the queued tile at the given position
+         */
+        public <POS extends IFarPos, T extends IFarTile> ITileSnapshot<POS, T> snapshot(@NonNull POS pos) {
+            return new TileSnapshot<>(pos, this.timestamp, this.data);
+        }
+    }
+}
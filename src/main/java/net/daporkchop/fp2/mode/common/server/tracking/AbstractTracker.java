@@ -30,18 +30,21 @@ import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTracker;
 import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.net.packet.standard.client.CPacketRequestTiles;
 import net.daporkchop.fp2.util.annotation.CalledFromAnyThread;
 import net.daporkchop.fp2.util.annotation.CalledFromServerThread;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
-import net.daporkchop.fp2.util.annotation.RemovalPolicy;
 import net.daporkchop.fp2.util.datastructure.RecyclingArrayDeque;
 import net.daporkchop.fp2.util.datastructure.SimpleSet;
 import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
+import net.daporkchop.fp2.util.stats.Histogram;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
 import net.daporkchop.lib.unsafe.PUnsafe;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
@@ -51,6 +54,7 @@ import java.util.function.Consumer;
 
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.fp2.util.math.MathUtil.*;
+import static net.daporkchop.fp2.util.stats.MetricsRegistry.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 import static net.daporkchop.lib.common.util.PorkUtil.*;
 
@@ -65,6 +69,16 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
      */
     protected static final double UPDATE_TRIGGER_DISTANCE_SQUARED = sq(T_VOXELS >> 1);
 
+    /**
+     * The maximum number of tiles which will be re-sent to the client per tick.
+     */
+    protected static final int MAX_RESENDS_PER_TICK = CPacketRequestTiles.MAX_POSITIONS;
+
+    /**
+     * The maximum number of tiles which may be queued to be re-sent to the client. Requests beyond this are dropped.
+     */
+    protected static final int MAX_QUEUED_RESENDS = MAX_RESENDS_PER_TICK * 16;
+
     protected final AbstractTrackerManager<POS, T> manager;
     protected final IFarRenderMode<POS, T> mode;
 
@@ -76,6 +90,11 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
     protected final Set<POS> waitingPositions = ConcurrentHashMap.newKeySet();
     protected final Queue<POS> doneWaitingPositions = new ConcurrentLinkedQueue<>();
 
+    //tiles which the client has asked to be re-sent, but which haven't been requested from the tile provider yet. only accessed while holding this tracker's monitor
+    protected final Set<POS> queuedResends = new LinkedHashSet<>();
+    //tiles which have been requested from the tile provider in order to be re-sent, but haven't been sent yet
+    protected final Set<POS> pendingResends = ConcurrentHashMap.newKeySet();
+
     //these are using a single object reference instead of flattened fields to allow the value to be replaced atomically. to ensure coherent access to the values,
     // readers must take care never to dereference the fields more than once.
     protected volatile STATE lastState;
@@ -84,8 +103,12 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
     protected volatile boolean queuePaused = false;
     protected volatile boolean closed = false;
 
-    @DebugOnly(RemovalPolicy.DROP)
+    protected final Histogram updateTime;
+
+    //these are only written while holding this tracker's monitor
     protected long lastUpdateTime;
+    protected long totalUpdateTime;
+    protected long updateCount;
 
     public AbstractTracker(@NonNull AbstractTrackerManager<POS, T> manager, @NonNull IFarServerContext<POS, T> context) {
         this.manager = manager;
@@ -95,6 +118,8 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
         this.coordLimits = ((IFarWorldServer) manager.tileProvider().world()).fp2_IFarWorld_coordLimits();
 
         this.loadedPositions = this.mode.directPosAccess().newPositionSet();
+
+        this.updateTime = manager.tileProvider().metrics().histogram("fp2_tracker_update_seconds", "Time spent updating a tracker's state after a player moved", NANOS_TO_SECONDS);
     }
 
     @CalledFromServerThread
@@ -109,6 +134,8 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
             //add update task to execution queue (this will call doUpdate)
             this.manager.scheduler().schedule(this);
         }
+
+        this.flushResends();
     }
 
     /**
@@ -145,6 +172,9 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
 
                 //unpause the queue so that we can fill it up again
                 this.unpauseQueue();
+
+                //our position has changed, so tiles which are already queued for other trackers may now be closer to (or further away from) the nearest player
+                this.manager.trackerMoved(this);
             }
         }
 
@@ -176,7 +206,10 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
         //sort queue
         this.queuedPositions.sort(this.comparatorFor(nextState));
 
-        this.lastUpdateTime = System.nanoTime() - startTime;
+        long duration = this.updateTime.recordSince(startTime) - startTime;
+        this.lastUpdateTime = duration;
+        this.totalUpdateTime += duration;
+        this.updateCount++;
     }
 
     /**
@@ -309,12 +342,82 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
         this.context.sendTileUnload(pos);
     }
 
+    /**
+     * Gets the distance between the given tile position and this tracker's current position.
+     *
+     * @param pos the tile position
+     * @return the distance (in tiles at the position's detail level), or {@link Integer#MAX_VALUE} if this tracker hasn't been updated yet
+     */
+    @CalledFromAnyThread
+    protected int distanceTo(@NonNull POS pos) {
+        STATE lastState = this.lastState;
+        return lastState != null ? this.distance(lastState, pos) : Integer.MAX_VALUE;
+    }
+
+    @CalledFromServerThread
+    @Override
+    public synchronized void resendTiles(@NonNull Iterable<POS> positions) {
+        if (this.closed) {
+            return;
+        }
+
+        for (POS pos : positions) {
+            if (this.queuedResends.size() >= MAX_QUEUED_RESENDS) { //the client is requesting tiles much faster than we're re-sending them, drop the rest
+                break;
+            }
+
+            //only tiles which were already sent to the client can be re-sent, and tiles which are already going to be re-sent don't need to be re-sent twice
+            if (this.loadedPositions.contains(pos) && !this.pendingResends.contains(pos)) {
+                this.queuedResends.add(pos);
+            }
+        }
+    }
+
+    /**
+     * Begins re-sending up to {@link #MAX_RESENDS_PER_TICK} of the queued tiles.
+     */
+    @CalledFromServerThread
+    protected synchronized void flushResends() {
+        if (this.closed) {
+            return;
+        }
+
+        Iterator<POS> itr = this.queuedResends.iterator();
+        for (int count = 0; count < MAX_RESENDS_PER_TICK && itr.hasNext(); count++) {
+            POS pos = itr.next();
+            itr.remove();
+
+            if (this.loadedPositions.contains(pos) && this.pendingResends.add(pos)) {
+                this.context.tileProvider().requestLoad(pos).whenComplete((handle, t) -> {
+                    try {
+                        if (handle != null) {
+                            this.resendTile(handle.snapshot());
+                        }
+                    } finally {
+                        this.pendingResends.remove(pos);
+                    }
+                });
+            }
+        }
+    }
+
+    @CalledFromAnyThread
+    protected synchronized void resendTile(ITileSnapshot<POS, T> snapshot) {
+        //the tile may have been unloaded while we were waiting for it, in which case the client shouldn't receive it again
+        if (snapshot != null && !this.closed && this.loadedPositions.contains(snapshot.pos())) {
+            this.context.sendTile(uncheckedCast(snapshot));
+        }
+    }
+
     @CalledFromServerThread
     @Override
     public synchronized void close() {
         checkState(!this.closed, "already closed!");
         this.closed = true;
 
+        //remove ourself from the tracker manager
+        this.manager.trackerClosed(this);
+
         //pause the queue to prevent workers from doing anything else
         this.pauseQueue();
 
@@ -335,6 +438,7 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
         this.loadedPositions.close();
         this.waitingPositions.clear();
         this.doneWaitingPositions.clear();
+        this.queuedResends.clear();
     }
 
     @DebugOnly
@@ -348,7 +452,7 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
                 .tilesQueued(this.queuedPositions.size())
                 .tilesTrackedGlobal(this.manager.entries().size())
                 .lastUpdateDuration(this.lastUpdateTime)
-                .avgUpdateDuration(this.lastUpdateTime)
+                .avgUpdateDuration(this.updateCount != 0L ? this.totalUpdateTime / this.updateCount : 0L)
                 .build();
     }
 
@@ -396,6 +500,17 @@ public abstract class AbstractTracker<POS extends IFarPos, T extends IFarTile, S
      */
     protected abstract boolean isVisible(@NonNull STATE state, @NonNull POS pos);
 
+    /**
+     * Computes the distance between the given tile position and the player position in the given {@link STATE}.
+     * <p>
+     * The distance is measured in tiles at the position's detail level, using the same metric as {@link #isVisible(Object, IFarPos)}.
+     *
+     * @param state the {@link STATE}
+     * @param pos   the tile position
+     * @return the distance
+     */
+    protected abstract int distance(@NonNull STATE state, @NonNull POS pos);
+
     /**
      * Gets a {@link Comparator} which can be used for sorting the tile positions visible in the given {@link STATE} by their load priority.
      *
@@ -36,6 +36,7 @@ import net.daporkchop.fp2.mode.api.server.tracking.IFarTrackerManager;
 import net.daporkchop.fp2.mode.api.tile.ITileHandle;
 import net.daporkchop.fp2.mode.api.tile.ITileMetadata;
 import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.util.annotation.CalledFromAnyThread;
 import net.daporkchop.fp2.util.annotation.CalledFromServerThread;
 import net.daporkchop.fp2.util.annotation.DebugOnly;
 import net.daporkchop.fp2.util.datastructure.CompactReferenceArraySet;
@@ -47,15 +48,18 @@ import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
 import net.daporkchop.lib.unsafe.PUnsafe;
 
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
+import static java.lang.Math.*;
 import static net.daporkchop.fp2.util.Constants.*;
 import static net.daporkchop.lib.common.util.PValidation.*;
 
@@ -68,6 +72,8 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
 
     protected final Map<POS, Entry> entries = new ConcurrentHashMap<>();
     protected final Map<IFarServerContext<POS, T>, AbstractTracker<POS, T, ?>> trackers = new IdentityHashMap<>();
+    protected final List<AbstractTracker<POS, T, ?>> trackerList = new CopyOnWriteArrayList<>(); //copy of the trackers which may be safely read from any thread
+    protected volatile int activeTrackers;
 
     protected final Scheduler<AbstractTracker<POS, T, ?>, Void> scheduler; //TODO: make this global rather than per-mode and per-dimension
 
@@ -100,10 +106,41 @@ public abstract class AbstractTrackerManager<POS extends IFarPos, T extends IFar
         return this.trackers.compute(context, (ctx, tracker) -> {
             checkArg(tracker == null, "tracker for %s already exists!", ctx);
 
-            return this.createTrackerFor(ctx);
+            tracker = this.createTrackerFor(ctx);
+            this.trackerList.add(tracker);
+            this.activeTrackers++;
+            return tracker;
         });
     }
 
+    @CalledFromServerThread
+    protected void trackerClosed(@NonNull AbstractTracker<POS, T, ?> tracker) {
+        checkState(this.trackers.remove(tracker.context, tracker), "tracker %s isn't active!", tracker);
+        this.trackerList.remove(tracker);
+        this.activeTrackers--;
+    }
+
+    @CalledFromAnyThread
+    protected void trackerMoved(@NonNull AbstractTracker<POS, T, ?> tracker) {
+        this.tileProvider.trackersMoved();
+    }
+
+    @CalledFromAnyThread
+    @Override
+    public int activeTrackers() {
+        return this.activeTrackers;
+    }
+
+    @CalledFromAnyThread
+    @Override
+    public int distanceToNearestTracker(@NonNull POS pos) {
+        int distance = Integer.MAX_VALUE;
+        for (AbstractTracker<POS, T, ?> tracker : this.trackerList) {
+            distance = min(distance, tracker.distanceTo(pos));
+        }
+        return distance;
+    }
+
     /**
      * Creates a new {@link AbstractTracker} instance for the given {@link IFarServerContext}.
      *
@@ -171,6 +171,18 @@ public class HeightmapDirectPosAccess implements IFarDirectPosAccess<HeightmapPo
         return frustum.intersectsBB(x * f, Integer.MIN_VALUE, z * f, (x + 1.0d) * f + d, Integer.MAX_VALUE, (z + 1.0d) * f + d);
     }
 
+    @Override
+    public void boundingBox(int level, @NonNull int[] min, int size, @NonNull double[] dst) {
+        double d = 1 << level;
+        double f = d * T_VOXELS;
+        dst[0] = min[0] * f;
+        dst[1] = Integer.MIN_VALUE;
+        dst[2] = min[1] * f;
+        dst[3] = ((double) min[0] + size) * f + d;
+        dst[4] = Integer.MAX_VALUE;
+        dst[5] = ((double) min[1] + size) * f + d;
+    }
+
     @Override
     public SimpleSet<HeightmapPos> newPositionSet() {
         return new HeightmapPosSet();
@@ -55,13 +55,13 @@ public class HeightmapPos implements IFarPos {
         this.level = buf.readUnsignedByte();
 
         long interleaved = buf.readLong();
-        this.x = MathUtil.uninterleave2_0(interleaved);
-        this.z = MathUtil.uninterleave2_1(interleaved);
+        this.x = MathUtil.uninterleave2_0(interleaved) - ENCODED_COORDINATE_BIAS;
+        this.z = MathUtil.uninterleave2_1(interleaved) - ENCODED_COORDINATE_BIAS;
     }
 
     @Override
     public void writePos(@NonNull ByteBuf dst) {
-        dst.writeByte(toByte(this.level)).writeLong(MathUtil.interleaveBits(this.x, this.z));
+        dst.writeByte(toByte(this.level)).writeLong(MathUtil.interleaveBits(this.x + ENCODED_COORDINATE_BIAS, this.z + ENCODED_COORDINATE_BIAS));
     }
 
     @Override
@@ -179,6 +179,12 @@ public class HeightmapPos implements IFarPos {
         }
     }
 
+    @Override
+    public double distanceSq(double x, double y, double z) {
+        double radius = (T_VOXELS >> 1) << this.level;
+        return sq(this.blockX() + radius - x) + sq(this.blockZ() + radius - z);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
@@ -25,6 +25,7 @@ import io.netty.buffer.ByteBuf;
 import lombok.NonNull;
 import net.daporkchop.fp2.config.FP2Config;
 import net.daporkchop.fp2.mode.api.IFarDirectPosAccess;
+import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.ctx.IFarClientContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
@@ -113,6 +114,13 @@ public class HeightmapRenderMode extends AbstractFarRenderMode<HeightmapPos, Hei
         return new HeightmapPos(buf);
     }
 
+    @Override
+    public HeightmapPos readLegacyPos(@NonNull ByteBuf buf) {
+        //the legacy encoding is identical except for the coordinates not being biased, so we can simply undo the bias removal
+        HeightmapPos pos = new HeightmapPos(buf);
+        return new HeightmapPos(pos.level(), pos.x() + IFarPos.ENCODED_COORDINATE_BIAS, pos.z() + IFarPos.ENCODED_COORDINATE_BIAS);
+    }
+
     @Override
     public HeightmapPos[] posArray(int length) {
         return new HeightmapPos[length];
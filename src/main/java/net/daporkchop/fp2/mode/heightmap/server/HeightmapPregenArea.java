@@ -0,0 +1,48 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.heightmap.server;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenArea;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
+
+import java.util.function.Consumer;
+
+/**
+ * {@link PregenArea} for the heightmap render mode, in which every tile column contains exactly one tile.
+ *
+ * @author DaPorkchop_
+ */
+public class HeightmapPregenArea extends PregenArea<HeightmapPos> {
+    public HeightmapPregenArea(int centerX, int centerY, int centerZ, int radius, int maxLevel, @NonNull IntAxisAlignedBB[] coordLimits) {
+        super(centerX, centerY, centerZ, radius, maxLevel, coordLimits);
+    }
+
+    @Override
+    protected void column(int level, int x, int z, @NonNull Consumer<HeightmapPos> callback) {
+        callback.accept(new HeightmapPos(level, x, z));
+    }
+
+    @Override
+    protected long columnHeight(int level) {
+        return 1L;
+    }
+}
@@ -23,9 +23,11 @@ package net.daporkchop.fp2.mode.heightmap.server;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTrackerManager;
 import net.daporkchop.fp2.mode.api.server.gen.IFarScaler;
 import net.daporkchop.fp2.mode.common.server.AbstractFarTileProvider;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenArea;
 import net.daporkchop.fp2.mode.heightmap.HeightmapTile;
 import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
 import net.daporkchop.fp2.mode.heightmap.server.scale.HeightmapScalerMinMax;
@@ -58,6 +60,11 @@ public abstract class HeightmapTileProvider extends AbstractFarTileProvider<Heig
         return this.blockAccess().anyColumnIntersects(pos.x(), pos.z(), pos.level());
     }
 
+    @Override
+    protected PregenArea<HeightmapPos> createPregenArea(int centerX, int centerY, int centerZ, int radius, int maxLevel) {
+        return new HeightmapPregenArea(centerX, centerY, centerZ, radius, maxLevel, ((IFarWorldServer) this.world).fp2_IFarWorld_coordLimits());
+    }
+
     @Override
     public void onColumnSaved(@NonNull World world, int columnX, int columnZ, @NonNull NBTTagCompound nbt, @NonNull Chunk column) {
         this.scheduleForUpdate(new HeightmapPos(0, columnX, columnZ));
@@ -22,6 +22,7 @@ package net.daporkchop.fp2.mode.heightmap.server.gen.rough;
 
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
 import lombok.NonNull;
+import net.daporkchop.fp2.compat.cwg.CWGColumnCache;
 import net.daporkchop.fp2.compat.cwg.CWGContext;
 import net.daporkchop.fp2.mode.heightmap.HeightmapData;
 import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
@@ -61,13 +62,14 @@ public class CWGHeightmapGenerator extends AbstractRoughHeightmapGenerator {
         return (x - HMAP_MIN) * HMAP_SIZE + z - HMAP_MIN;
     }
 
+    protected final CWGColumnCache columnCache = new CWGColumnCache();
     protected final Cached<CWGContext> ctx;
     protected final Cached<double[]> hmapCache = Cached.threadLocal(() -> new double[sq(HMAP_SIZE)], ReferenceStrength.WEAK);
 
     public CWGHeightmapGenerator(@NonNull WorldServer world) {
         super(world);
 
-        this.ctx = Cached.threadLocal(() -> new CWGContext(world, HMAP_SIZE, 2), ReferenceStrength.WEAK);
+        this.ctx = Cached.threadLocal(() -> new CWGContext(world, HMAP_SIZE, 2, this.columnCache), ReferenceStrength.WEAK);
     }
 
     @Override
@@ -149,6 +149,13 @@ public class HeightmapTracker extends AbstractTracker<HeightmapPos, HeightmapTil
                && abs(pos.z() - asrRound(floorI(state.z()), T_SHIFT + pos.level())) <= state.cutoff();
     }
 
+    @Override
+    protected int distance(@NonNull TrackingState state, @NonNull HeightmapPos pos) {
+        int dx = abs(pos.x() - asrRound(floorI(state.x()), T_SHIFT + pos.level()));
+        int dz = abs(pos.z() - asrRound(floorI(state.z()), T_SHIFT + pos.level()));
+        return max(dx, dz);
+    }
+
     @Override
     protected Comparator<HeightmapPos> comparatorFor(@NonNull TrackingState state) {
         class HeightmapPosAndComparator extends HeightmapPos implements Comparator<HeightmapPos> {
@@ -188,6 +188,18 @@ public class VoxelDirectPosAccess implements IFarDirectPosAccess<VoxelPos> {
         return frustum.intersectsBB(x * f, y * f, z * f, (x + 1.0d) * f + d, (y + 1.0d) * f + d, (z + 1.0d) * f + d);
     }
 
+    @Override
+    public void boundingBox(int level, @NonNull int[] min, int size, @NonNull double[] dst) {
+        double d = 1 << level;
+        double f = d * T_VOXELS;
+        dst[0] = min[0] * f;
+        dst[1] = min[1] * f;
+        dst[2] = min[2] * f;
+        dst[3] = ((double) min[0] + size) * f + d;
+        dst[4] = ((double) min[1] + size) * f + d;
+        dst[5] = ((double) min[2] + size) * f + d;
+    }
+
     @Override
     public SimpleSet<VoxelPos> newPositionSet() {
         return new VoxelPosSet();
@@ -56,16 +56,20 @@ public class VoxelPos implements IFarPos {
 
         int interleavedHigh = buf.readInt();
         long interleavedLow = buf.readLong();
-        this.x = MathUtil.uninterleave3_0(interleavedLow, interleavedHigh);
-        this.y = MathUtil.uninterleave3_1(interleavedLow, interleavedHigh);
-        this.z = MathUtil.uninterleave3_2(interleavedLow, interleavedHigh);
+        this.x = MathUtil.uninterleave3_0(interleavedLow, interleavedHigh) - ENCODED_COORDINATE_BIAS;
+        this.y = MathUtil.uninterleave3_1(interleavedLow, interleavedHigh) - ENCODED_COORDINATE_BIAS;
+        this.z = MathUtil.uninterleave3_2(interleavedLow, interleavedHigh) - ENCODED_COORDINATE_BIAS;
     }
 
     @Override
     public void writePos(@NonNull ByteBuf dst) {
+        int x = this.x + ENCODED_COORDINATE_BIAS;
+        int y = this.y + ENCODED_COORDINATE_BIAS;
+        int z = this.z + ENCODED_COORDINATE_BIAS;
+
         dst.writeByte(toByte(this.level))
-                .writeInt(MathUtil.interleaveBitsHigh(this.x, this.y, this.z))
-                .writeLong(MathUtil.interleaveBits(this.x, this.y, this.z));
+                .writeInt(MathUtil.interleaveBitsHigh(x, y, z))
+                .writeLong(MathUtil.interleaveBits(x, y, z));
     }
 
     @Override
@@ -193,6 +197,12 @@ public class VoxelPos implements IFarPos {
         }
     }
 
+    @Override
+    public double distanceSq(double x, double y, double z) {
+        double radius = (T_VOXELS >> 1) << this.level;
+        return sq(this.blockX() + radius - x) + sq(this.blockY() + radius - y) + sq(this.blockZ() + radius - z);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
@@ -24,6 +24,7 @@ import io.netty.buffer.ByteBuf;
 import lombok.NonNull;
 import net.daporkchop.fp2.config.FP2Config;
 import net.daporkchop.fp2.mode.api.IFarDirectPosAccess;
+import net.daporkchop.fp2.mode.api.IFarPos;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.ctx.IFarClientContext;
 import net.daporkchop.fp2.mode.api.ctx.IFarServerContext;
@@ -107,6 +108,13 @@ public class VoxelRenderMode extends AbstractFarRenderMode<VoxelPos, VoxelTile>
         return new VoxelPos(buf);
     }
 
+    @Override
+    public VoxelPos readLegacyPos(@NonNull ByteBuf buf) {
+        //the legacy encoding is identical except for the coordinates not being biased, so we can simply undo the bias removal
+        VoxelPos pos = new VoxelPos(buf);
+        return new VoxelPos(pos.level(), pos.x() + IFarPos.ENCODED_COORDINATE_BIAS, pos.y() + IFarPos.ENCODED_COORDINATE_BIAS, pos.z() + IFarPos.ENCODED_COORDINATE_BIAS);
+    }
+
     @Override
     public VoxelPos[] posArray(int length) {
         return new VoxelPos[length];
@@ -0,0 +1,64 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.mode.voxel.server;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenArea;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
+
+import java.util.function.Consumer;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+
+/**
+ * {@link PregenArea} for the voxel render mode.
+ * <p>
+ * Every tile column extends vertically by the area's radius in both directions from the center block, clamped to the world's height limits. This keeps the
+ * number of tiles reasonable in cubic chunks worlds, which are effectively infinitely tall.
+ *
+ * @author DaPorkchop_
+ */
+public class VoxelPregenArea extends PregenArea<VoxelPos> {
+    public VoxelPregenArea(int centerX, int centerY, int centerZ, int radius, int maxLevel, @NonNull IntAxisAlignedBB[] coordLimits) {
+        super(centerX, centerY, centerZ, radius, maxLevel, coordLimits);
+    }
+
+    protected int minY(int level) {
+        return (int) max((long) (this.centerY >> (T_SHIFT + level)) - (this.rings(level) - 1), this.coordLimits[level].minY());
+    }
+
+    protected int maxY(int level) {
+        return (int) min((long) (this.centerY >> (T_SHIFT + level)) + (this.rings(level) - 1), this.coordLimits[level].maxY());
+    }
+
+    @Override
+    protected void column(int level, int x, int z, @NonNull Consumer<VoxelPos> callback) {
+        for (int y = this.minY(level), maxY = this.maxY(level); y <= maxY; y++) {
+            callback.accept(new VoxelPos(level, x, y, z));
+        }
+    }
+
+    @Override
+    protected long columnHeight(int level) {
+        return max(this.maxY(level) - (long) this.minY(level) + 1L, 0L);
+    }
+}
@@ -23,9 +23,11 @@ package net.daporkchop.fp2.mode.voxel.server;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import lombok.NonNull;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.server.tracking.IFarTrackerManager;
 import net.daporkchop.fp2.mode.api.server.gen.IFarScaler;
 import net.daporkchop.fp2.mode.common.server.AbstractFarTileProvider;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenArea;
 import net.daporkchop.fp2.mode.voxel.VoxelPos;
 import net.daporkchop.fp2.mode.voxel.VoxelTile;
 import net.daporkchop.fp2.mode.voxel.server.scale.VoxelScalerIntersection;
@@ -58,6 +60,11 @@ public abstract class VoxelTileProvider extends AbstractFarTileProvider<VoxelPos
         return this.blockAccess().anyCubeIntersects(pos.x(), pos.y(), pos.z(), pos.level());
     }
 
+    @Override
+    protected PregenArea<VoxelPos> createPregenArea(int centerX, int centerY, int centerZ, int radius, int maxLevel) {
+        return new VoxelPregenArea(centerX, centerY, centerZ, radius, maxLevel, ((IFarWorldServer) this.world).fp2_IFarWorld_coordLimits());
+    }
+
     /**
      * @author DaPorkchop_
      */
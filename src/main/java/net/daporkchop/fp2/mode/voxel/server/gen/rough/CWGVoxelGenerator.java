@@ -22,6 +22,7 @@ package net.daporkchop.fp2.mode.voxel.server.gen.rough;
 
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacer;
 import lombok.NonNull;
+import net.daporkchop.fp2.compat.cwg.CWGColumnCache;
 import net.daporkchop.fp2.compat.cwg.CWGContext;
 import net.daporkchop.fp2.compat.vanilla.FastRegistry;
 import net.daporkchop.fp2.mode.api.server.gen.IFarGeneratorRough;
@@ -43,12 +44,13 @@ import static net.daporkchop.fp2.util.Constants.*;
  * @author DaPorkchop_
  */
 public class CWGVoxelGenerator extends AbstractRoughVoxelGenerator<CWGContext> implements IFarGeneratorRough<VoxelPos, VoxelTile> {
+    protected final CWGColumnCache columnCache = new CWGColumnCache();
     protected final Cached<CWGContext> ctx;
 
     public CWGVoxelGenerator(@NonNull WorldServer world) {
         super(world);
 
-        this.ctx = Cached.threadLocal(() -> new CWGContext(world, CACHE_SIZE, 2), ReferenceStrength.WEAK);
+        this.ctx = Cached.threadLocal(() -> new CWGContext(world, CACHE_SIZE, 2, this.columnCache), ReferenceStrength.WEAK);
     }
 
     @Override
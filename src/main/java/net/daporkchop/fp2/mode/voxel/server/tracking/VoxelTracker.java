@@ -169,6 +169,14 @@ public class VoxelTracker extends AbstractTracker<VoxelPos, VoxelTile, TrackingS
                && abs(pos.z() - asrRound(floorI(state.z()), T_SHIFT + pos.level())) <= state.cutoff();
     }
 
+    @Override
+    protected int distance(@NonNull TrackingState state, @NonNull VoxelPos pos) {
+        int dx = abs(pos.x() - asrRound(floorI(state.x()), T_SHIFT + pos.level()));
+        int dy = abs(pos.y() - asrRound(floorI(state.y()), T_SHIFT + pos.level()));
+        int dz = abs(pos.z() - asrRound(floorI(state.z()), T_SHIFT + pos.level()));
+        return max(max(dx, dy), dz);
+    }
+
     @Override
     protected Comparator<VoxelPos> comparatorFor(@NonNull TrackingState state) {
         class VoxelPosAndComparator extends VoxelPos implements Comparator<VoxelPos> {
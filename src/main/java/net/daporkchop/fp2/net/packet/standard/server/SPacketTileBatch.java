@@ -0,0 +1,271 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.net.packet.standard.server;
+
+import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.api.tile.TilePayloadCache;
+import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
+import net.daporkchop.fp2.util.Constants;
+import net.daporkchop.fp2.util.annotation.DebugOnly;
+import net.daporkchop.lib.compression.zstd.Zstd;
+import net.daporkchop.lib.compression.zstd.ZstdDeflateDictionary;
+import net.daporkchop.lib.compression.zstd.ZstdInflateDictionary;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.daporkchop.fp2.debug.FP2Debug.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Sends multiple tiles at once in a single Zstd frame.
+ * <p>
+ * If the jar contains a dictionary for the packet's render mode (at {@code assets/fp2/dict/<mode>.zdict}), it will be used to compress the frame. Dictionaries are
+ * trained offline by the {@code trainTileDictionaries} Gradle task, using tile samples dumped by a debug server started with {@code -Dfp2.debug.tileSamples=<dir>}.
+ * <p>
+ * Tiles whose payload the client already holds are only sent as a reference to the payload's hash, see {@link TilePayloadCache}. The server selects them using
+ * {@link #deduplicate(TilePayloadCache)}, and the client must resolve them using {@link #resolveReferences(TilePayloadCache)} before the tiles are used.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+@Setter
+public class SPacketTileBatch implements IMessage {
+    /**
+     * The maximum number of tiles which will be sent in a single batch.
+     */
+    public static final int MAX_TILES = 64;
+
+    /**
+     * The maximum size of a batch's uncompressed contents, in bytes. Frames which claim to be larger than this are rejected before anything is allocated.
+     */
+    public static final int MAX_UNCOMPRESSED_SIZE = 64 << 20;
+
+    /**
+     * The maximum combined size of the tile payloads in a single batch, in bytes. The rest of {@link #MAX_UNCOMPRESSED_SIZE} is left for the tiles' headers.
+     */
+    public static final int MAX_PAYLOAD_SIZE = MAX_UNCOMPRESSED_SIZE >> 1;
+
+    @DebugOnly
+    protected static final String SAMPLE_DIRECTORY = System.getProperty("fp2.debug.tileSamples");
+
+    protected static final Map<IFarRenderMode<?, ?>, Optional<Dictionary>> DICTIONARIES = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the Zstd dictionary used for tile batches of the given render mode.
+     *
+     * @param mode the render mode
+     * @return the dictionary, or an empty {@link Optional} if the jar doesn't contain a dictionary for the render mode
+     */
+    public static Optional<Dictionary> dictionary(@NonNull IFarRenderMode<?, ?> mode) {
+        return DICTIONARIES.computeIfAbsent(mode, Dictionary::load);
+    }
+
+    @NonNull
+    protected IFarRenderMode<?, ?> mode;
+    @NonNull
+    protected List<TileSnapshot<?, ?>> tiles;
+
+    /**
+     * The references to the payloads of the tiles which are sent as references, indexed in the same order as {@link #tiles}. An element is {@code null} if the tile
+     * is sent in full, the whole array is {@code null} if all the tiles are.
+     */
+    protected TilePayloadCache.Reference[] references;
+
+    /**
+     * Replaces the payloads which the client already holds with references.
+     *
+     * @param cache the server's mirror of the client's {@link TilePayloadCache}
+     * @return this packet
+     */
+    public SPacketTileBatch deduplicate(@NonNull TilePayloadCache cache) {
+        this.references = new TilePayloadCache.Reference[this.tiles.size()];
+        for (int i = 0; i < this.references.length; i++) {
+            this.references[i] = cache.reference(this.tiles.get(i));
+        }
+        return this;
+    }
+
+    /**
+     * Replaces the tiles which were received as references with the referenced payloads.
+     *
+     * @param cache the client's {@link TilePayloadCache}
+     */
+    public void resolveReferences(@NonNull TilePayloadCache cache) {
+        for (int i = 0; i < this.tiles.size(); i++) {
+            TileSnapshot<?, ?> tile = this.tiles.get(i);
+            TilePayloadCache.Reference reference = this.references != null ? this.references[i] : null;
+            if (reference != null) {
+                this.tiles.set(i, cache.resolve(tile.pos(), tile.timestamp(), reference));
+            } else {
+                cache.received(tile);
+            }
+        }
+        this.references = null;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.mode = IFarRenderMode.REGISTRY.get(Constants.readString(buf));
+        boolean hasDictionary = buf.readBoolean();
+
+        //the content size is read from the frame header, so it has to be validated before anything is allocated
+        int size = Zstd.PROVIDER.frameContentSize(buf);
+        checkArg(size >= 0 && size <= MAX_UNCOMPRESSED_SIZE, "invalid frame content size: %d (max %d)", size, MAX_UNCOMPRESSED_SIZE);
+
+        ByteBuf uncompressed = ByteBufAllocator.DEFAULT.buffer(size, size);
+        try {
+            //decompress tile data
+            if (hasDictionary) {
+                Dictionary dictionary = dictionary(this.mode).orElseThrow(() -> new IllegalStateException("no tile dictionary for render mode " + this.mode.name()));
+                checkState(ZSTD_INF.get().decompress(buf, uncompressed, dictionary.inflate));
+            } else {
+                checkState(ZSTD_INF.get().decompress(buf, uncompressed));
+            }
+
+            //read tiles
+            int count = Constants.readVarInt(uncompressed);
+            checkArg(count >= 0 && count <= MAX_TILES, "invalid tile count: %d (max %d)", count, MAX_TILES);
+            this.tiles = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                //check whether the tile was sent as a reference, otherwise read it normally
+                uncompressed.markReaderIndex();
+                IFarPos pos = this.mode.readPos(uncompressed);
+                long timestamp = uncompressed.readLongLE();
+                if (uncompressed.readIntLE() == TileSnapshot.LENGTH_REFERENCE) {
+                    if (this.references == null) {
+                        this.references = new TilePayloadCache.Reference[count];
+                    }
+                    this.references[i] = new TilePayloadCache.Reference(uncompressed.readLongLE(), uncompressed.readIntLE());
+                    this.tiles.add(new TileSnapshot<>(pos, timestamp, null)); //placeholder until the reference is resolved
+                } else {
+                    uncompressed.resetReaderIndex();
+                    this.tiles.add(new TileSnapshot<>(uncompressed, this.mode));
+                }
+            }
+        } finally {
+            uncompressed.release();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        ByteBuf uncompressed = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            //write all tiles into a single buffer
+            Constants.writeVarInt(uncompressed, this.tiles.size());
+            for (int i = 0; i < this.tiles.size(); i++) {
+                TilePayloadCache.Reference reference = this.references != null ? this.references[i] : null;
+                if (reference != null) {
+                    this.tiles.get(i).writeReference(uncompressed, reference);
+                } else {
+                    this.tiles.get(i).write(uncompressed);
+                }
+            }
+
+            if (FP2_DEBUG && SAMPLE_DIRECTORY != null) {
+                this.dumpSamples();
+            }
+
+            Optional<Dictionary> dictionary = dictionary(this.mode);
+            Constants.writeString(buf, this.mode.name());
+            buf.writeBoolean(dictionary.isPresent());
+
+            //compress the buffer directly into the packet
+            buf.ensureWritable(Zstd.PROVIDER.compressBound(uncompressed.readableBytes()));
+            if (dictionary.isPresent()) {
+                checkState(ZSTD_DEF.get().compress(uncompressed, buf, dictionary.get().deflate));
+            } else {
+                checkState(ZSTD_DEF.get().compress(uncompressed, buf));
+            }
+        } finally {
+            uncompressed.release();
+        }
+    }
+
+    @DebugOnly
+    protected void dumpSamples() {
+        Path directory = Paths.get(SAMPLE_DIRECTORY, this.mode.name());
+        ByteBuf sample = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            Files.createDirectories(directory);
+
+            for (TileSnapshot<?, ?> tile : this.tiles) {
+                sample.clear();
+                tile.write(sample);
+
+                try (OutputStream out = Files.newOutputStream(directory.resolve(String.format("%016x.bin", System.nanoTime())))) {
+                    sample.readBytes(out, sample.readableBytes());
+                }
+            }
+        } catch (IOException e) {
+            FP2_LOG.warn("unable to dump tile samples to {}", directory, e);
+        } finally {
+            sample.release();
+        }
+    }
+
+    /**
+     * A pre-digested Zstd dictionary for a single render mode.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    public static final class Dictionary {
+        protected static Optional<Dictionary> load(@NonNull IFarRenderMode<?, ?> mode) {
+            try (InputStream in = SPacketTileBatch.class.getResourceAsStream("/assets/fp2/dict/" + mode.name() + ".zdict")) {
+                if (in == null) { //no dictionary is bundled for this render mode
+                    return Optional.empty();
+                }
+
+                ByteBuf data = Unpooled.wrappedBuffer(ByteStreams.toByteArray(in));
+                return Optional.of(new Dictionary(Zstd.PROVIDER.loadDeflateDictionary(data.slice()), Zstd.PROVIDER.loadInflateDictionary(data.slice())));
+            } catch (IOException e) {
+                throw new IllegalStateException("unable to load tile dictionary for render mode " + mode.name(), e);
+            }
+        }
+
+        //these are never released, since they're kept around for the lifetime of the game
+        @NonNull
+        protected final ZstdDeflateDictionary deflate;
+        @NonNull
+        protected final ZstdInflateDictionary inflate;
+    }
+}
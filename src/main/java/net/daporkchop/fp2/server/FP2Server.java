@@ -25,6 +25,7 @@ import net.daporkchop.fp2.config.FP2Config;
 import net.daporkchop.fp2.config.listener.ConfigListenerManager;
 import net.daporkchop.fp2.mode.api.IFarRenderMode;
 import net.daporkchop.fp2.mode.api.player.IFarPlayerServer;
+import net.daporkchop.fp2.server.command.FP2Command;
 import net.daporkchop.fp2.util.Constants;
 import net.daporkchop.lib.common.system.PlatformInfo;
 import net.daporkchop.lib.compression.zstd.Zstd;
@@ -34,6 +35,7 @@ import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
 
 import static net.daporkchop.fp2.util.Constants.*;
 
@@ -81,4 +83,11 @@ public class FP2Server {
     public void postInit() {
         PUnsafe.ensureClassInitialized(IFarRenderMode.class);
     }
+
+    /**
+     * Called during {@link FMLServerStartingEvent}.
+     */
+    public void serverStarting(FMLServerStartingEvent event) {
+        event.registerServerCommand(new FP2Command());
+    }
 }
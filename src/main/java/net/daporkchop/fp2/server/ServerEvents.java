@@ -27,6 +27,7 @@ import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
 import net.daporkchop.fp2.mode.api.player.IFarPlayerServer;
 import net.daporkchop.fp2.net.packet.standard.server.SPacketHandshake;
 import net.daporkchop.fp2.server.worldlistener.WorldChangeListenerManager;
+import net.daporkchop.fp2.util.threading.scheduler.FairShareWorkerPool;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.text.TextComponentTranslation;
 import net.minecraftforge.common.MinecraftForge;
@@ -51,6 +52,8 @@ import static net.daporkchop.lib.common.util.PValidation.*;
 public class ServerEvents {
     private boolean REGISTERED = false;
 
+    private long TICK_START_TIME = -1L;
+
     public synchronized void register() {
         checkState(!REGISTERED, "already registered!");
         REGISTERED = true;
@@ -108,6 +111,15 @@ public class ServerEvents {
         }
     }
 
+    @SubscribeEvent
+    public void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.START) {
+            TICK_START_TIME = System.nanoTime();
+        } else if (TICK_START_TIME >= 0L) { //the start of the first tick could have been missed if we were registered mid-tick
+            FairShareWorkerPool.globalTickCompleted(System.nanoTime() - TICK_START_TIME);
+        }
+    }
+
     @SubscribeEvent
     public void onWorldTickEnd(TickEvent.WorldTickEvent event) {
         if (!event.world.isRemote && event.phase == TickEvent.Phase.END) {
@@ -0,0 +1,278 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.server.command;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.api.ctx.IFarWorldServer;
+import net.daporkchop.fp2.mode.common.server.AbstractFarTileProvider;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenTask;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentTranslation;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.DimensionManager;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.FP2.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.fp2.util.math.MathUtil.*;
+
+/**
+ * The {@code /fp2} server command.
+ * <p>
+ * Subcommands:
+ * <ul>
+ *     <li>{@code /fp2 pregen <mode> <dimension> <radius> [maxLevel]}: starts (or resumes) pregenerating all tiles within the given radius around the world spawn</li>
+ *     <li>{@code /fp2 pregen stop <mode> <dimension>}: stops pregeneration, saving its progress</li>
+ *     <li>{@code /fp2 pregen status}: reports the progress of all running pregeneration tasks</li>
+ *     <li>{@code /fp2 export <mode> <dimension> <name> [<minLevel> <maxLevel> [<minX> <minZ> <maxX> <maxZ>]]}: exports the tiles at the given detail levels within
+ *     the given block coordinates (inclusive) into {@code fp2/exports/<mode>/<name>}</li>
+ *     <li>{@code /fp2 import <mode> <dimension> <name>}: imports the tiles from {@code fp2/exports/<mode>/<name>}, keeping existing tiles which are newer</li>
+ * </ul>
+ *
+ * @author DaPorkchop_
+ */
+public class FP2Command extends CommandBase {
+    protected static final Pattern EXPORT_NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]+");
+
+    protected static String formatDuration(long seconds) {
+        if (seconds < 0L) {
+            return "?";
+        }
+        return String.format("%d:%02d:%02d", seconds / 3600L, (seconds / 60L) % 60L, seconds % 60L);
+    }
+
+    protected static IFarRenderMode<?, ?> parseMode(@NonNull String name) throws CommandException {
+        return IFarRenderMode.REGISTRY.stream()
+                .filter(entry -> entry.getKey().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new CommandException(MODID + ".command.pregen.unknownMode", name, IFarRenderMode.REGISTRY.nameStream().collect(Collectors.joining(", "))))
+                .getValue();
+    }
+
+    protected static AbstractFarTileProvider<?, ?> parseTileProvider(@NonNull MinecraftServer server, @NonNull String modeName, @NonNull String dimensionName) throws CommandException {
+        IFarRenderMode<?, ?> mode = parseMode(modeName);
+        int dimension = parseInt(dimensionName);
+
+        if (!DimensionManager.isDimensionRegistered(dimension)) {
+            throw new CommandException(MODID + ".command.pregen.unknownDimension", dimension);
+        }
+        WorldServer world = server.getWorld(dimension);
+        return (AbstractFarTileProvider<?, ?>) ((IFarWorldServer) world).fp2_IFarWorldServer_tileProviderFor(mode);
+    }
+
+    protected static String parseExportName(@NonNull String name) throws CommandException {
+        if (!EXPORT_NAME_PATTERN.matcher(name).matches()) { //don't allow escaping from the exports directory
+            throw new CommandException(MODID + ".command.export.invalidName", name);
+        }
+        return name;
+    }
+
+    protected static IntAxisAlignedBB[] parseTileLimits(@NonNull String minXName, @NonNull String minZName, @NonNull String maxXName, @NonNull String maxZName) throws CommandException {
+        int x0 = parseInt(minXName);
+        int z0 = parseInt(minZName);
+        int x1 = parseInt(maxXName);
+        int z1 = parseInt(maxZName);
+
+        //convert the block coordinates to tile coordinates at every level. tiles which only partially overlap the bounds are included
+        return IntStream.range(0, MAX_LODS)
+                .mapToObj(lvl -> new IntAxisAlignedBB(
+                        asrFloor(min(x0, x1), T_SHIFT + lvl), Integer.MIN_VALUE, asrFloor(min(z0, z1), T_SHIFT + lvl),
+                        asrFloor(max(x0, x1), T_SHIFT + lvl), Integer.MAX_VALUE, asrFloor(max(z0, z1), T_SHIFT + lvl)))
+                .toArray(IntAxisAlignedBB[]::new);
+    }
+
+    @Override
+    public String getName() {
+        return MODID;
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender) {
+        return MODID + ".command.usage";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel() {
+        return 4;
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+        if (args.length >= 1 && "pregen".equals(args[0])) {
+            this.pregen(server, sender, Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length >= 1 && "export".equals(args[0])) {
+            this.export(server, sender, Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length >= 1 && "import".equals(args[0])) {
+            this.importTiles(server, sender, Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            throw new WrongUsageException(this.getUsage(sender));
+        }
+    }
+
+    protected void pregen(@NonNull MinecraftServer server, @NonNull ICommandSender sender, @NonNull String[] args) throws CommandException {
+        if (args.length == 1 && "status".equals(args[0])) {
+            this.pregenStatus(server, sender);
+        } else if (args.length == 3 && "stop".equals(args[0])) {
+            AbstractFarTileProvider<?, ?> tileProvider = parseTileProvider(server, args[1], args[2]);
+
+            CompletableFuture<Void> stopped = tileProvider.stopPregen();
+            if (stopped == null) {
+                throw new CommandException(MODID + ".command.pregen.notRunning");
+            }
+            stopped.thenRun(() -> server.addScheduledTask(() -> notifyCommandListener(sender, this, MODID + ".command.pregen.stopped")));
+        } else if (args.length == 3 || args.length == 4) {
+            AbstractFarTileProvider<?, ?> tileProvider = parseTileProvider(server, args[0], args[1]);
+            int radius = parseInt(args[2], 0, 30_000_000);
+            int maxLevel = args.length == 4 ? parseInt(args[3], 0, MAX_LODS - 1) : MAX_LODS - 1;
+
+            if (tileProvider.pregenTask() != null && tileProvider.pregenTask().running()) {
+                throw new CommandException(MODID + ".command.pregen.alreadyRunning");
+            }
+
+            PregenTask<?> task = tileProvider.startPregen(radius, maxLevel);
+            BlockPos spawn = tileProvider.world().getSpawnPoint();
+            notifyCommandListener(sender, this, MODID + (task.resumed() ? ".command.pregen.resumed" : ".command.pregen.started"),
+                    task.name(), task.totalTiles(), radius, spawn.getX(), spawn.getZ(), task.tilesDone());
+        } else {
+            throw new WrongUsageException(MODID + ".command.pregen.usage");
+        }
+    }
+
+    protected void pregenStatus(@NonNull MinecraftServer server, @NonNull ICommandSender sender) {
+        boolean[] any = new boolean[1];
+        for (WorldServer world : server.worlds) {
+            ((IFarWorldServer) world).fp2_IFarWorldServer_forEachTileProvider(tileProvider -> {
+                PregenTask<?> task = ((AbstractFarTileProvider<?, ?>) tileProvider).pregenTask();
+                if (task != null && task.running()) {
+                    any[0] = true;
+                    sender.sendMessage(new TextComponentTranslation(MODID + ".command.pregen.status",
+                            task.name(), task.tilesDone(), task.totalTiles(), String.format("%.1f", task.tilesDone() * 100.0d / Math.max(task.totalTiles(), 1L)),
+                            task.currentLevel(), String.format("%.1f", task.tilesPerSecond()), formatDuration(task.etaSeconds())));
+                }
+            });
+        }
+
+        if (!any[0]) {
+            sender.sendMessage(new TextComponentTranslation(MODID + ".command.pregen.noneRunning"));
+        }
+    }
+
+    protected void export(@NonNull MinecraftServer server, @NonNull ICommandSender sender, @NonNull String[] args) throws CommandException {
+        if (args.length != 3 && args.length != 5 && args.length != 9) {
+            throw new WrongUsageException(MODID + ".command.export.usage");
+        }
+
+        AbstractFarTileProvider<?, ?> tileProvider = parseTileProvider(server, args[0], args[1]);
+        String name = parseExportName(args[2]);
+        int minLevel = args.length >= 5 ? parseInt(args[3], 0, MAX_LODS - 1) : 0;
+        int maxLevel = args.length >= 5 ? parseInt(args[4], minLevel, MAX_LODS - 1) : MAX_LODS - 1;
+        IntAxisAlignedBB[] tileLimits = args.length == 9 ? parseTileLimits(args[5], args[6], args[7], args[8]) : null;
+
+        File directory = tileProvider.exportDirectory(name);
+        if (directory.exists()) {
+            throw new CommandException(MODID + ".command.export.exists", name);
+        }
+
+        notifyCommandListener(sender, this, MODID + ".command.export.started", name);
+        this.runTransfer(server, sender, "export", name,
+                () -> tileProvider.storage().exportTiles(directory, minLevel, maxLevel, pos -> tileLimits == null || pos.containedBy(tileLimits)));
+    }
+
+    protected void importTiles(@NonNull MinecraftServer server, @NonNull ICommandSender sender, @NonNull String[] args) throws CommandException {
+        if (args.length != 3) {
+            throw new WrongUsageException(MODID + ".command.import.usage");
+        }
+
+        AbstractFarTileProvider<?, ?> tileProvider = parseTileProvider(server, args[0], args[1]);
+        String name = parseExportName(args[2]);
+
+        File directory = tileProvider.exportDirectory(name);
+        if (!directory.isDirectory()) {
+            throw new CommandException(MODID + ".command.import.notFound", name);
+        }
+
+        notifyCommandListener(sender, this, MODID + ".command.import.started", name);
+        this.runTransfer(server, sender, "import", name, () -> tileProvider.storage().importTiles(directory));
+    }
+
+    /**
+     * Runs a tile export or import on a separate thread, and notifies the sender once it's complete.
+     */
+    protected void runTransfer(@NonNull MinecraftServer server, @NonNull ICommandSender sender, @NonNull String operation, @NonNull String name, @NonNull Callable<Long> action) {
+        PThreadFactories.builder().daemon().name(PStrings.fastFormat("FP2 tile %s '%s'", operation, name)).build().newThread(() -> {
+            try {
+                long tiles = action.call();
+                server.addScheduledTask(() -> notifyCommandListener(sender, this, MODID + ".command." + operation + ".done", tiles, name));
+            } catch (Exception e) {
+                FP2_LOG.error(PStrings.fastFormat("tile %s '%s' failed", operation, name), e);
+                server.addScheduledTask(() -> notifyCommandListener(sender, this, MODID + ".command." + operation + ".failed", name, String.valueOf(e)));
+            }
+        }).start();
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, BlockPos targetPos) {
+        if (args.length == 1) {
+            return getListOfStringsMatchingLastWord(args, "pregen", "export", "import");
+        } else if (args.length >= 2 && "pregen".equals(args[0])) {
+            boolean stop = args.length > 2 && "stop".equals(args[1]);
+            int index = stop ? args.length - 3 : args.length - 2;
+
+            if (index == -1) {
+                return Collections.emptyList();
+            } else if (index == 0) { //mode
+                List<String> options = IFarRenderMode.REGISTRY.nameStream().collect(Collectors.toList());
+                if (args.length == 2) {
+                    options.add("stop");
+                    options.add("status");
+                }
+                return getListOfStringsMatchingLastWord(args, options);
+            } else if (index == 1) { //dimension
+                return getListOfStringsMatchingLastWord(args, Arrays.stream(DimensionManager.getIDs()).map(String::valueOf).collect(Collectors.toList()));
+            }
+        } else if (args.length >= 2 && ("export".equals(args[0]) || "import".equals(args[0]))) {
+            if (args.length == 2) { //mode
+                return getListOfStringsMatchingLastWord(args, IFarRenderMode.REGISTRY.nameStream().collect(Collectors.toList()));
+            } else if (args.length == 3) { //dimension
+                return getListOfStringsMatchingLastWord(args, Arrays.stream(DimensionManager.getIDs()).map(String::valueOf).collect(Collectors.toList()));
+            }
+        }
+        return Collections.emptyList();
+    }
+}
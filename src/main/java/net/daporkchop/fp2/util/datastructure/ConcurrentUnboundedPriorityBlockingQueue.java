@@ -17,10 +17,11 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  *
  */
-
 package net.daporkchop.fp2.util.datastructure;
 
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.lib.common.util.PorkUtil;
 
 import java.util.AbstractQueue;
 import java.util.Collection;
@@ -28,29 +29,41 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
-
-import static java.util.Objects.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Alternative to {@link UnboundedPriorityBlockingQueue} with better performance under high concurrency.
+ * <p>
+ * In addition to the usual {@link BlockingQueue} operations, threads may wait for an element which is strictly less than a given bound using
+ * {@link #pollLess(Object, long, TimeUnit)}. Waiting threads are kept sorted by their bound, so adding an element only wakes up the threads which are actually able
+ * to take it: threads waiting for an element less than some bound are never woken by the addition of an element greater than or equal to the bound.
  *
  * @author DaPorkchop_
  */
 public class ConcurrentUnboundedPriorityBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
-    protected final Semaphore lock = new Semaphore(0);
     protected final NavigableMap<E, Boolean> map;
+    protected final AtomicInteger size = new AtomicInteger();
+
+    protected final Comparator<? super E> comparator;
+    protected final NavigableSet<Waiter> waiters = new ConcurrentSkipListSet<>();
+    protected final AtomicLong waiterIds = new AtomicLong();
 
     public ConcurrentUnboundedPriorityBlockingQueue() {
         this.map = new ConcurrentSkipListMap<>();
+        this.comparator = (a, b) -> PorkUtil.<Comparable<? super E>>uncheckedCast(a).compareTo(b);
     }
 
     public ConcurrentUnboundedPriorityBlockingQueue(@NonNull Comparator<E> comparator) {
         this.map = new ConcurrentSkipListMap<>(comparator);
+        this.comparator = comparator;
     }
 
     @Override
@@ -65,7 +78,7 @@ public class ConcurrentUnboundedPriorityBlockingQueue<E> extends AbstractQueue<E
 
     @Override
     public int size() {
-        return this.lock.availablePermits();
+        return Math.max(this.size.get(), 0);
     }
 
     @Override
@@ -74,9 +87,10 @@ public class ConcurrentUnboundedPriorityBlockingQueue<E> extends AbstractQueue<E
     }
 
     @Override
-    public boolean add(E e) {
+    public boolean add(@NonNull E e) {
         if (this.map.putIfAbsent(e, Boolean.TRUE) == null) {
-            this.lock.release();
+            this.size.incrementAndGet();
+            this.signal(e);
             return true;
         } else {
             return false;
@@ -85,29 +99,36 @@ public class ConcurrentUnboundedPriorityBlockingQueue<E> extends AbstractQueue<E
 
     @Override
     public boolean remove(Object o) {
-        if (this.lock.tryAcquire()) {
-            if (this.map.remove(o, Boolean.TRUE)) {
-                return true;
-            }
-            this.lock.release();
+        if (this.map.remove(o, Boolean.TRUE)) {
+            this.size.decrementAndGet();
+            return true;
+        } else {
+            return false;
         }
-        return false;
     }
 
     @Override
     public E poll() {
-        return this.lock.tryAcquire() ? requireNonNull(this.map.pollFirstEntry().getKey()) : null;
+        return this.pollBefore(null);
     }
 
     @Override
     public E poll(long timeout, TimeUnit unit) throws InterruptedException {
-        return this.lock.tryAcquire(timeout, unit) ? requireNonNull(this.map.pollFirstEntry().getKey()) : null;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E value;
+        do {
+            value = this.await(null, deadline);
+        } while (value == null && deadline - System.nanoTime() > 0L);
+        return value;
     }
 
     @Override
     public E take() throws InterruptedException {
-        this.lock.acquire();
-        return this.map.pollFirstEntry().getKey();
+        E value;
+        do {
+            value = this.await(null, System.nanoTime() + Long.MAX_VALUE);
+        } while (value == null);
+        return value;
     }
 
     @Override
@@ -154,16 +175,133 @@ public class ConcurrentUnboundedPriorityBlockingQueue<E> extends AbstractQueue<E
 
     //custom methods
 
+    /**
+     * Retrieves and removes the first element which is strictly less than the given bound, if any.
+     *
+     * @param curr the bound
+     * @return the first element less than {@code curr}, or {@code null} if there is none
+     */
     public E pollLess(@NonNull E curr) {
-        if (this.lock.tryAcquire()) {
-            Map.Entry<E, Boolean> entry = ((NavigableMap<E, Boolean>) this.map.headMap(curr)).pollFirstEntry();
-            if (entry != null) {
-                return entry.getKey();
+        return this.pollBefore(curr);
+    }
+
+    /**
+     * Retrieves and removes the first element which is strictly less than the given bound, waiting for one to be added if necessary.
+     * <p>
+     * The calling thread will only be woken up by the addition of an element less than {@code curr}. As with {@link LockSupport#park()}, this method may also
+     * return {@code null} before the timeout has elapsed if the calling thread is unparked by some other means, allowing callers to wait on an additional condition
+     * by unparking the waiting thread once it becomes true. Callers should therefore always re-check their own condition in a loop.
+     *
+     * @param curr    the bound
+     * @param timeout the maximum amount of time to wait
+     * @param unit    the {@link TimeUnit} of {@code timeout}
+     * @return the first element less than {@code curr}, or {@code null} if none became available
+     */
+    public E pollLess(@NonNull E curr, long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return this.await(curr, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    protected E pollBefore(E bound) {
+        Map.Entry<E, Boolean> entry = bound == null
+                ? this.map.pollFirstEntry()
+                : ((NavigableMap<E, Boolean>) this.map.headMap(bound)).pollFirstEntry();
+        if (entry != null) {
+            this.size.decrementAndGet();
+            return entry.getKey();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for an element less than the given bound (or any element, if the bound is {@code null}) until the given deadline, returning early if the thread is
+     * woken up without having been signalled.
+     */
+    protected E await(E bound, long deadline) throws InterruptedException {
+        Waiter waiter = new Waiter(bound, Thread.currentThread(), this.waiterIds.getAndIncrement());
+        boolean signalled = false;
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                //register before polling: any element added after this point will find us in the waiter map and signal us, so no wakeups can be lost
+                this.waiters.add(waiter);
+
+                E value = this.pollBefore(bound);
+                long remaining = deadline - System.nanoTime();
+                if (value != null || remaining <= 0L) {
+                    return value;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+                //if we're still registered, we were woken up by something other than an added element
+                if (this.waiters.contains(waiter)) {
+                    return null;
+                }
+                signalled = true;
+            }
+        } finally {
+            if (!this.waiters.remove(waiter) || signalled) {
+                //we consumed a signal, but we may have ended up taking a different element than the one which we were signalled for (or none at all).
+                //  pass the signal on to make sure no other waiter is left sleeping while there's an element it could take.
+                E first = this.peek();
+                if (first != null) {
+                    this.signal(first);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up the threads which are waiting for an element which the given element could satisfy.
+     * <p>
+     * All threads waiting for an element less than some bound greater than {@code e} are woken, but only one of the threads waiting for any element is woken, since
+     * those are all interchangeable.
+     */
+    protected void signal(@NonNull E e) {
+        for (Waiter waiter : this.waiters.tailSet(new Waiter(e, null, Long.MAX_VALUE), false)) {
+            if (this.waiters.remove(waiter)) { //we claimed the waiter, wake it up
+                this.unpark(waiter.thread);
+
+                if (waiter.bound == null) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up a thread which was waiting for an element.
+     *
+     * @param thread the thread
+     */
+    protected void unpark(@NonNull Thread thread) {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * A thread waiting for an element which is less than a given bound.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected class Waiter implements Comparable<Waiter> {
+        protected final E bound; //null if the thread is waiting for any element
+        protected final Thread thread;
+        protected final long id;
+
+        @Override
+        public int compareTo(Waiter o) {
+            int d;
+            if (this.bound == null || o.bound == null) { //threads which are waiting for any element are sorted after all others
+                d = Boolean.compare(this.bound == null, o.bound == null);
             } else {
-                this.lock.release();
-                return null;
+                d = ConcurrentUnboundedPriorityBlockingQueue.this.comparator.compare(this.bound, o.bound);
             }
+            return d != 0 ? d : Long.compare(this.id, o.id);
         }
-        return null;
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.math;
+
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Implementation of the 64-bit variant of xxHash.
+ * <p>
+ * This is used for content-addressing tile payloads, both in storage and on the wire. It's not a cryptographic hash, but is fast enough to be computed for every
+ * tile which is written or sent without it showing up in profiles.
+ *
+ * @author DaPorkchop_
+ * @see <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">xxHash specification</a>
+ */
+@UtilityClass
+public class XXHash64 {
+    private final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private final long PRIME_3 = 0x165667B19E3779F9L;
+    private final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * Hashes the given bytes using a seed of {@code 0}.
+     *
+     * @param data the bytes to hash
+     * @return the hash
+     */
+    public long hash(@NonNull byte[] data) {
+        return hash(data, 0, data.length, 0L);
+    }
+
+    /**
+     * Hashes the given range of bytes.
+     *
+     * @param data   the array containing the bytes to hash
+     * @param offset the index of the first byte to hash
+     * @param length the number of bytes to hash
+     * @param seed   the seed
+     * @return the hash
+     */
+    public long hash(@NonNull byte[] data, int offset, int length, long seed) {
+        checkRangeLen(data.length, offset, length);
+        int end = offset + length;
+        long h;
+
+        if (length >= 32) { //process the input in 32-byte stripes using four independent accumulators
+            long v1 = seed + PRIME_1 + PRIME_2;
+            long v2 = seed + PRIME_2;
+            long v3 = seed;
+            long v4 = seed - PRIME_1;
+
+            for (int limit = end - 32; offset <= limit; offset += 32) {
+                v1 = round(v1, readLongLE(data, offset));
+                v2 = round(v2, readLongLE(data, offset + 8));
+                v3 = round(v3, readLongLE(data, offset + 16));
+                v4 = round(v4, readLongLE(data, offset + 24));
+            }
+
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + PRIME_5;
+        }
+
+        h += length;
+
+        //consume the remaining bytes
+        for (; offset + 8 <= end; offset += 8) {
+            h ^= round(0L, readLongLE(data, offset));
+            h = Long.rotateLeft(h, 27) * PRIME_1 + PRIME_4;
+        }
+        if (offset + 4 <= end) {
+            h ^= (readIntLE(data, offset) & 0xFFFFFFFFL) * PRIME_1;
+            h = Long.rotateLeft(h, 23) * PRIME_2 + PRIME_3;
+            offset += 4;
+        }
+        for (; offset < end; offset++) {
+            h ^= (data[offset] & 0xFFL) * PRIME_5;
+            h = Long.rotateLeft(h, 11) * PRIME_1;
+        }
+
+        //final avalanche
+        h ^= h >>> 33L;
+        h *= PRIME_2;
+        h ^= h >>> 29L;
+        h *= PRIME_3;
+        h ^= h >>> 32L;
+        return h;
+    }
+
+    private long round(long acc, long input) {
+        acc += input * PRIME_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME_1;
+    }
+
+    private long mergeRound(long acc, long val) {
+        acc ^= round(0L, val);
+        return acc * PRIME_1 + PRIME_4;
+    }
+
+    private long readLongLE(byte[] data, int offset) {
+        return (readIntLE(data, offset) & 0xFFFFFFFFL) | ((long) readIntLE(data, offset + 4) << 32L);
+    }
+
+    private int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+}
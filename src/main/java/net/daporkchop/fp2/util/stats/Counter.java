@@ -0,0 +1,73 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.stats;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A monotonically increasing counter.
+ *
+ * @author DaPorkchop_
+ */
+public final class Counter extends Metric {
+    private final LongAdder value = new LongAdder();
+
+    Counter(@NonNull String name, @NonNull String help, @NonNull String labels) {
+        super(name, help, labels);
+    }
+
+    /**
+     * Increments this counter by {@code 1}.
+     */
+    public void inc() {
+        this.value.increment();
+    }
+
+    /**
+     * Increments this counter by the given amount.
+     *
+     * @param amount the amount to increment by. Must not be negative
+     */
+    public void add(long amount) {
+        this.value.add(notNegative(amount, "amount"));
+    }
+
+    /**
+     * @return this counter's current value
+     */
+    public long get() {
+        return this.value.sum();
+    }
+
+    @Override
+    public String type() {
+        return "counter";
+    }
+
+    @Override
+    public void writeSamples(@NonNull Appendable out) throws IOException {
+        this.writeSample(out, "", "", this.get());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.stats;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A value which may go up and down.
+ * <p>
+ * A gauge is either set explicitly, or is backed by a {@link LongSupplier} which is sampled whenever the gauge is read. Supplier-backed gauges are preferred where
+ * possible, since they cost nothing until the metrics are exported.
+ *
+ * @author DaPorkchop_
+ */
+public final class Gauge extends Metric {
+    private final AtomicLong value = new AtomicLong();
+    private final LongSupplier supplier; //null if the gauge is set explicitly
+
+    Gauge(@NonNull String name, @NonNull String help, @NonNull String labels, LongSupplier supplier) {
+        super(name, help, labels);
+
+        this.supplier = supplier;
+    }
+
+    /**
+     * Sets this gauge's value.
+     *
+     * @param value the new value
+     * @throws IllegalStateException if this gauge is backed by a {@link LongSupplier}
+     */
+    public void set(long value) {
+        checkState(this.supplier == null, "gauge %s%s is backed by a supplier", this.name, this.labels);
+        this.value.set(value);
+    }
+
+    /**
+     * Adds the given amount to this gauge's value.
+     *
+     * @param amount the amount to add (may be negative)
+     * @throws IllegalStateException if this gauge is backed by a {@link LongSupplier}
+     */
+    public void add(long amount) {
+        checkState(this.supplier == null, "gauge %s%s is backed by a supplier", this.name, this.labels);
+        this.value.addAndGet(amount);
+    }
+
+    /**
+     * @return this gauge's current value
+     */
+    public long get() {
+        return this.supplier != null ? this.supplier.getAsLong() : this.value.get();
+    }
+
+    @Override
+    public String type() {
+        return "gauge";
+    }
+
+    @Override
+    public void writeSamples(@NonNull Appendable out) throws IOException {
+        this.writeSample(out, "", "", this.get());
+    }
+}
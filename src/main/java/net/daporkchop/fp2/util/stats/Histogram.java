@@ -0,0 +1,202 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.stats;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A histogram of non-negative {@code long} values (typically durations in nanoseconds, or sizes in bytes) with a fixed relative error, in the style of HdrHistogram.
+ * <p>
+ * Values below {@code 64} are counted exactly. Larger values are counted in log-linear buckets: each power of two is split into {@code 32} equally sized sub-buckets, so any
+ * recorded value can be reconstructed with a relative error of at most {@code 1/64} (about {@code 1.6%}). Values larger than {@link #MAX_TRACKABLE_VALUE} are clamped
+ * (although {@link #max()} and {@link #sum()} remain exact).
+ * <p>
+ * Recording a value is lock-free and wait-free (apart from updating the maximum), and costs a few atomic increments. Reading quantiles while values are concurrently being
+ * recorded is safe, but the result may not reflect a consistent point in time.
+ *
+ * @author DaPorkchop_
+ */
+public final class Histogram extends Metric {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+
+    /**
+     * The largest value which can be tracked without being clamped. About {@code 4.9} hours, if the histogram is recording nanoseconds.
+     */
+    public static final long MAX_TRACKABLE_VALUE = (1L << 44L) - 1L;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    /**
+     * The quantiles which are written when exporting.
+     */
+    private static final double[] EXPORTED_QUANTILES = { 0.5d, 0.9d, 0.99d, 0.999d };
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) { //small values are counted exactly
+            return (int) value;
+        }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_HALF_BITS;
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    static long bucketLowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index >>> SUB_BUCKET_HALF_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_HALF_BITS)) << shift;
+    }
+
+    static long bucketWidth(int index) {
+        return index < SUB_BUCKET_COUNT ? 1L : 1L << ((index >>> SUB_BUCKET_HALF_BITS) - 1);
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * The factor by which values are multiplied when exporting (e.g. {@code 1.0e-9d} to export nanoseconds as seconds).
+     */
+    @Getter
+    private final double exportScale;
+
+    Histogram(@NonNull String name, @NonNull String help, @NonNull String labels, double exportScale) {
+        super(name, help, labels);
+
+        this.exportScale = exportScale;
+    }
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value. Must not be negative
+     */
+    public void record(long value) {
+        notNegative(value, "value");
+
+        this.buckets.incrementAndGet(bucketIndex(min(value, MAX_TRACKABLE_VALUE)));
+        this.count.increment();
+        this.sum.add(value);
+
+        for (long max; value > (max = this.max.get()) && !this.max.compareAndSet(max, value); ) {
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} timestamp.
+     *
+     * @param startNanos the start time, as returned by {@link System#nanoTime()}
+     * @return the current {@link System#nanoTime()}, for convenience when timing multiple consecutive operations
+     */
+    public long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        this.record(Math.max(now - startNanos, 0L));
+        return now;
+    }
+
+    /**
+     * @return the number of values recorded so far
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the sum of all values recorded so far
+     */
+    public long sum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return the largest value recorded so far, or {@code 0L} if no values have been recorded
+     */
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the arithmetic mean of all values recorded so far, or {@code 0.0d} if no values have been recorded
+     */
+    public double mean() {
+        long count = this.count();
+        return count != 0L ? (double) this.sum() / count : 0.0d;
+    }
+
+    /**
+     * Estimates the value at the given quantile.
+     * <p>
+     * The result is the midpoint of the bucket containing the requested rank, and is therefore within {@code 1/64} of a value which was actually recorded.
+     *
+     * @param quantile the quantile, in range {@code [0, 1]}
+     * @return the estimated value at the given quantile, or {@code 0L} if no values have been recorded
+     */
+    public long valueAtQuantile(double quantile) {
+        checkArg(quantile >= 0.0d && quantile <= 1.0d, "quantile must be in range [0, 1] (given: %s)", quantile);
+
+        //take a snapshot of the buckets first, so that the total count is consistent with the bucket contents
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += snapshot[i] = this.buckets.get(i);
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long rank = Math.max((long) ceil(quantile * total), 1L);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if ((rank -= snapshot[i]) <= 0L) {
+                long value = bucketLowestValue(i) + (bucketWidth(i) >> 1L);
+                return min(value, this.max()); //the maximum is exact, so it's always a tighter bound
+            }
+        }
+        return this.max();
+    }
+
+    @Override
+    public String type() {
+        return "summary";
+    }
+
+    @Override
+    public void writeSamples(@NonNull Appendable out) throws IOException {
+        for (double quantile : EXPORTED_QUANTILES) {
+            this.writeSample(out, "", "quantile=\"" + quantile + '"', this.valueAtQuantile(quantile) * this.exportScale);
+        }
+        this.writeSample(out, "_sum", "", this.sum() * this.exportScale);
+        this.writeSample(out, "_count", "", this.count());
+    }
+}
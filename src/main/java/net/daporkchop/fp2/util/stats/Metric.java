@@ -0,0 +1,92 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.stats;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+
+/**
+ * Base class for a single named metric (with a fixed set of labels) in a {@link MetricsRegistry}.
+ * <p>
+ * All implementations are lock-free and may be updated concurrently from any number of threads.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+public abstract class Metric {
+    /**
+     * The metric's name. Multiple metrics may share the same name as long as their labels differ.
+     */
+    @NonNull
+    protected final String name;
+
+    /**
+     * A human-readable description of the metric.
+     */
+    @NonNull
+    protected final String help;
+
+    /**
+     * The metric's labels, already formatted in the Prometheus text format (e.g. {@code {stage="LOAD",level="0"}}). Empty if the metric has no labels.
+     */
+    @NonNull
+    protected final String labels;
+
+    /**
+     * @return the metric type name used in the Prometheus text format
+     */
+    public abstract String type();
+
+    /**
+     * Writes this metric's samples in the Prometheus text format.
+     * <p>
+     * Only the sample lines are written, the {@code # HELP} and {@code # TYPE} lines are written by {@link MetricsRegistry}.
+     *
+     * @param out the {@link Appendable} to write to
+     */
+    public abstract void writeSamples(@NonNull Appendable out) throws IOException;
+
+    protected void writeSample(@NonNull Appendable out, @NonNull String suffix, @NonNull String extraLabel, double value) throws IOException {
+        out.append(this.name).append(suffix);
+
+        if (!this.labels.isEmpty() || !extraLabel.isEmpty()) {
+            out.append('{');
+            if (!this.labels.isEmpty()) {
+                out.append(this.labels, 1, this.labels.length() - 1);
+                if (!extraLabel.isEmpty()) {
+                    out.append(',');
+                }
+            }
+            out.append(extraLabel).append('}');
+        }
+
+        out.append(' ');
+        if (value == (long) value) {
+            out.append(Long.toString((long) value));
+        } else {
+            out.append(Double.toString(value));
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.stats;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+import static net.daporkchop.lib.common.util.PorkUtil.*;
+
+/**
+ * A collection of {@link Metric}s which can be exported together.
+ * <p>
+ * Metrics are identified by their name and labels. Requesting a metric which already exists returns the existing instance, so callers on hot paths should look their
+ * metrics up once and keep a reference to them.
+ * <p>
+ * Labels are given as alternating key-value pairs (e.g. {@code "stage", "LOAD", "level", "0"}). A registry may also have a set of constant labels which are added to every
+ * metric it contains.
+ *
+ * @author DaPorkchop_
+ */
+public class MetricsRegistry {
+    /**
+     * Nanoseconds to seconds, for use as a {@link Histogram}'s export scale.
+     */
+    public static final double NANOS_TO_SECONDS = 1.0e-9d;
+
+    protected static void appendLabels(@NonNull StringBuilder builder, @NonNull String... labels) {
+        checkArg((labels.length & 1) == 0, "labels must be given as key-value pairs");
+
+        for (int i = 0; i < labels.length; i += 2) {
+            if (builder.length() != 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"");
+
+            //escape the label value according to the prometheus text format
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    default:
+                        builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+    }
+
+    protected final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+    protected final String[] constantLabels;
+
+    public MetricsRegistry(@NonNull String... constantLabels) {
+        checkArg((constantLabels.length & 1) == 0, "labels must be given as key-value pairs");
+        this.constantLabels = constantLabels.clone();
+    }
+
+    protected String formatLabels(@NonNull String... labels) {
+        StringBuilder builder = new StringBuilder();
+        appendLabels(builder, this.constantLabels);
+        appendLabels(builder, labels);
+        return builder.length() != 0 ? builder.insert(0, '{').append('}').toString() : "";
+    }
+
+    protected <M extends Metric> M getOrCreate(@NonNull String name, @NonNull Class<M> type, @NonNull String[] labels, @NonNull Function<String, M> factory) {
+        String formattedLabels = this.formatLabels(labels);
+
+        Metric metric = this.metrics.computeIfAbsent(name + formattedLabels, key -> {
+            //make sure all metrics with the same name have the same type
+            this.metrics.values().stream()
+                    .filter(existing -> existing.name().equals(name) && existing.getClass() != type)
+                    .findAny()
+                    .ifPresent(existing -> {
+                        throw new IllegalArgumentException("metric " + name + " already exists with type " + existing.type());
+                    });
+
+            return factory.apply(formattedLabels);
+        });
+
+        checkArg(type.isInstance(metric), "metric %s%s already exists with type %s", name, formattedLabels, metric.type());
+        return uncheckedCast(metric);
+    }
+
+    /**
+     * Gets or creates a {@link Counter}.
+     *
+     * @param name   the metric name
+     * @param help   a description of the metric
+     * @param labels the labels, as key-value pairs
+     * @return the {@link Counter}
+     */
+    public Counter counter(@NonNull String name, @NonNull String help, @NonNull String... labels) {
+        return this.getOrCreate(name, Counter.class, labels, formattedLabels -> new Counter(name, help, formattedLabels));
+    }
+
+    /**
+     * Gets or creates a {@link Gauge} whose value is set explicitly.
+     *
+     * @param name   the metric name
+     * @param help   a description of the metric
+     * @param labels the labels, as key-value pairs
+     * @return the {@link Gauge}
+     */
+    public Gauge gauge(@NonNull String name, @NonNull String help, @NonNull String... labels) {
+        return this.getOrCreate(name, Gauge.class, labels, formattedLabels -> new Gauge(name, help, formattedLabels, null));
+    }
+
+    /**
+     * Gets or creates a {@link Gauge} whose value is sampled from the given {@link LongSupplier}.
+     * <p>
+     * If the gauge already exists, the given {@link LongSupplier} is ignored.
+     *
+     * @param name     the metric name
+     * @param help     a description of the metric
+     * @param supplier the {@link LongSupplier} which provides the gauge's value
+     * @param labels   the labels, as key-value pairs
+     * @return the {@link Gauge}
+     */
+    public Gauge gauge(@NonNull String name, @NonNull String help, @NonNull LongSupplier supplier, @NonNull String... labels) {
+        return this.getOrCreate(name, Gauge.class, labels, formattedLabels -> new Gauge(name, help, formattedLabels, supplier));
+    }
+
+    /**
+     * Gets or creates a {@link Histogram}.
+     *
+     * @param name        the metric name
+     * @param help        a description of the metric
+     * @param exportScale the factor by which values are multiplied when exporting (e.g. {@link #NANOS_TO_SECONDS})
+     * @param labels      the labels, as key-value pairs
+     * @return the {@link Histogram}
+     */
+    public Histogram histogram(@NonNull String name, @NonNull String help, double exportScale, @NonNull String... labels) {
+        return this.getOrCreate(name, Histogram.class, labels, formattedLabels -> new Histogram(name, help, formattedLabels, exportScale));
+    }
+
+    /**
+     * Removes all metrics with the given name.
+     *
+     * @param name the metric name
+     */
+    public void remove(@NonNull String name) {
+        this.metrics.values().removeIf(metric -> metric.name().equals(name));
+    }
+
+    /**
+     * @return a snapshot of all the metrics in this registry, sorted by name
+     */
+    public List<Metric> metrics() {
+        List<Metric> metrics = new ArrayList<>(this.metrics.values());
+        metrics.sort(Comparator.comparing(Metric::name).thenComparing(Metric::labels));
+        return metrics;
+    }
+
+    /**
+     * Writes all metrics in this registry in the Prometheus text exposition format.
+     *
+     * @param out the {@link Appendable} to write to
+     */
+    public void writePrometheus(@NonNull Appendable out) throws IOException {
+        String lastName = null;
+        for (Metric metric : this.metrics()) {
+            if (!metric.name().equals(lastName)) { //first metric with this name, write the metadata lines
+                lastName = metric.name();
+                out.append("# HELP ").append(lastName).append(' ').append(metric.help().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+                out.append("# TYPE ").append(lastName).append(' ').append(metric.type()).append('\n');
+            }
+            metric.writeSamples(out);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.stats;
+
+import lombok.NonNull;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Periodically writes the contents of a {@link MetricsRegistry} to a file in the Prometheus text exposition format.
+ * <p>
+ * The file is replaced atomically, so it can be scraped at any time (e.g. by node_exporter's textfile collector) without ever observing a partially written file.
+ *
+ * @author DaPorkchop_
+ */
+public class PrometheusFileExporter implements AutoCloseable {
+    /**
+     * All exporters share a single low-priority thread, exporting is cheap.
+     */
+    protected static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            PThreadFactories.builder().daemon().minPriority().name("FP2 Metrics Exporter").build());
+
+    protected final MetricsRegistry registry;
+    protected final Path file;
+    protected final Path tempFile;
+
+    protected final ScheduledFuture<?> future;
+
+    /**
+     * @param registry the {@link MetricsRegistry} to export
+     * @param file     the file to write to
+     * @param interval the interval between exports
+     * @param unit     the {@link TimeUnit} of {@code interval}
+     */
+    public PrometheusFileExporter(@NonNull MetricsRegistry registry, @NonNull Path file, long interval, @NonNull TimeUnit unit) {
+        this.registry = registry;
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        this.future = EXECUTOR.scheduleWithFixedDelay(this::exportQuietly, 0L, positive(interval, "interval"), unit);
+    }
+
+    protected void exportQuietly() {
+        try {
+            this.export();
+        } catch (Throwable t) {
+            FP2_LOG.warn("unable to export metrics to {}", this.file, t);
+        }
+    }
+
+    /**
+     * Immediately writes the current metrics to the file.
+     */
+    public synchronized void export() throws IOException {
+        try (Writer writer = Files.newBufferedWriter(this.tempFile, StandardCharsets.UTF_8)) {
+            this.registry.writePrometheus(writer);
+        }
+
+        try {
+            Files.move(this.tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(this.tempFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Stops periodic exporting, and writes the final values of all metrics to the file.
+     */
+    @Override
+    public void close() {
+        this.future.cancel(false);
+        this.exportQuietly();
+    }
+}
@@ -49,6 +49,7 @@ import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
@@ -76,9 +77,46 @@ public class ThreadingHelper {
                 this.validate();
                 return new DefaultWorldWorkerGroup(this, task);
             }
+
+            @Override
+            public WorldWorkerGroup buildBorrowed() {
+                this.validateBorrowed();
+                return new BorrowedWorldWorkerGroup(this);
+            }
         };
     }
 
+    /**
+     * Runs the given task on the current thread, which temporarily joins the given {@link WorldWorkerGroup} for the duration of the task.
+     *
+     * @param group the {@link WorldWorkerGroup}. Must have been created using {@link WorkerGroupBuilder#buildBorrowed()}
+     * @param task  the task to run
+     */
+    public void runAsWorker(@NonNull WorldWorkerGroup group, @NonNull Runnable task) {
+        checkArg(group instanceof BorrowedWorldWorkerGroup, "%s doesn't permit borrowing threads!", group);
+        BorrowedWorldWorkerGroup borrowedGroup = (BorrowedWorldWorkerGroup) group;
+        Thread thread = Thread.currentThread();
+
+        //borrowed threads may be borrowed again while they're already running a task for another group (e.g. while waiting for a task to be completed), in which case
+        //  they temporarily switch over to the new group
+        WorldWorkerGroup previousGroup = THREADS_TO_GROUPS.get(thread);
+        checkState(previousGroup == null || previousGroup instanceof BorrowedWorldWorkerGroup, "thread %s already belongs to a worker group!", thread);
+        THREADS_TO_GROUPS.put(thread, borrowedGroup);
+        try {
+            boolean added = borrowedGroup.threads.add(thread);
+            try {
+                task.run();
+            } finally {
+                if (added) {
+                    borrowedGroup.threads.remove(thread);
+                }
+            }
+        } finally {
+            checkState(previousGroup != null ? THREADS_TO_GROUPS.replace(thread, borrowedGroup, previousGroup) : THREADS_TO_GROUPS.remove(thread, borrowedGroup),
+                    "unable to restore thread->group mapping %s->%s in THREADS_TO_GROUPS map?!?", thread, borrowedGroup);
+        }
+    }
+
     /**
      * Handles the given exception.
      *
@@ -280,4 +318,38 @@ public class ThreadingHelper {
             }
         }
     }
+
+    @Getter
+    private static class BorrowedWorldWorkerGroup extends AbstractReleasable implements WorldWorkerGroup {
+        private final World world;
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet(); //the threads which are currently borrowed by this group
+        private final FutureExecutor worldExecutor;
+
+        public BorrowedWorldWorkerGroup(@NonNull WorkerGroupBuilder builder) {
+            this.world = builder.world();
+
+            this.worldExecutor = new ThreadValidatingForwardingFutureExecutor(
+                    new MarkingForwardingFutureExecutor(rootExecutorFor(this.world)),
+                    this.threads::contains);
+        }
+
+        @Override
+        public void release() throws AlreadyReleasedException {
+            checkState(!this.threads.contains(Thread.currentThread()), "thread %s cannot release it's own worker group!", Thread.currentThread());
+            super.release();
+        }
+
+        @Override
+        protected void doRelease() {
+            //see DefaultWorldWorkerGroup#doRelease()
+            this.worldExecutor.close();
+
+            //we don't own any threads, but we still need to wait until all threads which are currently borrowed have finished doing whatever they're doing for us
+            while (!this.threads.isEmpty()) {
+                this.threads.forEach(ThreadingHelper::externalManagedUnblock);
+
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50L));
+            }
+        }
+    }
 }
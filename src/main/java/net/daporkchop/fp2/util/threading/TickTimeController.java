@@ -0,0 +1,120 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.threading;
+
+import lombok.Getter;
+import net.daporkchop.fp2.util.threading.scheduler.FairShareWorkerPool;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Decides how many worker threads may run at the same time, based on how long the server takes to complete each tick.
+ * <p>
+ * Tick durations are averaged over a window of recent ticks. When the mean tick time exceeds the upper threshold, the parallelism is halved so that the workers
+ * stop competing with the server thread as quickly as possible. When the mean tick time is below the lower threshold, the parallelism is increased by one worker at
+ * a time. Mean tick times between the two thresholds leave the parallelism unchanged, which prevents the parallelism from oscillating around a single threshold.
+ * <p>
+ * After each change, the window is restarted, so that the next decision is based only on ticks which were executed with the new parallelism.
+ * <p>
+ * This class is not thread-safe. It is expected to only be used from the server thread.
+ *
+ * @author DaPorkchop_
+ * @see FairShareWorkerPool#parallelism(int)
+ */
+public class TickTimeController {
+    /**
+     * The default number of ticks to average over before each decision, equal to one second at the normal tick rate.
+     */
+    public static final int DEFAULT_WINDOW = 20;
+
+    protected final int maxParallelism;
+    protected final long highThreshold;
+    protected final long lowThreshold;
+    protected final int window;
+
+    @Getter
+    protected int parallelism;
+    @Getter
+    protected long meanTickTime = -1L; //the mean tick time at the most recent decision, or -1 if no decisions have been made yet
+
+    protected long windowSum;
+    protected int windowTicks;
+
+    /**
+     * Creates a new {@link TickTimeController} using the default window size, with the lower threshold at 75% of the upper threshold.
+     *
+     * @param maxParallelism the maximum parallelism, which is also the initial parallelism
+     * @param threshold      the mean tick time (in nanoseconds) above which the parallelism will be reduced
+     */
+    public TickTimeController(int maxParallelism, long threshold) {
+        this(maxParallelism, threshold, threshold - (threshold >> 2), DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param maxParallelism the maximum parallelism, which is also the initial parallelism
+     * @param highThreshold  the mean tick time (in nanoseconds) above which the parallelism will be reduced
+     * @param lowThreshold   the mean tick time (in nanoseconds) below which the parallelism will be increased
+     * @param window         the number of ticks to average over
+     */
+    public TickTimeController(int maxParallelism, long highThreshold, long lowThreshold, int window) {
+        checkArg(notNegative(lowThreshold, "lowThreshold") <= positive(highThreshold, "highThreshold"), "lowThreshold (%d) may not be greater than highThreshold (%d)", lowThreshold, highThreshold);
+
+        this.maxParallelism = positive(maxParallelism, "maxParallelism");
+        this.highThreshold = highThreshold;
+        this.lowThreshold = lowThreshold;
+        this.window = positive(window, "window");
+
+        this.parallelism = maxParallelism;
+    }
+
+    /**
+     * Records the duration of a completed server tick.
+     *
+     * @param duration the tick's duration (in nanoseconds)
+     * @return the parallelism which should be used from now on
+     */
+    public int tick(long duration) {
+        this.windowSum += notNegative(duration, "duration");
+        if (++this.windowTicks < this.window) { //the window isn't full yet
+            return this.parallelism;
+        }
+
+        long mean = this.meanTickTime = this.windowSum / this.windowTicks;
+        int parallelism = this.parallelism;
+        if (mean > this.highThreshold) { //the server is lagging, back off quickly
+            parallelism = max(parallelism >> 1, 1);
+        } else if (mean < this.lowThreshold) { //there's headroom, carefully add one more worker
+            parallelism = min(parallelism + 1, this.maxParallelism);
+        }
+
+        if (parallelism != this.parallelism) { //start a new window, so that the next decision isn't affected by ticks executed with the old parallelism
+            this.parallelism = parallelism;
+            this.windowSum = 0L;
+            this.windowTicks = 0;
+        } else { //remove one average tick from the window to make room for the next one. this turns the window into an exponential moving average over
+            //  approximately the last window ticks, which is cheaper than remembering every tick's duration.
+            this.windowSum -= mean;
+            this.windowTicks--;
+        }
+        return parallelism;
+    }
+}
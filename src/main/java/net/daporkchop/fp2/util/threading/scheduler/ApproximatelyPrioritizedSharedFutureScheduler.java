@@ -21,22 +21,27 @@
 package net.daporkchop.fp2.util.threading.scheduler;
 
 import lombok.NonNull;
-import net.daporkchop.fp2.util.datastructure.ConcurrentUnboundedPriorityBlockingQueue;
+import lombok.SneakyThrows;
 import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
 import net.daporkchop.lib.common.util.PorkUtil;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import static net.daporkchop.lib.common.util.PValidation.*;
 import static net.daporkchop.lib.common.util.PorkUtil.*;
@@ -45,25 +50,63 @@ import static net.daporkchop.lib.common.util.PorkUtil.*;
  * Implementation of {@link Scheduler} whose {@link CompletableFuture}s are shared for all occurrences of the same parameter value, and whose tasks are executed approximately
  * in priority.
  * <p>
- * This functions similarly to {@link SharedFutureScheduler}, but is initialized with a {@link Comparator}. The {@link Comparator} does not have to provide accurate comparison
- * across all possible parameter values, but only needs to partition parameters into smaller parameter spaces. Tasks are executed in comparison order as much as reasonably
- * possible (i.e. it may not be perfect). Accuracy can be improved by reducing the duration of an individual task and splitting tasks up into multiple sub-tasks which can
+ * This functions similarly to {@link SharedFutureScheduler}, but is initialized with a function which assigns each parameter one of a small, fixed number of integer
+ * priorities. The priorities do not have to distinguish between all possible parameter values, but only need to partition parameters into smaller parameter spaces.
+ * Tasks are executed in priority order as much as reasonably possible (i.e. it may not be perfect), and tasks with the same priority are executed in approximately
+ * the order they were scheduled in. Accuracy can be improved by reducing the duration of an individual task and splitting tasks up into multiple sub-tasks which can
  * be executed recursively or using {@link #scatterGather(List)}, although this is not recommended as the overhead imposed by each task is fairly substantial. Recursive
- * tasks are only permitted to recurse into parameters which are strictly less than the current one, attempts to do otherwise will throw an exception.
+ * tasks are only permitted to recurse into parameters which have a strictly lower priority value than the current one, attempts to do otherwise will throw an exception.
  * <p>
- * It is, of course, possible to use a {@link Comparator} which does accurate comparisons between all distinct parameter values. However, this will likely result in
- * an undesirable bias towards a certain keys when doing recursive actions.
+ * Queued tasks are kept in a {@link ConcurrentBucketQueue}, so scheduling and starting a task is O(1) regardless of how many tasks are queued.
+ * <p>
+ * A task's priority is computed once when it is scheduled. If the priority function's results can change over time, {@link #reprioritize()} may be used to move
+ * tasks which are still queued to their new priorities. Requests are coalesced and handled asynchronously, so it's cheap to call as often as necessary.
  *
  * @author DaPorkchop_
  */
 public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedFutureScheduler<P, V> {
+    /**
+     * The delay (in milliseconds) between a call to {@link #reprioritize()} and the tasks actually being reprioritized. All requests made in the meantime are
+     * handled at once.
+     */
+    protected static final long REPRIORITIZE_DELAY = 50L;
+
+    /**
+     * All schedulers share a single low-priority thread for reprioritizing tasks, since it doesn't have to happen immediately.
+     */
+    protected static final ScheduledExecutorService REPRIORITIZE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            PThreadFactories.builder().daemon().minPriority().name("FP2 Task Reprioritization").build());
+
+    protected final AtomicReference<CompletableFuture<Void>> pendingReprioritization = new AtomicReference<>();
+
     protected final AtomicLong ctr = new AtomicLong(Long.MIN_VALUE); //we assume this will never overflow - a perhaps naïve assumption, but still, 2⁶⁴ IS a very large number...
-    protected final Comparator<P> initialComparator;
+    protected final ToIntFunction<P> priorityFunction;
+
+    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                                         @NonNull ToIntFunction<P> priorityFunction, int priorities) {
+        super(functionFactory, builder, taskQueueFactory(priorityFunction, priorities));
+
+        this.priorityFunction = priorityFunction;
+    }
+
+    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                                         @NonNull FairShareWorkerPool pool, @NonNull IntSupplier weight, @NonNull ToIntFunction<P> priorityFunction, int priorities) {
+        this(functionFactory, builder, pool, weight, priorityFunction, priorities, TaskListener.nop());
+    }
 
-    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder, @NonNull Comparator<P> initialComparator) {
-        super(functionFactory, builder);
+    public ApproximatelyPrioritizedSharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                                         @NonNull FairShareWorkerPool pool, @NonNull IntSupplier weight, @NonNull ToIntFunction<P> priorityFunction, int priorities,
+                                                         @NonNull TaskListener<P> listener) {
+        super(functionFactory, builder, pool, weight, listener, taskQueueFactory(priorityFunction, priorities));
 
-        this.initialComparator = initialComparator;
+        this.priorityFunction = priorityFunction;
+    }
+
+    protected static <P, V> Supplier<BlockingQueue<SharedFutureScheduler<P, V>.Task>> taskQueueFactory(@NonNull ToIntFunction<P> priorityFunction, int priorities) {
+        //the queue is created by the superclass constructor, before any of our fields are initialized, so this can't reference them.
+        //  we use each task's cached priority rather than re-computing it, since the result of the priority function can change while the task is queued.
+        return () -> new ConcurrentBucketQueue<SharedFutureScheduler<P, V>.Task>(priorities,
+                task -> PorkUtil.<ApproximatelyPrioritizedSharedFutureScheduler<P, V>.Task>uncheckedCast(task).priority);
     }
 
     @Override
@@ -77,27 +120,24 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
         };
     }
 
-    @Override
-    protected BlockingQueue<SharedFutureScheduler<P, V>.Task> createTaskQueue() {
-        return new ConcurrentUnboundedPriorityBlockingQueue<>();
-    }
-
     @Override
     protected SharedFutureScheduler<P, V>.Task createTask(@NonNull P param) {
         return new Task(param);
     }
 
-    @Override
-    protected void unqueue(@NonNull SharedFutureScheduler<P, V>.Task task) {
-        this.queue.remove(task);
-    }
-
     @Override
     protected void awaitJoin(@NonNull SharedFutureScheduler<P, V>.Task task) {
         Deque<SharedFutureScheduler<P, V>.Task> recursionStack = this.recursionStack.get();
         Task parent = uncheckedCast(recursionStack.peekFirst());
         if (parent != null) { //this is a recursive task! we should make sure that the child task is less than the current one
-            checkArg(parent.compareTo(uncheckedCast(task)) > 0, "task at %s tried to recurse upwards to %s!", parent, task);
+            checkArg(parent.priority > PorkUtil.<Task>uncheckedCast(task).priority, "task at %s tried to recurse upwards to %s!", parent, task);
+        }
+
+        if (!task.isDone()) {
+            //the task may be executed by another thread, in which case we won't find it in the queue. make sure we get woken up when it completes so that we
+            //  don't have to wait for the poll timeout to notice.
+            Thread thread = Thread.currentThread();
+            task.whenComplete((v, t) -> LockSupport.unpark(thread));
         }
 
         while (!task.isDone()) {
@@ -106,18 +146,13 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
     }
 
     @Override
+    @SneakyThrows(InterruptedException.class)
     protected SharedFutureScheduler<P, V>.Task pollSingleTask() {
         Deque<SharedFutureScheduler<P, V>.Task> recursionStack = this.recursionStack.get();
         Task parent = uncheckedCast(recursionStack.peekFirst());
         if (parent != null) { //this is a recursive task! we should make sure that the task we get is less than the current one
-            Task polledTask = PorkUtil.<ConcurrentUnboundedPriorityBlockingQueue<Task>>uncheckedCast(this.queue).pollLess(parent);
-            if (polledTask == null) {
-                //sleep to avoid high CPU while spinning...
-                //this is actually pretty yucky, but unfortunately i don't see any way to avoid having to spin here other than making some kind of semaphore which
-                //  is somehow aware of key ranges somehow.
-                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1L));
-            }
-            return polledTask;
+            //this will only wake up once a task less than the current one is added to the queue, or the task we're waiting on is completed
+            return PorkUtil.<ConcurrentBucketQueue<Task>>uncheckedCast(this.queue).pollLess(parent, 1L, TimeUnit.SECONDS);
         } else {
             return super.pollSingleTask();
         }
@@ -129,13 +164,89 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
         Task parent = uncheckedCast(recursionStack.peekFirst());
         if (parent != null) { //this is a recursive task! we should make sure that all of the child tasks are less than the current one
             for (P param : params) {
-                checkArg(this.initialComparator.compare(parent.param, param) > 0, "task %s tried to recurse upwards to %s!", parent.param, param);
+                checkArg(parent.priority > this.priorityFunction.applyAsInt(param), "task %s tried to recurse upwards to %s!", parent.param, param);
             }
         }
 
         return super.scatterGather(params);
     }
 
+    @Override
+    public void dependOn(@NonNull List<P> params) {
+        Deque<SharedFutureScheduler<P, V>.Task> recursionStack = this.recursionStack.get();
+        Task parent = uncheckedCast(recursionStack.peekFirst());
+        if (parent != null) { //this is a recursive task! we should make sure that all of the dependencies are less than the current one
+            for (P param : params) {
+                checkArg(parent.priority > this.priorityFunction.applyAsInt(param), "task %s tried to recurse upwards to %s!", parent.param, param);
+            }
+        }
+
+        super.dependOn(params);
+    }
+
+    /**
+     * Requests that the priority of every task which is currently waiting in the queue be re-computed, moving each task whose priority has changed to its new
+     * position in the queue.
+     * <p>
+     * This should be called whenever the priority function's result may have changed for tasks which have already been scheduled. Tasks are reprioritized on a
+     * background thread after a short delay, and all requests made until then are handled at once. Tasks which have already begun execution are unaffected.
+     *
+     * @return a {@link CompletableFuture} which will be completed once the tasks have been reprioritized
+     */
+    public CompletableFuture<Void> reprioritize() {
+        while (true) {
+            CompletableFuture<Void> future = this.pendingReprioritization.get();
+            if (future != null) { //there's already a pending reprioritization which hasn't started yet, it'll handle this request as well
+                return future;
+            }
+
+            future = new CompletableFuture<>();
+            if (this.pendingReprioritization.compareAndSet(null, future)) {
+                CompletableFuture<Void> _future = future;
+                REPRIORITIZE_EXECUTOR.schedule(() -> {
+                    //clear the pending reprioritization before starting, so that any requests made while we're running will be handled by another one
+                    this.pendingReprioritization.set(null);
+                    try {
+                        this.reprioritizeQueuedTasks();
+                        _future.complete(null);
+                    } catch (Throwable t) {
+                        _future.completeExceptionally(t);
+                    }
+                }, REPRIORITIZE_DELAY, TimeUnit.MILLISECONDS);
+                return future;
+            }
+        }
+    }
+
+    protected void reprioritizeQueuedTasks() {
+        for (SharedFutureScheduler<P, V>.Task _task : this.tasks.values()) {
+            if (!this.running) {
+                return;
+            }
+
+            Task task = uncheckedCast(_task);
+            if (task.refCnt <= 0) { //the task has already begun execution (this is only a hint, it's checked again below)
+                continue;
+            }
+
+            //compute the new priority without holding the lock on the task's map entry, since the priority function may be expensive
+            int priority = this.priorityFunction.applyAsInt(task.param);
+            if (priority == task.priority) {
+                continue;
+            }
+
+            this.tasks.computeIfPresent(task.param, (param, currentTask) -> {
+                if (currentTask == task && task.refCnt > 0) { //the task still hasn't started execution, and can't do so while we're holding the lock on its map entry
+                    //removing the task from the bucket for its old priority would be O(n), so we just add it again with its new priority. the queue will discard
+                    //  the old copy once it gets to it
+                    task.priority = priority;
+                    checkState(this.queue.add(task));
+                }
+                return currentTask;
+            });
+        }
+    }
+
     @Override
     protected List<V> gather(@NonNull List<SharedFutureScheduler<P, V>.Task> tasks) {
         //we don't want to race to begin each task before joining: the tasks are higher-priority than the current task, so we only have to join them
@@ -151,16 +262,19 @@ public class ApproximatelyPrioritizedSharedFutureScheduler<P, V> extends SharedF
      * @author DaPorkchop_
      */
     protected class Task extends SharedFutureScheduler<P, V>.Task implements Comparable<Task> {
+        protected volatile int priority; //only modified while the task is queued
         protected final long tieBreak = ApproximatelyPrioritizedSharedFutureScheduler.this.ctr.getAndIncrement();
 
         public Task(@NonNull P param) {
             super(param);
+
+            this.priority = ApproximatelyPrioritizedSharedFutureScheduler.this.priorityFunction.applyAsInt(param);
         }
 
         @Override
         public int compareTo(Task o) {
             int d;
-            if ((d = ApproximatelyPrioritizedSharedFutureScheduler.this.initialComparator.compare(this.param, o.param)) != 0
+            if ((d = Integer.compare(this.priority, o.priority)) != 0
                 || (d = Long.compare(this.tieBreak, o.tieBreak)) != 0) {
                 return d;
             }
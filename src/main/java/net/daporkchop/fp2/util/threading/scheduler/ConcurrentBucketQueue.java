@@ -0,0 +1,362 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.daporkchop.fp2.util.threading.scheduler;
+
+import lombok.NonNull;
+import net.daporkchop.lib.common.util.PorkUtil;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A concurrent, unbounded {@link BlockingQueue} which orders its elements by a small integer priority.
+ * <p>
+ * Each priority has its own bucket (a lock-free FIFO queue), and a bitmap tracks which buckets are non-empty. Adding an element is therefore O(1) and doesn't
+ * contend with elements of other priorities, while retrieving one only has to scan the bitmap for the lowest set bit. Elements with the same priority are
+ * returned in approximately FIFO order.
+ * <p>
+ * Threads may wait for an element with a priority strictly lower than that of a given bound using {@link #pollLess(Object, long, TimeUnit)}. Waiting threads
+ * are kept in one wait list per bucket, so adding an element only wakes up a single thread which is actually able to take it.
+ * <p>
+ * Unlike most {@link Queue}s, {@link #remove(Object)} is O(n) in the number of elements with the same priority, and {@link #size()} is only an estimate while
+ * the queue is being modified.
+ * <p>
+ * An element's priority may change while it's queued, in which case it should simply be added again rather than removed and re-added. The copy in the bucket for
+ * its old priority is recognized as stale and discarded once it's reached, so moving an element is O(1). Stale copies are still counted by {@link #size()} and
+ * returned by {@link #peek()} and {@link #iterator()} until then.
+ *
+ * @author DaPorkchop_
+ */
+public class ConcurrentBucketQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    protected final ToIntFunction<? super E> priorityFunction;
+
+    protected final Queue<E>[] buckets;
+    protected final AtomicLongArray nonEmpty; //bitmap of buckets which may be non-empty. a bucket which contains elements always has its bit set
+    protected final LongAdder size = new LongAdder();
+
+    //threads waiting for an element, indexed by the priority they're waiting to get below. threads waiting for any element are in the last wait list
+    protected final Queue<Thread>[] waiters;
+    protected final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param priorities       the number of distinct priorities
+     * @param priorityFunction a function which computes the priority of an element. Must return a value between {@code 0} (the highest priority) and
+     *                         {@code priorities} (exclusive). If the value for an element changes while it's queued, the element must be added again
+     */
+    public ConcurrentBucketQueue(int priorities, @NonNull ToIntFunction<? super E> priorityFunction) {
+        this.priorityFunction = priorityFunction;
+
+        this.buckets = PorkUtil.uncheckedCast(new Queue[positive(priorities, "priorities")]);
+        this.waiters = PorkUtil.uncheckedCast(new Queue[priorities + 1]);
+        for (int i = 0; i < priorities; i++) {
+            this.buckets[i] = new ConcurrentLinkedQueue<>();
+            this.waiters[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.waiters[priorities] = new ConcurrentLinkedQueue<>();
+
+        this.nonEmpty = new AtomicLongArray((priorities + 63) >> 6);
+    }
+
+    protected int priority(@NonNull E e) {
+        return checkIndex(this.buckets.length, this.priorityFunction.applyAsInt(e));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return Arrays.stream(this.buckets).flatMap(Collection::stream).iterator();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.peek() == null;
+    }
+
+    @Override
+    public int size() {
+        return toIntExact(max(this.size.sum(), 0L));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean add(@NonNull E e) {
+        int priority = this.priority(e);
+        this.buckets[priority].add(e);
+        this.size.increment();
+        this.markNonEmpty(priority);
+
+        if (this.waiting.get() != 0) {
+            this.signal(priority);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o != null && this.buckets[this.priority(PorkUtil.uncheckedCast(o))].remove(o)) {
+            this.size.decrement();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public E poll() {
+        return this.pollBelow(this.buckets.length);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E value;
+        do {
+            value = this.await(this.buckets.length, deadline);
+        } while (value == null && deadline - System.nanoTime() > 0L);
+        return value;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E value;
+        do {
+            value = this.await(this.buckets.length, System.nanoTime() + Long.MAX_VALUE);
+        } while (value == null);
+        return value;
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super E> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super E> c, int maxElements) {
+        int added = 0;
+        for (E value; added < maxElements && (value = this.poll()) != null; added++) {
+            c.add(value);
+        }
+        return added;
+    }
+
+    @Override
+    public E peek() {
+        for (int priority = 0; (priority = this.firstNonEmpty(priority, this.buckets.length)) >= 0; priority++) {
+            E value = this.buckets[priority].peek();
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    //delegate methods
+
+    @Override
+    public void put(E e) {
+        this.add(e);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return this.add(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return this.add(e);
+    }
+
+    //custom methods
+
+    /**
+     * Retrieves and removes the first element whose priority is strictly lower than that of the given bound, if any.
+     *
+     * @param bound the bound
+     * @return the first element with a lower priority than {@code bound}, or {@code null} if there is none
+     */
+    public E pollLess(@NonNull E bound) {
+        return this.pollBelow(this.priority(bound));
+    }
+
+    /**
+     * Retrieves and removes the first element whose priority is strictly lower than that of the given bound, waiting for one to be added if necessary.
+     * <p>
+     * The calling thread will only be woken up by the addition of an element with a lower priority than {@code bound}. As with {@link LockSupport#park()}, this
+     * method may also return {@code null} before the timeout has elapsed if the calling thread is unparked by some other means, allowing callers to wait on an
+     * additional condition by unparking the waiting thread once it becomes true. Callers should therefore always re-check their own condition in a loop.
+     *
+     * @param bound   the bound
+     * @param timeout the maximum amount of time to wait
+     * @param unit    the {@link TimeUnit} of {@code timeout}
+     * @return the first element with a lower priority than {@code bound}, or {@code null} if none became available
+     */
+    public E pollLess(@NonNull E bound, long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return this.await(this.priority(bound), System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    protected void markNonEmpty(int priority) {
+        int word = priority >> 6;
+        long mask = 1L << priority;
+        for (long bits; ((bits = this.nonEmpty.get(word)) & mask) == 0L && !this.nonEmpty.compareAndSet(word, bits, bits | mask); ) {
+        }
+    }
+
+    protected void clearNonEmpty(int priority) {
+        int word = priority >> 6;
+        long mask = 1L << priority;
+        for (long bits; ((bits = this.nonEmpty.get(word)) & mask) != 0L && !this.nonEmpty.compareAndSet(word, bits, bits & ~mask); ) {
+        }
+    }
+
+    /**
+     * @return the lowest priority in the range {@code [from, to)} whose bucket may be non-empty, or {@code -1} if there is none
+     */
+    protected int firstNonEmpty(int from, int to) {
+        for (int word = from >> 6, lastWord = (to - 1) >> 6; from < to && word <= lastWord; word++) {
+            long bits = this.nonEmpty.get(word);
+            if (word == from >> 6) { //ignore bits below the start of the range
+                bits &= -1L << from;
+            }
+            if (word == lastWord && (to & 63) != 0) { //ignore bits past the end of the range
+                bits &= (1L << to) - 1L;
+            }
+            if (bits != 0L) {
+                return (word << 6) | Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Retrieves and removes the first element with a priority strictly lower than the given one.
+     */
+    protected E pollBelow(int limit) {
+        for (int priority; (priority = this.firstNonEmpty(0, limit)) >= 0; ) {
+            E value = this.buckets[priority].poll();
+            if (value != null) {
+                this.size.decrement();
+                if (this.priority(value) == priority) {
+                    return value;
+                }
+
+                //the element's priority has changed since it was added to this bucket, and it was added again with its new priority. discard this copy
+                continue;
+            }
+
+            //the bucket is empty, clear its bit. an element could have been added in the meantime, in which case we need to restore it again
+            this.clearNonEmpty(priority);
+            if (!this.buckets[priority].isEmpty()) {
+                this.markNonEmpty(priority);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for an element with a priority strictly lower than the given one until the given deadline, returning early if the thread is woken up without having
+     * been signalled.
+     */
+    protected E await(int limit, long deadline) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        Queue<Thread> waitList = this.waiters[limit];
+        boolean signalled = false;
+
+        this.waiting.incrementAndGet();
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                //register before polling: any element added after this point will find us in the wait list and signal us, so no wakeups can be lost
+                waitList.add(thread);
+
+                E value = this.pollBelow(limit);
+                long remaining = deadline - System.nanoTime();
+                if (value != null || remaining <= 0L) {
+                    signalled |= !waitList.remove(thread);
+                    return value;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+                if (waitList.remove(thread)) { //we're still in the wait list, so we were woken up by something other than an added element
+                    return null;
+                }
+                signalled = true;
+            }
+        } finally {
+            this.waiting.decrementAndGet();
+
+            if (signalled) {
+                //we consumed a signal, but we may have ended up taking a different element than the one which we were signalled for (or none at all).
+                //  pass the signal on to make sure no other waiter is left sleeping while there's an element it could take. the non-empty bitmap may be stale,
+                //  so look at the first element which is actually present to avoid waking up a waiter for an element which was just taken.
+                E first = this.peek();
+                if (first != null) {
+                    this.signal(this.priority(first));
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up one of the threads which could take an element with the given priority.
+     * <p>
+     * Threads waiting for the smallest range of priorities are preferred, as threads waiting for a larger range are more likely to be able to take an element
+     * which is added later.
+     */
+    protected void signal(int priority) {
+        for (int i = priority + 1; i < this.waiters.length; i++) {
+            Thread waiter = this.waiters[i].poll();
+            if (waiter != null) {
+                this.unpark(waiter);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wakes up a thread which was waiting for an element.
+     *
+     * @param thread the thread
+     */
+    protected void unpark(@NonNull Thread thread) {
+        LockSupport.unpark(thread);
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.daporkchop.fp2.util.threading.scheduler;
+
+import com.google.common.collect.ImmutableSet;
+import lombok.Getter;
+import lombok.NonNull;
+import net.daporkchop.fp2.config.FP2Config;
+import net.daporkchop.fp2.util.threading.TickTimeController;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A fixed-size pool of worker threads which is shared between any number of independent {@link TaskSource}s (generally {@link SharedFutureScheduler}s).
+ * <p>
+ * Worker time is divided between the sources using weighted fair queueing: each source is assigned a (possibly changing) weight, and has a virtual time which is
+ * advanced by the execution time of each of its tasks divided by its weight. Whenever a worker is ready to execute a new task, it selects the source with the lowest
+ * virtual time which has any tasks queued. Over time, every source which always has work queued will therefore receive a share of the pool's execution time proportional
+ * to its weight. Sources which become idle don't accumulate any credit while idle, so they can't starve the other sources once they receive work again.
+ * <p>
+ * The pool is only responsible for choosing which source to execute a task from. The order of tasks inside of a single source is entirely up to the source itself.
+ * <p>
+ * The number of workers which may execute tasks at the same time can be limited using {@link #parallelism(int)}. For the global pool, this is done automatically by
+ * a {@link TickTimeController} in order to reduce the load on the server thread while the server is lagging.
+ *
+ * @author DaPorkchop_
+ */
+public class FairShareWorkerPool implements AutoCloseable {
+    protected static final long INITIAL_COST_ESTIMATE = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private static FairShareWorkerPool GLOBAL;
+    private static TickTimeController GLOBAL_CONTROLLER; //null if adaptive parallelism is disabled
+    private static int GLOBAL_REFERENCES;
+
+    /**
+     * Retains a reference to the global {@link FairShareWorkerPool}, creating it if necessary.
+     * <p>
+     * Every call to this method must be paired with a subsequent call to {@link #releaseGlobal()}.
+     *
+     * @return the global {@link FairShareWorkerPool}
+     */
+    public static synchronized FairShareWorkerPool retainGlobal() {
+        if (GLOBAL_REFERENCES++ == 0) {
+            FP2Config.Performance config = FP2Config.global().performance();
+            GLOBAL = new FairShareWorkerPool(config.terrainThreads(),
+                    PThreadFactories.builder().daemon().minPriority().collapsingId().name("FP2 Terrain Worker #%d").build());
+            GLOBAL_CONTROLLER = config.tickTimeThreshold() > 0
+                    ? new TickTimeController(config.terrainThreads(), TimeUnit.MILLISECONDS.toNanos(config.tickTimeThreshold()))
+                    : null;
+        }
+        return GLOBAL;
+    }
+
+    /**
+     * Releases a reference to the global {@link FairShareWorkerPool}, shutting it down if no references remain.
+     */
+    public static synchronized void releaseGlobal() {
+        checkState(GLOBAL_REFERENCES > 0, "global worker pool isn't retained!");
+
+        if (--GLOBAL_REFERENCES == 0) {
+            GLOBAL.close();
+            GLOBAL = null;
+            GLOBAL_CONTROLLER = null;
+        }
+    }
+
+    /**
+     * Notifies the global {@link FairShareWorkerPool} that the server has completed a tick, allowing it to adjust its parallelism based on the server's tick times.
+     * <p>
+     * Does nothing if the global pool doesn't currently exist, or if adaptive parallelism is disabled.
+     *
+     * @param duration the tick's duration (in nanoseconds)
+     */
+    public static synchronized void globalTickCompleted(long duration) {
+        if (GLOBAL_CONTROLLER != null) {
+            int parallelism = GLOBAL_CONTROLLER.tick(duration);
+            if (parallelism != GLOBAL.parallelism()) {
+                FP2_LOG.debug("Server mean tick time is {}ms, setting terrain worker parallelism to {}", TimeUnit.NANOSECONDS.toMillis(GLOBAL_CONTROLLER.meanTickTime()), parallelism);
+                GLOBAL.parallelism(parallelism);
+            }
+        }
+    }
+
+    @Getter
+    protected final Set<Thread> threads;
+    protected final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    protected final Lock lock = new ReentrantLock();
+    protected final Condition workAvailable = this.lock.newCondition();
+    protected final AtomicInteger idleWorkers = new AtomicInteger();
+
+    protected long virtualTime; //guarded by lock
+    protected int parallelism; //guarded by lock
+    protected int activeWorkers; //guarded by lock
+    protected int resumingWorkers; //guarded by lock
+
+    //the total time each worker has spent helping out with other tasks while waiting in Registration#awaitHelping(), which isn't charged to the waiting task's source
+    protected final ThreadLocal<long[]> helpingTime = ThreadLocal.withInitial(() -> new long[1]);
+
+    protected volatile boolean running = true;
+
+    public FairShareWorkerPool(int threads, @NonNull ThreadFactory threadFactory) {
+        this.parallelism = positive(threads, "threads");
+
+        this.threads = ImmutableSet.copyOf(IntStream.range(0, threads)
+                .mapToObj(i -> threadFactory.newThread(this::run))
+                .toArray(Thread[]::new));
+        this.threads.forEach(Thread::start);
+    }
+
+    /**
+     * Registers a new {@link TaskSource} to this pool.
+     *
+     * @param source the {@link TaskSource}
+     * @return a {@link Registration} which must be used to notify this pool when new tasks are queued, and closed once the source is no longer needed
+     */
+    public Registration register(@NonNull TaskSource source) {
+        checkState(this.running, "pool has been closed!");
+
+        Registration registration = new Registration(source);
+        this.lock.lock();
+        try {
+            //the new source starts at the current virtual time, otherwise it would be able to starve all other sources until it catches up
+            registration.virtualTime = this.virtualTime;
+            this.registrations.add(registration);
+        } finally {
+            this.lock.unlock();
+        }
+        return registration;
+    }
+
+    /**
+     * @return the maximum number of workers which may execute tasks at the same time
+     */
+    public int parallelism() {
+        this.lock.lock();
+        try {
+            return this.parallelism;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum number of workers which may execute tasks at the same time.
+     * <p>
+     * If the parallelism is reduced, workers in excess of the new limit will be parked once they finish the task they're currently executing.
+     *
+     * @param parallelism the new parallelism. Values greater than the number of worker threads are treated as being equal to the number of worker threads
+     */
+    public void parallelism(int parallelism) {
+        positive(parallelism, "parallelism");
+
+        this.lock.lock();
+        try {
+            int previousParallelism = this.parallelism;
+            this.parallelism = min(parallelism, this.threads.size());
+
+            if (this.parallelism > previousParallelism) { //wake up parked workers so that they can begin executing tasks again
+                this.workAvailable.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    protected void signal() {
+        //only bother acquiring the lock if there's actually a worker to be woken up. workers increment idleWorkers before checking for queued tasks, so either
+        //  we see the incremented value here or the worker will see the task we just queued.
+        if (this.idleWorkers.get() > 0) {
+            this.lock.lock();
+            try {
+                this.workAvailable.signal();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    protected void run() {
+        while (this.running) {
+            Registration registration = this.select(null, null);
+            if (registration != null) {
+                this.execute(registration);
+            }
+        }
+    }
+
+    protected void execute(@NonNull Registration registration) {
+        long[] helpingTime = this.helpingTime.get();
+        long startHelpingTime = helpingTime[0];
+        long startTime = System.nanoTime();
+        try {
+            registration.source.executeQueuedTask();
+        } catch (Throwable t) { //sources are expected to handle exceptions themselves, but we don't want the worker to die if one slips through
+            FP2_LOG.error(PStrings.fastFormat("uncaught exception in %s while executing task from %s", Thread.currentThread(), registration.source), t);
+        } finally {
+            //time spent helping out with other tasks while this one was waiting has already been charged to the sources of those tasks
+            this.charge(registration, System.nanoTime() - startTime - (helpingTime[0] - startHelpingTime));
+        }
+    }
+
+    /**
+     * Selects the source from which the next task should be executed, waiting for one to become available if none currently are.
+     *
+     * @param waitingFor the registration whose task the calling worker is waiting in {@link Registration#awaitHelping(CompletableFuture)}, or {@code null} if the
+     *                   worker isn't waiting on anything
+     * @param awaited    the future which the calling worker is waiting for, or {@code null}. If it's completed or {@code waitingFor} is closed, this method will
+     *                   return {@code null} without waiting
+     * @return the selected source, or {@code null} if no sources have any queued tasks (spurious wakeups are permitted)
+     */
+    protected Registration select(Registration waitingFor, CompletableFuture<?> awaited) {
+        this.idleWorkers.incrementAndGet();
+        this.lock.lock();
+        try {
+            if (waitingFor != null && (waitingFor.closed || awaited.isDone())) { //the worker can stop waiting. checked while holding the lock so the wakeup can't be missed
+                return null;
+            }
+
+            if (this.activeWorkers + this.resumingWorkers >= this.parallelism) { //the maximum number of workers are already busy, park this one until the parallelism
+                //  is increased. workers which are about to resume a task they were waiting on get priority over starting new tasks
+                this.workAvailable.awaitNanos(TimeUnit.SECONDS.toNanos(1L));
+                return null;
+            }
+
+            Registration best = null;
+            for (Registration registration : this.registrations) {
+                if (registration.source.hasQueuedTasks()
+                    && (best == null || registration.virtualTime < best.virtualTime)) {
+                    best = registration;
+                }
+            }
+
+            if (best == null) { //no work is available, sleep until a task is queued (but not forever, since we need to be able to notice when the pool is closed)
+                this.workAvailable.awaitNanos(TimeUnit.SECONDS.toNanos(1L));
+                return null;
+            }
+
+            //bring the selected source up to the current virtual time if it's been idle
+            best.virtualTime = max(best.virtualTime, this.virtualTime);
+            this.virtualTime = best.virtualTime;
+
+            //charge the source for the estimated cost of the task up front, so that other workers selecting concurrently will be spread out among the other sources
+            best.virtualTime += best.costEstimate / best.weight();
+            if (++this.activeWorkers + this.resumingWorkers < this.parallelism) {
+                //signal() only wakes a single worker, so pass the wakeup on to make sure that idle workers join in until the parallelism is reached. if there isn't
+                //  enough work to go around, the woken worker will simply go back to sleep.
+                this.workAvailable.signal();
+            }
+            return best;
+        } catch (InterruptedException e) { //we don't use interrupts, but we shouldn't swallow them either
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            this.lock.unlock();
+            this.idleWorkers.decrementAndGet();
+        }
+    }
+
+    protected void charge(@NonNull Registration registration, long actualCost) {
+        this.lock.lock();
+        try {
+            this.activeWorkers--;
+            if (this.resumingWorkers > 0) { //a worker is waiting for a free slot in order to resume its task
+                this.workAvailable.signalAll();
+            }
+
+            //correct for the difference between the actual cost and the amount charged in advance
+            registration.virtualTime += (actualCost - registration.costEstimate) / registration.weight();
+
+            //update estimate using an exponential moving average
+            registration.costEstimate = max(registration.costEstimate + ((actualCost - registration.costEstimate) >> 3), 1L);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes this pool.
+     * <p>
+     * This method will block until all worker threads have been shut down. Any tasks which are still queued in registered {@link TaskSource}s will not be executed.
+     */
+    @Override
+    public void close() {
+        checkState(!this.threads.contains(Thread.currentThread()), "thread %s cannot close it's own worker pool!", Thread.currentThread());
+
+        this.running = false;
+
+        this.lock.lock();
+        try {
+            this.workAvailable.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        boolean interrupted = false;
+        for (Thread thread : this.threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) { //restore interrupted state
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A source of tasks which may be executed by a {@link FairShareWorkerPool}.
+     *
+     * @author DaPorkchop_
+     */
+    public interface TaskSource {
+        /**
+         * @return this source's current weight. Must be positive
+         */
+        int weight();
+
+        /**
+         * Checks whether or not this source has any tasks queued for execution.
+         * <p>
+         * This method is called frequently and while holding a global lock, so it should be as cheap as possible. It need not be perfectly accurate, as it is always
+         * followed by a call to {@link #executeQueuedTask()}.
+         *
+         * @return whether or not this source has any tasks queued for execution
+         */
+        boolean hasQueuedTasks();
+
+        /**
+         * Executes a single queued task on the current thread, if any are available.
+         * <p>
+         * This method must not block while waiting for tasks to be queued.
+         */
+        void executeQueuedTask();
+    }
+
+    /**
+     * Represents a {@link TaskSource} which is registered to a {@link FairShareWorkerPool}.
+     *
+     * @author DaPorkchop_
+     */
+    public class Registration implements AutoCloseable {
+        protected final TaskSource source;
+
+        //all guarded by FairShareWorkerPool.this.lock
+        protected long virtualTime;
+        protected long costEstimate = INITIAL_COST_ESTIMATE;
+        protected boolean closed;
+
+        protected Registration(@NonNull TaskSource source) {
+            this.source = source;
+        }
+
+        protected long weight() {
+            return positive(this.source.weight(), "weight");
+        }
+
+        /**
+         * @return the {@link FairShareWorkerPool} which this source is registered to
+         */
+        public FairShareWorkerPool pool() {
+            return FairShareWorkerPool.this;
+        }
+
+        /**
+         * Notifies the pool that the source has had new tasks queued.
+         */
+        public void signal() {
+            FairShareWorkerPool.this.signal();
+        }
+
+        /**
+         * Waits for the given future to be completed while a task from this source is being executed on the current worker thread, which is typically because the
+         * task is waiting for the result of another task from the same source.
+         * <p>
+         * Rather than blocking, the worker gives up its slot in the pool's parallelism and goes back to executing tasks selected by the pool from any source, exactly as
+         * if it were idle. Once the future is completed, the worker waits until there is a free slot again before returning, so that the waiting task never causes the
+         * pool's parallelism to be exceeded. The time spent executing other tasks is charged to their sources rather than to this one.
+         * <p>
+         * This method also returns if this source is unregistered or the pool is closed while waiting, in which case the future may not be completed.
+         *
+         * @param future the future to wait for
+         */
+        public void awaitHelping(@NonNull CompletableFuture<?> future) {
+            FairShareWorkerPool pool = FairShareWorkerPool.this;
+            checkState(pool.threads.contains(Thread.currentThread()), "thread %s isn't a worker of this pool!", Thread.currentThread());
+
+            //wake up the waiting worker once the future is completed. this has to be done while holding the lock, see select()
+            future.whenComplete((v, t) -> {
+                pool.lock.lock();
+                try {
+                    pool.workAvailable.signalAll();
+                } finally {
+                    pool.lock.unlock();
+                }
+            });
+
+            long[] helpingTime = pool.helpingTime.get();
+            long startHelpingTime = helpingTime[0];
+            long startTime = System.nanoTime();
+
+            pool.lock.lock();
+            try { //give up our slot while we're waiting, another worker may be able to use it
+                pool.activeWorkers--;
+                pool.workAvailable.signal();
+            } finally {
+                pool.lock.unlock();
+            }
+
+            try {
+                while (!future.isDone() && pool.running) {
+                    Registration registration = pool.select(this, future);
+                    if (registration != null) {
+                        pool.execute(registration);
+                    } else if (this.closed) {
+                        break;
+                    }
+                }
+            } finally {
+                pool.lock.lock();
+                try { //wait until there's a free slot again before resuming the task
+                    pool.resumingWorkers++;
+                    try {
+                        while (pool.activeWorkers >= pool.parallelism && pool.running) {
+                            pool.workAvailable.awaitUninterruptibly();
+                        }
+                    } finally {
+                        pool.resumingWorkers--;
+                    }
+                    pool.activeWorkers++;
+                } finally {
+                    pool.lock.unlock();
+                }
+
+                //everything since we started waiting was either spent executing other tasks (which have already been charged for it) or idle
+                helpingTime[0] = startHelpingTime + (System.nanoTime() - startTime);
+            }
+        }
+
+        /**
+         * Unregisters the source from the pool.
+         * <p>
+         * No new tasks will be started from the source after this method returns, but tasks from the source which were already being executed may still be running.
+         */
+        @Override
+        public void close() {
+            FairShareWorkerPool.this.lock.lock();
+            try {
+                checkState(FairShareWorkerPool.this.registrations.remove(this), "already closed!");
+                this.closed = true;
+
+                //wake up any workers which are waiting in awaitHelping() for a task from this source
+                FairShareWorkerPool.this.workAvailable.signalAll();
+            } finally {
+                FairShareWorkerPool.this.lock.unlock();
+            }
+        }
+    }
+}
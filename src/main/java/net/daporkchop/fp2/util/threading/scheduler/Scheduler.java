@@ -47,7 +47,9 @@ import java.util.stream.Collectors;
  * for a {@link ForkJoinPool}. Therefore, dependency loops will result in undefined behavior. Implementations may impose further restrictions on recursive parameter
  * values.<br>
  * Implementing a recursive task by {@link CompletableFuture#join()}ing the {@link CompletableFuture} returned by {@link #schedule(Object)} is not allowed and will
- * result in undefined behavior.
+ * result in undefined behavior.<br>
+ * If the {@link Function} doesn't need the values returned by its dependencies, it may use {@link #dependOn(List)} instead, which allows implementations to
+ * execute the dependency graph bottom-up without ever blocking a worker thread.
  *
  * @author DaPorkchop_
  */
@@ -86,6 +88,23 @@ public interface Scheduler<P, V> extends AutoCloseable {
         }
     }
 
+    /**
+     * Ensures that all of the given parameters have been executed before the calling task continues.
+     * <p>
+     * Unlike {@link #scatterGather(List)}, implementations are permitted to do this without blocking the calling thread: if any of the parameters still need to
+     * be executed, the current task may be suspended by throwing an implementation-defined {@link Error}, and then executed again from the beginning once all of
+     * them have been completed. The second time around, this method will return immediately. Tasks using this method must therefore not have any side effects
+     * before calling it, must not catch the thrown {@link Error}, and must not request any parameters when they are executed again which they didn't request the
+     * first time (although they may omit parameters which are no longer needed). If the list of parameters is empty, this method returns immediately.
+     * <p>
+     * The default implementation simply delegates to {@link #scatterGather(List)}.
+     *
+     * @param params the parameters
+     */
+    default void dependOn(@NonNull List<P> params) {
+        this.scatterGather(params);
+    }
+
     /**
      * Closes this scheduler.
      * <p>
@@ -41,8 +41,10 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
 import java.util.function.Supplier;
 
 import static java.lang.Math.*;
@@ -55,36 +57,86 @@ import static net.daporkchop.lib.common.util.PValidation.*;
  * This implementation supports all features defined by {@link Scheduler}. However, recursive tasks can cause deadlocks if the dependency chain has a loop, and
  * large volumes of recursive tasks can quickly run the system out of memory or cause the worker threads' stacks to overflow. It is therefore recommended to use
  * {@link ApproximatelyPrioritizedSharedFutureScheduler} where possible.
+ * <p>
+ * A scheduler may either have its own worker threads, or borrow worker threads from a {@link FairShareWorkerPool} which is shared with other schedulers.
  *
  * @author DaPorkchop_
  */
 public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
     protected static final long TASK_DEPENDENCIES_OFFSET = PUnsafe.pork_getOffset(SharedFutureScheduler.Task.class, "dependencies");
+    protected static final long TASK_RESUMABLE_OFFSET = PUnsafe.pork_getOffset(SharedFutureScheduler.Task.class, "resumable");
 
     protected static final boolean DEBUG_PRINTS_ENABLED = Boolean.parseBoolean(System.getProperty("fp2.SharedFutureScheduler.debugPrintsEnabled", "false"));
 
     protected final Map<P, Task> tasks = new ConcurrentHashMap<>();
-    protected final BlockingQueue<Task> queue = this.createTaskQueue();
+    protected final BlockingQueue<Task> queue;
 
     protected final Cached<Deque<Task>> recursionStack = Cached.threadLocal(this.recursionStackFactory());
 
     protected final Function<P, V> function;
+    protected final TaskListener<P> listener;
 
     protected final WorldWorkerGroup group;
+    protected final FairShareWorkerPool.Registration poolRegistration; //null if this scheduler has its own worker threads
     protected volatile boolean running = true;
 
     public SharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder) {
+        this(functionFactory, builder, LinkedBlockingQueue::new);
+    }
+
+    protected SharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                    @NonNull Supplier<BlockingQueue<Task>> queueFactory) {
+        this.queue = queueFactory.get();
         this.function = functionFactory.apply(this);
+        this.listener = TaskListener.nop();
 
         this.group = builder.build(this);
+        this.poolRegistration = null;
     }
 
-    protected Supplier<Deque<Task>> recursionStackFactory() {
-        return ArrayDeque::new;
+    public SharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                 @NonNull FairShareWorkerPool pool, @NonNull IntSupplier weight) {
+        this(functionFactory, builder, pool, weight, TaskListener.nop());
+    }
+
+    public SharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                 @NonNull FairShareWorkerPool pool, @NonNull IntSupplier weight, @NonNull TaskListener<P> listener) {
+        this(functionFactory, builder, pool, weight, listener, LinkedBlockingQueue::new);
     }
 
-    protected BlockingQueue<Task> createTaskQueue() {
-        return new LinkedBlockingQueue<>();
+    protected SharedFutureScheduler(@NonNull Function<Scheduler<P, V>, Function<P, V>> functionFactory, @NonNull WorkerGroupBuilder builder,
+                                    @NonNull FairShareWorkerPool pool, @NonNull IntSupplier weight, @NonNull TaskListener<P> listener,
+                                    @NonNull Supplier<BlockingQueue<Task>> queueFactory) {
+        this.queue = queueFactory.get();
+        this.function = functionFactory.apply(this);
+        this.listener = listener;
+
+        this.group = builder.buildBorrowed();
+        this.poolRegistration = pool.register(new FairShareWorkerPool.TaskSource() {
+            @Override
+            public int weight() {
+                return weight.getAsInt();
+            }
+
+            @Override
+            public boolean hasQueuedTasks() {
+                return !SharedFutureScheduler.this.queue.isEmpty();
+            }
+
+            @Override
+            public void executeQueuedTask() {
+                SharedFutureScheduler.this.executeQueuedTaskFromPool();
+            }
+
+            @Override
+            public String toString() {
+                return SharedFutureScheduler.this.toString();
+            }
+        });
+    }
+
+    protected Supplier<Deque<Task>> recursionStackFactory() {
+        return ArrayDeque::new;
     }
 
     protected Task createTask(@NonNull P param) {
@@ -92,12 +144,17 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
     }
 
     protected void enqueue(@NonNull Task task) {
+        task.enqueueTime = System.nanoTime();
         checkState(SharedFutureScheduler.this.queue.add(task));
+
+        if (this.poolRegistration != null) { //wake up a worker from the pool
+            this.poolRegistration.signal();
+        }
     }
 
     protected void unqueue(@NonNull Task task) {
         //do nothing - the task will be cancelled, and the worker threads will remove it from the queue once we get to it.
-        //  we don't want to actually remove it from the queue, since LinkedBlockingQueue#remove(Object) is O(n).
+        //  we don't want to actually remove it from the queue, since LinkedBlockingQueue#remove(Object) (and that of most other queue implementations) is O(n).
     }
 
     @Override
@@ -105,12 +162,23 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         return this.retainTask(param);
     }
 
+    /**
+     * @return the approximate number of tasks which are currently waiting in the execution queue
+     */
+    public int queuedTasks() {
+        return this.queue.size();
+    }
+
     @Override
     public void close() {
         //notify workers that we're shutting down
         this.running = false;
 
-        //wait until all the workers have exited
+        if (this.poolRegistration != null) { //prevent the pool from starting any new tasks for us
+            this.poolRegistration.close();
+        }
+
+        //wait until all the workers have exited (or, if the workers are borrowed from a pool, until they're no longer doing anything for us)
         this.group.close();
     }
 
@@ -292,7 +360,7 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
 
         Task task = this.pollSingleTask();
         if (task == null //queue is empty
-            || !this.beginTask(task)) { //we lost the "race" to begin executing the task
+            || !(this.tryResumeTask(task) || this.beginTask(task))) { //we lost the "race" to begin executing the task
             return;
         }
 
@@ -314,8 +382,12 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         Deque<Task> recursionStack = this.recursionStack.get();
         recursionStack.push(task);
 
+        boolean suspended = false;
+        long startTime = System.nanoTime();
         try { //execute the task and complete future accordingly
             task.complete(this.function.apply(task.param));
+        } catch (TaskSuspendedError e) { //the task is waiting for its dependencies to be executed, it'll be resumed once they're all complete
+            suspended = true;
         } catch (SchedulerClosedError e) { //catch and rethrow this separately to prevent it from being used to complete the future
             task.cancel0(); //cancel the future to make sure it has a return value
             throw e;
@@ -329,11 +401,62 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
             if (this.running) { //only handle the exception if we aren't already shutting the scheduler down
                 ThreadingHelper.handle(this.group.world(), t);
             }
-        } finally { //the task's been executed, remove it from the map
-            this.deleteTask(task);
+        } finally {
+            if (!suspended) { //the task's been executed, remove it from the map
+                this.listener.taskExecuted(task.param, max(startTime - task.enqueueTime, 0L), System.nanoTime() - startTime);
+
+                List<Task> dependencies = PUnsafe.pork_swapObject(task, TASK_DEPENDENCIES_OFFSET, null);
+                if (dependencies != null) { //the task was resumed after being suspended, but finished without asking for its dependencies again
+                    dependencies.forEach(this::releaseTask);
+                }
+
+                this.deleteTask(task);
+            }
 
             checkState(task == recursionStack.pop());
         }
+
+        if (suspended) { //this has to happen after the task has been popped off the recursion stack, since it could be resumed on another thread immediately
+            this.suspendTask(task);
+        }
+    }
+
+    protected void suspendTask(@NonNull Task task) {
+        //the task remains in the "executing" state while suspended, so it can't be cancelled and re-scheduling it will create a new task to be executed
+        //  after it's done, exactly as if it were still running
+        List<Task> dependencies = task.dependencies;
+        AtomicInteger remaining = new AtomicInteger(dependencies.size());
+        for (Task dependency : dependencies) {
+            dependency.whenComplete((v, t) -> {
+                if (remaining.decrementAndGet() == 0) { //all of the dependencies are complete, put the task back into the queue so it can continue
+                    task.resumable = 1;
+                    this.enqueue(task);
+                }
+            });
+        }
+    }
+
+    protected boolean tryResumeTask(@NonNull Task task) {
+        //the task could be in the queue more than once if it was previously started by awaitJoin() or gather() before being polled, so we need to make sure that
+        //  it's only resumed once
+        return task.resumable != 0 && PUnsafe.compareAndSwapInt(task, TASK_RESUMABLE_OFFSET, 1, 0);
+    }
+
+    protected void executeQueuedTaskFromPool() {
+        Task task;
+        if (!this.running //the scheduler is shutting down
+            || (task = this.queue.poll()) == null //queue is empty
+            || !(this.tryResumeTask(task) || this.beginTask(task))) { //we lost the "race" to begin executing the task
+            return;
+        }
+
+        ThreadingHelper.runAsWorker(this.group, () -> {
+            try {
+                this.executeTask(task);
+            } catch (SchedulerClosedError e) {
+                //swallow error and return quietly, the pool thread will continue with another source
+            }
+        });
     }
 
     /**
@@ -357,6 +480,12 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         //it would be best if we could start by executing the task we want to wait for, so let's start by trying to begin it now
         if (this.beginTask(task)) { //we won the race to execute the task! actually execute it and return immediately, nothing else remains to be done
             this.executeTask(task);
+        } else if (this.poolRegistration != null) { //the worker is borrowed from a pool, let the pool keep it occupied with tasks from any source (within its
+            //  parallelism limit) until the one we're waiting for is completed
+            this.poolRegistration.awaitHelping(task);
+            if (!task.isDone()) { //we stopped waiting because the scheduler is being closed
+                throw new SchedulerClosedError();
+            }
         } else { //keep ourselves occupied by doing other tasks until the one we're waiting for is completed
             while (!task.isDone()) {
                 this.pollAndExecuteSingleTask();
@@ -393,6 +522,42 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         }
     }
 
+    @Override
+    public void dependOn(@NonNull List<P> params) {
+        Deque<Task> recursionStack = this.recursionStack.get();
+        Task parent = recursionStack.peek();
+        if (parent == null) { //not a recursive task, there's nothing to suspend
+            this.scatterGather(params);
+            return;
+        }
+
+        List<Task> dependencies = parent.dependencies;
+        if (dependencies != null) { //the task was suspended and has now been resumed, so all of its dependencies are complete
+            checkState(PUnsafe.compareAndSwapObject(parent, TASK_DEPENDENCIES_OFFSET, dependencies, null));
+            try {
+                for (Task dependency : dependencies) { //rethrow any exceptions thrown by the dependencies
+                    dependency.join();
+                }
+            } finally {
+                dependencies.forEach(this::releaseTask);
+            }
+            return;
+        }
+
+        if (params.isEmpty()) { //there's nothing to wait for, so there's no reason to suspend the task
+            return;
+        }
+
+        List<Task> tasks = this.scatter(params);
+        if (!PUnsafe.compareAndSwapObject(parent, TASK_DEPENDENCIES_OFFSET, null, tasks)) { //there may only be one active scatter/gather per task at a time
+            tasks.forEach(this::releaseTask);
+            throw new IllegalStateException(PStrings.fastFormat("task for %s has already started recursion!", parent.param));
+        }
+
+        //abort the task's execution, executeTask() will take care of resuming it later
+        throw TaskSuspendedError.INSTANCE;
+    }
+
     protected List<Task> scatter(@NonNull List<P> params) {
         List<Task> tasks = new ArrayList<>(params.size());
         for (P param : params) {
@@ -428,6 +593,19 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         }
     }
 
+    /**
+     * Thrown by {@link #dependOn(List)} in order to immediately break out of a task whose dependencies have to be executed first.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class TaskSuspendedError extends Error {
+        protected static final TaskSuspendedError INSTANCE = new TaskSuspendedError();
+
+        protected TaskSuspendedError() {
+            super(null, null, false, false); //this is thrown on a hot path, so we don't want to pay for a stack trace
+        }
+    }
+
     /**
      * Thrown when a child task throws an exception during recursive execution.
      *
@@ -439,6 +617,36 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
         }
     }
 
+    /**
+     * Receives timing information about tasks executed by a {@link SharedFutureScheduler}.
+     * <p>
+     * Called from the worker thread which executed the task, immediately after it completes. Implementations should be cheap and must not throw exceptions.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    public interface TaskListener<P> {
+        /**
+         * @return a {@link TaskListener} which does nothing
+         */
+        static <P> TaskListener<P> nop() {
+            return (param, waitTime, runTime) -> {
+            };
+        }
+
+        /**
+         * Called when a task has been executed.
+         * <p>
+         * Note that the run time of a task which recursively waits on other tasks includes the run time of any tasks which were executed by the same thread in the
+         * meantime.
+         *
+         * @param param    the task's parameter
+         * @param waitTime the time (in nanoseconds) the task spent waiting in the execution queue
+         * @param runTime  the time (in nanoseconds) the task took to execute
+         */
+        void taskExecuted(@NonNull P param, long waitTime, long runTime);
+    }
+
     /**
      * Thrown when the scheduler has closed in order to immediately terminate worker threads.
      *
@@ -459,9 +667,14 @@ public class SharedFutureScheduler<P, V> implements Scheduler<P, V>, Runnable {
 
         protected Task previous; //if this task was created while a previous one was being executed, this field contains a reference to the previous one
 
+        protected long enqueueTime; //the System#nanoTime() at which this task was last added to the execution queue
+
         //list of tasks whose results are required for the successful execution of the current task
         protected volatile List<Task> dependencies = null;
 
+        //1 if the task was suspended by dependOn() and all of its dependencies have since been completed, meaning that it can be resumed
+        protected volatile int resumable = 0;
+
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
             return SharedFutureScheduler.this.releaseTask(this);
@@ -24,6 +24,7 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 import net.daporkchop.fp2.util.threading.ThreadingHelper;
+import net.daporkchop.fp2.util.threading.scheduler.FairShareWorkerPool;
 import net.daporkchop.lib.common.misc.threadfactory.PThreadFactories;
 import net.minecraft.world.World;
 
@@ -69,6 +70,10 @@ public abstract class WorkerGroupBuilder {
         checkArg(this.world != null, "world must be set!");
     }
 
+    protected void validateBorrowed() {
+        checkArg(this.world != null, "world must be set!");
+    }
+
     /**
      * Constructs a new {@link WorldWorkerGroup} using the settings configured in this builder.
      *
@@ -76,4 +81,14 @@ public abstract class WorkerGroupBuilder {
      * @return the constructed {@link WorldWorkerGroup}
      */
     public abstract WorldWorkerGroup build(@NonNull Runnable task);
+
+    /**
+     * Constructs a new {@link WorldWorkerGroup} using the settings configured in this builder, which doesn't own any threads.
+     * <p>
+     * Instead, threads from elsewhere (such as a {@link FairShareWorkerPool}) may temporarily join the group using {@link ThreadingHelper#runAsWorker(WorldWorkerGroup, Runnable)}.
+     * The {@link #threads()} and {@link #threadFactory()} settings are ignored.
+     *
+     * @return the constructed {@link WorldWorkerGroup}
+     */
+    public abstract WorldWorkerGroup buildBorrowed();
 }
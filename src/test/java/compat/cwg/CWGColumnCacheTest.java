@@ -0,0 +1,168 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package compat.cwg;
+
+import com.google.common.cache.CacheStats;
+import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
+import lombok.NonNull;
+import net.daporkchop.fp2.compat.cwg.CWGColumnCache;
+import net.daporkchop.fp2.compat.cwg.noise.CWGNoiseProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import util.FP2Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that {@link CWGColumnCache} produces the same inputs as generating them directly, and that it caches them effectively when generating a spiral of tiles.
+ * <p>
+ * See {@code cwg.CWGColumnCacheBenchmark} for the corresponding benchmark.
+ *
+ * @author DaPorkchop_
+ */
+public class CWGColumnCacheTest {
+    protected static CWGNoiseProvider.Configured CONFIGURED;
+
+    @BeforeClass
+    public static void init() {
+        FP2Test.init();
+
+        CONFIGURED = CWGNoiseProvider.JAVA_INSTANCE.forSettings(new CustomGeneratorSettings(), 102978420983752L);
+    }
+
+    /**
+     * Generates a square region of inputs directly, without any caching.
+     * <p>
+     * Biomes, heights and variations are simple position-based hashes (the real biome generator needs a world), only the depth noise is actually generated.
+     */
+    protected static void generate(int level, int baseX, int baseZ, int size, @NonNull int[] biomes, @NonNull double[] heights, @NonNull double[] variations, @NonNull double[] depth) {
+        for (int i = 0, dx = 0; dx < size; dx++) {
+            for (int dz = 0; dz < size; dz++, i++) {
+                int x = baseX + (dx << level);
+                int z = baseZ + (dz << level);
+                int hash = (x * 31 + z) * 31 + level;
+                biomes[i] = hash & 0xFF;
+                heights[i] = hash * 0.25d;
+                variations[i] = hash * 0.5d;
+            }
+        }
+        CONFIGURED.generateDepth2d(depth, baseX, baseZ, 1 << level, 1 << level, size, size);
+    }
+
+    protected static final CWGColumnCache.Generator GENERATOR = (level, baseX, baseZ, dst) -> generate(level, baseX, baseZ, CWGColumnCache.BLOCK_SIZE, dst.biomes, dst.heights, dst.variations, dst.depth);
+
+    @Test
+    public void testEquivalence() {
+        SplittableRandom r = new SplittableRandom(12345L);
+        CWGColumnCache cache = new CWGColumnCache(64L);
+
+        for (int i = 0; i < 256; i++) {
+            int level = r.nextInt(5);
+            int baseX = r.nextInt(-1000000, 1000000) & -(1 << level);
+            int baseZ = r.nextInt(-1000000, 1000000) & -(1 << level);
+            int size = r.nextInt(1, 40);
+
+            int[] biomes0 = new int[size * size];
+            double[] heights0 = new double[size * size];
+            double[] variations0 = new double[size * size];
+            double[] depth0 = new double[size * size];
+            generate(level, baseX, baseZ, size, biomes0, heights0, variations0, depth0);
+
+            int[] biomes1 = new int[size * size];
+            double[] heights1 = new double[size * size];
+            double[] variations1 = new double[size * size];
+            double[] depth1 = new double[size * size];
+            cache.assemble(level, baseX, baseZ, size, biomes1, heights1, variations1, depth1, GENERATOR);
+
+            for (int j = 0; j < size * size; j++) {
+                checkState(biomes0[j] == biomes1[j] && heights0[j] == heights1[j] && variations0[j] == variations1[j] && depth0[j] == depth1[j],
+                        "level=%d, base=(%d, %d), size=%d: mismatch at index %d", level, baseX, baseZ, size, j);
+            }
+        }
+    }
+
+    @Test
+    public void testSpiral() {
+        //level 0 tiles are sampled at GTH_SHIFT with interpolation padding, exactly like CWGContext does. the minimum hit rates are slightly below the ones which
+        //  would be reached if every block were only generated once
+        this.testSpiral(0, GTH_SHIFT, ((T_VOXELS + 1) >> GTH_SHIFT) + 3, 32, 0.95d);
+        this.testSpiral(GTH_SHIFT, GTH_SHIFT, T_VOXELS + 1, 32, 0.74d);
+        this.testSpiral(4, 4, T_VOXELS + 1, 32, 0.74d);
+    }
+
+    protected void testSpiral(int level, int sampleLevel, int size, int radius, double minHitRate) {
+        int[] biomes0 = new int[size * size];
+        double[] heights0 = new double[size * size];
+        double[] variations0 = new double[size * size];
+        double[] depth0 = new double[size * size];
+
+        int[] biomes1 = new int[size * size];
+        double[] heights1 = new double[size * size];
+        double[] variations1 = new double[size * size];
+        double[] depth1 = new double[size * size];
+
+        //tiles which are generated in a spiral have very good locality, so the cache should never have to generate the same block twice
+        CWGColumnCache cache = new CWGColumnCache();
+        Set<List<Integer>> generatedBlocks = new HashSet<>();
+        CWGColumnCache.Generator generator = (blockLevel, baseX, baseZ, dst) -> {
+            checkState(generatedBlocks.add(Arrays.asList(blockLevel, baseX, baseZ)), "block at level %d, (%d, %d) was generated twice", blockLevel, baseX, baseZ);
+            GENERATOR.generate(blockLevel, baseX, baseZ, dst);
+        };
+
+        //walk outwards from the origin in a square spiral, just like tiles are generated around a player
+        int x = 0;
+        int z = 0;
+        int dx = 1;
+        int dz = 0;
+        for (int i = 0, tiles = (radius * 2 + 1) * (radius * 2 + 1), legLength = 1, legProgress = 0, legs = 0; i < tiles; i++) {
+            int sampleMask = (1 << sampleLevel) - 1;
+            int baseX = (x * T_VOXELS << level) & ~sampleMask;
+            int baseZ = (z * T_VOXELS << level) & ~sampleMask;
+
+            generate(sampleLevel, baseX, baseZ, size, biomes0, heights0, variations0, depth0);
+            cache.assemble(sampleLevel, baseX, baseZ, size, biomes1, heights1, variations1, depth1, generator);
+            checkState(Arrays.equals(biomes0, biomes1) && Arrays.equals(heights0, heights1) && Arrays.equals(variations0, variations1) && Arrays.equals(depth0, depth1),
+                    "level=%d, base=(%d, %d): cached samples differ from uncached ones", level, baseX, baseZ);
+
+            x += dx;
+            z += dz;
+            if (++legProgress == legLength) { //turn left
+                legProgress = 0;
+                int tmp = dx;
+                dx = -dz;
+                dz = tmp;
+                if ((++legs & 1) == 0) {
+                    legLength++;
+                }
+            }
+        }
+
+        CacheStats stats = cache.stats();
+        checkState(stats.missCount() == generatedBlocks.size(), "level=%d: %d misses, but %d blocks were generated", level, stats.missCount(), generatedBlocks.size());
+        checkState(stats.hitRate() >= minHitRate, "level=%d: hit rate %s is below %s", level, String.format("%.4f", stats.hitRate()), minHitRate);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package compat.vanilla.region;
+
+import com.google.common.io.ByteStreams;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import net.daporkchop.fp2.compat.vanilla.region.MappedRegionFile;
+import net.daporkchop.fp2.compat.vanilla.region.ThreadSafeRegionFileCache;
+import net.minecraft.world.chunk.storage.RegionFile;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.FP2Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Compares {@link MappedRegionFile} against vanilla {@link RegionFile} using synthetic region files.
+ *
+ * @author DaPorkchop_
+ */
+public class MappedRegionFileTest {
+    @BeforeClass
+    public static void init() {
+        FP2Test.init();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    protected static byte[] randomChunk(@NonNull SplittableRandom r) {
+        //mix of highly compressible and incompressible data, sometimes large enough to span many sectors
+        byte[] data = new byte[r.nextInt(1, r.nextBoolean() ? 1024 : 65536)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((i & 0xFF) < 128 ? i : r.nextInt());
+        }
+        return data;
+    }
+
+    protected static byte[] readFully(DataInputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try (DataInputStream _in = in) {
+            return ByteStreams.toByteArray(_in);
+        }
+    }
+
+    protected static byte[][] writeRandomRegion(@NonNull File file, @NonNull SplittableRandom r) throws IOException {
+        byte[][] chunks = new byte[1024][];
+
+        RegionFile region = new RegionFile(file);
+        try {
+            //write some chunks more than once so that sectors get moved around
+            for (int i = 0; i < 1024; i++) {
+                int x = r.nextInt(32);
+                int z = r.nextInt(32);
+                byte[] data = randomChunk(r);
+                try (DataOutputStream out = region.getChunkDataOutputStream(x, z)) {
+                    out.write(data);
+                }
+                chunks[(z << 5) | x] = data;
+            }
+        } finally {
+            region.close();
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testReadMatchesRegionFile() throws IOException {
+        SplittableRandom r = new SplittableRandom(12345L);
+
+        for (int i = 0; i < 4; i++) {
+            File file = new File(this.folder.getRoot(), "r." + i + ".0.mca");
+            byte[][] chunks = writeRandomRegion(file, r);
+
+            MappedRegionFile mapped = MappedRegionFile.open(file.toPath());
+            checkState(mapped != null, "failed to open %s", file);
+
+            RegionFile region = new RegionFile(file);
+            try {
+                for (int x = 0; x < 32; x++) {
+                    for (int z = 0; z < 32; z++) {
+                        byte[] expected = chunks[(z << 5) | x];
+                        checkState(mapped.exists(x, z) == (expected != null), "(%d, %d): exists", x, z);
+                        checkState(region.isChunkSaved(x, z) == mapped.exists(x, z), "(%d, %d): exists (vanilla)", x, z);
+
+                        checkState(Arrays.equals(expected, readFully(mapped.read(x, z))), "(%d, %d): data", x, z);
+                        checkState(Arrays.equals(readFully(region.getChunkDataInputStream(x, z)), readFully(mapped.read(x, z))), "(%d, %d): data (vanilla)", x, z);
+                    }
+                }
+            } finally {
+                region.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMissingRegion() throws IOException {
+        checkState(MappedRegionFile.open(this.folder.getRoot().toPath().resolve("r.0.0.mca")) == null);
+
+        ThreadSafeRegionFileCache cache = new ThreadSafeRegionFileCache(16);
+        checkState(cache.read(this.folder.getRoot().toPath(), 0, 0) == null);
+        checkState(!cache.exists(this.folder.getRoot().toPath(), 0, 0));
+    }
+
+    @Test
+    public void testConcurrentReadWrite() throws IOException {
+        SplittableRandom r = new SplittableRandom(67890L);
+        Path regionDir = this.folder.getRoot().toPath();
+        byte[][] chunks = writeRandomRegion(regionDir.resolve("r.0.0.mca").toFile(), r);
+
+        ThreadSafeRegionFileCache cache = new ThreadSafeRegionFileCache(16);
+
+        //readers: check that every read returns either the original or the most recently written version of a chunk
+        byte[][] rewritten = new byte[1024][];
+        for (int i = 0; i < 64; i++) {
+            rewritten[r.nextInt(1024)] = randomChunk(r);
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture[Runtime.getRuntime().availableProcessors() * 2];
+        for (int t = 0; t < futures.length; t++) {
+            long seed = r.nextLong();
+            futures[t] = CompletableFuture.runAsync(() -> {
+                SplittableRandom tr = new SplittableRandom(seed);
+                try {
+                    for (int i = 0; i < 4096; i++) {
+                        int x = tr.nextInt(32);
+                        int z = tr.nextInt(32);
+                        int idx = (z << 5) | x;
+                        byte[] data = readFully(cache.read(regionDir, x, z));
+                        checkState(Arrays.equals(chunks[idx], data) || (rewritten[idx] != null && Arrays.equals(rewritten[idx], data)), "(%d, %d): data", x, z);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        //writer: rewrite some chunks while the readers are running
+        for (int idx = 0; idx < 1024; idx++) {
+            if (rewritten[idx] != null) {
+                cache.write(regionDir, idx & 0x1F, idx >> 5, Unpooled.wrappedBuffer(rewritten[idx]));
+            }
+        }
+        CompletableFuture.allOf(futures).join();
+
+        //all writes must be visible once they've completed
+        for (int idx = 0; idx < 1024; idx++) {
+            byte[] expected = rewritten[idx] != null ? rewritten[idx] : chunks[idx];
+            checkState(Arrays.equals(expected, readFully(cache.read(regionDir, idx & 0x1F, idx >> 5))), "(%d, %d): data after write", idx & 0x1F, idx >> 5);
+            checkState(cache.exists(regionDir, idx & 0x1F, idx >> 5) == (expected != null));
+        }
+
+        cache.clear();
+    }
+
+    @Test
+    public void testRemapOnlyWhenGrown() throws IOException {
+        SplittableRandom r = new SplittableRandom(13579L);
+        Path regionDir = this.folder.getRoot().toPath();
+        Path path = regionDir.resolve("r.0.0.mca");
+
+        TestRegionFileCache cache = new TestRegionFileCache(16);
+        byte[] small = { 1, 2, 3 };
+        cache.write(regionDir, 0, 0, Unpooled.wrappedBuffer(small));
+        checkState(Arrays.equals(small, readFully(cache.read(regionDir, 0, 0))));
+        MappedRegionFile original = cache.mapped(path);
+
+        //rewriting the chunk with data of the same size reuses its sector, so the file doesn't grow and the existing mapping can be kept
+        long size = Files.size(path);
+        byte[] rewritten = { 4, 5, 6 };
+        cache.write(regionDir, 0, 0, Unpooled.wrappedBuffer(rewritten));
+        checkState(Files.size(path) == size, "file grew from %d to %d bytes", size, Files.size(path));
+        checkState(cache.mapped(path) == original, "region was remapped although it didn't grow");
+        checkState(Arrays.equals(rewritten, readFully(cache.read(regionDir, 0, 0))));
+
+        //a large incompressible chunk has to be appended to the file, so the region has to be remapped and the old mapping released
+        byte[] large = new byte[512 << 10];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) r.nextInt();
+        }
+        cache.write(regionDir, 1, 0, Unpooled.wrappedBuffer(large));
+        checkState(Files.size(path) > size, "file didn't grow");
+        checkState(original.refCnt() == 0, "old mapping wasn't released");
+        MappedRegionFile grown = cache.mapped(path);
+        checkState(grown != original, "region wasn't remapped after growing");
+        checkState(Arrays.equals(rewritten, readFully(cache.read(regionDir, 0, 0))));
+        checkState(Arrays.equals(large, readFully(cache.read(regionDir, 1, 0))));
+
+        //clearing the cache must release all mappings immediately, rather than whenever they're garbage-collected
+        cache.clear();
+        checkState(grown.refCnt() == 0, "mapping wasn't released by clear()");
+    }
+
+    /**
+     * Exposes the mappings used by {@link ThreadSafeRegionFileCache}.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class TestRegionFileCache extends ThreadSafeRegionFileCache {
+        public TestRegionFileCache(int maxSize) {
+            super(maxSize);
+        }
+
+        public MappedRegionFile mapped(@NonNull Path path) throws IOException {
+            MappedRegionFile region = this.retainMappedRegion(path);
+            checkState(region != null, "region %s doesn't exist", path);
+            region.release();
+            return region;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode;
+
+import io.netty.buffer.Unpooled;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.util.math.MathUtil;
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.daporkchop.fp2.mode.api.IFarPos.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that encoded tile positions round-trip, and that their lexicographical order is the z-order of the biased coordinates.
+ *
+ * @author DaPorkchop_
+ */
+public class PosKeyOrderTest {
+    private static int compareKeys(IFarPos a, IFarPos b) {
+        byte[] keyA = a.toBytes();
+        byte[] keyB = b.toBytes();
+        checkState(keyA.length == keyB.length);
+
+        for (int i = 0; i < keyA.length; i++) {
+            int d = (keyA[i] & 0xFF) - (keyB[i] & 0xFF);
+            if (d != 0) {
+                return Integer.signum(d);
+            }
+        }
+        return 0;
+    }
+
+    private static int compareZOrder(VoxelPos a, VoxelPos b) {
+        int aX = a.x() + ENCODED_COORDINATE_BIAS;
+        int aY = a.y() + ENCODED_COORDINATE_BIAS;
+        int aZ = a.z() + ENCODED_COORDINATE_BIAS;
+        int bX = b.x() + ENCODED_COORDINATE_BIAS;
+        int bY = b.y() + ENCODED_COORDINATE_BIAS;
+        int bZ = b.z() + ENCODED_COORDINATE_BIAS;
+
+        int d = Integer.compareUnsigned(MathUtil.interleaveBitsHigh(aX, aY, aZ), MathUtil.interleaveBitsHigh(bX, bY, bZ));
+        return Integer.signum(d != 0 ? d : Long.compareUnsigned(MathUtil.interleaveBits(aX, aY, aZ), MathUtil.interleaveBits(bX, bY, bZ)));
+    }
+
+    private static int compareZOrder(HeightmapPos a, HeightmapPos b) {
+        return Integer.signum(Long.compareUnsigned(
+                MathUtil.interleaveBits(a.x() + ENCODED_COORDINATE_BIAS, a.z() + ENCODED_COORDINATE_BIAS),
+                MathUtil.interleaveBits(b.x() + ENCODED_COORDINATE_BIAS, b.z() + ENCODED_COORDINATE_BIAS)));
+    }
+
+    @Test
+    public void testVoxelRoundTrip() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 10000; i++) {
+            VoxelPos pos0 = new VoxelPos(random.nextInt(32), random.nextInt(), random.nextInt(), random.nextInt());
+            VoxelPos pos1 = new VoxelPos(Unpooled.wrappedBuffer(pos0.toBytes()));
+
+            checkState(pos0.equals(pos1), "%s != %s", pos0, pos1);
+        }
+    }
+
+    @Test
+    public void testHeightmapRoundTrip() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 10000; i++) {
+            HeightmapPos pos0 = new HeightmapPos(random.nextInt(32), random.nextInt(), random.nextInt());
+            HeightmapPos pos1 = new HeightmapPos(Unpooled.wrappedBuffer(pos0.toBytes()));
+
+            checkState(pos0.equals(pos1), "%s != %s", pos0, pos1);
+        }
+    }
+
+    @Test
+    public void testVoxelZOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 100000; i++) {
+            VoxelPos pos0 = new VoxelPos(0, random.nextInt(-64, 64), random.nextInt(-64, 64), random.nextInt(-64, 64));
+            VoxelPos pos1 = new VoxelPos(0, random.nextInt(-64, 64), random.nextInt(-64, 64), random.nextInt(-64, 64));
+
+            checkState(compareKeys(pos0, pos1) == compareZOrder(pos0, pos1), "%s <=> %s", pos0, pos1);
+        }
+    }
+
+    @Test
+    public void testHeightmapZOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 100000; i++) {
+            HeightmapPos pos0 = new HeightmapPos(0, random.nextInt(-64, 64), random.nextInt(-64, 64));
+            HeightmapPos pos1 = new HeightmapPos(0, random.nextInt(-64, 64), random.nextInt(-64, 64));
+
+            checkState(compareKeys(pos0, pos1) == compareZOrder(pos0, pos1), "%s <=> %s", pos0, pos1);
+        }
+    }
+
+    @Test
+    public void testMonotonicAcrossOrigin() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < 10000; i++) {
+            int level = random.nextInt(32);
+            int x = random.nextInt(-1000, 1000);
+            int y = random.nextInt(-1000, 1000);
+            int z = random.nextInt(-1000, 1000);
+
+            VoxelPos voxel = new VoxelPos(level, x, y, z);
+            checkState(compareKeys(voxel, new VoxelPos(level, x + 1, y, z)) < 0);
+            checkState(compareKeys(voxel, new VoxelPos(level, x, y + 1, z)) < 0);
+            checkState(compareKeys(voxel, new VoxelPos(level, x, y, z + 1)) < 0);
+
+            HeightmapPos heightmap = new HeightmapPos(level, x, z);
+            checkState(compareKeys(heightmap, new HeightmapPos(level, x + 1, z)) < 0);
+            checkState(compareKeys(heightmap, new HeightmapPos(level, x, z + 1)) < 0);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package mode.common.client;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.client.IFarTileCache;
+import net.daporkchop.fp2.mode.api.tile.ITileSnapshot;
+import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
+import net.daporkchop.fp2.mode.common.client.FarTileCache;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.mode.heightmap.HeightmapTile;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class FarTileCacheTest {
+    protected static final long MAX_SIZE = 1L << 20L;
+    protected static final int RADIUS = 32;
+
+    protected static ITileSnapshot<HeightmapPos, HeightmapTile> snapshot(int level, int x, int z) {
+        return new TileSnapshot<>(new HeightmapPos(level, x, z), 0L, new byte[ThreadLocalRandom.current().nextInt(256, 4096)]);
+    }
+
+    protected static long size(@NonNull FarTileCache<HeightmapPos, HeightmapTile> cache) {
+        return cache.stats().allocatedSpace();
+    }
+
+    @Test
+    public void testStaysWithinBudget() {
+        List<List<HeightmapPos>> rerequests = new ArrayList<>();
+        FarTileCache<HeightmapPos, HeightmapTile> cache = new FarTileCache<>(() -> MAX_SIZE, rerequests::add);
+        try {
+            for (int level = 0; level < 3; level++) {
+                for (int x = -RADIUS; x <= RADIUS; x++) {
+                    for (int z = -RADIUS; z <= RADIUS; z++) {
+                        cache.receiveTile(snapshot(level, x, z));
+                        checkState(size(cache) <= MAX_SIZE, "cache exceeded its budget: %d > %d", size(cache), MAX_SIZE);
+                    }
+                }
+            }
+
+            //the camera hasn't moved, so nothing should be re-requested
+            cache.viewPosition(0.0d, 0.0d, 0.0d);
+            checkState(rerequests.isEmpty(), "tiles were re-requested without the camera moving");
+        } finally {
+            cache.release();
+        }
+    }
+
+    @Test
+    public void testEvictsFarthestTiles() {
+        FarTileCache<HeightmapPos, HeightmapTile> cache = new FarTileCache<>(() -> MAX_SIZE, positions -> {});
+        try {
+            for (int x = -RADIUS; x <= RADIUS; x++) {
+                for (int z = -RADIUS; z <= RADIUS; z++) {
+                    cache.receiveTile(snapshot(0, x, z));
+                }
+            }
+
+            //the tiles nearest to the camera must always be retained
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    checkState(cache.getTileCached(new HeightmapPos(0, x, z)) != null, "tile at (%d, %d) was evicted", x, z);
+                }
+            }
+
+            //the tiles in the corners are farthest from the camera, so they must have been evicted
+            checkState(cache.getTileCached(new HeightmapPos(0, RADIUS, RADIUS)) == null);
+            checkState(cache.getTileCached(new HeightmapPos(0, -RADIUS, -RADIUS)) == null);
+        } finally {
+            cache.release();
+        }
+    }
+
+    @Test
+    public void testRerequestsEvictedTiles() {
+        Set<HeightmapPos> evicted = new HashSet<>();
+        Set<HeightmapPos> rerequested = new HashSet<>();
+        FarTileCache<HeightmapPos, HeightmapTile> cache = new FarTileCache<>(() -> MAX_SIZE, rerequested::addAll);
+        try {
+            cache.addListener(new IFarTileCache.Listener<HeightmapPos, HeightmapTile>() {
+                @Override
+                public void tileAdded(@NonNull ITileSnapshot<HeightmapPos, HeightmapTile> tile) {
+                }
+
+                @Override
+                public void tileModified(@NonNull ITileSnapshot<HeightmapPos, HeightmapTile> tile) {
+                }
+
+                @Override
+                public void tileRemoved(@NonNull HeightmapPos pos) {
+                    evicted.add(pos);
+                }
+            }, false);
+
+            for (int x = -RADIUS; x <= RADIUS; x++) {
+                for (int z = -RADIUS; z <= RADIUS; z++) {
+                    cache.receiveTile(snapshot(0, x, z));
+                }
+            }
+            checkState(!evicted.isEmpty(), "nothing was evicted");
+
+            //move the camera to the corner of the area, which should cause some of the tiles there to be re-requested
+            cache.viewPosition(RADIUS * T_VOXELS, 0.0d, RADIUS * T_VOXELS);
+            checkState(!rerequested.isEmpty(), "nothing was re-requested");
+            checkState(evicted.containsAll(rerequested), "tiles were re-requested which were never evicted");
+            checkState(rerequested.contains(new HeightmapPos(0, RADIUS, RADIUS)), "the tile nearest to the camera wasn't re-requested");
+        } finally {
+            cache.release();
+        }
+    }
+}
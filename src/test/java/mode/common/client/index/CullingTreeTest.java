@@ -0,0 +1,168 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package mode.common.client.index;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.client.gl.camera.Frustum;
+import net.daporkchop.fp2.mode.api.IFarDirectPosAccess;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.common.client.index.CullingTree;
+import net.daporkchop.fp2.mode.heightmap.HeightmapDirectPosAccess;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.mode.voxel.VoxelDirectPosAccess;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.lib.unsafe.PUnsafe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that culling using a {@link CullingTree} gives exactly the same results as testing each tile individually.
+ *
+ * @author DaPorkchop_
+ */
+public class CullingTreeTest {
+    protected static final int TILE_COUNT = 20000;
+    protected static final int FRUSTUM_COUNT = 256;
+
+    @Test
+    public void testVoxel() {
+        Random r = new Random(12345L);
+        for (int level = 0; level < 3; level++) {
+            int l = level;
+            test(VoxelDirectPosAccess.INSTANCE, level, r, random -> new VoxelPos(l, random.nextInt(256) - 128, random.nextInt(32) - 16, random.nextInt(256) - 128));
+        }
+    }
+
+    @Test
+    public void testHeightmap() {
+        Random r = new Random(54321L);
+        for (int level = 0; level < 3; level++) {
+            int l = level;
+            test(HeightmapDirectPosAccess.INSTANCE, level, r, random -> new HeightmapPos(l, random.nextInt(512) - 256, random.nextInt(512) - 256));
+        }
+    }
+
+    protected static <POS extends IFarPos> void test(@NonNull IFarDirectPosAccess<POS> directPosAccess, int level, @NonNull Random r, @NonNull Function<Random, POS> positionFactory) {
+        //generate random unique positions
+        Set<POS> uniquePositions = new HashSet<>();
+        while (uniquePositions.size() < TILE_COUNT) {
+            uniquePositions.add(positionFactory.apply(r));
+        }
+        List<POS> positions = new ArrayList<>(uniquePositions);
+
+        long positionsAddr = PUnsafe.allocateMemory(positions.size() * directPosAccess.posSize());
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            CullingTree<POS> tree = new CullingTree<>(directPosAccess, level);
+            for (int slot = 0; slot < positions.size(); slot++) {
+                directPosAccess.storePos(positions.get(slot), positionsAddr + slot * directPosAccess.posSize());
+                tree.add(positions.get(slot), slot);
+            }
+
+            //remove some of the positions again to make sure the tree is updated correctly
+            for (int i = 0; i < TILE_COUNT / 4; i++) {
+                int slot = r.nextInt(positions.size());
+                if (positions.get(slot) != null) {
+                    checkState(tree.remove(positions.get(slot)));
+                    positions.set(slot, null);
+                }
+            }
+
+            int words = (positions.size() + 63) >>> 6;
+            for (int i = 0; i < FRUSTUM_COUNT; i++) {
+                Frustum frustum = randomFrustum(r);
+
+                //brute-force scan
+                long[] expected = new long[words];
+                for (int slot = 0; slot < positions.size(); slot++) {
+                    if (positions.get(slot) != null && directPosAccess.inFrustum(positionsAddr + slot * directPosAccess.posSize(), frustum)) {
+                        expected[slot >>> 6] |= 1L << slot;
+                    }
+                }
+
+                long[] serial = new long[words];
+                tree.select(frustum, null, serial);
+                checkState(Arrays.equals(expected, serial), "serial culling result differs from brute-force scan");
+
+                long[] parallel = new long[words];
+                tree.select(frustum, null, parallel, executor, 4);
+                checkState(Arrays.equals(expected, parallel), "parallel culling result differs from brute-force scan");
+            }
+        } finally {
+            executor.shutdown();
+            PUnsafe.freeMemory(positionsAddr);
+        }
+    }
+
+    protected static Frustum randomFrustum(@NonNull Random r) {
+        //perspective projection with a random field of view
+        double f = 1.0d / Math.tan(Math.toRadians(30.0d + r.nextDouble() * 60.0d) * 0.5d);
+        double aspect = 0.5d + r.nextDouble() * 1.5d;
+        double zNear = 0.05d;
+        double zFar = 256.0d + r.nextDouble() * 4096.0d;
+        double[] projection = {
+                f / aspect, 0.0d, 0.0d, 0.0d,
+                0.0d, f, 0.0d, 0.0d,
+                0.0d, 0.0d, (zFar + zNear) / (zNear - zFar), -1.0d,
+                0.0d, 0.0d, 2.0d * zFar * zNear / (zNear - zFar), 0.0d
+        };
+
+        //rotation by a random yaw and pitch
+        double yaw = r.nextDouble() * Math.PI * 2.0d;
+        double pitch = (r.nextDouble() - 0.5d) * Math.PI;
+        double sy = Math.sin(yaw);
+        double cy = Math.cos(yaw);
+        double sp = Math.sin(pitch);
+        double cp = Math.cos(pitch);
+        double[] modelView = {
+                cy, sp * sy, -cp * sy, 0.0d,
+                0.0d, cp, sp, 0.0d,
+                sy, -sp * cy, cp * cy, 0.0d,
+                0.0d, 0.0d, 0.0d, 1.0d
+        };
+
+        double[] mvp = new double[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0.0d;
+                for (int k = 0; k < 4; k++) {
+                    sum += projection[k * 4 + row] * modelView[col * 4 + k];
+                }
+                mvp[col * 4 + row] = sum;
+            }
+        }
+
+        Frustum frustum = new Frustum();
+        frustum.init(mvp);
+        frustum.setPosition((r.nextDouble() - 0.5d) * 8192.0d, (r.nextDouble() - 0.5d) * 512.0d, (r.nextDouble() - 0.5d) * 8192.0d);
+        return frustum;
+    }
+}
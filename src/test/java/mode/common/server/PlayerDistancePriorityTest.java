@@ -0,0 +1,214 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.common.server.PriorityTask;
+import net.daporkchop.fp2.mode.common.server.TaskStage;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import org.junit.Test;
+import util.threading.workergroup.TestWorkerGroupBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Simulates several players loading level-0 tiles from the same tile provider, and checks how many tiles have to be executed before each player receives the first
+ * tile close to them.
+ * <p>
+ * All tasks are executed by a single worker thread, which is held back until every player has queued all of their tiles so that the execution order is deterministic.
+ *
+ * @author DaPorkchop_
+ */
+public class PlayerDistancePriorityTest {
+    protected static final int PLAYERS = 4;
+    protected static final int CUTOFF = 8; //in tiles
+    protected static final int SPACING = 1000; //distance between players, in tiles
+    protected static final int NEAR = 1; //tiles at most this far from a player count as being close to the player
+    protected static final int TILES_PER_PLAYER = (CUTOFF * 2 + 1) * (CUTOFF * 2 + 1);
+
+    protected static final long TASK_DURATION = TimeUnit.MICROSECONDS.toNanos(20L);
+
+    protected static final HeightmapPos GATE = new HeightmapPos(0, -SPACING, -SPACING);
+
+    protected static void spin(long nanos) {
+        for (long end = System.nanoTime() + nanos; System.nanoTime() < end; ) {
+            Thread.yield();
+        }
+    }
+
+    protected static int distance(@NonNull HeightmapPos player, @NonNull HeightmapPos pos) {
+        return max(abs(pos.x() - player.x()), abs(pos.z() - player.z()));
+    }
+
+    /**
+     * @return every tile visible to the given player, sorted by their distance to the player (like an actual tracker would request them)
+     */
+    protected static List<HeightmapPos> visibleTiles(@NonNull HeightmapPos player) {
+        List<HeightmapPos> positions = new ArrayList<>();
+        for (int x = -CUTOFF; x <= CUTOFF; x++) {
+            for (int z = -CUTOFF; z <= CUTOFF; z++) {
+                positions.add(new HeightmapPos(0, player.x() + x, player.z() + z));
+            }
+        }
+        positions.sort(Comparator.comparingInt(pos -> distance(player, pos)));
+        return positions;
+    }
+
+    @Test
+    public void testTimeToFirstTile() throws Exception {
+        int[] blind = this.firstTileIndices(false);
+        int[] aware = this.firstTileIndices(true);
+
+        for (int player = 0; player < PLAYERS; player++) {
+            //the tiles directly beneath each player are the only ones in the closest distance bucket, so they have to be the first ones to be executed
+            checkState(aware[player] < PLAYERS, "player #%d's first tile was executed at index %d", player, aware[player]);
+        }
+
+        //without distance-aware priorities, the last player has to wait for all of the tiles requested by the other players
+        checkState(blind[PLAYERS - 1] >= (PLAYERS - 1) * TILES_PER_PLAYER, "distance-blind priorities aren't FIFO?!?");
+    }
+
+    protected int[] firstTileIndices(boolean distanceAware) throws Exception {
+        try (Simulation simulation = new Simulation(distanceAware)) {
+            List<HeightmapPos> players = new ArrayList<>();
+            for (int i = 0; i < PLAYERS; i++) {
+                players.add(new HeightmapPos(0, i * SPACING, 0));
+            }
+            simulation.players.addAll(players);
+
+            //each player requests all of their tiles, one after the other
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            players.forEach(player -> visibleTiles(player).forEach(pos -> futures.add(simulation.schedule(pos))));
+            simulation.run(futures);
+
+            int[] indices = new int[PLAYERS];
+            for (int i = 0; i < PLAYERS; i++) {
+                HeightmapPos player = players.get(i);
+                indices[i] = simulation.order.indexOf(simulation.order.stream().filter(pos -> distance(player, pos) <= NEAR).findFirst().get());
+            }
+            return indices;
+        }
+    }
+
+    @Test
+    public void testReprioritizeOnMove() throws Exception {
+        try (Simulation simulation = new Simulation(true)) {
+            HeightmapPos stationary = new HeightmapPos(0, 0, 0);
+            HeightmapPos moving = new HeightmapPos(0, SPACING, 0);
+            simulation.players.add(stationary);
+            simulation.players.add(moving);
+
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            visibleTiles(stationary).forEach(pos -> futures.add(simulation.schedule(pos)));
+            visibleTiles(moving).forEach(pos -> futures.add(simulation.schedule(pos)));
+
+            //the moving player walks over to the corner of the stationary player's area, which was previously one of the least important tiles
+            HeightmapPos corner = new HeightmapPos(0, CUTOFF, CUTOFF);
+            simulation.players.set(1, corner);
+            simulation.scheduler.reprioritize().get(30L, TimeUnit.SECONDS);
+            simulation.run(futures);
+
+            int index = simulation.order.indexOf(corner);
+            checkState(index < 2, "tile beneath moved player was executed at index %d", index);
+        }
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    protected static class Simulation implements AutoCloseable {
+        protected final List<HeightmapPos> players = Collections.synchronizedList(new ArrayList<>());
+        protected final boolean distanceAware;
+
+        protected final CountDownLatch gateStarted = new CountDownLatch(1);
+        protected final CountDownLatch gateReleased = new CountDownLatch(1);
+
+        protected final List<HeightmapPos> order = Collections.synchronizedList(new ArrayList<>());
+
+        protected final ApproximatelyPrioritizedSharedFutureScheduler<PriorityTask<HeightmapPos>, Void> scheduler;
+
+        public Simulation(boolean distanceAware) throws InterruptedException {
+            this.distanceAware = distanceAware;
+
+            this.scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(
+                    scheduler -> task -> {
+                        if (task.pos() == GATE) { //block the worker until all of the tiles have been scheduled
+                            this.gateStarted.countDown();
+                            try {
+                                this.gateReleased.await();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            return null;
+                        }
+
+                        spin(TASK_DURATION);
+                        this.order.add(task.pos());
+                        return null;
+                    },
+                    new TestWorkerGroupBuilder().threads(1),
+                    this::priority, PriorityTask.APPROX_PRIORITIES);
+
+            this.scheduler.schedule(PriorityTask.forStageAndPosition(TaskStage.LOAD, GATE));
+            this.gateStarted.await();
+        }
+
+        protected int priority(@NonNull PriorityTask<HeightmapPos> task) {
+            int distance = Integer.MAX_VALUE;
+            if (this.distanceAware) {
+                synchronized (this.players) {
+                    for (HeightmapPos player : this.players) {
+                        distance = min(distance, PlayerDistancePriorityTest.distance(player, task.pos()));
+                    }
+                }
+            }
+            return PriorityTask.approxPriority(task.stage(), task.pos().level(), distance);
+        }
+
+        public CompletableFuture<Void> schedule(@NonNull HeightmapPos pos) {
+            return this.scheduler.schedule(PriorityTask.forStageAndPosition(TaskStage.LOAD, pos));
+        }
+
+        public void run(@NonNull List<CompletableFuture<Void>> futures) throws Exception {
+            this.gateReleased.countDown();
+
+            for (CompletableFuture<Void> future : futures) {
+                future.get(30L, TimeUnit.SECONDS);
+            }
+        }
+
+        @Override
+        public void close() {
+            this.gateReleased.countDown();
+            this.scheduler.close();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package mode.common.server;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenArea;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenCheckpoint;
+import net.daporkchop.fp2.mode.common.server.pregen.PregenTask;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.mode.heightmap.server.HeightmapPregenArea;
+import net.daporkchop.fp2.util.math.IntAxisAlignedBB;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class PregenTest {
+    protected static IntAxisAlignedBB[] coordLimits(int minBlock, int maxBlock) {
+        return IntStream.range(0, Integer.SIZE)
+                .mapToObj(lvl -> new IntAxisAlignedBB(
+                        minBlock >> (T_SHIFT + lvl), 0, minBlock >> (T_SHIFT + lvl),
+                        maxBlock >> (T_SHIFT + lvl), 0, maxBlock >> (T_SHIFT + lvl)))
+                .toArray(IntAxisAlignedBB[]::new);
+    }
+
+    protected static List<HeightmapPos> enumerate(@NonNull PregenArea<HeightmapPos> area) {
+        List<HeightmapPos> positions = new ArrayList<>();
+        for (int level = 0; level <= area.maxLevel(); level++) {
+            for (int ring = 0; ring < area.rings(level); ring++) {
+                int sizeBefore = positions.size();
+                area.forEachInRing(level, ring, positions::add);
+                checkState(positions.size() - sizeBefore == area.positionCount(level, ring), "level %d ring %d", level, ring);
+            }
+        }
+        return positions;
+    }
+
+    protected static Path tempCheckpointFile() throws IOException {
+        Path dir = Files.createTempDirectory("fp2-pregen-test");
+        dir.toFile().deleteOnExit();
+        return dir.resolve("pregen.properties");
+    }
+
+    @Test
+    public void testEnumerationOrder() {
+        PregenArea<HeightmapPos> area = new HeightmapPregenArea(100, 64, -300, 1000, 3, coordLimits(-30_000_000, 30_000_000));
+        List<HeightmapPos> positions = enumerate(area);
+
+        checkState(positions.size() == area.positionCount());
+        checkState(new HashSet<>(positions).size() == positions.size(), "positions were visited more than once");
+
+        //levels must be visited in increasing order, and tiles within each level from the center outward
+        HeightmapPos prev = null;
+        for (HeightmapPos pos : positions) {
+            if (prev != null) {
+                checkState(prev.level() <= pos.level(), "%s visited before %s", prev, pos);
+                if (prev.level() == pos.level()) {
+                    checkState(chebyshev(area, prev) <= chebyshev(area, pos), "%s visited before %s", prev, pos);
+                }
+            }
+            prev = pos;
+        }
+
+        //the tiles containing the corners of the area must be included
+        for (int level = 0; level <= area.maxLevel(); level++) {
+            int shift = T_SHIFT + level;
+            checkState(positions.contains(new HeightmapPos(level, (100 - 1000) >> shift, (-300 - 1000) >> shift)));
+            checkState(positions.contains(new HeightmapPos(level, (100 + 1000) >> shift, (-300 + 1000) >> shift)));
+        }
+    }
+
+    protected static int chebyshev(@NonNull PregenArea<?> area, @NonNull HeightmapPos pos) {
+        int shift = T_SHIFT + pos.level();
+        return max(abs(pos.x() - (area.centerX() >> shift)), abs(pos.z() - (area.centerZ() >> shift)));
+    }
+
+    @Test
+    public void testClippedByCoordLimits() {
+        IntAxisAlignedBB[] limits = coordLimits(-500, 200);
+        PregenArea<HeightmapPos> area = new HeightmapPregenArea(150, 64, 150, 2000, 2, limits);
+        List<HeightmapPos> positions = enumerate(area);
+
+        checkState(positions.size() == area.positionCount());
+        checkState(new HashSet<>(positions).size() == positions.size(), "positions were visited more than once");
+        checkState(positions.stream().allMatch(pos -> pos.containedBy(limits)), "positions outside of coordinate limits were visited");
+        checkState(positions.size() == IntStream.rangeClosed(0, 2)
+                .mapToLong(lvl -> (long) (limits[lvl].maxX() - limits[lvl].minX() + 1) * (limits[lvl].maxZ() - limits[lvl].minZ() + 1))
+                .sum(), "the area should cover the whole world");
+    }
+
+    @Test
+    public void testGeneratesEverything() throws IOException {
+        PregenArea<HeightmapPos> area = new HeightmapPregenArea(0, 64, 0, 500, 2, coordLimits(-30_000_000, 30_000_000));
+        Path checkpointFile = tempCheckpointFile();
+
+        Set<HeightmapPos> storage = ConcurrentHashMap.newKeySet();
+        PregenTask<HeightmapPos> task = new PregenTask<>("test", area, pos -> {
+            checkState(storage.add(pos), "%s generated twice", pos);
+            return CompletableFuture.completedFuture(null);
+        }, checkpointFile, 8);
+        task.run();
+
+        checkState(!task.running());
+        checkState(!task.resumed());
+        checkState(storage.size() == area.positionCount());
+        checkState(task.tilesDone() == task.totalTiles());
+        checkState(!Files.exists(checkpointFile), "checkpoint wasn't deleted after completion");
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        PregenArea<HeightmapPos> area = new HeightmapPregenArea(-1000, 64, 2000, 700, 3, coordLimits(-30_000_000, 30_000_000));
+        Path checkpointFile = tempCheckpointFile();
+        long total = area.positionCount();
+
+        Set<HeightmapPos> storage = ConcurrentHashMap.newKeySet();
+
+        //generate a bit more than half of the tiles, then stop
+        List<PregenTask<HeightmapPos>> firstTask = new ArrayList<>();
+        firstTask.add(new PregenTask<>("test", area, pos -> {
+            storage.add(pos);
+            if (storage.size() == total / 2L) {
+                firstTask.get(0).stop();
+            }
+            return CompletableFuture.completedFuture(null);
+        }, checkpointFile, 8));
+        firstTask.get(0).run();
+
+        checkState(Files.exists(checkpointFile), "checkpoint wasn't saved after stopping");
+        PregenCheckpoint checkpoint = PregenCheckpoint.read(checkpointFile);
+        checkState(checkpoint.matches(area));
+        checkState(checkpoint.tilesDone() > 0L && checkpoint.tilesDone() <= storage.size(), checkpoint);
+
+        //resume and make sure that every tile is generated, and that completed rings aren't generated again
+        AtomicInteger generatedAfterResume = new AtomicInteger();
+        PregenTask<HeightmapPos> secondTask = new PregenTask<>("test", area, pos -> {
+            storage.add(pos);
+            generatedAfterResume.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, checkpointFile, 8);
+        checkState(secondTask.resumed());
+        checkState(secondTask.tilesDone() == checkpoint.tilesDone());
+        secondTask.run();
+
+        checkState(storage.size() == total, "%d/%d tiles generated", storage.size(), total);
+        checkState(generatedAfterResume.get() == total - checkpoint.tilesDone(), "%d tiles regenerated", generatedAfterResume.get());
+        checkState(secondTask.tilesDone() == total);
+        checkState(!Files.exists(checkpointFile), "checkpoint wasn't deleted after completion");
+    }
+
+    @Test
+    public void testMismatchedCheckpointIsDiscarded() throws IOException {
+        IntAxisAlignedBB[] limits = coordLimits(-30_000_000, 30_000_000);
+        Path checkpointFile = tempCheckpointFile();
+
+        PregenCheckpoint.of(new HeightmapPregenArea(0, 64, 0, 500, 2, limits), 1, 3, 1234L).write(checkpointFile);
+
+        PregenTask<HeightmapPos> task = new PregenTask<>("test", new HeightmapPregenArea(0, 64, 0, 600, 2, limits),
+                pos -> CompletableFuture.completedFuture(null), checkpointFile, 8);
+        checkState(!task.resumed());
+        checkState(task.tilesDone() == 0L);
+    }
+
+    @Test
+    public void testBoundedInFlight() throws IOException {
+        PregenArea<HeightmapPos> area = new HeightmapPregenArea(0, 64, 0, 2000, 1, coordLimits(-30_000_000, 30_000_000));
+        int maxInFlight = 16;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger maxObservedInFlight = new AtomicInteger();
+            Set<HeightmapPos> storage = ConcurrentHashMap.newKeySet();
+
+            Function<HeightmapPos, CompletableFuture<?>> loader = pos -> {
+                int count = inFlight.incrementAndGet();
+                maxObservedInFlight.accumulateAndGet(count, Math::max);
+                return CompletableFuture.runAsync(() -> {
+                    storage.add(pos);
+                    inFlight.decrementAndGet();
+                }, executor);
+            };
+
+            PregenTask<HeightmapPos> task = new PregenTask<>("test", area, loader, tempCheckpointFile(), maxInFlight);
+            task.run();
+
+            checkState(storage.size() == area.positionCount());
+            checkState(maxObservedInFlight.get() <= maxInFlight, "%d tiles were in flight at once", maxObservedInFlight.get());
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1L, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server.storage;
+
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageResources;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that storages opened using the same {@link RocksStorageResources} share a single memory budget.
+ *
+ * @author DaPorkchop_
+ */
+public class RocksStorageResourcesTest {
+    protected static final long BLOCK_CACHE_SIZE = 64L << 20L;
+    protected static final long WRITE_BUFFER_SIZE = 16L << 20L;
+
+    protected static final int STORAGES = 4;
+    protected static final long BYTES_PER_STORAGE = 48L << 20L;
+
+    @BeforeClass
+    public static void init() {
+        RocksDB.loadLibrary();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    protected static long property(List<RocksDB> dbs, String name) throws RocksDBException {
+        long sum = 0L;
+        for (RocksDB db : dbs) {
+            sum += db.getLongProperty(name);
+        }
+        return sum;
+    }
+
+    @Test
+    public void testSharedBudget() throws Exception {
+        try (RocksStorageResources resources = new RocksStorageResources(BLOCK_CACHE_SIZE, WRITE_BUFFER_SIZE, 10);
+             WriteOptions writeOptions = new WriteOptions().setDisableWAL(true)) {
+            List<RocksDB> dbs = new ArrayList<>();
+            List<List<ColumnFamilyHandle>> allHandles = new ArrayList<>();
+            try {
+                for (int i = 0; i < STORAGES; i++) {
+                    List<ColumnFamilyHandle> handles = new ArrayList<>();
+                    dbs.add(resources.open(this.folder.newFolder(), handles));
+                    allHandles.add(handles);
+                }
+
+                //every storage must be using the same block cache
+                for (RocksDB db : dbs) {
+                    checkState(db.getLongProperty("rocksdb.block-cache-capacity") == BLOCK_CACHE_SIZE);
+                }
+
+                //write to all of the storages in an interleaved fashion, and keep track of the highest combined memtable size. without a shared write buffer budget
+                //  every memtable would be allowed to grow to its own limit, which adds up to far more than the budget
+                SplittableRandom random = new SplittableRandom(1337L);
+                long maxMemtableBytes = 0L;
+                long writtenPerStorage = 0L;
+                for (int key = 0; writtenPerStorage < BYTES_PER_STORAGE; key++) {
+                    for (int i = 0; i < STORAGES; i++) {
+                        try (WriteBatch batch = new WriteBatch()) {
+                            for (int j = 0; j < 64; j++) {
+                                byte[] value = new byte[4096];
+                                random.nextBytes(value); //incompressible, so that the memtables are as big as possible
+
+                                //spread the writes across every column family apart from the default one
+                                ColumnFamilyHandle handle = allHandles.get(i).get(1 + (j & 3));
+                                batch.put(handle, keyBytes((key << 6) | j), value);
+                            }
+                            dbs.get(i).write(writeOptions, batch);
+                        }
+                    }
+                    writtenPerStorage += 64L * 4096L;
+
+                    maxMemtableBytes = Math.max(maxMemtableBytes, property(dbs, "rocksdb.cur-size-all-mem-tables"));
+                }
+
+                //the write buffer manager only triggers flushes, it doesn't block writes, so the limit may be exceeded somewhat while flushes are running
+                checkState(maxMemtableBytes <= WRITE_BUFFER_SIZE << 1L, "combined memtable size %d exceeds budget %d", maxMemtableBytes, WRITE_BUFFER_SIZE);
+            } finally { //column families must be closed before the db
+                allHandles.forEach(handles -> handles.forEach(ColumnFamilyHandle::close));
+                dbs.forEach(RocksDB::close);
+            }
+        }
+    }
+
+    protected static byte[] keyBytes(int i) {
+        //a level byte followed by some position bytes, like a real encoded position
+        return new byte[]{ 0, (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+    }
+}
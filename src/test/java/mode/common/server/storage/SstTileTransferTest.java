@@ -0,0 +1,208 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server.storage;
+
+import io.netty.buffer.Unpooled;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageResources;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.SstTileTransfer;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TileBlobStore;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampColumns;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Round-trips tiles between databases using {@link SstTileTransfer}.
+ *
+ * @author DaPorkchop_
+ */
+public class SstTileTransferTest {
+    protected static final int TILES = 5000;
+
+    protected static RocksStorageResources RESOURCES;
+
+    @BeforeClass
+    public static void init() {
+        RocksDB.loadLibrary();
+        RESOURCES = new RocksStorageResources(16L << 20L, 16L << 20L, 10);
+    }
+
+    @AfterClass
+    public static void release() {
+        RESOURCES.close();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    protected static byte[] data(VoxelPos pos, long timestamp) {
+        byte[] data = new byte[16 + (pos.hashCode() & 0xFF)];
+        new SplittableRandom(pos.hashCode() * 31L + timestamp).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Writes a tile in the same way as {@code RocksStorage} does. A {@code null} data array indicates that the tile is empty.
+     */
+    protected static void put(RocksDB db, List<ColumnFamilyHandle> handles, VoxelPos pos, long timestamp, byte[] data) throws RocksDBException {
+        byte[] key = pos.toBytes();
+        try (WriteBatch batch = new WriteBatch();
+             WriteOptions options = new WriteOptions()) {
+            TileBlobStore.Update update = new TileBlobStore(db, handles).update(batch);
+            update.release(db.get(handles.get(4 + pos.level()), key));
+
+            batch.merge(handles.get(1), key, TimestampColumns.encode(timestamp));
+            if (data != null) {
+                batch.put(handles.get(4 + pos.level()), key, update.store(data));
+            } else {
+                batch.delete(handles.get(4 + pos.level()), key);
+            }
+            if ((pos.hashCode() & 1) == 0) {
+                batch.put(handles.get(3), key, new byte[0]);
+            }
+
+            update.commit();
+            db.write(options, batch);
+        }
+    }
+
+    protected static byte[] payload(RocksDB db, List<ColumnFamilyHandle> handles, VoxelPos pos) throws RocksDBException {
+        byte[] value = db.get(handles.get(4 + pos.level()), pos.toBytes());
+        if (value == null) {
+            return null;
+        }
+
+        try (ReadOptions options = new ReadOptions()) {
+            return new TileBlobStore(db, handles).payload(value, options);
+        }
+    }
+
+    protected static long timestamp(RocksDB db, List<ColumnFamilyHandle> handles, byte[] key) {
+        try {
+            return TimestampColumns.decode(db.get(handles.get(1), key));
+        } catch (RocksDBException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SplittableRandom random = new SplittableRandom(1337L);
+        Set<VoxelPos> positionSet = new HashSet<>();
+        while (positionSet.size() < TILES) {
+            positionSet.add(new VoxelPos(random.nextInt(4), random.nextInt(-32, 32), random.nextInt(-8, 8), random.nextInt(-32, 32)));
+        }
+        List<VoxelPos> positions = new ArrayList<>(positionSet);
+
+        List<ColumnFamilyHandle> srcHandles = new ArrayList<>();
+        List<ColumnFamilyHandle> dstHandles = new ArrayList<>();
+        try (RocksDB src = RESOURCES.open(this.folder.newFolder(), srcHandles);
+             RocksDB dst = RESOURCES.open(this.folder.newFolder(), dstHandles)) {
+            try {
+                //every tile in the source has timestamp 10, and every 8th one is empty. the destination contains some of the same tiles with timestamps 5 or 15
+                for (VoxelPos pos : positions) {
+                    put(src, srcHandles, pos, 10L, (pos.hashCode() & 7) == 0 ? null : data(pos, 10L));
+
+                    switch (pos.hashCode() & 3) {
+                        case 1:
+                            put(dst, dstHandles, pos, 5L, data(pos, 5L));
+                            break;
+                        case 2:
+                            put(dst, dstHandles, pos, 15L, data(pos, 15L));
+                            break;
+                    }
+                }
+
+                //export levels 1-2, and only the tiles with non-negative x coordinates
+                File export = new File(this.folder.getRoot(), "export");
+                long exported = SstTileTransfer.exportTiles(RESOURCES, src, srcHandles, new TileBlobStore(src, srcHandles), export, "voxel", 1, 1, 2,
+                        key -> new VoxelPos(Unpooled.wrappedBuffer(key)).x() >= 0);
+
+                long expectedExported = positions.stream().filter(pos -> pos.level() >= 1 && pos.level() <= 2 && pos.x() >= 0).count();
+                checkState(exported == expectedExported, "exported %d tiles, expected %d", exported, expectedExported);
+
+                //importing into a storage for a different mode must fail
+                try {
+                    SstTileTransfer.importTiles(RESOURCES, dst, dstHandles, new TileBlobStore(dst, dstHandles), export, new File(this.folder.getRoot(), "tmp"), "heightmap", 1,
+                            key -> timestamp(dst, dstHandles, key));
+                    throw new AssertionError("imported tiles from another mode");
+                } catch (IOException e) {
+                    //expected
+                }
+
+                List<byte[]> imported = SstTileTransfer.importTiles(RESOURCES, dst, dstHandles, new TileBlobStore(dst, dstHandles), export, new File(this.folder.getRoot(), "tmp"), "voxel", 1,
+                        key -> timestamp(dst, dstHandles, key));
+                checkState(!new File(this.folder.getRoot(), "tmp").exists());
+
+                long expectedImported = 0L;
+                for (VoxelPos pos : positions) {
+                    byte[] key = pos.toBytes();
+                    byte[] data = payload(dst, dstHandles, pos);
+                    boolean exportedTile = pos.level() >= 1 && pos.level() <= 2 && pos.x() >= 0;
+                    int dstState = pos.hashCode() & 3;
+
+                    if (exportedTile && dstState != 2) { //the tile was imported
+                        expectedImported++;
+                        checkState(timestamp(dst, dstHandles, key) == 10L, "%s", pos);
+                        checkState(Arrays.equals(data, (pos.hashCode() & 7) == 0 ? null : data(pos, 10L)), "%s", pos);
+                        checkState((dst.get(dstHandles.get(3), key) != null) == ((pos.hashCode() & 1) == 0), "%s", pos);
+                    } else if (dstState == 1 || dstState == 2) { //the existing tile was kept
+                        long timestamp = dstState == 1 ? 5L : 15L;
+                        checkState(timestamp(dst, dstHandles, key) == timestamp, "%s", pos);
+                        checkState(Arrays.equals(data, data(pos, timestamp)), "%s", pos);
+                    } else { //the tile doesn't exist
+                        checkState(dst.get(dstHandles.get(1), key) == null, "%s", pos);
+                        checkState(data == null, "%s", pos);
+                    }
+                }
+                checkState(imported.size() == expectedImported, "imported %d tiles, expected %d", imported.size(), expectedImported);
+                TileBlobStoreTest.checkRefcounts(dst, dstHandles);
+
+                //importing again shouldn't change anything, since all of the tiles are now at least as new
+                checkState(SstTileTransfer.importTiles(RESOURCES, dst, dstHandles, new TileBlobStore(dst, dstHandles), export, new File(this.folder.getRoot(), "tmp"), "voxel", 1,
+                        key -> timestamp(dst, dstHandles, key)).isEmpty());
+            } finally { //column families must be closed before the db
+                srcHandles.forEach(ColumnFamilyHandle::close);
+                dstHandles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server.storage;
+
+import io.netty.buffer.ByteBuf;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageResources;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.StorageMigration;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.StorageMigrator;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TileBlobStore;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampColumns;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.daporkchop.fp2.mode.api.IFarPos.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Migrates synthetic databases using old on-disk layouts, and checks that the result is the same as if the tiles had been written using the current layout.
+ *
+ * @author DaPorkchop_
+ */
+public class StorageMigratorTest {
+    protected static final int TILES = 10000;
+
+    protected static final List<byte[]> LEGACY_COLUMN_NAMES = Arrays.asList(
+            RocksDB.DEFAULT_COLUMN_FAMILY,
+            name("tile_timestamp"),
+            name("tile_dirty_timestamp"),
+            name("tile_data"),
+            name("tile_any_vanilla_terrain_exists"));
+
+    protected static RocksStorageResources RESOURCES;
+
+    @BeforeClass
+    public static void init() {
+        RocksDB.loadLibrary();
+        RESOURCES = new RocksStorageResources(16L << 20L, 16L << 20L, 10);
+    }
+
+    @AfterClass
+    public static void release() {
+        RESOURCES.close();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    protected static byte[] name(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected static VoxelPos readLegacyPos(ByteBuf buf) {
+        VoxelPos pos = new VoxelPos(buf);
+        return new VoxelPos(pos.level(), pos.x() + ENCODED_COORDINATE_BIAS, pos.y() + ENCODED_COORDINATE_BIAS, pos.z() + ENCODED_COORDINATE_BIAS);
+    }
+
+    protected static byte[] legacyKey(VoxelPos pos) {
+        //the legacy encoding didn't bias the coordinates
+        return new VoxelPos(pos.level(), pos.x() - ENCODED_COORDINATE_BIAS, pos.y() - ENCODED_COORDINATE_BIAS, pos.z() - ENCODED_COORDINATE_BIAS).toBytes();
+    }
+
+    protected static List<VoxelPos> positions(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Set<VoxelPos> positions = new HashSet<>();
+        while (positions.size() < TILES) {
+            positions.add(new VoxelPos(random.nextInt(4), random.nextInt(-64, 64), random.nextInt(-16, 16), random.nextInt(-64, 64)));
+        }
+        return new ArrayList<>(positions);
+    }
+
+    protected static long timestamp(VoxelPos pos) {
+        return pos.hashCode() & 0xFFFFFFL;
+    }
+
+    protected static byte[] data(VoxelPos pos) {
+        byte[] data = new byte[16 + (pos.hashCode() & 0xFF)];
+        new SplittableRandom(pos.hashCode()).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Creates a database using layout v4.
+     */
+    protected static void createV4(File root, List<VoxelPos> positions) throws Exception {
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(root, LEGACY_COLUMN_NAMES, handles)) {
+            try {
+                for (VoxelPos pos : positions) {
+                    byte[] key = legacyKey(pos);
+                    byte[] timestamp = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, timestamp(pos)).array();
+                    db.put(handles.get(1), key, timestamp);
+                    if ((pos.hashCode() & 3) == 0) {
+                        db.put(handles.get(2), key, timestamp);
+                    }
+                    db.put(handles.get(3), key, data(pos));
+                    db.put(handles.get(4), key, new byte[0]);
+                }
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+        PFiles.ensureFileExists(new File(root, "v4"));
+    }
+
+    /**
+     * Checks that the database at the given root contains exactly the given tiles in the current layout.
+     */
+    protected static void checkMigrated(File root, List<VoxelPos> positions) throws Exception {
+        checkState(!PFiles.checkDirectoryExists(new File(root.getParentFile(), root.getName() + ".migrating")));
+        checkState(!new File(root, "v4").exists());
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(root, handles)) {
+            try {
+                for (VoxelPos pos : positions) {
+                    byte[] key = pos.toBytes();
+                    byte[] timestamp = TimestampColumns.encode(timestamp(pos));
+                    checkState(Arrays.equals(db.get(handles.get(1), key), timestamp), "%s", pos);
+                    checkState(Arrays.equals(db.get(handles.get(2), key), (pos.hashCode() & 3) == 0 ? timestamp : null), "%s", pos);
+                    checkState(db.get(handles.get(3), key) != null, "%s", pos);
+                    checkState(Arrays.equals(db.get(handles.get(4 + pos.level()), key), TileBlobStore.inline(data(pos))), "%s", pos);
+                }
+
+                checkState(count(db, handles.get(1)) == positions.size());
+                for (int level = 0; level < 4; level++) {
+                    int expected = 0;
+                    for (VoxelPos pos : positions) {
+                        if (pos.level() == level) {
+                            expected++;
+                        }
+                    }
+                    checkState(count(db, handles.get(4 + level)) == expected, "level %d", level);
+                }
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+
+    protected static long count(RocksDB db, ColumnFamilyHandle handle) throws RocksDBException {
+        long count = 0L;
+        try (RocksIterator itr = db.newIterator(handle)) {
+            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testMigrateV4() throws Exception {
+        File root = new File(this.folder.getRoot(), "voxel");
+        List<VoxelPos> positions = positions(1337L);
+        createV4(root, positions);
+
+        new StorageMigrator(RESOURCES, StorageMigrator.builtinMigrations(StorageMigratorTest::readLegacyPos), 64L << 10L).migrateIfNecessary(root);
+        checkMigrated(root, positions);
+
+        //migrating again should do nothing
+        new StorageMigrator(RESOURCES, StorageMigrator.builtinMigrations(StorageMigratorTest::readLegacyPos), 64L << 10L).migrateIfNecessary(root);
+        checkMigrated(root, positions);
+    }
+
+    @Test
+    public void testUnknownVersion() throws Exception {
+        File root = new File(this.folder.getRoot(), "voxel");
+        createV4(root, positions(1337L));
+
+        //there's no migration from v4, so the storage must be deleted
+        new StorageMigrator(RESOURCES, Collections.emptyList(), 64L << 10L).migrateIfNecessary(root);
+        checkState(PFiles.checkDirectoryExists(root));
+        checkState(root.list().length == 0);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        File root = new File(this.folder.getRoot(), "voxel");
+        List<VoxelPos> positions = positions(42L);
+        createV4(root, positions);
+
+        //interrupt the migration part of the way through the tile data
+        List<StorageMigration> migrations = new ArrayList<>(StorageMigrator.builtinMigrations(StorageMigratorTest::readLegacyPos));
+        AtomicLong remaining = new AtomicLong(TILES * 3L);
+        StorageMigration timestampMigration = migrations.get(0);
+        migrations.set(0, new StorageMigration() {
+            @Override
+            public int fromVersion() {
+                return timestampMigration.fromVersion();
+            }
+
+            @Override
+            public void migrate(byte[] columnName, byte[] key, byte[] value, Output out) {
+                if (remaining.decrementAndGet() < 0L) {
+                    throw new IllegalStateException("interrupted");
+                }
+                timestampMigration.migrate(columnName, key, value, out);
+            }
+        });
+
+        try {
+            new StorageMigrator(RESOURCES, migrations, 64L << 10L).migrateIfNecessary(root);
+            throw new AssertionError("migration wasn't interrupted");
+        } catch (IllegalStateException e) {
+            checkState("interrupted".equals(e.getMessage()), "%s", e);
+        }
+        checkState(new File(root, "v4").exists(), "the old storage must be left intact");
+        checkState(new File(new File(root.getParentFile(), "voxel.migrating"), "migration.properties").exists(), "no checkpoint was written");
+
+        //resume the migration, and make sure it doesn't start over from the beginning
+        remaining.set(Long.MAX_VALUE);
+        new StorageMigrator(RESOURCES, migrations, 64L << 10L).migrateIfNecessary(root);
+        checkState(Long.MAX_VALUE - remaining.get() < TILES * 2L, "migration was restarted instead of resumed");
+
+        checkMigrated(root, positions);
+    }
+
+    @Test
+    public void testInterruptedSwap() throws Exception {
+        File root = new File(this.folder.getRoot(), "voxel");
+        List<VoxelPos> positions = positions(1337L);
+        createV4(root, positions);
+
+        //migrate a copy of the storage, then pretend that the process died before the directories were swapped
+        File copy = new File(this.folder.getRoot(), "copy");
+        createV4(copy, positions);
+        new StorageMigrator(RESOURCES, StorageMigrator.builtinMigrations(StorageMigratorTest::readLegacyPos), 64L << 10L).migrateIfNecessary(copy);
+        checkState(copy.renameTo(new File(this.folder.getRoot(), "voxel.migrating")));
+
+        //the completed migration must be used without migrating again
+        new StorageMigrator(RESOURCES, Collections.emptyList(), 64L << 10L).migrateIfNecessary(root);
+        checkMigrated(root, positions);
+    }
+}
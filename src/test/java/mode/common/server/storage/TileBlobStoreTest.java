@@ -0,0 +1,358 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server.storage;
+
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageResources;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TileBlobStore;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that the refcounts maintained by {@link TileBlobStore} stay correct while tiles are overwritten and deleted concurrently.
+ *
+ * @author DaPorkchop_
+ */
+public class TileBlobStoreTest {
+    protected static final int THREADS = 4;
+    protected static final int OPERATIONS_PER_THREAD = 5000;
+    protected static final int KEYS = 256;
+    protected static final int PAYLOADS = 16;
+
+    /**
+     * The indices of the blob and blob refcount column families, see {@code RocksStorage#COLUMN_NAMES}.
+     */
+    protected static final int BLOB_COLUMN = 4 + MAX_LODS + 1;
+    protected static final int BLOB_REFCOUNT_COLUMN = 4 + MAX_LODS + 2;
+
+    protected static RocksStorageResources RESOURCES;
+
+    @BeforeClass
+    public static void init() {
+        RocksDB.loadLibrary();
+        RESOURCES = new RocksStorageResources(16L << 20L, 16L << 20L, 10);
+    }
+
+    @AfterClass
+    public static void release() {
+        RESOURCES.close();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Creates a set of distinct payloads. Half of them are large enough to be stored as blobs.
+     */
+    protected static byte[][] payloads() {
+        SplittableRandom random = new SplittableRandom(1337L);
+        byte[][] payloads = new byte[PAYLOADS][];
+        for (int i = 0; i < PAYLOADS; i++) {
+            payloads[i] = new byte[(i & 1) == 0 ? TileBlobStore.BLOB_THRESHOLD + random.nextInt(1024) : random.nextInt(1, TileBlobStore.BLOB_THRESHOLD)];
+            random.nextBytes(payloads[i]);
+        }
+        return payloads;
+    }
+
+    /**
+     * Writes or deletes a single tile's data in the same way as {@code WriteBehindQueue} does.
+     *
+     * @param payload the new payload, or {@code null} to delete the tile data
+     */
+    protected static void write(RocksDB db, List<ColumnFamilyHandle> handles, TileBlobStore store, Lock lock, byte[] key, byte[] payload) throws RocksDBException {
+        ColumnFamilyHandle cfTileData = handles.get(4 + key[0]);
+
+        lock.lock();
+        try (WriteBatch batch = new WriteBatch();
+             WriteOptions options = new WriteOptions()) {
+            TileBlobStore.Update update = store.update(batch);
+            update.release(db.get(cfTileData, key));
+            if (payload != null) {
+                batch.put(cfTileData, key, update.store(payload));
+            } else {
+                batch.delete(cfTileData, key);
+            }
+            update.commit();
+            db.write(options, batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks that every blob's refcount is exactly the number of tile data values which reference it, and that there are no unreferenced blobs.
+     */
+    protected static void checkRefcounts(RocksDB db, List<ColumnFamilyHandle> handles) throws RocksDBException {
+        Map<ByteBuffer, Long> references = new HashMap<>();
+        for (int level = 0; level < MAX_LODS; level++) {
+            try (RocksIterator itr = db.newIterator(handles.get(4 + level))) {
+                for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                    byte[] value = itr.value();
+                    if (TileBlobStore.isBlob(value)) {
+                        references.merge(ByteBuffer.wrap(TileBlobStore.blobKey(value)), 1L, Long::sum);
+                    }
+                }
+            }
+        }
+
+        int refcounts = 0;
+        try (RocksIterator itr = db.newIterator(handles.get(BLOB_REFCOUNT_COLUMN))) {
+            for (itr.seekToFirst(); itr.isValid(); itr.next(), refcounts++) {
+                ByteBuffer key = ByteBuffer.wrap(itr.key());
+                long refcount = ByteBuffer.wrap(itr.value()).getLong();
+                checkState(references.getOrDefault(key, 0L) == refcount, "blob %s has refcount %d, but is referenced %d times",
+                        Long.toHexString(key.getLong(0)), refcount, references.getOrDefault(key, 0L));
+            }
+        }
+        checkState(refcounts == references.size(), "%d refcounts for %d referenced blobs", refcounts, references.size());
+
+        int blobs = 0;
+        try (RocksIterator itr = db.newIterator(handles.get(BLOB_COLUMN))) {
+            for (itr.seekToFirst(); itr.isValid(); itr.next(), blobs++) {
+                checkState(references.containsKey(ByteBuffer.wrap(itr.key())), "unreferenced blob %s", Long.toHexString(ByteBuffer.wrap(itr.key()).getLong(0)));
+            }
+        }
+        checkState(blobs == references.size(), "%d blobs for %d referenced blobs", blobs, references.size());
+    }
+
+    @Test
+    public void testSharedBlobs() throws Exception {
+        byte[][] payloads = payloads();
+        Lock lock = new ReentrantLock();
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(this.folder.newFolder(), handles);
+             ReadOptions readOptions = new ReadOptions()) {
+            try {
+                TileBlobStore store = new TileBlobStore(db, handles);
+
+                //many tiles with the same large payload share a single blob, even if they're written in the same batch
+                List<byte[]> keys = new ArrayList<>();
+                try (WriteBatch batch = new WriteBatch();
+                     WriteOptions options = new WriteOptions()) {
+                    TileBlobStore.Update update = store.update(batch);
+                    for (int i = 0; i < 10; i++) {
+                        byte[] key = new VoxelPos(i & 1, i, 0, 0).toBytes();
+                        keys.add(key);
+                        batch.put(handles.get(4 + key[0]), key, update.store(payloads[0]));
+                    }
+                    update.commit();
+                    db.write(options, batch);
+                }
+                checkRefcounts(db, handles);
+                checkState(ByteBuffer.wrap(db.get(handles.get(BLOB_REFCOUNT_COLUMN), TileBlobStore.blobKey(db.get(handles.get(4), keys.get(0))))).getLong() == 10L);
+
+                for (byte[] key : keys) {
+                    byte[] value = db.get(handles.get(4 + key[0]), key);
+                    checkState(value.length == 1 + Long.BYTES);
+                    checkState(Arrays.equals(store.payload(value, readOptions), payloads[0]));
+                }
+
+                //small payloads are stored inline
+                write(db, handles, store, lock, keys.get(0), payloads[1]);
+                checkState(!TileBlobStore.isBlob(db.get(handles.get(4), keys.get(0))));
+                checkState(Arrays.equals(store.payload(db.get(handles.get(4), keys.get(0)), readOptions), payloads[1]));
+                checkRefcounts(db, handles);
+
+                //the blob is deleted once the last tile referencing it is overwritten or deleted
+                for (int i = 1; i < keys.size(); i++) {
+                    write(db, handles, store, lock, keys.get(i), (i & 1) == 0 ? null : payloads[2]);
+                    checkRefcounts(db, handles);
+                }
+                try (RocksIterator itr = db.newIterator(handles.get(BLOB_COLUMN))) {
+                    itr.seekToFirst();
+                    checkState(itr.isValid() && itr.key().length == Long.BYTES, "new blob is missing");
+                    itr.next();
+                    checkState(!itr.isValid(), "old blob wasn't deleted");
+                }
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+
+    @Test
+    public void testHashCollision() throws Exception {
+        byte[][] payloads = payloads();
+        Lock lock = new ReentrantLock();
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(this.folder.newFolder(), handles);
+             ReadOptions readOptions = new ReadOptions()) {
+            try {
+                //every payload has the same hash
+                TileBlobStore store = new TileBlobStore(db, handles, payload -> 0L);
+                byte[][] keys = new byte[4][];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = new VoxelPos(0, i, 0, 0).toBytes();
+                }
+
+                //within a single update, only the first payload is stored as a blob
+                try (WriteBatch batch = new WriteBatch();
+                     WriteOptions options = new WriteOptions()) {
+                    TileBlobStore.Update update = store.update(batch);
+                    batch.put(handles.get(4), keys[0], update.store(payloads[0]));
+                    batch.put(handles.get(4), keys[1], update.store(payloads[2]));
+                    batch.put(handles.get(4), keys[2], update.store(payloads[0]));
+                    update.commit();
+                    db.write(options, batch);
+                }
+                checkState(TileBlobStore.isBlob(db.get(handles.get(4), keys[0])));
+                checkState(!TileBlobStore.isBlob(db.get(handles.get(4), keys[1])));
+                checkState(TileBlobStore.isBlob(db.get(handles.get(4), keys[2])));
+                checkRefcounts(db, handles);
+
+                //a colliding payload is stored inline if a different payload is already stored as a blob, and shares the blob if it's the same payload
+                write(db, handles, store, lock, keys[3], payloads[4]);
+                checkState(!TileBlobStore.isBlob(db.get(handles.get(4), keys[3])));
+                write(db, handles, store, lock, keys[3], payloads[0]);
+                checkState(TileBlobStore.isBlob(db.get(handles.get(4), keys[3])));
+                checkRefcounts(db, handles);
+
+                byte[][] expected = { payloads[0], payloads[2], payloads[0], payloads[0] };
+                for (int i = 0; i < keys.length; i++) {
+                    checkState(Arrays.equals(store.payload(db.get(handles.get(4), keys[i]), readOptions), expected[i]), "tile %d has the wrong payload", i);
+                }
+
+                //once the blob is deleted, the next payload with the same hash takes its place
+                for (int i = 0; i < keys.length; i++) {
+                    if (i != 1) {
+                        write(db, handles, store, lock, keys[i], null);
+                    }
+                }
+                write(db, handles, store, lock, keys[0], payloads[2]);
+                checkState(TileBlobStore.isBlob(db.get(handles.get(4), keys[0])));
+                checkState(Arrays.equals(store.payload(db.get(handles.get(4), keys[0]), readOptions), payloads[2]));
+                checkRefcounts(db, handles);
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentOverwriteAndDelete() throws Exception {
+        byte[][] payloads = payloads();
+        Lock lock = new ReentrantLock();
+
+        byte[][] keys = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new VoxelPos(i & 3, i, 0, -i).toBytes();
+        }
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(this.folder.newFolder(), handles)) {
+            try {
+                TileBlobStore store = new TileBlobStore(db, handles);
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                AtomicBoolean running = new AtomicBoolean(true);
+
+                //writers randomly overwrite and delete tiles, with most of the keys sharing a few payloads
+                List<Thread> writers = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    SplittableRandom random = new SplittableRandom(t);
+                    writers.add(new Thread(() -> {
+                        try {
+                            for (int i = 0; i < OPERATIONS_PER_THREAD && failure.get() == null; i++) {
+                                write(db, handles, store, lock, keys[random.nextInt(KEYS)], random.nextInt(4) == 0 ? null : payloads[random.nextInt(PAYLOADS)]);
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }));
+                }
+
+                //a reader concurrently reads tiles without holding the lock, and must always see one of the payloads (or a released blob, which means it should retry)
+                Thread reader = new Thread(() -> {
+                    SplittableRandom random = new SplittableRandom(-1L);
+                    try (ReadOptions readOptions = new ReadOptions()) {
+                        while (running.get() && failure.get() == null) {
+                            byte[] key = keys[random.nextInt(KEYS)];
+                            byte[] value = db.get(handles.get(4 + key[0]), key);
+                            if (value == null) {
+                                continue;
+                            }
+
+                            byte[] payload = store.payload(value, readOptions);
+                            if (payload != null) {
+                                checkState(Arrays.stream(payloads).anyMatch(p -> Arrays.equals(p, payload)), "read an unknown payload");
+                            } else {
+                                checkState(TileBlobStore.isBlob(value), "inline value has no payload");
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+
+                reader.start();
+                writers.forEach(Thread::start);
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+                running.set(false);
+                reader.join();
+
+                if (failure.get() != null) {
+                    throw new AssertionError(failure.get());
+                }
+                checkRefcounts(db, handles);
+
+                //deleting every tile must delete every blob
+                for (byte[] key : keys) {
+                    write(db, handles, store, lock, key, null);
+                }
+                checkRefcounts(db, handles);
+                try (RocksIterator itr = db.newIterator(handles.get(BLOB_COLUMN))) {
+                    itr.seekToFirst();
+                    checkState(!itr.isValid(), "blobs weren't deleted");
+                }
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package mode.common.server.storage;
+
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.RocksStorageResources;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TileBlobStore;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TileEvictor;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampColumns;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that {@link TileEvictor} evicts the least recently accessed tiles, using a manually advanced clock.
+ *
+ * @author DaPorkchop_
+ */
+public class TileEvictorTest {
+    protected static final int TILES_PER_GROUP = 1000;
+    protected static final int TILE_BYTES = 4096;
+
+    /**
+     * The index of the last access column family, see {@code RocksStorage#COLUMN_NAMES}.
+     */
+    protected static final int LAST_ACCESS_COLUMN = 4 + MAX_LODS;
+
+    protected static RocksStorageResources RESOURCES;
+
+    @BeforeClass
+    public static void init() {
+        RocksDB.loadLibrary();
+        RESOURCES = new RocksStorageResources(16L << 20L, 16L << 20L, 10);
+    }
+
+    @AfterClass
+    public static void release() {
+        RESOURCES.close();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvictLeastRecentlyAccessed() throws Exception {
+        ManualClock clock = new ManualClock();
+        SplittableRandom random = new SplittableRandom(1337L);
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(this.folder.newFolder(), handles);
+             FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            try {
+                TileEvictor evictor = new TileEvictor(db, handles, clock);
+
+                //three groups of level-0 tiles: accessed on day 10, accessed on day 20 and never accessed. there's also a group of level-3 tiles which were accessed on
+                //  day 10, but are above the eviction level
+                List<byte[]> day10 = new ArrayList<>();
+                List<byte[]> day20 = new ArrayList<>();
+                List<byte[]> never = new ArrayList<>();
+                List<byte[]> highLevel = new ArrayList<>();
+                Set<VoxelPos> positions = new HashSet<>();
+                for (List<byte[]> group : new List[]{ day10, day20, never, highLevel }) {
+                    int level = group == highLevel ? 3 : 0;
+                    while (group.size() < TILES_PER_GROUP) {
+                        VoxelPos pos = new VoxelPos(level, random.nextInt(-1000, 1000), random.nextInt(-1000, 1000), random.nextInt(-1000, 1000));
+                        if (positions.add(pos)) {
+                            byte[] key = pos.toBytes();
+                            byte[] data = new byte[TILE_BYTES];
+                            random.nextBytes(data); //incompressible, so that the size on disk is predictable
+
+                            db.merge(handles.get(1), key, TimestampColumns.encode(1L));
+                            db.put(handles.get(4 + level), key, TileBlobStore.inline(data));
+                            group.add(key);
+                        }
+                    }
+                }
+
+                clock.day = 10;
+                evictor.recordAccess(day10.toArray(new byte[0][]));
+                evictor.recordAccess(highLevel.toArray(new byte[0][]));
+                clock.day = 20;
+                evictor.recordAccess(day20.toArray(new byte[0][]));
+                db.flush(flushOptions, handles);
+
+                long size = evictor.size();
+                checkState(evictor.evict(size, 2, new ReentrantLock(), key -> {
+                    throw new IllegalStateException("evicted tiles while within budget");
+                }).isEmpty(), "evicted tiles while within budget");
+
+                //the budget only leaves enough space for about two and a half groups, so all of the tiles which were never accessed and some of the tiles which
+                //  were accessed on day 10 have to be evicted
+                long budget = size * 5L / 8L;
+                ReentrantLock lock = new ReentrantLock();
+                List<byte[]> notified = new ArrayList<>();
+                List<byte[]> evicted = evictor.evict(budget, 2, lock, key -> {
+                    //the tile must already be deleted, and nothing else may have been able to write it again
+                    checkState(lock.isHeldByCurrentThread(), "tile write lock isn't held");
+                    try {
+                        checkState(db.get(handles.get(1), key) == null, "tile wasn't deleted yet");
+                    } catch (RocksDBException e) {
+                        throw new RuntimeException(e);
+                    }
+                    notified.add(key);
+                });
+                checkState(notified.equals(evicted), "callback wasn't notified of every evicted tile");
+                checkState(evictor.size() <= budget, "size %d exceeds budget %d after eviction", evictor.size(), budget);
+
+                int evictedNever = countEvicted(db, handles, never);
+                int evictedDay10 = countEvicted(db, handles, day10);
+                checkState(evictedNever == TILES_PER_GROUP, "only evicted %d tiles which were never accessed", evictedNever);
+                checkState(evictedDay10 > 0 && evictedDay10 < TILES_PER_GROUP, "evicted %d tiles which were accessed on day 10", evictedDay10);
+                checkState(countEvicted(db, handles, day20) == 0, "evicted tiles which were accessed on day 20");
+                checkState(countEvicted(db, handles, highLevel) == 0, "evicted tiles above the maximum level");
+                checkState(evicted.size() == evictedNever + evictedDay10);
+
+                //evicted tiles are forgotten, so accessing them again on the same day must be recorded
+                byte[] key = never.get(0);
+                checkState(db.get(handles.get(LAST_ACCESS_COLUMN), key) == null);
+                evictor.recordAccess(key);
+                checkState(TileEvictor.decodeDay(db.get(handles.get(LAST_ACCESS_COLUMN), key)) == 20);
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+
+    @Test
+    public void testRecentlyAccessedTilesAreKept() throws Exception {
+        ManualClock clock = new ManualClock();
+        SplittableRandom random = new SplittableRandom(1337L);
+
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (RocksDB db = RESOURCES.open(this.folder.newFolder(), handles);
+             FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+            try {
+                TileEvictor evictor = new TileEvictor(db, handles, clock);
+
+                //groups of tiles accessed on day 5, yesterday and today
+                int[] days = { 5, 19, 20 };
+                List<List<byte[]>> groups = new ArrayList<>();
+                for (int i = 0; i < days.length; i++) {
+                    List<byte[]> group = new ArrayList<>();
+                    for (int j = 0; j < TILES_PER_GROUP; j++) {
+                        byte[] key = new VoxelPos(0, i, j, 0).toBytes();
+                        byte[] data = new byte[TILE_BYTES];
+                        random.nextBytes(data);
+
+                        db.merge(handles.get(1), key, TimestampColumns.encode(1L));
+                        db.put(handles.get(4), key, TileBlobStore.inline(data));
+                        group.add(key);
+                    }
+                    clock.day = days[i];
+                    evictor.recordAccess(group.toArray(new byte[0][]));
+                    groups.add(group);
+                }
+                db.flush(flushOptions, handles);
+
+                //the budget can't be met, but only the tiles which weren't accessed recently may be evicted
+                for (int pass = 0; pass < 2; pass++) {
+                    evictor.evict(0L, 2, new ReentrantLock(), key -> {
+                    });
+                    checkState(countEvicted(db, handles, groups.get(0)) == TILES_PER_GROUP, "pass %d: old tiles weren't evicted", pass);
+                    checkState(countEvicted(db, handles, groups.get(1)) == 0, "pass %d: evicted tiles which were accessed yesterday", pass);
+                    checkState(countEvicted(db, handles, groups.get(2)) == 0, "pass %d: evicted tiles which were accessed today", pass);
+                }
+
+                //once cancelled, nothing is evicted anymore
+                clock.day = 30;
+                evictor.cancel();
+                checkState(evictor.evict(0L, 2, new ReentrantLock(), key -> {
+                }).isEmpty(), "evicted tiles after being cancelled");
+            } finally { //column families must be closed before the db
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+
+    @Test
+    public void testDayEncoding() {
+        for (int day : new int[]{ Integer.MIN_VALUE, -1, 0, 1, 19000, Integer.MAX_VALUE }) {
+            checkState(TileEvictor.decodeDay(TileEvictor.encodeDay(day)) == day);
+        }
+        checkState(TileEvictor.decodeDay(null) == Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return the number of tiles with the given keys which no longer exist
+     */
+    protected static int countEvicted(RocksDB db, List<ColumnFamilyHandle> handles, List<byte[]> keys) throws Exception {
+        int count = 0;
+        for (byte[] key : keys) {
+            if (db.get(handles.get(1), key) == null) {
+                checkState(db.get(handles.get(4 + key[0]), key) == null, "tile data wasn't deleted");
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A {@link Clock} which is advanced manually.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class ManualClock extends Clock {
+        public int day;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(this.millis());
+        }
+
+        @Override
+        public long millis() {
+            return this.day * TimeUnit.DAYS.toMillis(1L) + TimeUnit.HOURS.toMillis(12L);
+        }
+    }
+}
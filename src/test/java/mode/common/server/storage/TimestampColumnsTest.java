@@ -0,0 +1,187 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package mode.common.server.storage;
+
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampColumns;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that the encoding used by {@link TimestampColumns} behaves correctly with RocksDB's {@code "max"} merge operator.
+ *
+ * @author DaPorkchop_
+ */
+public class TimestampColumnsTest {
+    @BeforeClass
+    public static void init() {
+        RocksDB.loadLibrary();
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    protected static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int d = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    protected static byte[] key(int i) {
+        return ("tile_" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testEncodingOrder() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+
+        long[] special = { TIMESTAMP_BLANK, TIMESTAMP_GENERATED, 0L, 1L, Long.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE };
+        for (int i = 0; i < 100000; i++) {
+            long a = (i & 1) == 0 ? r.nextLong() : special[r.nextInt(special.length)];
+            long b = (i & 2) == 0 ? r.nextLong() : special[r.nextInt(special.length)];
+
+            byte[] encodedA = TimestampColumns.encode(a);
+            checkState(TimestampColumns.decode(encodedA) == a);
+            checkState(Integer.signum(compareUnsigned(encodedA, TimestampColumns.encode(b))) == Long.signum(Long.compare(a, b)), "%d <=> %d", a, b);
+        }
+
+        checkState(TimestampColumns.decode(null) == TIMESTAMP_BLANK);
+    }
+
+    @Test
+    public void testResolveDirtyTimestamp() {
+        checkState(TimestampColumns.resolveDirtyTimestamp(TIMESTAMP_BLANK, 5L) == TIMESTAMP_BLANK);
+        checkState(TimestampColumns.resolveDirtyTimestamp(5L, TIMESTAMP_BLANK) == TIMESTAMP_BLANK);
+        checkState(TimestampColumns.resolveDirtyTimestamp(5L, 4L) == TIMESTAMP_BLANK);
+        checkState(TimestampColumns.resolveDirtyTimestamp(5L, 5L) == TIMESTAMP_BLANK);
+        checkState(TimestampColumns.resolveDirtyTimestamp(5L, 6L) == 6L);
+        checkState(TimestampColumns.resolveDirtyTimestamp(TIMESTAMP_GENERATED, 0L) == 0L);
+    }
+
+    @Test
+    public void testMergeOperator() throws RocksDBException {
+        final int keys = 1024;
+        final int threads = 8;
+        final int opsPerThread = 20000;
+
+        try (ColumnFamilyOptions cfOptions = new ColumnFamilyOptions()
+                .setCompressionType(CompressionType.ZSTD_COMPRESSION)
+                .setMergeOperatorName(TimestampColumns.MERGE_OPERATOR_NAME);
+             DBOptions dbOptions = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+             WriteOptions writeOptions = new WriteOptions()) {
+            List<ColumnFamilyHandle> handles = new ArrayList<>();
+            try (RocksDB db = RocksDB.open(dbOptions, this.folder.getRoot().getPath(), Arrays.asList(
+                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, cfOptions),
+                    new ColumnFamilyDescriptor("tile_timestamp".getBytes(StandardCharsets.UTF_8), cfOptions)), handles)) {
+                try {
+                    ColumnFamilyHandle cf = handles.get(1);
+
+                    //the expected maximum for each key, as a plain java array
+                    long[] expected = new long[keys];
+                    Arrays.fill(expected, TIMESTAMP_BLANK);
+
+                    //some keys start off with a plain put, which must also be taken into account by the merge
+                    for (int i = 0; i < keys; i += 3) {
+                        expected[i] = ThreadLocalRandom.current().nextLong(-1000L, 1000L);
+                        db.put(cf, writeOptions, key(i), TimestampColumns.encode(expected[i]));
+                    }
+
+                    //blind merges from many threads at once, both individually and in batches
+                    long[][] merged = new long[threads][keys];
+                    CompletableFuture.allOf(IntStream.range(0, threads).mapToObj(t -> CompletableFuture.runAsync(() -> {
+                        ThreadLocalRandom r = ThreadLocalRandom.current();
+                        Arrays.fill(merged[t], TIMESTAMP_BLANK);
+
+                        try (WriteBatch batch = new WriteBatch()) {
+                            for (int op = 0; op < opsPerThread; op++) {
+                                int i = r.nextInt(keys);
+                                long value = r.nextLong(-1000L, 1000000L);
+                                merged[t][i] = Math.max(merged[t][i], value);
+
+                                if (r.nextBoolean()) {
+                                    db.merge(cf, writeOptions, key(i), TimestampColumns.encode(value));
+                                } else {
+                                    batch.merge(cf, key(i), TimestampColumns.encode(value));
+                                    if (batch.count() >= 64) {
+                                        db.write(writeOptions, batch);
+                                        batch.clear();
+                                    }
+                                }
+                            }
+                            db.write(writeOptions, batch);
+                        } catch (RocksDBException e) {
+                            throw new RuntimeException(e);
+                        }
+                    })).toArray(CompletableFuture[]::new)).join();
+
+                    for (long[] values : merged) {
+                        for (int i = 0; i < keys; i++) {
+                            expected[i] = Math.max(expected[i], values[i]);
+                        }
+                    }
+
+                    //check before and after the merge operands are flushed and compacted
+                    this.checkValues(db, cf, expected);
+                    try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+                        db.flush(flushOptions, cf);
+                    }
+                    this.checkValues(db, cf, expected);
+                    db.compactRange(cf);
+                    this.checkValues(db, cf, expected);
+                } finally { //column families must be closed before the db
+                    handles.forEach(ColumnFamilyHandle::close);
+                }
+            }
+        }
+    }
+
+    protected void checkValues(RocksDB db, ColumnFamilyHandle cf, long[] expected) throws RocksDBException {
+        for (int i = 0; i < expected.length; i++) {
+            long actual = TimestampColumns.decode(db.get(cf, key(i)));
+            checkState(actual == expected[i], "key %d: expected %d, got %d", i, expected[i], actual);
+        }
+    }
+}
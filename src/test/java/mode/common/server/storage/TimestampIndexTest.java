@@ -0,0 +1,229 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package mode.common.server.storage;
+
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampColumns;
+import net.daporkchop.fp2.mode.common.server.storage.rocksdb.TimestampIndex;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.fp2.mode.api.tile.ITileMetadata.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class TimestampIndexTest {
+    protected static byte[] key(int i) {
+        //13 bytes, the same length as an encoded VoxelPos
+        return ByteBuffer.allocate(13).put((byte) (i & 0xF)).putInt(i >> 4).putLong(~(long) i).array();
+    }
+
+    @Test
+    public void testPopulate() {
+        try (TimestampIndex index = new TimestampIndex(1 << 16)) {
+            for (int i = 0; i < 10000; i++) {
+                checkState(index.timestamp(key(i)) == TimestampIndex.ABSENT);
+                index.populate(key(i), index.generation(key(i)), i, (i & 1) == 0 ? TIMESTAMP_BLANK : i + 1L);
+            }
+
+            checkState(index.size() == 10000L, index.size());
+            for (int i = 0; i < 10000; i++) {
+                checkState(index.timestamp(key(i)) == i);
+                checkState(index.dirtyTimestamp(key(i)) == ((i & 1) == 0 ? TIMESTAMP_BLANK : i + 1L));
+            }
+
+            //populate never replaces an existing entry
+            index.populate(key(0), index.generation(key(0)), 1337L, TIMESTAMP_BLANK);
+            checkState(index.timestamp(key(0)) == 0L);
+        }
+    }
+
+    @Test
+    public void testStaleGeneration() {
+        try (TimestampIndex index = new TimestampIndex(1 << 16)) {
+            byte[] key = key(42);
+
+            //the segment is modified while the values are being read from the db, so they must be discarded
+            long generation = index.generation(key);
+            index.mergeTimestamp(key, 2L);
+            index.populate(key, generation, 1L, TIMESTAMP_BLANK);
+            checkState(index.timestamp(key) == TimestampIndex.ABSENT);
+
+            generation = index.generation(key);
+            index.invalidate(key);
+            index.populate(key, generation, 1L, TIMESTAMP_BLANK);
+            checkState(index.timestamp(key) == TimestampIndex.ABSENT);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        try (TimestampIndex index = new TimestampIndex(1 << 16)) {
+            byte[] key = key(42);
+
+            //merges never add new entries
+            index.mergeTimestamp(key, 2L);
+            index.mergeDirtyTimestamp(key, 3L);
+            checkState(index.timestamp(key) == TimestampIndex.ABSENT);
+
+            index.populate(key, index.generation(key), 2L, TIMESTAMP_BLANK);
+            checkState(index.timestamp(key) == 2L);
+            checkState(index.dirtyTimestamp(key) == TIMESTAMP_BLANK);
+
+            //merges keep the newer value, regardless of the order in which they're applied
+            index.mergeDirtyTimestamp(key, 5L);
+            index.mergeDirtyTimestamp(key, 4L);
+            checkState(index.dirtyTimestamp(key) == 5L);
+            index.mergeTimestamp(key, 1L);
+            checkState(index.timestamp(key) == 2L);
+
+            //dirty timestamps which aren't newer than the timestamp are ignored
+            index.mergeTimestamp(key, 5L);
+            checkState(index.timestamp(key) == 5L);
+            checkState(index.dirtyTimestamp(key) == TIMESTAMP_BLANK);
+            index.mergeDirtyTimestamp(key, 6L);
+            checkState(index.dirtyTimestamp(key) == 6L);
+
+            index.invalidate(key);
+            checkState(index.timestamp(key) == TimestampIndex.ABSENT);
+            checkState(index.dirtyTimestamp(key) == TimestampIndex.ABSENT);
+        }
+    }
+
+    @Test
+    public void testOversizedKeysIgnored() {
+        try (TimestampIndex index = new TimestampIndex(1 << 16)) {
+            byte[] key = new byte[TimestampIndex.MAX_KEY_BYTES + 1];
+            index.populate(key, index.generation(key), 1L, TIMESTAMP_BLANK);
+            checkState(index.timestamp(key) == TimestampIndex.ABSENT);
+            checkState(index.size() == 0L);
+        }
+    }
+
+    @Test
+    public void testEvictsOnlyCleanEntries() {
+        final int maxEntries = 1 << 10;
+
+        try (TimestampIndex index = new TimestampIndex(maxEntries)) {
+            //fill the index with dirty entries up to half its capacity
+            for (int i = 0; i < maxEntries / 2; i++) {
+                index.populate(key(i), index.generation(key(i)), i, i + 1L);
+            }
+
+            //add far more clean entries than can fit
+            for (int i = maxEntries / 2; i < maxEntries * 16; i++) {
+                index.populate(key(i), index.generation(key(i)), i, TIMESTAMP_BLANK);
+            }
+
+            checkState(index.size() <= maxEntries * 2L, "index has grown beyond its bounds: %d", index.size());
+            for (int i = 0; i < maxEntries / 2; i++) {
+                checkState(index.dirtyTimestamp(key(i)) == i + 1L, "dirty entry %d was evicted", i);
+            }
+
+            //every cached entry must still have the correct value
+            for (int i = maxEntries / 2; i < maxEntries * 16; i++) {
+                long timestamp = index.timestamp(key(i));
+                checkState(timestamp == TimestampIndex.ABSENT || timestamp == i);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCoherence() {
+        final int keys = 4096;
+        final int threads = 8;
+        final int opsPerThread = 200000;
+
+        //a small index, so that eviction happens regularly
+        try (TimestampIndex index = new TimestampIndex(keys / 4)) {
+            //a simple model of the database: timestamps are only ever merged using max(), except for dirty timestamps being deleted by clearDirty. each key's values
+            //  are read and written atomically (the equivalent of a multiGet or write batch), and the index is updated afterwards using the same protocol as RocksStorage
+            long[] dbTimestamps = new long[keys];
+            long[] dbDirtyTimestamps = new long[keys];
+            Object[] locks = new Object[keys];
+            for (int i = 0; i < keys; i++) {
+                dbTimestamps[i] = TIMESTAMP_BLANK;
+                dbDirtyTimestamps[i] = TIMESTAMP_BLANK;
+                locks[i] = new Object();
+            }
+
+            CompletableFuture.allOf(IntStream.range(0, threads).mapToObj(t -> CompletableFuture.runAsync(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int op = 0; op < opsPerThread; op++) {
+                    int i = r.nextInt(keys);
+                    byte[] key = key(i);
+                    long value = r.nextLong(1000L);
+
+                    switch (r.nextInt(4)) {
+                        case 0: //set
+                            synchronized (locks[i]) {
+                                dbTimestamps[i] = Math.max(dbTimestamps[i], value);
+                            }
+                            index.mergeTimestamp(key, value);
+                            break;
+                        case 1: //markDirty
+                            synchronized (locks[i]) {
+                                dbDirtyTimestamps[i] = Math.max(dbDirtyTimestamps[i], value);
+                            }
+                            index.mergeDirtyTimestamp(key, value);
+                            break;
+                        case 2: //clearDirty
+                            synchronized (locks[i]) {
+                                dbDirtyTimestamps[i] = TIMESTAMP_BLANK;
+                            }
+                            index.invalidate(key);
+                            break;
+                        case 3: { //read-through
+                            if (index.timestamp(key) != TimestampIndex.ABSENT) {
+                                break;
+                            }
+
+                            long generation = index.generation(key);
+                            long timestamp;
+                            long dirtyTimestamp;
+                            synchronized (locks[i]) {
+                                timestamp = dbTimestamps[i];
+                                dirtyTimestamp = dbDirtyTimestamps[i];
+                            }
+                            Thread.yield(); //give other threads a chance to modify the db in between the read and populating the index
+                            index.populate(key, generation, timestamp, dirtyTimestamp);
+                            break;
+                        }
+                    }
+                }
+            })).toArray(CompletableFuture[]::new)).join();
+
+            //once everything has settled, every entry in the index must match the db
+            for (int i = 0; i < keys; i++) {
+                long timestamp = index.timestamp(key(i));
+                long dirtyTimestamp = index.dirtyTimestamp(key(i));
+                long expectedDirtyTimestamp = TimestampColumns.resolveDirtyTimestamp(dbTimestamps[i], dbDirtyTimestamps[i]);
+                checkState(timestamp == TimestampIndex.ABSENT || timestamp == dbTimestamps[i], "key %d: index has timestamp %d, db has %d", i, timestamp, dbTimestamps[i]);
+                checkState(dirtyTimestamp == TimestampIndex.ABSENT || dirtyTimestamp == expectedDirtyTimestamp,
+                        "key %d: index has dirty timestamp %d, db has %d", i, dirtyTimestamp, expectedDirtyTimestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.net.packet.standard.client.CPacketRequestTiles;
+import net.daporkchop.fp2.util.Constants;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import util.FP2Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class RequestTilesTest {
+    @BeforeClass
+    public static void init() {
+        FP2Test.init();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        IFarRenderMode<?, ?> mode = IFarRenderMode.REGISTRY.get("heightmap");
+        Collection<IFarPos> positions = new ArrayList<>();
+        for (int i = 0; i < CPacketRequestTiles.MAX_POSITIONS; i++) {
+            positions.add(new HeightmapPos(i & 7, i, -i));
+        }
+
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            new CPacketRequestTiles().mode(mode).positions(positions).toBytes(buf);
+
+            CPacketRequestTiles decoded = new CPacketRequestTiles();
+            decoded.fromBytes(buf);
+            checkState(decoded.mode() == mode);
+            checkState(decoded.positions().equals(positions));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOversizedCount() {
+        //a count which would require a multi-gigabyte allocation if it were trusted
+        decode(Integer.MAX_VALUE, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountAboveLimit() {
+        decode(CPacketRequestTiles.MAX_POSITIONS + 1, CPacketRequestTiles.MAX_POSITIONS + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountAboveRemainingBytes() {
+        //the count is within the limit, but the packet isn't nearly long enough to contain that many positions
+        decode(CPacketRequestTiles.MAX_POSITIONS, 1);
+    }
+
+    /**
+     * Decodes a heightmap request packet which claims to contain {@code count} positions, but actually contains {@code actualCount}.
+     */
+    protected static void decode(int count, int actualCount) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            Constants.writeString(buf, "heightmap");
+            Constants.writeVarInt(buf, count);
+            for (int i = 0; i < actualCount; i++) {
+                new HeightmapPos(0, i, i).writePos(buf);
+            }
+
+            new CPacketRequestTiles().fromBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package net.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import lombok.NonNull;
+import net.daporkchop.fp2.mode.api.IFarPos;
+import net.daporkchop.fp2.mode.api.IFarRenderMode;
+import net.daporkchop.fp2.mode.api.IFarTile;
+import net.daporkchop.fp2.mode.api.tile.TilePayloadCache;
+import net.daporkchop.fp2.mode.api.tile.TileSnapshot;
+import net.daporkchop.fp2.mode.heightmap.HeightmapData;
+import net.daporkchop.fp2.mode.heightmap.HeightmapPos;
+import net.daporkchop.fp2.mode.heightmap.HeightmapTile;
+import net.daporkchop.fp2.mode.voxel.VoxelData;
+import net.daporkchop.fp2.mode.voxel.VoxelPos;
+import net.daporkchop.fp2.mode.voxel.VoxelTile;
+import net.daporkchop.fp2.net.packet.standard.server.SPacketTileBatch;
+import net.minecraft.init.Biomes;
+import net.minecraft.init.Blocks;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import util.FP2Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+import static net.daporkchop.fp2.mode.heightmap.HeightmapConstants.*;
+import static net.daporkchop.fp2.util.Constants.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class TileBatchTest {
+    protected static final long PAYLOAD_CACHE_CAPACITY = 16L << 20L;
+
+    @BeforeClass
+    public static void init() {
+        FP2Test.init();
+    }
+
+    protected static TileSnapshot<VoxelPos, VoxelTile> voxelTile(int i) {
+        return snapshot(new VoxelPos(0, i, 0, 0), voxelTileContents(i));
+    }
+
+    protected static VoxelTile voxelTileContents(int i) {
+        VoxelTile tile = new VoxelTile();
+        VoxelData data = new VoxelData();
+        for (int x = 0; x < T_VOXELS; x++) {
+            for (int z = 0; z < T_VOXELS; z++) {
+                //a gently rolling surface which is different for every tile
+                int y = (T_VOXELS >> 1) + (int) (3.0d * Math.sin((x + i) * 0.4d) * Math.cos(z * 0.3d));
+                data.reset();
+                data.x = data.y = data.z = 128;
+                data.edges = 0b010;
+                data.states[1] = 1;
+                data.biome = 1;
+                data.light = 0xF0;
+                tile.set(x, y, z, data);
+            }
+        }
+        return tile;
+    }
+
+    protected static TileSnapshot<HeightmapPos, HeightmapTile> heightmapTile(int i) {
+        HeightmapTile tile = new HeightmapTile();
+        HeightmapData data = new HeightmapData();
+        for (int x = 0; x < T_VOXELS; x++) {
+            for (int z = 0; z < T_VOXELS; z++) {
+                data.reset();
+                data.state = Blocks.GRASS.getDefaultState();
+                data.biome = Biomes.PLAINS;
+                data.height_int = 64 + (int) (8.0d * Math.sin((x + i) * 0.2d) * Math.cos(z * 0.15d));
+                data.light = 0xF0;
+                tile.setLayer(x, z, DEFAULT_LAYER, data);
+            }
+        }
+        return snapshot(new HeightmapPos(0, i, 0), tile);
+    }
+
+    protected static <POS extends IFarPos, T extends IFarTile> TileSnapshot<POS, T> snapshot(@NonNull POS pos, @NonNull T tile) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            byte[] data = null;
+            if (!tile.write(buf)) {
+                data = new byte[buf.readableBytes()];
+                buf.readBytes(data);
+            }
+            return new TileSnapshot<>(pos, 0L, data);
+        } finally {
+            buf.release();
+        }
+    }
+
+    protected static void checkEquals(@NonNull TileSnapshot<?, ?> a, @NonNull TileSnapshot<?, ?> b) {
+        ByteBuf bufA = ByteBufAllocator.DEFAULT.buffer();
+        ByteBuf bufB = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            a.write(bufA);
+            b.write(bufB);
+            checkState(ByteBufUtil.equals(bufA, bufB), "%s != %s", a.pos(), b.pos());
+        } finally {
+            bufA.release();
+            bufB.release();
+        }
+    }
+
+    protected static void testRoundTrip(@NonNull String modeName, @NonNull IntFunction<TileSnapshot<?, ?>> tileFactory) {
+        IFarRenderMode<?, ?> mode = IFarRenderMode.REGISTRY.get(modeName);
+
+        List<TileSnapshot<?, ?>> tiles = new ArrayList<>(SPacketTileBatch.MAX_TILES);
+        for (int i = 0; i < SPacketTileBatch.MAX_TILES; i++) {
+            tiles.add(tileFactory.apply(i));
+        }
+
+        ByteBuf uncompressed = ByteBufAllocator.DEFAULT.buffer();
+        ByteBuf packet = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            tiles.forEach(tile -> tile.write(uncompressed));
+            new SPacketTileBatch().mode(mode).tiles(tiles).toBytes(packet);
+
+            //batches of similar tiles should compress very well, even without a dictionary
+            double ratio = packet.readableBytes() / (double) uncompressed.readableBytes();
+            checkState(ratio < 0.25d, "%s: compression ratio too high: %d/%d", modeName, packet.readableBytes(), uncompressed.readableBytes());
+
+            SPacketTileBatch decoded = new SPacketTileBatch();
+            decoded.fromBytes(packet);
+            checkState(decoded.mode() == mode);
+            checkState(decoded.tiles().size() == tiles.size());
+            for (int i = 0; i < tiles.size(); i++) {
+                checkEquals(tiles.get(i), decoded.tiles().get(i));
+            }
+        } finally {
+            uncompressed.release();
+            packet.release();
+        }
+    }
+
+    @Test
+    public void testReferences() {
+        IFarRenderMode<?, ?> mode = IFarRenderMode.REGISTRY.get("voxel");
+        TilePayloadCache serverCache = new TilePayloadCache(PAYLOAD_CACHE_CAPACITY, false);
+        TilePayloadCache clientCache = new TilePayloadCache(PAYLOAD_CACHE_CAPACITY, true);
+
+        //the second batch contains the same payloads as the first one at different positions, so only references should be sent
+        for (int round = 0; round < 2; round++) {
+            List<TileSnapshot<?, ?>> tiles = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tiles.add(snapshot(new VoxelPos(0, i, round, 0), voxelTileContents(i)));
+            }
+
+            ByteBuf packet = ByteBufAllocator.DEFAULT.buffer();
+            try {
+                SPacketTileBatch sent = new SPacketTileBatch().mode(mode).tiles(new ArrayList<>(tiles)).deduplicate(serverCache);
+                for (TilePayloadCache.Reference reference : sent.references()) {
+                    checkState((reference != null) == (round != 0), "round %d: unexpected reference state", round);
+                }
+                sent.toBytes(packet);
+
+                SPacketTileBatch decoded = new SPacketTileBatch();
+                decoded.fromBytes(packet);
+                decoded.resolveReferences(clientCache);
+                for (int i = 0; i < tiles.size(); i++) {
+                    checkEquals(tiles.get(i), decoded.tiles().get(i));
+                }
+            } finally {
+                packet.release();
+            }
+        }
+        checkState(serverCache.count() == clientCache.count());
+    }
+
+    @Test
+    public void testReferenceCollision() {
+        IFarRenderMode<?, ?> mode = IFarRenderMode.REGISTRY.get("voxel");
+
+        //every payload has the same hash
+        TilePayloadCache serverCache = new TilePayloadCache(PAYLOAD_CACHE_CAPACITY, false, payload -> 0L);
+        TilePayloadCache clientCache = new TilePayloadCache(PAYLOAD_CACHE_CAPACITY, true, payload -> 0L);
+
+        SplittableRandom random = new SplittableRandom(1337L);
+        byte[] a = new byte[TilePayloadCache.MIN_PAYLOAD_SIZE + 16];
+        byte[] b = new byte[TilePayloadCache.MIN_PAYLOAD_SIZE + 32];
+        random.nextBytes(a);
+        random.nextBytes(b);
+
+        //payloads with different lengths replace each other on both sides instead of being sent as references
+        byte[][] payloads = { a, b, a, a };
+        boolean[] references = { false, false, false, true };
+        for (int i = 0; i < payloads.length; i++) {
+            TileSnapshot<VoxelPos, VoxelTile> tile = new TileSnapshot<>(new VoxelPos(0, i, 0, 0), 0L, payloads[i]);
+
+            ByteBuf packet = ByteBufAllocator.DEFAULT.buffer();
+            try {
+                SPacketTileBatch sent = new SPacketTileBatch().mode(mode).tiles(new ArrayList<>(Collections.singletonList(tile))).deduplicate(serverCache);
+                checkState((sent.references()[0] != null) == references[i], "tile %d: unexpected reference state", i);
+                sent.toBytes(packet);
+
+                SPacketTileBatch decoded = new SPacketTileBatch();
+                decoded.fromBytes(packet);
+                decoded.resolveReferences(clientCache);
+                checkEquals(tile, decoded.tiles().get(0));
+            } finally {
+                packet.release();
+            }
+        }
+        checkState(serverCache.count() == 1 && clientCache.count() == 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReferenceLengthMismatch() {
+        TilePayloadCache clientCache = new TilePayloadCache(PAYLOAD_CACHE_CAPACITY, true, payload -> 0L);
+        byte[] payload = new byte[TilePayloadCache.MIN_PAYLOAD_SIZE];
+        clientCache.received(new TileSnapshot<>(new VoxelPos(0, 0, 0, 0), 0L, payload));
+
+        //the server thinks the client holds a different payload with the same hash
+        clientCache.resolve(new VoxelPos(0, 1, 0, 0), 0L, new TilePayloadCache.Reference(0L, payload.length + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOversizedFrame() {
+        ByteBuf packet = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            writeString(packet, "voxel");
+            packet.writeBoolean(false);
+
+            //a Zstd frame header which claims that the frame's content is 1 GiB
+            packet.writeIntLE(0xFD2FB528); //magic number
+            packet.writeByte(0b10100000); //single segment, 4-byte content size
+            packet.writeIntLE(1 << 30);
+            packet.writeZero(16);
+
+            new SPacketTileBatch().fromBytes(packet);
+        } finally {
+            packet.release();
+        }
+    }
+
+    @Test
+    public void testVoxel() {
+        testRoundTrip("voxel", TileBatchTest::voxelTile);
+    }
+
+    @Test
+    public void testHeightmap() {
+        testRoundTrip("heightmap", TileBatchTest::heightmapTile);
+    }
+}
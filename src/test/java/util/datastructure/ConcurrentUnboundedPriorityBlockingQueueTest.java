@@ -0,0 +1,161 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.datastructure;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.util.datastructure.ConcurrentUnboundedPriorityBlockingQueue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks the waiting behavior of {@link ConcurrentUnboundedPriorityBlockingQueue} by counting how many times waiting threads are woken up, rather than by
+ * measuring time.
+ *
+ * @author DaPorkchop_
+ */
+public class ConcurrentUnboundedPriorityBlockingQueueTest {
+    protected static final int WAITERS = 4;
+    protected static final int ELEMENTS = 1000;
+
+    protected static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10L);
+
+    protected static Thread startWaiter(ConcurrentUnboundedPriorityBlockingQueue<Long> queue, long bound, AtomicLong received, CountDownLatch done) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Long value = queue.pollLess(bound, 10L, TimeUnit.SECONDS);
+                    if (value != null) {
+                        checkState(value < bound, "received %s, but was waiting for something less than %s", value, bound);
+                        received.set(value);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //exit quietly
+            } finally {
+                done.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Waits until the given condition becomes true, failing if it takes longer than {@link #TIMEOUT}.
+     */
+    protected static void awaitCondition(@NonNull String description, @NonNull Condition condition) {
+        for (long deadline = System.nanoTime() + TIMEOUT; !condition.test(); ) {
+            checkState(deadline - System.nanoTime() > 0L, "timed out waiting until %s", description);
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void testWakeup() throws InterruptedException {
+        CountingQueue queue = new CountingQueue();
+        AtomicLong received = new AtomicLong(-1L);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = startWaiter(queue, Long.MAX_VALUE, received, done);
+
+        try {
+            for (long i = 0L; i < 10L; i++) {
+                awaitCondition("the waiter is waiting", () -> queue.waiterCount() == 1);
+                int unparks = queue.unparks.get();
+
+                long value = i;
+                queue.add(value);
+                awaitCondition("the waiter received the element", () -> received.get() == value);
+                checkState(queue.unparks.get() == unparks + 1, "adding an element woke up the waiter %d times", queue.unparks.get() - unparks);
+            }
+        } finally {
+            waiter.interrupt();
+            done.await();
+        }
+    }
+
+    @Test
+    public void testSelectiveWakeup() throws InterruptedException {
+        CountingQueue queue = new CountingQueue();
+        AtomicLong[] receivedCounters = new AtomicLong[WAITERS];
+        CountDownLatch done = new CountDownLatch(WAITERS);
+        Thread[] waiters = new Thread[WAITERS];
+
+        //every waiter is waiting for something less than 0, so none of them should ever be woken up by the elements added below
+        for (int i = 0; i < WAITERS; i++) {
+            waiters[i] = startWaiter(queue, 0L, receivedCounters[i] = new AtomicLong(-1L), done);
+        }
+
+        try {
+            awaitCondition("all waiters are waiting", () -> queue.waiterCount() == WAITERS);
+
+            for (long i = 1L; i <= ELEMENTS; i++) {
+                queue.add(i);
+            }
+            checkState(queue.unparks.get() == 0, "waiters were woken up %d times by elements they can't take", queue.unparks.get());
+
+            //now add an element which is small enough, exactly one of the waiters should take it
+            queue.add(Long.MIN_VALUE);
+            awaitCondition("a waiter received the element", () -> Arrays.stream(receivedCounters).anyMatch(counter -> counter.get() == Long.MIN_VALUE));
+            long receivers = Arrays.stream(receivedCounters).filter(counter -> counter.get() == Long.MIN_VALUE).count();
+            checkState(receivers == 1L, "%d waiters received the same element", receivers);
+            checkState(queue.size() == ELEMENTS, "waiters took elements they weren't waiting for");
+        } finally {
+            for (Thread waiter : waiters) {
+                waiter.interrupt();
+            }
+            done.await();
+        }
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    protected interface Condition {
+        boolean test();
+    }
+
+    /**
+     * A {@link ConcurrentUnboundedPriorityBlockingQueue} which counts how many times it has woken up a waiting thread.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class CountingQueue extends ConcurrentUnboundedPriorityBlockingQueue<Long> {
+        protected final AtomicInteger unparks = new AtomicInteger();
+
+        public int waiterCount() {
+            return this.waiters.size();
+        }
+
+        @Override
+        protected void unpark(@NonNull Thread thread) {
+            this.unparks.incrementAndGet();
+            super.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.math;
+
+import net.daporkchop.fp2.util.math.XXHash64;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class XXHash64Test {
+    protected static void check(String input, long expected) {
+        long hash = XXHash64.hash(input.getBytes(StandardCharsets.UTF_8));
+        checkState(hash == expected, "\"%s\": expected %s, got %s", input, Long.toHexString(expected), Long.toHexString(hash));
+    }
+
+    @Test
+    public void testReferenceValues() {
+        check("", 0xEF46DB3751D8E999L);
+        check("a", 0xD24EC4F1A98C6E5BL);
+        check("abc", 0x44BC2CF5AD770999L);
+        check("Nobody inspects the spammish repetition", 0xFBCEA83C8A378BF1L); //long enough to use the striped loop
+    }
+
+    @Test
+    public void testOffset() {
+        SplittableRandom random = new SplittableRandom(1337L);
+        for (int length = 0; length < 256; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            byte[] padded = new byte[length + 7];
+            System.arraycopy(data, 0, padded, 3, length);
+
+            checkState(XXHash64.hash(data) == XXHash64.hash(padded, 3, length, 0L), "length %d", length);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.stats;
+
+import net.daporkchop.fp2.util.stats.Histogram;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class HistogramTest {
+    protected static Histogram newHistogram() {
+        return new MetricsRegistry().histogram("test", "test histogram", 1.0d);
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        Histogram histogram = newHistogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+
+        checkState(histogram.count() == 50L);
+        checkState(histogram.sum() == 50L * 51L / 2L);
+        checkState(histogram.max() == 50L);
+        checkState(histogram.valueAtQuantile(0.0d) == 1L);
+        checkState(histogram.valueAtQuantile(0.5d) == 25L, histogram.valueAtQuantile(0.5d));
+        checkState(histogram.valueAtQuantile(1.0d) == 50L);
+    }
+
+    @Test
+    public void testQuantileAccuracy() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+
+        for (int round = 0; round < 16; round++) {
+            Histogram histogram = newHistogram();
+
+            //log-uniform distribution, so that every order of magnitude is exercised
+            long[] values = new long[10000];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (long) pow(2.0d, r.nextDouble(0.0d, 40.0d));
+                histogram.record(values[i]);
+            }
+            Arrays.sort(values);
+
+            checkState(histogram.count() == values.length);
+            checkState(histogram.sum() == Arrays.stream(values).sum());
+            checkState(histogram.max() == values[values.length - 1]);
+
+            for (double quantile : new double[]{ 0.01d, 0.1d, 0.5d, 0.9d, 0.99d, 0.999d, 1.0d }) {
+                long expected = values[max((int) ceil(quantile * values.length), 1) - 1];
+                long actual = histogram.valueAtQuantile(quantile);
+
+                checkState(abs(actual - expected) <= max(expected / 64L, 1L), "quantile %s: expected %d, got %d", quantile, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testLargeValuesClamped() {
+        Histogram histogram = newHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        checkState(histogram.count() == 1L);
+        checkState(histogram.valueAtQuantile(0.5d) <= Long.MAX_VALUE);
+        checkState(histogram.valueAtQuantile(0.5d) >= Histogram.MAX_TRACKABLE_VALUE - (Histogram.MAX_TRACKABLE_VALUE >> 6L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValue() {
+        newHistogram().record(-1L);
+    }
+
+    @Test
+    public void testConcurrentRecording() {
+        Histogram histogram = newHistogram();
+
+        int threads = 8;
+        int valuesPerThread = 100000;
+
+        CompletableFuture.allOf(IntStream.range(0, threads)
+                .mapToObj(t -> CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < valuesPerThread; i++) {
+                        histogram.record(i);
+                    }
+                }))
+                .toArray(CompletableFuture[]::new)).join();
+
+        checkState(histogram.count() == (long) threads * valuesPerThread, histogram.count());
+        checkState(histogram.sum() == (long) threads * ((long) valuesPerThread * (valuesPerThread - 1L) / 2L), histogram.sum());
+        checkState(histogram.max() == valuesPerThread - 1L, histogram.max());
+
+        long median = histogram.valueAtQuantile(0.5d);
+        checkState(abs(median - valuesPerThread / 2L) <= valuesPerThread / 64L, median);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2021 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package util.stats;
+
+import net.daporkchop.fp2.util.stats.Counter;
+import net.daporkchop.fp2.util.stats.Gauge;
+import net.daporkchop.fp2.util.stats.MetricsRegistry;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class MetricsRegistryTest {
+    @Test
+    public void testLookup() {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        checkState(registry.counter("a_total", "a") == registry.counter("a_total", "a"));
+        checkState(registry.counter("a_total", "a", "k", "v") != registry.counter("a_total", "a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeMismatch() {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        registry.counter("a", "a");
+        registry.gauge("a", "a");
+    }
+
+    @Test
+    public void testConcurrentCounter() {
+        Counter counter = new MetricsRegistry().counter("a_total", "a");
+
+        CompletableFuture.allOf(IntStream.range(0, 8)
+                .mapToObj(t -> CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 100000; i++) {
+                        counter.inc();
+                    }
+                }))
+                .toArray(CompletableFuture[]::new)).join();
+
+        checkState(counter.get() == 800000L, counter.get());
+    }
+
+    @Test
+    public void testPrometheusFormat() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry("dim", "0");
+
+        registry.counter("fp2_test_total", "A test counter", "op", "get").add(3L);
+        registry.counter("fp2_test_total", "A test counter", "op", "put").add(5L);
+
+        AtomicLong value = new AtomicLong(7L);
+        Gauge gauge = registry.gauge("fp2_test_gauge", "A test gauge", value::get);
+        checkState(gauge.get() == 7L);
+
+        registry.histogram("fp2_test_seconds", "A test histogram", MetricsRegistry.NANOS_TO_SECONDS).record(2_000_000_000L);
+
+        StringBuilder builder = new StringBuilder();
+        registry.writePrometheus(builder);
+        String text = builder.toString();
+
+        checkState(text.indexOf("# HELP fp2_test_total A test counter\n") == text.lastIndexOf("# HELP fp2_test_total "), text);
+        checkState(text.contains("# TYPE fp2_test_total counter\n"), text);
+        checkState(text.contains("fp2_test_total{dim=\"0\",op=\"get\"} 3"), text);
+        checkState(text.contains("fp2_test_total{dim=\"0\",op=\"put\"} 5"), text);
+        checkState(text.contains("# TYPE fp2_test_gauge gauge\n"), text);
+        checkState(text.contains("fp2_test_gauge{dim=\"0\"} 7"), text);
+        checkState(text.contains("# TYPE fp2_test_seconds summary\n"), text);
+        checkState(text.contains("fp2_test_seconds_count{dim=\"0\"} 1"), text);
+        checkState(text.contains("fp2_test_seconds{dim=\"0\",quantile=\"0.5\"} "), text);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.threading;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.util.threading.TickTimeController;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Feeds synthetic tick traces into a {@link TickTimeController} and checks the resulting parallelism.
+ *
+ * @author DaPorkchop_
+ */
+public class TickTimeControllerTest {
+    protected static final int MAX_PARALLELISM = 8;
+    protected static final int WINDOW = TickTimeController.DEFAULT_WINDOW;
+    protected static final long THRESHOLD = TimeUnit.MILLISECONDS.toNanos(45L);
+
+    protected static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Runs the given trace through the controller.
+     *
+     * @param controller the controller
+     * @param ticks      the number of ticks to run
+     * @param trace      a function which returns the duration of the given tick
+     * @return the parallelism after each tick
+     */
+    protected static int[] run(@NonNull TickTimeController controller, int ticks, @NonNull IntToLongFunction trace) {
+        int[] parallelism = new int[ticks];
+        for (int tick = 0; tick < ticks; tick++) {
+            parallelism[tick] = controller.tick(trace.applyAsLong(tick));
+        }
+        return parallelism;
+    }
+
+    @Test
+    public void testSteadyLoad() {
+        TickTimeController controller = new TickTimeController(MAX_PARALLELISM, THRESHOLD);
+        int[] parallelism = run(controller, 100 * WINDOW, tick -> millis(20L + tick % 7));
+
+        for (int tick = 0; tick < parallelism.length; tick++) {
+            checkState(parallelism[tick] == MAX_PARALLELISM, "parallelism was reduced to %d at tick %d", parallelism[tick], tick);
+        }
+    }
+
+    @Test
+    public void testIsolatedSpike() {
+        //a single very long tick (e.g. a garbage collection pause) shouldn't be enough to push the mean above the threshold
+        TickTimeController controller = new TickTimeController(MAX_PARALLELISM, THRESHOLD);
+        int[] parallelism = run(controller, 10 * WINDOW, tick -> tick == 5 * WINDOW ? millis(400L) : millis(20L));
+
+        for (int tick = 0; tick < parallelism.length; tick++) {
+            checkState(parallelism[tick] == MAX_PARALLELISM, "parallelism was reduced to %d at tick %d", parallelism[tick], tick);
+        }
+    }
+
+    @Test
+    public void testSustainedLag() {
+        TickTimeController controller = new TickTimeController(MAX_PARALLELISM, THRESHOLD);
+        int[] parallelism = run(controller, 20 * WINDOW, tick -> millis(80L));
+
+        //the parallelism is halved once per window until it reaches 1, and is never reduced any further than that
+        checkState(parallelism[WINDOW - 2] == MAX_PARALLELISM, "parallelism was reduced before the window was full");
+        checkState(parallelism[WINDOW - 1] == MAX_PARALLELISM >> 1, "parallelism wasn't halved: %d", parallelism[WINDOW - 1]);
+        checkState(parallelism[2 * WINDOW - 1] == MAX_PARALLELISM >> 2, "parallelism wasn't halved again: %d", parallelism[2 * WINDOW - 1]);
+        for (int tick = 4 * WINDOW; tick < parallelism.length; tick++) {
+            checkState(parallelism[tick] == 1, "parallelism was %d at tick %d", parallelism[tick], tick);
+        }
+    }
+
+    @Test
+    public void testRecovery() {
+        //the server lags for a while, then the lag goes away
+        int lagTicks = 10 * WINDOW;
+        TickTimeController controller = new TickTimeController(MAX_PARALLELISM, THRESHOLD);
+        int[] parallelism = run(controller, lagTicks + 20 * WINDOW, tick -> tick < lagTicks ? millis(100L) : millis(15L));
+
+        checkState(parallelism[lagTicks - 1] == 1, "parallelism wasn't reduced during lag: %d", parallelism[lagTicks - 1]);
+
+        //once the lag is gone, workers are added back one at a time
+        int lastChange = lagTicks;
+        for (int tick = lagTicks; tick < parallelism.length; tick++) {
+            int delta = parallelism[tick] - parallelism[tick - 1];
+            checkState(delta == 0 || delta == 1, "parallelism changed by %d at tick %d", delta, tick);
+            if (delta != 0) {
+                checkState(tick - lastChange >= WINDOW - 1, "parallelism increased twice within %d ticks", tick - lastChange);
+                lastChange = tick;
+            }
+        }
+        checkState(parallelism[parallelism.length - 1] == MAX_PARALLELISM, "parallelism didn't fully recover: %d", parallelism[parallelism.length - 1]);
+    }
+
+    @Test
+    public void testHysteresis() {
+        //reduce the parallelism with a short burst of lag, then keep the mean tick time between the two thresholds
+        int lagTicks = WINDOW;
+        TickTimeController controller = new TickTimeController(MAX_PARALLELISM, THRESHOLD);
+        int[] parallelism = run(controller, lagTicks + 50 * WINDOW, tick -> tick < lagTicks ? millis(60L) : millis(40L + (tick & 1) * 4L));
+
+        int reduced = parallelism[lagTicks - 1];
+        checkState(reduced < MAX_PARALLELISM, "parallelism wasn't reduced");
+
+        //the mean tick time is below the upper threshold but above the lower one, so the parallelism shouldn't move in either direction
+        for (int tick = lagTicks; tick < parallelism.length; tick++) {
+            checkState(parallelism[tick] == reduced, "parallelism changed from %d to %d at tick %d", reduced, parallelism[tick], tick);
+        }
+    }
+
+    @Test
+    public void testOscillatingLoad() {
+        //the server alternates between phases with and without lag. the controller should follow every phase in the right direction
+        int phaseTicks = 5 * WINDOW;
+        int phases = 10;
+        TickTimeController controller = new TickTimeController(MAX_PARALLELISM, THRESHOLD);
+        int[] parallelism = run(controller, phases * phaseTicks, tick -> (tick / phaseTicks) % 2 == 0 ? millis(25L) : millis(70L));
+
+        for (int phase = 1; phase < phases; phase++) {
+            int start = parallelism[phase * phaseTicks - 1];
+            int end = parallelism[(phase + 1) * phaseTicks - 1];
+            if ((phase & 1) != 0) { //lagging phase
+                checkState(end < start, "parallelism didn't decrease during lagging phase %d (%d -> %d)", phase, start, end);
+            } else { //idle phase
+                checkState(end > start, "parallelism didn't increase during idle phase %d (%d -> %d)", phase, start, end);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.threading.scheduler;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.util.threading.scheduler.ConcurrentBucketQueue;
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * @author DaPorkchop_
+ */
+public class ConcurrentBucketQueueTest {
+    protected static final int PRIORITIES = 66; //more than fit into a single bitmap word
+
+    @Test
+    public void testOrdering() {
+        ConcurrentBucketQueue<int[]> queue = new ConcurrentBucketQueue<>(PRIORITIES, e -> e[0]);
+
+        SplittableRandom r = new SplittableRandom(1337L);
+        for (int i = 0; i < 10000; i++) {
+            queue.add(new int[]{ r.nextInt(PRIORITIES), i });
+        }
+        checkState(queue.size() == 10000);
+
+        //elements must come out sorted by priority, and in insertion order within the same priority
+        int[] prev = queue.poll();
+        for (int[] value; (value = queue.poll()) != null; prev = value) {
+            checkState(prev[0] < value[0] || (prev[0] == value[0] && prev[1] < value[1]), "(%d, %d) was returned after (%d, %d)", value[0], value[1], prev[0], prev[1]);
+        }
+        checkState(queue.isEmpty() && queue.size() == 0);
+    }
+
+    @Test
+    public void testPollLess() {
+        ConcurrentBucketQueue<int[]> queue = new ConcurrentBucketQueue<>(PRIORITIES, e -> e[0]);
+        int[] low = { 3 };
+        int[] high = { 65 };
+        queue.add(high);
+        queue.add(low);
+
+        checkState(queue.pollLess(new int[]{ 3 }) == null);
+        checkState(queue.pollLess(new int[]{ 4 }) == low);
+        checkState(queue.pollLess(new int[]{ 65 }) == null);
+        checkState(queue.remove(high));
+        checkState(queue.isEmpty());
+    }
+
+    @Test
+    public void testPriorityChange() {
+        ConcurrentBucketQueue<int[]> queue = new ConcurrentBucketQueue<>(PRIORITIES, e -> e[0]);
+        int[] moved = { 60 };
+        int[] other = { 30 };
+        queue.add(moved);
+        queue.add(other);
+
+        //move the element to a higher priority by adding it again, it must be returned first and only once
+        moved[0] = 10;
+        queue.add(moved);
+        checkState(queue.poll() == moved);
+        checkState(queue.poll() == other);
+        checkState(queue.poll() == null, "stale copy was returned");
+        checkState(queue.size() == 0);
+
+        //move an element back and forth, only the copy in its current bucket may be returned
+        int[] element = { 20 };
+        queue.add(element);
+        element[0] = 40;
+        queue.add(element);
+        checkState(queue.pollLess(new int[]{ 30 }) == null, "stale copy was returned");
+        checkState(queue.poll() == element);
+        checkState(queue.poll() == null);
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 100000;
+
+        ConcurrentBucketQueue<int[]> queue = new ConcurrentBucketQueue<>(PRIORITIES, e -> e[0]);
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+
+        for (int i = 0; i < producers; i++) {
+            long seed = i;
+            new Thread(() -> {
+                SplittableRandom r = new SplittableRandom(seed);
+                for (int j = 0; j < perProducer; j++) {
+                    queue.add(new int[]{ r.nextInt(PRIORITIES) });
+                }
+                done.countDown();
+            }).start();
+        }
+
+        for (int i = 0; i < consumers; i++) {
+            //odd consumers only wait for elements in the lower half of the priority range
+            int[] bound = { (i & 1) == 0 ? PRIORITIES : PRIORITIES >> 1 };
+            new Thread(() -> {
+                try {
+                    while (consumed.get() < producers * perProducer) {
+                        int[] value = bound[0] == PRIORITIES ? queue.poll(100L, TimeUnit.MILLISECONDS) : queue.pollLess(bound, 100L, TimeUnit.MILLISECONDS);
+                        if (value != null) {
+                            checkState(value[0] < bound[0], "received priority %d while waiting for something below %d", value[0], bound[0]);
+                            consumed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        checkState(done.await(30L, TimeUnit.SECONDS), "timed out");
+        checkState(consumed.get() == producers * perProducer);
+        checkState(queue.isEmpty());
+    }
+
+    @Test
+    public void testTargetedWakeup() throws InterruptedException {
+        int waiters = 4;
+        int elements = 1000;
+        long timeout = TimeUnit.SECONDS.toNanos(10L);
+
+        CountingQueue queue = new CountingQueue(PRIORITIES);
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(waiters);
+        Thread[] threads = new Thread[waiters];
+
+        //every waiter is waiting for an element with priority 0
+        for (int i = 0; i < waiters; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        int[] value = queue.pollLess(new int[]{ 1 }, 10L, TimeUnit.SECONDS);
+                        if (value != null) {
+                            checkState(value[0] == 0, "received priority %d while waiting for something below 1", value[0]);
+                            received.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    //exit quietly
+                } finally {
+                    done.countDown();
+                }
+            });
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        try {
+            for (long deadline = System.nanoTime() + timeout; queue.waiterCount(1) != waiters; Thread.yield()) {
+                checkState(deadline - System.nanoTime() > 0L, "timed out waiting for the waiters to start waiting");
+            }
+
+            //none of these elements can be taken by any of the waiters, so none of them should be woken up
+            SplittableRandom r = new SplittableRandom(1337L);
+            for (int i = 0; i < elements; i++) {
+                queue.add(new int[]{ r.nextInt(1, PRIORITIES) });
+            }
+            checkState(queue.unparks.get() == 0, "waiters were woken up %d times by elements they can't take", queue.unparks.get());
+
+            //exactly one waiter should be woken up to take this one
+            queue.add(new int[]{ 0 });
+            for (long deadline = System.nanoTime() + timeout; received.get() == 0; Thread.yield()) {
+                checkState(deadline - System.nanoTime() > 0L, "timed out waiting for the element to be taken");
+            }
+            checkState(queue.unparks.get() == 1, "adding a single element woke up %d waiters", queue.unparks.get());
+            checkState(queue.size() == elements, "waiters took elements they weren't waiting for");
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            done.await();
+        }
+    }
+
+    /**
+     * A {@link ConcurrentBucketQueue} which counts how many times it has woken up a waiting thread.
+     *
+     * @author DaPorkchop_
+     */
+    protected static class CountingQueue extends ConcurrentBucketQueue<int[]> {
+        protected final AtomicInteger unparks = new AtomicInteger();
+
+        public CountingQueue(int priorities) {
+            super(priorities, e -> e[0]);
+        }
+
+        public int waiterCount(int limit) {
+            return this.waiters[limit].size();
+        }
+
+        @Override
+        protected void unpark(@NonNull Thread thread) {
+            this.unparks.incrementAndGet();
+            super.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.threading.scheduler;
+
+import lombok.Data;
+import lombok.NonNull;
+import net.daporkchop.fp2.util.threading.scheduler.ApproximatelyPrioritizedSharedFutureScheduler;
+import net.daporkchop.fp2.util.threading.scheduler.Scheduler;
+import org.junit.Test;
+import util.threading.workergroup.TestWorkerGroupBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks that {@link Scheduler#dependOn(List)} executes a graph of synthetic "scaling" tasks bottom-up without any worker thread ever waiting inside of a task, and
+ * that the results are identical to those produced by recursing with {@link Scheduler#scatterGather(List)}.
+ * <p>
+ * Each node's inputs overlap with those of its neighbors (like those of a real tile scaler), so the graph is a DAG rather than a tree.
+ *
+ * @author DaPorkchop_
+ */
+public class DependencyGraphTest {
+    protected static final int THREADS = 2;
+    protected static final int LEVELS = 8;
+    protected static final int ROOTS = 4;
+
+    protected static long leafValue(int x) {
+        return x * 0x9E3779B97F4A7C15L;
+    }
+
+    protected static List<Node> inputs(@NonNull Node node) {
+        return IntStream.rangeClosed(node.x * 2, node.x * 2 + 2).mapToObj(x -> new Node(node.level - 1, x)).collect(Collectors.toList());
+    }
+
+    protected static long combine(@NonNull List<Long> inputs) {
+        long value = 0L;
+        for (long input : inputs) {
+            value = value * 31L + input;
+        }
+        return value;
+    }
+
+    /**
+     * Computes the value of a node directly on the calling thread.
+     */
+    protected static long expected(@NonNull Node node) {
+        return node.level == 0 ? leafValue(node.x) : combine(inputs(node).stream().map(DependencyGraphTest::expected).collect(Collectors.toList()));
+    }
+
+    protected static Map<Node, Long> run(boolean useDependOn, @NonNull AtomicInteger maxDepth) throws Exception {
+        Map<Node, Long> storage = new ConcurrentHashMap<>();
+        run(useDependOn, maxDepth, storage, new ConcurrentHashMap<>());
+        return storage;
+    }
+
+    protected static void run(boolean useDependOn, @NonNull AtomicInteger maxDepth, @NonNull Map<Node, Long> storage, @NonNull Map<Node, AtomicInteger> executions) throws Exception {
+        ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+        Function<Scheduler<Node, Long>, Function<Node, Long>> functionFactory = scheduler -> node -> {
+            int[] currentDepth = depth.get();
+            maxDepth.accumulateAndGet(++currentDepth[0], Math::max);
+            executions.computeIfAbsent(node, n -> new AtomicInteger()).incrementAndGet();
+            try {
+                Long existing = storage.get(node);
+                if (existing != null) { //the node has already been computed
+                    return existing;
+                }
+
+                long value;
+                if (node.level == 0) {
+                    value = leafValue(node.x);
+                } else if (useDependOn) {
+                    //only depend on inputs which haven't been computed yet, like a real scale task does
+                    List<Node> inputs = inputs(node);
+                    scheduler.dependOn(inputs.stream().filter(input -> !storage.containsKey(input)).collect(Collectors.toList()));
+                    value = combine(inputs.stream().map(storage::get).collect(Collectors.toList()));
+                } else {
+                    value = combine(scheduler.scatterGather(inputs(node)));
+                }
+
+                //each node may only be computed once, the scheduler must deduplicate requests for nodes which are already queued or being computed
+                checkState(storage.putIfAbsent(node, value) == null, "%s was computed twice", node);
+                return value;
+            } finally {
+                currentDepth[0]--;
+            }
+        };
+
+        ApproximatelyPrioritizedSharedFutureScheduler<Node, Long> scheduler = new ApproximatelyPrioritizedSharedFutureScheduler<>(
+                functionFactory, new TestWorkerGroupBuilder().threads(THREADS), Node::level, LEVELS + 1);
+        try {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int x = 0; x < ROOTS; x++) {
+                futures.add(scheduler.schedule(new Node(LEVELS, x)));
+            }
+            for (int x = 0; x < ROOTS; x++) {
+                checkState(futures.get(x).get(30L, TimeUnit.SECONDS) == expected(new Node(LEVELS, x)), "root %d has the wrong value", x);
+            }
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testDependOn() throws Exception {
+        AtomicInteger maxDepth = new AtomicInteger();
+        Map<Node, Long> storage = run(true, maxDepth);
+
+        //no task was ever executed while another one was waiting on the same thread
+        checkState(maxDepth.get() == 1, "tasks were nested %d deep", maxDepth.get());
+
+        //every node in the graph was computed
+        int expectedNodes = 0;
+        for (int level = 0, width = ROOTS; level <= LEVELS; level++, width = width * 2 + 1) {
+            expectedNodes += width;
+        }
+        checkState(storage.size() == expectedNodes, "expected %d nodes, found %d", expectedNodes, storage.size());
+    }
+
+    @Test
+    public void testMatchesRecursive() throws Exception {
+        AtomicInteger recursiveDepth = new AtomicInteger();
+        Map<Node, Long> recursive = run(false, recursiveDepth);
+        checkState(recursiveDepth.get() > 1, "recursive path didn't nest?!?");
+
+        Map<Node, Long> dependOn = run(true, new AtomicInteger());
+        checkState(recursive.equals(dependOn), "results differ");
+    }
+
+    @Test
+    public void testUpToDateInputs() throws Exception {
+        //compute all of the roots' inputs in advance
+        Map<Node, Long> storage = new ConcurrentHashMap<>();
+        for (int x = 0; x < ROOTS * 2 + 1; x++) {
+            Node input = new Node(LEVELS - 1, x);
+            storage.put(input, expected(input));
+        }
+        int precomputed = storage.size();
+
+        Map<Node, AtomicInteger> executions = new ConcurrentHashMap<>();
+        run(true, new AtomicInteger(), storage, executions);
+
+        //each root was executed exactly once without being suspended, and none of their inputs were scheduled
+        checkState(executions.size() == ROOTS, "expected %d tasks to be executed, found %d", ROOTS, executions.size());
+        executions.forEach((node, count) -> checkState(node.level == LEVELS && count.get() == 1, "%s was executed %d times", node, count.get()));
+        checkState(storage.size() == precomputed + ROOTS, "expected %d nodes, found %d", precomputed + ROOTS, storage.size());
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @Data
+    protected static final class Node {
+        protected final int level;
+        protected final int x;
+    }
+}
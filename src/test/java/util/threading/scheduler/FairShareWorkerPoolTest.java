@@ -0,0 +1,325 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.threading.scheduler;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import net.daporkchop.fp2.util.threading.scheduler.FairShareWorkerPool;
+import net.daporkchop.lib.common.misc.string.PStrings;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.Math.*;
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * Checks the fairness and throughput of {@link FairShareWorkerPool} using synthetic tasks.
+ *
+ * @author DaPorkchop_
+ */
+public class FairShareWorkerPoolTest {
+    protected static final int THREADS = min(Runtime.getRuntime().availableProcessors(), 2); //using more threads than there are CPUs would skew the measurements
+    protected static final long TASK_DURATION = TimeUnit.MICROSECONDS.toNanos(200L);
+    protected static final long TEST_DURATION = TimeUnit.SECONDS.toNanos(2L);
+
+    protected static void spin(long nanos) {
+        for (long end = System.nanoTime() + nanos; System.nanoTime() < end; ) {
+            Thread.yield();
+        }
+    }
+
+    protected static void sleep(long nanos) {
+        try {
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(nanos));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testFairness() {
+        int[] weights = { 1, 2, 5 };
+
+        FairShareWorkerPool pool = new FairShareWorkerPool(THREADS, Thread::new);
+        try {
+            SyntheticSource[] sources = new SyntheticSource[weights.length];
+            FairShareWorkerPool.Registration[] registrations = new FairShareWorkerPool.Registration[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                sources[i] = new SyntheticSource(weights[i], Integer.MAX_VALUE);
+                registrations[i] = pool.register(sources[i]);
+                registrations[i].signal();
+            }
+
+            sleep(TEST_DURATION);
+
+            for (FairShareWorkerPool.Registration registration : registrations) {
+                registration.close();
+            }
+
+            long totalWeight = 0L;
+            long totalTime = 0L;
+            for (SyntheticSource source : sources) {
+                totalWeight += source.weight;
+                totalTime += source.executionTime.get();
+            }
+
+            for (SyntheticSource source : sources) {
+                double expectedShare = source.weight / (double) totalWeight;
+                double actualShare = source.executionTime.get() / (double) totalTime;
+                checkState(abs(actualShare - expectedShare) < expectedShare * 0.2d,
+                        "source with weight %d received %.3f of execution time (expected %.3f)", source.weight, actualShare, expectedShare);
+            }
+
+            //the pool should have been busy for (almost) the entire duration of the test
+            double utilization = totalTime / (double) (TEST_DURATION * THREADS);
+            checkState(utilization > 0.7d, "utilization was only %.3f", utilization);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testWorkConserving() {
+        FairShareWorkerPool pool = new FairShareWorkerPool(THREADS, Thread::new);
+        try {
+            //the light source has a much lower weight, but it's the only one with any work to do so it should get the entire pool to itself
+            SyntheticSource idle = new SyntheticSource(100, 0);
+            SyntheticSource light = new SyntheticSource(1, Integer.MAX_VALUE);
+            FairShareWorkerPool.Registration idleRegistration = pool.register(idle);
+            FairShareWorkerPool.Registration lightRegistration = pool.register(light);
+            lightRegistration.signal();
+
+            sleep(TEST_DURATION);
+
+            lightRegistration.close();
+            idleRegistration.close();
+
+            double utilization = light.executionTime.get() / (double) (TEST_DURATION * THREADS);
+            checkState(utilization > 0.7d, "utilization was only %.3f", utilization);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testWakeup() {
+        FairShareWorkerPool pool = new FairShareWorkerPool(THREADS, Thread::new);
+        try {
+            SyntheticSource source = new SyntheticSource(1, 0);
+            FairShareWorkerPool.Registration registration = pool.register(source);
+
+            //give the workers time to go to sleep
+            sleep(TimeUnit.MILLISECONDS.toNanos(100L));
+
+            for (int round = 0; round < 100; round++) {
+                long startTime = System.nanoTime();
+                source.remaining.set(10);
+                registration.signal();
+
+                while (source.remaining.get() > 0) {
+                    checkState(System.nanoTime() - startTime < TimeUnit.MILLISECONDS.toNanos(500L), "workers didn't wake up in time (round %d)", round);
+                    Thread.yield();
+                }
+            }
+
+            registration.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    protected static void awaitCondition(@NonNull String description, @NonNull BooleanSupplier condition) {
+        for (long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L); !condition.getAsBoolean(); Thread.yield()) {
+            checkState(deadline - System.nanoTime() > 0L, "timed out waiting until %s", description);
+        }
+    }
+
+    @Test
+    public void testParallelism() {
+        int threads = 4;
+        FairShareWorkerPool pool = new FairShareWorkerPool(threads, Thread::new);
+        try {
+            //the tasks sleep instead of spinning, so that all of the workers can be busy at once no matter how many CPUs there are
+            AtomicInteger concurrency = new AtomicInteger();
+            AtomicInteger maxConcurrency = new AtomicInteger();
+            AtomicInteger completed = new AtomicInteger();
+            FairShareWorkerPool.Registration registration = pool.register(new FairShareWorkerPool.TaskSource() {
+                @Override
+                public int weight() {
+                    return 1;
+                }
+
+                @Override
+                public boolean hasQueuedTasks() {
+                    return true;
+                }
+
+                @Override
+                public void executeQueuedTask() {
+                    maxConcurrency.accumulateAndGet(concurrency.incrementAndGet(), Math::max);
+                    sleep(TimeUnit.MILLISECONDS.toNanos(2L));
+                    concurrency.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+            registration.signal();
+
+            for (int parallelism : new int[]{ 2, threads, 1, 3 }) {
+                pool.parallelism(parallelism);
+
+                //wait for workers which were busy when the parallelism was changed to finish their current tasks
+                int completedBeforeChange = completed.get();
+                awaitCondition(PStrings.fastFormat("workers in excess of parallelism %d are parked", parallelism),
+                        () -> concurrency.get() <= parallelism && completed.get() - completedBeforeChange >= threads);
+                maxConcurrency.set(0);
+
+                //the pool should eventually reach the new parallelism, and must never exceed it while doing so
+                awaitCondition(PStrings.fastFormat("parallelism %d is reached", parallelism), () -> maxConcurrency.get() >= parallelism);
+                int completedAtParallelism = completed.get();
+                awaitCondition("more tasks have been executed", () -> completed.get() - completedAtParallelism >= threads * 10);
+
+                checkState(maxConcurrency.get() <= parallelism, "parallelism %d: up to %d workers were active at once", parallelism, maxConcurrency.get());
+            }
+
+            registration.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testAwaitHelping() {
+        FairShareWorkerPool pool = new FairShareWorkerPool(2, Thread::new);
+        try {
+            //with a parallelism of 1, the waiting task has to give up its slot for the task it's waiting on to be able to run at all
+            pool.parallelism(1);
+
+            AtomicInteger concurrency = new AtomicInteger();
+            AtomicInteger maxConcurrency = new AtomicInteger();
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            CompletableFuture<Void> waiterDone = new CompletableFuture<>();
+
+            AtomicInteger completerTasks = new AtomicInteger();
+            FairShareWorkerPool.Registration completer = pool.register(new FairShareWorkerPool.TaskSource() {
+                @Override
+                public int weight() {
+                    return 1;
+                }
+
+                @Override
+                public boolean hasQueuedTasks() {
+                    return completerTasks.get() > 0;
+                }
+
+                @Override
+                public void executeQueuedTask() {
+                    if (completerTasks.getAndDecrement() > 0) {
+                        maxConcurrency.accumulateAndGet(concurrency.incrementAndGet(), Math::max);
+                        future.complete(null);
+                        concurrency.decrementAndGet();
+                    }
+                }
+            });
+
+            AtomicInteger waiterTasks = new AtomicInteger(1);
+            FairShareWorkerPool.Registration[] waiter = new FairShareWorkerPool.Registration[1];
+            waiter[0] = pool.register(new FairShareWorkerPool.TaskSource() {
+                @Override
+                public int weight() {
+                    return 1;
+                }
+
+                @Override
+                public boolean hasQueuedTasks() {
+                    return waiterTasks.get() > 0;
+                }
+
+                @Override
+                public void executeQueuedTask() {
+                    if (waiterTasks.getAndDecrement() > 0) {
+                        maxConcurrency.accumulateAndGet(concurrency.incrementAndGet(), Math::max);
+                        try {
+                            //the task we're waiting for is only queued once we've started waiting
+                            completerTasks.set(1);
+                            completer.signal();
+
+                            concurrency.decrementAndGet(); //we aren't doing anything while waiting
+                            waiter[0].awaitHelping(future);
+                            maxConcurrency.accumulateAndGet(concurrency.incrementAndGet(), Math::max);
+                        } finally {
+                            concurrency.decrementAndGet();
+                        }
+                        waiterDone.complete(null);
+                    }
+                }
+            });
+            waiter[0].signal();
+
+            awaitCondition("the waiting task is completed", waiterDone::isDone);
+            checkState(future.isDone());
+            checkState(maxConcurrency.get() <= 1, "up to %d workers were active at once", maxConcurrency.get());
+
+            waiter[0].close();
+            completer.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static class SyntheticSource implements FairShareWorkerPool.TaskSource {
+        protected final int weight;
+        @NonNull
+        protected final AtomicInteger remaining;
+        protected final AtomicLong executionTime = new AtomicLong();
+
+        public SyntheticSource(int weight, int tasks) {
+            this(weight, new AtomicInteger(tasks));
+        }
+
+        @Override
+        public int weight() {
+            return this.weight;
+        }
+
+        @Override
+        public boolean hasQueuedTasks() {
+            return this.remaining.get() > 0;
+        }
+
+        @Override
+        public void executeQueuedTask() {
+            if (this.remaining.getAndUpdate(i -> i == Integer.MAX_VALUE ? i : max(i - 1, 0)) > 0) {
+                long startTime = System.nanoTime();
+                spin(TASK_DURATION);
+                this.executionTime.addAndGet(System.nanoTime() - startTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2020-2022 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package util.threading.workergroup;
+
+import lombok.NonNull;
+import net.daporkchop.fp2.util.threading.futureexecutor.FutureExecutor;
+import net.daporkchop.fp2.util.threading.workergroup.WorkerGroupBuilder;
+import net.daporkchop.fp2.util.threading.workergroup.WorldWorkerGroup;
+import net.daporkchop.lib.unsafe.util.AbstractReleasable;
+import net.minecraft.world.World;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static net.daporkchop.lib.common.util.PValidation.*;
+
+/**
+ * A {@link WorkerGroupBuilder} for use in tests, which builds worker groups that don't belong to a world.
+ * <p>
+ * Borrowed worker groups are not supported.
+ *
+ * @author DaPorkchop_
+ */
+public class TestWorkerGroupBuilder extends WorkerGroupBuilder {
+    @Override
+    public WorldWorkerGroup build(@NonNull Runnable task) {
+        positive(this.threads, "threads");
+        return new TestWorkerGroup(this.threads, this.threadFactory, task);
+    }
+
+    @Override
+    public WorldWorkerGroup buildBorrowed() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * A {@link WorldWorkerGroup} which doesn't belong to a world.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class TestWorkerGroup extends AbstractReleasable implements WorldWorkerGroup {
+        protected final List<Thread> threads;
+
+        public TestWorkerGroup(int threads, @NonNull ThreadFactory threadFactory, @NonNull Runnable task) {
+            this.threads = IntStream.range(0, threads).mapToObj(i -> threadFactory.newThread(task)).collect(Collectors.toList());
+            this.threads.forEach(Thread::start);
+        }
+
+        @Override
+        public World world() {
+            return null;
+        }
+
+        @Override
+        public Collection<Thread> threads() {
+            return this.threads;
+        }
+
+        @Override
+        public FutureExecutor worldExecutor() {
+            return null;
+        }
+
+        @Override
+        protected void doRelease() {
+            for (Thread thread : this.threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+}